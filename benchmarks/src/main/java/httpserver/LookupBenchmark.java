@@ -0,0 +1,129 @@
+package httpserver;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the per-response lookups and rendering: the content type of a file, and the assembly of a 200 head with
+ * validators into the reused direct buffer.
+ * @author kmatassa
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark {
+  /**
+   * File looked up, relative to the docroot.
+   */
+  @Param({"helloworld.html", "foo/introducing_cairngorm.pdf", "foo/lorem.txt", "unknown.xyz"})
+  public String path;
+  /**
+   * Content types, as loaded by the server.
+   */
+  private MimeTypes mimeTypes;
+  /**
+   * The docroot, indexed as by the server.
+   */
+  private DocRootIndex index;
+  /**
+   * The file looked up.
+   */
+  private File file;
+  /**
+   * Reused head builder, as in a connection's response batch.
+   */
+  private final ResponseHead head = new ResponseHead();
+  /**
+   * Request whose version selects the status line.
+   */
+  private final RequestParser request = new RequestParser();
+  /**
+   * Entity tag of the file.
+   */
+  private String etag;
+  /**
+   * Last-Modified value of the file.
+   */
+  private String lastModified;
+
+  /**
+   * Loads the tables, index and validators once.
+   * @throws IOException if the docroot cannot be indexed.
+   */
+  @Setup(Level.Trial)
+  public final void setUp() throws IOException {
+    File root = new File("src/main/resources/files");
+    mimeTypes = new MimeTypes(root, null, null);
+    index = new DocRootIndex(root, mimeTypes);
+    file = new File(root, path);
+    request.setVersion("HTTP/1.1");
+    etag = ConditionalGet.etag(file.length(), file.lastModified());
+    lastModified = ConditionalGet.httpDate(file.lastModified());
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @TearDown(Level.Trial)
+  public final void tearDown() throws IOException {
+    index.close();
+  }
+
+  /**
+   * @return DocRootIndex.Entry the file requested, or null if not found.
+   * @throws IOException never, the paths being within the docroot
+   */
+  @Benchmark
+  public final DocRootIndex.Entry resolve() throws IOException {
+    try {
+      return index.lookup("/" + path);
+    } catch (FileNotFoundException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return String the content type.
+   */
+  @Benchmark
+  public final String contentType() {
+    return mimeTypes.getContentType(file);
+  }
+
+  /**
+   * @return int bytes in the head.
+   */
+  @Benchmark
+  public final int renderHead() {
+    head.reset();
+    return head.begin(request, HttpStatus.SC_OK)
+        .put(ResponseHead.CONNECTION_KEEP_ALIVE)
+        .header(ResponseHead.CONTENT_TYPE, mimeTypes.getContentType(file))
+        .header(ResponseHead.CONTENT_LENGTH, file.length())
+        .put(ResponseHead.ACCEPT_RANGES)
+        .header(ResponseHead.ETAG, etag)
+        .header(ResponseHead.LAST_MODIFIED, lastModified)
+        .end()
+        .remaining();
+  }
+}
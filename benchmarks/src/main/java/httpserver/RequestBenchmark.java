@@ -0,0 +1,146 @@
+package httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the per-request work done before a file is looked at: parsing the request head out of the connection's
+ * buffer, and deciding its keep-alive options.  The head is already in the buffer, as it is when the selector loop
+ * hands a connection to a worker, so no stream reads are measured.
+ * @author kmatassa
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBenchmark {
+  /**
+   * A bare request, and one with the headers a browser sends.
+   */
+  @Param({"minimal", "browser"})
+  public String shape;
+  /**
+   * Request heads by shape.
+   */
+  private static final String MINIMAL = "GET /helloworld.html HTTP/1.1\r\nHost: localhost\r\n\r\n";
+  /**
+   * A request as sent by a browser.
+   */
+  private static final String BROWSER = "GET /foo/lorem.txt HTTP/1.1\r\n"
+      + "Host: localhost:8081\r\n"
+      + "Connection: keep-alive\r\n"
+      + "Keep-Alive: timeout=5\r\n"
+      + "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/68.0 Safari/537.36\r\n"
+      + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/webp,*/*;q=0.8\r\n"
+      + "Accept-Encoding: gzip, deflate, br\r\n"
+      + "Accept-Language: en-US,en;q=0.9\r\n"
+      + "If-None-Match: \"e80-165f4a2b3c8\"\r\n"
+      + "If-Modified-Since: Wed, 01 Aug 2018 20:43:00 GMT\r\n"
+      + "\r\n";
+  /**
+   * Bytes of the request head.
+   */
+  private byte[] head;
+  /**
+   * Connection input buffer, refilled with the head before each parse.
+   */
+  private final ByteBuffer buffer = ByteBuffer.allocate(8 * 1024);
+  /**
+   * Never read from, since the whole head is buffered.
+   */
+  private final InputStream empty = new ByteArrayInputStream(new byte[0]);
+  /**
+   * Reused across requests, as on a connection.
+   */
+  private final RequestParser parser = new RequestParser();
+  /**
+   * Unconnected socket whose timeout keep-alive processing may set.
+   */
+  private Socket socket;
+  /**
+   * Keep-alive bounds of a server at rest.
+   */
+  private KeepAlivePolicy policy;
+
+  /**
+   * Encodes the head and parses it once, for the keep-alive benchmark.
+   * @throws IOException never
+   */
+  @Setup(Level.Trial)
+  public final void setUp() throws IOException {
+    String s = MINIMAL;
+    if ("browser".equals(shape)) {
+      s = BROWSER;
+    }
+    head = s.getBytes(StandardCharsets.ISO_8859_1);
+    socket = new Socket();
+    ServerConfig config = new ServerConfig();
+    Metrics metrics = new Metrics();
+    policy = new KeepAlivePolicy(config, new Admission(config, metrics, new BufferPool(true, 0, false, false)), metrics);
+    parse();
+  }
+
+  /**
+   * @throws IOException never
+   */
+  @TearDown(Level.Trial)
+  public final void tearDown() throws IOException {
+    socket.close();
+  }
+
+  /**
+   * @return String the method parsed.
+   * @throws IOException never
+   */
+  @Benchmark
+  public final String parse() throws IOException {
+    buffer.clear();
+    buffer.put(head);
+    buffer.flip();
+    return parser.parse(empty, buffer);
+  }
+
+  /**
+   * @param bh receives the results.
+   * @throws Exception never, the heads being valid
+   */
+  @Benchmark
+  public final void parseAndValidate(final Blackhole bh) throws Exception {
+    bh.consume(parse());
+    bh.consume(parser.hasValidHeaders());
+    bh.consume(parser.getHeader("If-None-Match"));
+  }
+
+  /**
+   * @return boolean whether the connection stays open.
+   * @throws IOException never
+   */
+  @Benchmark
+  public final boolean processKeepAliveOptions() throws IOException {
+    KeepAliveExtension keepAlive = new KeepAliveExtension(parser, policy);
+    keepAlive.processKeepAliveOptions(socket, 1);
+    return keepAlive.isKeepAliveEnabled();
+  }
+}
@@ -0,0 +1,90 @@
+package httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures route lookup against tables of growing size, which should cost the same whatever the number of routes.
+ * @author kmatassa
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouterBenchmark {
+  /**
+   * Routes registered besides the ones looked up.
+   */
+  @Param({"0", "16", "256"})
+  public int routes;
+  /**
+   * Path looked up: a file, an exact route and a route with a parameter.
+   */
+  @Param({"/foo/lorem.txt", "/api/health", "/api/items/42"})
+  public String path;
+  /**
+   * The compiled routes.
+   */
+  private Router router;
+  /**
+   * Exchange holding the request looked up.
+   */
+  private Exchange exchange;
+
+  /**
+   * Compiles the routes and parses the request once.
+   * @throws IOException never
+   */
+  @Setup(Level.Trial)
+  public final void setUp() throws IOException {
+    Handler handler = new Handler() {
+      @Override
+      public boolean handle(final Exchange e) {
+        return true;
+      }
+    };
+    List<Router.Route> table = new ArrayList<Router.Route>();
+    table.add(new Router.Route("GET", "/*", handler));
+    table.add(new Router.Route("GET", "/api/health", handler));
+    table.add(new Router.Route("GET", "/api/items/{id}", handler));
+    for (int i = 0; i < routes; i++) {
+      table.add(new Router.Route("GET", "/api/v" + i + "/things/{id}", handler));
+    }
+    router = new Router(table);
+    RequestParser request = new RequestParser();
+    ByteBuffer buf = ByteBuffer.allocate(1024);
+    buf.limit(0);
+    String text = "GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n";
+    request.parse(new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1)), buf);
+    exchange = new Exchange(null, null, null);
+    exchange.reset(request, null, null, null, Router.path(path));
+  }
+
+  /**
+   * @return Handler of the path.
+   */
+  @Benchmark
+  public final Handler route() {
+    return router.route(exchange);
+  }
+}
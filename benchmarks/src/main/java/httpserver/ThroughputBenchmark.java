@@ -0,0 +1,314 @@
+package httpserver;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures requests per second, and the latency distribution, of an embedded server answering GETs for the files/
+ * fixtures.  Each benchmark thread is a client with a connection of its own, which it keeps open between requests
+ * or reopens for every request, and the benchmark methods differ only in the number of clients.  Throughput is
+ * reported as operations per second, latency as sampled percentiles.  Run from the project folder, so that the
+ * server finds its docroot.
+ * @author kmatassa
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThroughputBenchmark {
+  /**
+   * Port of the embedded server.
+   */
+  private static final int PORT = 8090;
+  /**
+   * Size of a client's read buffer.
+   */
+  private static final int READ_BUFFER = 64 * 1024;
+  /**
+   * Most clients in any benchmark.
+   */
+  private static final int MANY_CLIENTS = 64;
+
+  /**
+   * The embedded server, shared by the clients.
+   */
+  @State(Scope.Benchmark)
+  public static class ServerState {
+    /**
+     * How the server waits on its sockets.
+     */
+    @Param({"BLOCKING", "NIO"})
+    public IoMode io;
+    /**
+     * Whether clients keep their connection open between requests.
+     */
+    @Param({"true", "false"})
+    public boolean keepAlive;
+    /**
+     * File requested: a cached page, a file compressed once then cached, and a mapped file.
+     */
+    @Param({"/helloworld.html", "/foo/lorem.txt", "/foo/introducing_cairngorm.pdf"})
+    public String path;
+    /**
+     * The running server.
+     */
+    private Server server;
+
+    /**
+     * Starts the server with enough workers for every client to hold a connection.
+     * @throws IOException if the port cannot be bound.
+     */
+    @Setup(Level.Trial)
+    public final void start() throws IOException {
+      if (!new File("src/main/resources/files").isDirectory()) {
+        throw new IllegalStateException("run the benchmarks from the project folder, where src/main/resources/files is");
+      }
+      ServerConfig config = ServerConfig.fromSystemProperties(PORT);
+      config.setIoMode(io);
+      config.setMaxThreads(Math.max(config.getMaxThreads(), MANY_CLIENTS));
+      server = App.start(config);
+    }
+
+    /**
+     * @throws IOException sometimes
+     */
+    @TearDown(Level.Trial)
+    public final void stop() throws IOException {
+      server.close();
+    }
+  }
+
+  /**
+   * A client with a connection of its own.
+   */
+  @State(Scope.Thread)
+  public static class ClientState {
+    /**
+     * Whether the connection is kept between requests.
+     */
+    private boolean keepAlive;
+    /**
+     * Encoded request.
+     */
+    private byte[] request;
+    /**
+     * Current connection, or null.
+     */
+    private Socket socket;
+    /**
+     * Its input.
+     */
+    private InputStream in;
+    /**
+     * Its output.
+     */
+    private OutputStream out;
+    /**
+     * Read buffer, holding the unread input between start and end.
+     */
+    private final byte[] buf = new byte[READ_BUFFER];
+    /**
+     * Offset of the unread input.
+     */
+    private int start;
+    /**
+     * Offset past the unread input.
+     */
+    private int end;
+
+    /**
+     * @param server is the server requested from.
+     */
+    @Setup(Level.Trial)
+    public final void setUp(final ServerState server) {
+      keepAlive = server.keepAlive;
+      String connection = "close";
+      if (keepAlive) {
+        connection = "keep-alive";
+      }
+      request = ("GET " + server.path + " HTTP/1.1\r\nHost: localhost\r\nAccept-Encoding: gzip\r\nConnection: " + connection
+                 + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * @throws IOException sometimes
+     */
+    @TearDown(Level.Trial)
+    public final void tearDown() throws IOException {
+      disconnect();
+    }
+
+    /**
+     * Sends the request and reads the response, reconnecting first if the connection is not kept.
+     * @return int status code.
+     * @throws IOException if the server fails to answer.
+     */
+    final int exchange() throws IOException {
+      if (socket == null) {
+        connect();
+      }
+      out.write(request);
+      out.flush();
+      int status;
+      try {
+        status = readResponse();
+      } catch (EOFException e) {
+        // The server closed a kept connection, e.g. at its idle timeout: retry once on a new one.
+        disconnect();
+        connect();
+        out.write(request);
+        out.flush();
+        status = readResponse();
+      }
+      if (!keepAlive) {
+        disconnect();
+      }
+      return status;
+    }
+
+    /**
+     * @throws IOException sometimes
+     */
+    private void connect() throws IOException {
+      socket = new Socket();
+      socket.setTcpNoDelay(true);
+      socket.connect(new InetSocketAddress("localhost", PORT));
+      in = socket.getInputStream();
+      out = socket.getOutputStream();
+      start = 0;
+      end = 0;
+    }
+
+    /**
+     * @throws IOException sometimes
+     */
+    private void disconnect() throws IOException {
+      if (socket != null) {
+        socket.close();
+        socket = null;
+      }
+    }
+
+    /**
+     * Reads a response head, and skips its Content-Length body.
+     * @return int status code.
+     * @throws IOException sometimes, EOFException if the connection closes first.
+     */
+    private int readResponse() throws IOException {
+      int headEnd;
+      while ((headEnd = indexOfBlankLine()) < 0) {
+        fill();
+      }
+      String head = new String(buf, start, headEnd - start, StandardCharsets.ISO_8859_1);
+      int status = Integer.parseInt(head.substring("HTTP/1.1 ".length(), "HTTP/1.1 200".length()));
+      long remaining = contentLength(head);
+      start = headEnd;
+      while (remaining > 0) {
+        if (start == end) {
+          fill();
+        }
+        int n = (int) Math.min(remaining, end - start);
+        start += n;
+        remaining -= n;
+      }
+      return status;
+    }
+
+    /**
+     * @return int offset past the blank line ending the head, or -1.
+     */
+    private int indexOfBlankLine() {
+      for (int i = start; i + 3 < end; i++) {
+        if (buf[i] == '\r' && buf[i + 1] == '\n' && buf[i + 2] == '\r' && buf[i + 3] == '\n') {
+          return i + 4;
+        }
+      }
+      return -1;
+    }
+
+    /**
+     * Reads more input, after moving the unread part to the front.
+     * @throws IOException sometimes, EOFException at the end of the stream.
+     */
+    private void fill() throws IOException {
+      System.arraycopy(buf, start, buf, 0, end - start);
+      end -= start;
+      start = 0;
+      int n = in.read(buf, end, buf.length - end);
+      if (n < 0) {
+        throw new EOFException();
+      }
+      end += n;
+    }
+
+    /**
+     * @param head is the response head.
+     * @return long value of its Content-Length header, 0 if absent.
+     */
+    private static long contentLength(final String head) {
+      String name = "\r\ncontent-length:";
+      int i = head.toLowerCase().indexOf(name);
+      if (i < 0) {
+        return 0;
+      }
+      int lineEnd = head.indexOf('\r', i + name.length());
+      return Long.parseLong(head.substring(i + name.length(), lineEnd).trim());
+    }
+  }
+
+  /**
+   * @param client is the client.
+   * @return int status code.
+   * @throws IOException if the server fails to answer.
+   */
+  @Benchmark
+  @Threads(1)
+  public final int oneClient(final ClientState client) throws IOException {
+    return client.exchange();
+  }
+
+  /**
+   * @param client is the client.
+   * @return int status code.
+   * @throws IOException if the server fails to answer.
+   */
+  @Benchmark
+  @Threads(8)
+  public final int eightClients(final ClientState client) throws IOException {
+    return client.exchange();
+  }
+
+  /**
+   * @param client is the client.
+   * @return int status code.
+   * @throws IOException if the server fails to answer.
+   */
+  @Benchmark
+  @Threads(MANY_CLIENTS)
+  public final int manyClients(final ClientState client) throws IOException {
+    return client.exchange();
+  }
+}
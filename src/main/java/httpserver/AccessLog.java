@@ -0,0 +1,406 @@
+package httpserver;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes an access log line per request without holding up the workers.  A worker only fills an entry and offers it to
+ * a lock-free ring buffer; a background thread drains the buffer in batches, formats the lines in Common or Combined
+ * Log Format, and writes and flushes each batch at once.  When the buffer is full entries are dropped and counted, or
+ * the worker waits, as the {@link OverflowPolicy} says.
+ * @author kmatassa
+ */
+public class AccessLog implements Closeable {
+  /**
+   * Millisecs.
+   */
+  private static final int MS = 1000;
+  /**
+   * How long the writer sleeps when there is nothing to write.
+   */
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  /**
+   * How long a blocked worker waits before offering again.
+   */
+  private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+  /**
+   * Size of the writer's output buffer.
+   */
+  private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+  /**
+   * Time stamp format of the log lines.
+   */
+  private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH)
+      .withZone(ZoneId.systemDefault());
+  /**
+   * First printable character; those below are escaped.
+   */
+  private static final char FIRST_PRINTABLE = ' ';
+  /**
+   * Last printable ASCII character; those above are escaped.
+   */
+  private static final char LAST_PRINTABLE = '~';
+  /**
+   * Last character of ISO-8859-1, as which requests are decoded.
+   */
+  private static final char LATIN1_LAST = '\u00ff';
+  /**
+   * Digits of escaped characters.
+   */
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+  /**
+   * Bits of a hex digit.
+   */
+  private static final int NIBBLE_BITS = 4;
+  /**
+   * Mask of a hex digit.
+   */
+  private static final int NIBBLE_MASK = 0xf;
+  /**
+   * Local logger.
+   */
+  private Logger logger = Logger.getAnonymousLogger();
+  /**
+   * Entries not yet written.
+   */
+  private final RingBuffer<Entry> buffer;
+  /**
+   * Line format.
+   */
+  private final AccessLogFormat format;
+  /**
+   * What to do when the buffer is full.
+   */
+  private final OverflowPolicy policy;
+  /**
+   * Destination of the lines.
+   */
+  private final Writer out;
+  /**
+   * Background writer.
+   */
+  private final Thread writer;
+  /**
+   * Entries dropped because the buffer was full.
+   */
+  private final AtomicLong dropped = new AtomicLong();
+  /**
+   * Entries written.
+   */
+  private final AtomicLong written = new AtomicLong();
+  /**
+   * False once closed, or once the writer has failed; entries are then dropped and counted.
+   */
+  private volatile boolean running = true;
+  /**
+   * Second of the cached time stamp, used by the writer thread only.
+   */
+  private long stampSecond = -1;
+  /**
+   * Cached time stamp, used by the writer thread only.
+   */
+  private String stamp = null;
+
+  /**
+   * What is recorded of a request.
+   */
+  static final class Entry {
+    /**
+     * Client address.
+     */
+    private final String host;
+    /**
+     * Time the response was made, in millisecs.
+     */
+    private final long time;
+    /**
+     * Request line, or null if none was read.
+     */
+    private final String requestLine;
+    /**
+     * Status code.
+     */
+    private final int status;
+    /**
+     * Body bytes sent.
+     */
+    private final long bytes;
+    /**
+     * Referer header, or null.
+     */
+    private final String referer;
+    /**
+     * User-Agent header, or null.
+     */
+    private final String userAgent;
+
+    /**
+     * @param hostValue is the client address.
+     * @param timeValue is the time the response was made.
+     * @param requestLineValue is the request line, or null.
+     * @param statusValue is the status code.
+     * @param bytesValue is the number of body bytes sent.
+     * @param refererValue is the Referer header, or null.
+     * @param userAgentValue is the User-Agent header, or null.
+     */
+    Entry(final String hostValue, final long timeValue, final String requestLineValue, final int statusValue,
+          final long bytesValue, final String refererValue, final String userAgentValue) {
+      this.host = hostValue;
+      this.time = timeValue;
+      this.requestLine = requestLineValue;
+      this.status = statusValue;
+      this.bytes = bytesValue;
+      this.referer = refererValue;
+      this.userAgent = userAgentValue;
+    }
+  }
+
+  /**
+   * Opens the log file for appending and starts the writer.
+   * @param file is the log file.
+   * @param formatValue is the line format.
+   * @param policyValue is what to do when the buffer is full.
+   * @param capacity is the number of entries buffered, rounded up to a power of two.
+   * @throws IOException if the file cannot be opened.
+   */
+  public AccessLog(final String file, final AccessLogFormat formatValue, final OverflowPolicy policyValue,
+                   final int capacity) throws IOException {
+    this(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8), formatValue, policyValue,
+         capacity);
+  }
+
+  /**
+   * Starts the writer.
+   * @param outValue is the destination of the lines.
+   * @param formatValue is the line format.
+   * @param policyValue is what to do when the buffer is full.
+   * @param capacity is the number of entries buffered, rounded up to a power of two.
+   */
+  AccessLog(final Writer outValue, final AccessLogFormat formatValue, final OverflowPolicy policyValue,
+            final int capacity) {
+    this.out = new BufferedWriter(outValue, WRITE_BUFFER_SIZE);
+    this.format = formatValue;
+    this.policy = policyValue;
+    this.buffer = new RingBuffer<Entry>(capacity);
+    this.writer = new Thread("http-server-access-log") {
+      public void run() {
+        drainLoop();
+      }
+    };
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  /**
+   * Records a request.  Never blocks under the DROP policy, nor once the log is closed or its writer has failed.
+   * @param entry is what is recorded.
+   */
+  public final void log(final Entry entry) {
+    if (running && buffer.offer(entry)) {
+      return;
+    }
+    if (policy == OverflowPolicy.BLOCK) {
+      while (running) {
+        LockSupport.unpark(writer);
+        LockSupport.parkNanos(BLOCK_PARK_NANOS);
+        if (buffer.offer(entry)) {
+          return;
+        }
+      }
+    }
+    dropped.incrementAndGet();
+  }
+
+  /**
+   * Writes batches until closed, then whatever is left.  Should writing fail, the log stops taking entries, so that no
+   * worker waits on a writer that is gone.
+   */
+  private void drainLoop() {
+    StringBuilder line = new StringBuilder();
+    try {
+      while (running) {
+        if (drain(line) == 0) {
+          LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        }
+      }
+      drain(line);
+    } catch (IOException | RuntimeException e) {
+      running = false;
+      logger.log(Level.SEVERE, "access log failed, entries are dropped from now on", e);
+    } finally {
+      try {
+        out.close();
+      } catch (IOException e) {
+        logger.fine("access log close failed: " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Writes every buffered entry, then flushes.
+   * @param line is reused to format each line.
+   * @return int number of entries written.
+   * @throws IOException sometimes
+   */
+  private int drain(final StringBuilder line) throws IOException {
+    int n = 0;
+    Entry e;
+    while ((e = buffer.poll()) != null) {
+      line.setLength(0);
+      format(e, line);
+      out.append(line);
+      n++;
+    }
+    if (n > 0) {
+      out.flush();
+      written.addAndGet(n);
+    }
+    return n;
+  }
+
+  /**
+   * Formats an entry.
+   * @param e is the entry.
+   * @param line receives the line, newline included.
+   */
+  final void format(final Entry e, final StringBuilder line) {
+    line.append(e.host).append(" - - [").append(stamp(e.time)).append("] \"");
+    appendEscaped(line, orDash(e.requestLine));
+    line.append("\" ").append(e.status).append(' ');
+    if (e.bytes > 0) {
+      line.append(e.bytes);
+    } else {
+      line.append('-');
+    }
+    if (format == AccessLogFormat.COMBINED) {
+      line.append(" \"");
+      appendEscaped(line, orDash(e.referer));
+      line.append("\" \"");
+      appendEscaped(line, orDash(e.userAgent));
+      line.append('"');
+    }
+    line.append('\n');
+  }
+
+  /**
+   * Appends a value quoted in a line, escaped as Apache's mod_log_config does so that a client cannot forge fields or
+   * lines: quotes and backslashes are backslashed, common controls written \n, \t and so on, and other characters
+   * outside printable ASCII written as \xhh.
+   * @param line receives the value.
+   * @param value is the value.
+   */
+  private static void appendEscaped(final StringBuilder line, final String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"':
+        case '\\':
+          line.append('\\').append(c);
+          break;
+        case '\b':
+          line.append("\\b");
+          break;
+        case '\n':
+          line.append("\\n");
+          break;
+        case '\r':
+          line.append("\\r");
+          break;
+        case '\t':
+          line.append("\\t");
+          break;
+        case '\u000b':
+          line.append("\\v");
+          break;
+        default:
+          if (c >= FIRST_PRINTABLE && c <= LAST_PRINTABLE) {
+            line.append(c);
+          } else {
+            appendHex(line, c);
+          }
+      }
+    }
+  }
+
+  /**
+   * @param line receives the character as \xhh: the byte it was decoded from, or each byte of its UTF-8 encoding if it
+   * lies beyond ISO-8859-1.
+   * @param c is the character.
+   */
+  private static void appendHex(final StringBuilder line, final char c) {
+    byte[] bytes = {(byte) c};
+    if (c > LATIN1_LAST) {
+      bytes = String.valueOf(c).getBytes(StandardCharsets.UTF_8);
+    }
+    for (byte b : bytes) {
+      line.append("\\x").append(HEX_DIGITS[(b >> NIBBLE_BITS) & NIBBLE_MASK]).append(HEX_DIGITS[b & NIBBLE_MASK]);
+    }
+  }
+
+  /**
+   * @param value is a header value, or null.
+   * @return String the value, or "-".
+   */
+  private static String orDash(final String value) {
+    if (value == null) {
+      return "-";
+    }
+    return value;
+  }
+
+  /**
+   * @param time is a time in millisecs.
+   * @return String its time stamp, formatted once per second.
+   */
+  private String stamp(final long time) {
+    long second = time / MS;
+    if (second != stampSecond) {
+      stamp = TIME_FORMAT.format(Instant.ofEpochMilli(time));
+      stampSecond = second;
+    }
+    return stamp;
+  }
+
+  /**
+   * @return long number of entries dropped because the buffer was full.
+   */
+  public final long getDropped() {
+    return dropped.get();
+  }
+
+  /**
+   * @return long number of entries written.
+   */
+  public final long getWritten() {
+    return written.get();
+  }
+
+  /**
+   * Stops the writer once it has written what is buffered.
+   * @throws IOException sometimes
+   */
+  @Override
+  public final void close() throws IOException {
+    running = false;
+    LockSupport.unpark(writer);
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
@@ -0,0 +1,16 @@
+package httpserver;
+
+/**
+ * Selects the line format of the access log.
+ * @author kmatassa
+ */
+public enum AccessLogFormat {
+  /**
+   * Common Log Format: host, identity, user, time, request line, status and bytes.
+   */
+  COMMON,
+  /**
+   * Combined Log Format: COMMON followed by the Referer and User-Agent.
+   */
+  COMBINED
+}
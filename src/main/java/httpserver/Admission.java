@@ -0,0 +1,131 @@
+package httpserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Logger;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+
+/**
+ * Admission control: caps the connections serviced at once, and turns away those over the cap, or over the bound of
+ * the work queue, at once rather than letting them wait.  Admitted requests thus keep a bounded latency during spikes,
+ * while the rest learn straight away to come back later.  A turned away connection is answered with a pre-rendered 503
+ * and Retry-After, or just closed, depending on the {@link OverloadPolicy}, without taking a worker thread.
+ * @author kmatassa
+ */
+final class Admission {
+  /**
+   * Request bytes read and discarded at a time before answering a turned away connection.
+   */
+  private static final int DRAIN_BYTES = 4 * 1024;
+  /**
+   * Most reads of DRAIN_BYTES made, so that a client sending fast cannot hold the calling thread.
+   */
+  private static final int DRAIN_READS = 2;
+  /**
+   * Local logger.
+   */
+  private Logger logger = Logger.getAnonymousLogger();
+  /**
+   * Permits for connections serviced at once.
+   */
+  private final Semaphore permits;
+  /**
+   * How connections are turned away.
+   */
+  private final OverloadPolicy policy;
+  /**
+   * Status line of the 503.
+   */
+  private final byte[] statusLine;
+  /**
+   * Headers of the 503 after the Date header, blank line included.
+   */
+  private final byte[] tail;
+  /**
+   * Counts the connections turned away.
+   */
+  private final Metrics metrics;
+  /**
+   * Pool of the direct buffers the requests turned away are drained into.
+   */
+  private final BufferPool buffers;
+
+  /**
+   * @param config holds the settings.
+   * @param metricsValue counts the connections turned away.
+   * @param directBuffers is the pool of direct buffers requests are drained into.
+   */
+  Admission(final ServerConfig config, final Metrics metricsValue, final BufferPool directBuffers) {
+    this.permits = new Semaphore(config.getMaxConnections());
+    this.policy = config.getOverloadPolicy();
+    this.metrics = metricsValue;
+    this.buffers = directBuffers;
+    int code = HttpStatus.SC_SERVICE_UNAVAILABLE;
+    String reason = EnglishReasonPhraseCatalog.INSTANCE.getReason(code, Locale.ENGLISH);
+    this.statusLine = ("HTTP/1.1 " + code + " " + reason + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    this.tail = ("Retry-After: " + config.getRetryAfterSeconds() + "\r\nConnection: close\r\nContent-Length: 0\r\n\r\n")
+        .getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * Takes a permit for a new connection, without waiting.
+   * @return true if admitted, false if the server is at its connection limit.
+   */
+  boolean tryAdmit() {
+    return permits.tryAcquire();
+  }
+
+  /**
+   * Returns the permit of a connection that has closed, or was turned away after being admitted.
+   */
+  void release() {
+    permits.release();
+  }
+
+  /**
+   * @return int number of connections that may still be admitted.
+   */
+  int available() {
+    return permits.availablePermits();
+  }
+
+  /**
+   * Turns a connection away, answering 503 if so configured, then closes it.  The channel is switched to non-blocking
+   * mode so that the calling acceptor or selector thread never waits on the client.  Whatever part of the request has
+   * arrived is read first, up to a bound, since closing with unread input would reset the connection and may lose the
+   * answer.
+   * @param channel is the connection.
+   */
+  void shed(final SocketChannel channel) {
+    metrics.connectionShed();
+    ByteBuffer drain = null;
+    try {
+      if (policy == OverloadPolicy.REJECT) {
+        channel.configureBlocking(false);
+        drain = buffers.acquire(DRAIN_BYTES);
+        for (int reads = 1; channel.read(drain) > 0 && !drain.hasRemaining() && reads < DRAIN_READS; reads++) {
+          drain.clear();
+        }
+        // A fresh socket's send buffer takes the whole answer; whatever would not fit is dropped, not waited for.
+        channel.write(new ByteBuffer[] {ByteBuffer.wrap(statusLine), ByteBuffer.wrap(HttpDate.dateHeader()),
+                                        ByteBuffer.wrap(tail)});
+        channel.shutdownOutput();
+      }
+    } catch (IOException e) {
+      logger.fine("shed connection failed: " + e.getMessage());
+    } finally {
+      buffers.release(drain);
+      try {
+        channel.close();
+      } catch (IOException e) {
+        logger.fine("close failed: " + e.getMessage());
+      }
+    }
+  }
+}
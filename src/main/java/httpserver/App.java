@@ -1,14 +1,11 @@
 package httpserver;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 
 /**
- * A http-server sample, that utilizes a fixed-length thread pool to service HTTP requests.
+ * A http-server sample, that utilizes a fixed-length thread pool to service HTTP requests.  Idle keep-alive connections
+ * may optionally be parked on selectors instead of holding a thread, see {@link IoMode}.
  * @author kmatassa
  */
 public class App {
@@ -28,10 +25,6 @@ public class App {
    * Used port.
    */
   private static int usePort;
-  /**
-   * Default concurrency for this simple case.
-   */
-  private static final int MAXTHREADS = 10;
 
   /**
    * Main entry point.
@@ -57,36 +50,30 @@ public class App {
    * This allows the unit tests to execute after starting http-server.
    */
   private static void run() {
-    // Rely on executor service to create and re-use fixed number of threads.
-    ExecutorService executorService = Executors.newFixedThreadPool(MAXTHREADS);
-    // Single disconnect thread.
-    new Thread() {
-      public void run() {
-        ServerSocket ss = null;
-        try {
-          ss = new ServerSocket(usePort);
-          for (;;) {
-            Socket client = ss.accept();
-            logger.info(client.toString());
-            // Thread pooled
-            executorService.execute(new Runnable() {
-              public void run() {
-                logger.info("Servicing on thread: [" + Thread.currentThread() + "]");
-                Processor p = new Processor(client);
-                try {
-                  p.process();
-                } catch (IOException e) {
-                 logger.severe(e.getMessage());
-                }
-                logger.info("Completed on thread: [" + Thread.currentThread() + "]");
-              }
-            });
-          }
-        } catch (Exception e) {
-          logger.severe(e.getMessage());
-        }
-      }
-    }.start();
-    logger.info(appName + " started.");
+    try {
+      start(ServerConfig.fromSystemProperties(usePort));
+      logger.info(appName + " started.");
+    } catch (IOException e) {
+      logger.severe(e.getMessage());
+    }
+  }
+
+  /**
+   * Starts a http-server with the given settings, in the IO mode they select.
+   * @param config holds the settings.
+   * @return Server that is running, to be closed when no longer needed.
+   * @throws IOException if the port cannot be bound.
+   */
+  public static Server start(final ServerConfig config) throws IOException {
+    Server server;
+    ServerContext context = new ServerContext(config);
+    if (config.getIoMode() == IoMode.NIO) {
+      server = new NioServer(context);
+    } else {
+      server = new BlockingServer(context);
+    }
+    server.start();
+    logger.info(appName + " io mode: " + config.getIoMode());
+    return server;
   }
 }
@@ -0,0 +1,144 @@
+package httpserver;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * The original thread-per-connection listener: each accepted socket is serviced by a thread for as long as the
+ * connection stays open.  The thread comes from a fixed-length pool, or is a virtual thread of its own, depending on
+ * the {@link ExecutorMode}.  At most maxConnections sockets are serviced at once, and at most queueSize wait for a pooled
+ * thread; connections over either limit are turned away by the acceptor, see {@link Admission}.  Several acceptors may
+ * be run, each feeding a worker group of its own, see {@link ServerSockets}.
+ * @author kmatassa
+ */
+public class BlockingServer implements Server {
+  /**
+   * Local logger.
+   */
+  private Logger logger = Logger.getAnonymousLogger();
+  /**
+   * Settings and shared caches.
+   */
+  private final ServerContext context;
+  /**
+   * Settings.
+   */
+  private final ServerConfig config;
+  /**
+   * Listening channels of the acceptors, in blocking mode.  Accepting through a channel gives each socket a channel for
+   * zero-copy writes.
+   */
+  private ServerSocketChannel[] channels = new ServerSocketChannel[0];
+  /**
+   * Worker threads, a group per acceptor.
+   */
+  private ExecutorService[] executors = new ExecutorService[0];
+
+  /**
+   * @param serverContext holds the settings and shared caches.
+   */
+  BlockingServer(final ServerContext serverContext) {
+    this.context = serverContext;
+    this.config = serverContext.getConfig();
+  }
+
+  @Override
+  public final void start() throws IOException {
+    int groups = config.getAcceptors();
+    // Rely on executor service to create and re-use threads, or to start a virtual one per connection.
+    executors = new ExecutorService[groups];
+    for (int i = 0; i < groups; i++) {
+      executors[i] = WorkerExecutors.create(config, groups);
+    }
+    context.getMetrics().setExecutors(executors);
+    channels = ServerSockets.open(config);
+    // An accept thread per worker group.
+    for (int i = 0; i < groups; i++) {
+      final ServerSocketChannel ssc = channels[i];
+      final ExecutorService executorService = executors[i];
+      new Thread("http-server-accept-" + i) {
+        public void run() {
+          accept(ssc, executorService);
+        }
+      }.start();
+    }
+  }
+
+  /**
+   * Accepts connections until the channel is closed, handing each to a thread of the worker group.
+   * @param ssc is the listening channel.
+   * @param executorService is the worker group.
+   */
+  private void accept(final ServerSocketChannel ssc, final ExecutorService executorService) {
+    final Admission admission = context.getAdmission();
+    try {
+      for (;;) {
+        SocketChannel channel = ssc.accept();
+        if (!admission.tryAdmit()) {
+          admission.shed(channel);
+          continue;
+        }
+        try {
+          ServerSockets.configure(channel, config);
+        } catch (IOException e) {
+          logger.fine("cannot set socket options: " + e.getMessage());
+        }
+        final Socket client = channel.socket();
+        if (context.isDebug()) {
+          logger.info(client.toString());
+        }
+        // Pooled or virtual thread; the Processor returns the admission permit once the connection closes.
+        try {
+          executorService.execute(new Runnable() {
+            public void run() {
+              if (context.isDebug()) {
+                logger.info("Servicing on thread: [" + Thread.currentThread() + "]");
+              }
+              Processor p = new Processor(client, context);
+              try {
+                p.process();
+              } catch (IOException e) {
+               logger.severe(e.getMessage());
+              }
+              if (context.isDebug()) {
+                logger.info("Completed on thread: [" + Thread.currentThread() + "]");
+              }
+            }
+          });
+        } catch (RejectedExecutionException e) {
+          // The work queue is full, or the server is shutting down.
+          admission.release();
+          admission.shed(channel);
+        }
+      }
+    } catch (Exception e) {
+      if (ssc.isOpen()) {
+        logger.severe(e.getMessage());
+      }
+    }
+  }
+
+  @Override
+  public final ServerConfig getConfig() {
+    return config;
+  }
+
+  @Override
+  public final ServerContext getContext() {
+    return context;
+  }
+
+  @Override
+  public final void close() throws IOException {
+    ServerSockets.close(channels);
+    for (ExecutorService e : executors) {
+      e.shutdownNow();
+    }
+    context.close();
+  }
+}
@@ -0,0 +1,394 @@
+package httpserver;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands out buffers of power-of-two size classes, so that connections reuse the buffers of those before them rather
+ * than allocate their own.  A buffer given back is kept by the thread giving it back, up to a few per class, and past
+ * that in a shared queue per class, up to a bound on the bytes kept; a thread takes from its own cache first, so the
+ * steady state neither allocates nor contends.  Buffers larger than the largest class are allocated and dropped as
+ * needed.  With leak detection on, each buffer handed out is tracked by a weak reference holding where it was taken,
+ * and one collected without having been given back is reported.
+ * @author kmatassa
+ */
+final class BufferPool {
+  /**
+   * Log2 of the smallest size class.
+   */
+  private static final int MIN_SHIFT = 10;
+  /**
+   * Log2 of the largest size class.
+   */
+  private static final int MAX_SHIFT = 16;
+  /**
+   * Buffers of each class cached by a thread.
+   */
+  private static final int THREAD_CACHE_SIZE = 4;
+  /**
+   * Most buffers of a class in the shared queue.
+   */
+  private static final int MAX_QUEUED = 4096;
+  /**
+   * Local logger.
+   */
+  private Logger logger = Logger.getAnonymousLogger();
+  /**
+   * True for direct buffers, false for heap ones.
+   */
+  private final boolean direct;
+  /**
+   * Most bytes kept in the shared queues.
+   */
+  private final long maxBytes;
+  /**
+   * Shared queues of idle buffers, by size class.
+   */
+  private final ArrayBlockingQueue<ByteBuffer>[] queues;
+  /**
+   * Idle buffers kept by each thread, or null if threads keep none.
+   */
+  private final ThreadLocal<Cache> caches;
+  /**
+   * Tracks the buffers handed out, or null if leaks are not detected.
+   */
+  private final LeakDetector leaks;
+  /**
+   * Bytes in the shared queues.
+   */
+  private final AtomicLong queuedBytes = new AtomicLong();
+  /**
+   * Buffers handed out.
+   */
+  private final LongAdder acquired = new LongAdder();
+  /**
+   * Buffers given back.
+   */
+  private final LongAdder released = new LongAdder();
+  /**
+   * Buffers allocated, for want of an idle one or for being larger than the largest class.
+   */
+  private final LongAdder allocated = new LongAdder();
+
+  /**
+   * Idle buffers kept by one thread, a small stack per class.
+   */
+  private static final class Cache {
+    /**
+     * Stacks of buffers, by size class.
+     */
+    private final ByteBuffer[][] stacks = new ByteBuffer[MAX_SHIFT - MIN_SHIFT + 1][THREAD_CACHE_SIZE];
+    /**
+     * Depth of each stack.
+     */
+    private final int[] depths = new int[MAX_SHIFT - MIN_SHIFT + 1];
+  }
+
+  /**
+   * @param directValue is true for direct buffers, false for heap ones.
+   * @param maxBytesValue is the most bytes kept in the shared queues; 0 turns pooling off.
+   * @param threadCaches is true to let each thread keep a few buffers of its own, which suits long-lived threads.
+   * @param leakDetection is true to report buffers never given back.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  BufferPool(final boolean directValue, final long maxBytesValue, final boolean threadCaches,
+             final boolean leakDetection) {
+    this.direct = directValue;
+    this.maxBytes = maxBytesValue;
+    this.queues = new ArrayBlockingQueue[MAX_SHIFT - MIN_SHIFT + 1];
+    for (int i = 0; i < queues.length; i++) {
+      long fit = Math.max(1, Math.min(MAX_QUEUED, maxBytesValue >> (MIN_SHIFT + i)));
+      queues[i] = new ArrayBlockingQueue<ByteBuffer>((int) fit);
+    }
+    if (threadCaches && maxBytesValue > 0) {
+      this.caches = new ThreadLocal<Cache>() {
+        @Override
+        protected Cache initialValue() {
+          return new Cache();
+        }
+      };
+    } else {
+      this.caches = null;
+    }
+    if (leakDetection) {
+      this.leaks = new LeakDetector();
+    } else {
+      this.leaks = null;
+    }
+  }
+
+  /**
+   * @param size is a number of bytes.
+   * @return int index of the smallest class holding it, or -1 if none does.
+   */
+  static int sizeClass(final int size) {
+    if (size > 1 << MAX_SHIFT) {
+      return -1;
+    }
+    if (size <= 1 << MIN_SHIFT) {
+      return 0;
+    }
+    return Integer.SIZE - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+  }
+
+  /**
+   * Takes a buffer, to be given back with {@link #release} once nothing refers to it.
+   * @param size is the number of bytes needed.
+   * @return ByteBuffer at position 0 with its limit at size, its capacity maybe larger.
+   */
+  ByteBuffer acquire(final int size) {
+    acquired.increment();
+    int c = sizeClass(size);
+    ByteBuffer b = null;
+    if (c >= 0) {
+      b = take(c);
+    }
+    if (b == null) {
+      allocated.increment();
+      int capacity = size;
+      if (c >= 0) {
+        capacity = 1 << (MIN_SHIFT + c);
+      }
+      if (direct) {
+        b = ByteBuffer.allocateDirect(capacity);
+      } else {
+        b = ByteBuffer.allocate(capacity);
+      }
+    }
+    b.clear();
+    b.limit(size);
+    if (leaks != null) {
+      leaks.track(b);
+    }
+    return b;
+  }
+
+  /**
+   * @param c is a size class.
+   * @return ByteBuffer idle, or null if none is at hand.
+   */
+  private ByteBuffer take(final int c) {
+    if (caches != null) {
+      Cache cache = caches.get();
+      int depth = cache.depths[c];
+      if (depth > 0) {
+        depth--;
+        cache.depths[c] = depth;
+        ByteBuffer b = cache.stacks[c][depth];
+        cache.stacks[c][depth] = null;
+        return b;
+      }
+    }
+    ByteBuffer b = queues[c].poll();
+    if (b != null) {
+      queuedBytes.addAndGet(-b.capacity());
+    }
+    return b;
+  }
+
+  /**
+   * Gives back a buffer taken from this pool.  The caller must not use it, nor any view of it, afterwards.
+   * @param buffer is the buffer, or null for none.
+   */
+  void release(final ByteBuffer buffer) {
+    if (buffer == null) {
+      return;
+    }
+    if (leaks != null && !leaks.untrack(buffer)) {
+      logger.log(Level.WARNING, "buffer released twice, or not taken from this pool", new IllegalStateException());
+      return;
+    }
+    released.increment();
+    int capacity = buffer.capacity();
+    int c = sizeClass(capacity);
+    if (c < 0 || capacity != 1 << (MIN_SHIFT + c) || buffer.isDirect() != direct || maxBytes <= 0) {
+      return;
+    }
+    if (caches != null) {
+      Cache cache = caches.get();
+      int depth = cache.depths[c];
+      if (depth < THREAD_CACHE_SIZE) {
+        cache.stacks[c][depth] = buffer;
+        cache.depths[c] = depth + 1;
+        return;
+      }
+    }
+    if (queuedBytes.addAndGet(capacity) > maxBytes || !queues[c].offer(buffer)) {
+      queuedBytes.addAndGet(-capacity);
+    }
+  }
+
+  /**
+   * @return true for direct buffers, false for heap ones.
+   */
+  boolean isDirect() {
+    return direct;
+  }
+
+  /**
+   * @return long buffers handed out.
+   */
+  long getAcquired() {
+    return acquired.sum();
+  }
+
+  /**
+   * @return long buffers allocated, for want of an idle one or for being larger than the largest class.
+   */
+  long getAllocated() {
+    return allocated.sum();
+  }
+
+  /**
+   * @return long buffers handed out and not given back.
+   */
+  long getOutstanding() {
+    return acquired.sum() - released.sum();
+  }
+
+  /**
+   * @return long bytes of idle buffers in the shared queues, not counting those cached by threads.
+   */
+  long getQueuedBytes() {
+    return queuedBytes.get();
+  }
+
+  /**
+   * @return long buffers collected without having been given back, or 0 if leaks are not detected.
+   */
+  long getLeaks() {
+    if (leaks == null) {
+      return 0;
+    }
+    leaks.poll();
+    return leaks.count.sum();
+  }
+
+  /**
+   * Tracks the buffers handed out by weak references, which the collector enqueues once a buffer is unreachable.  A
+   * buffer given back has its reference cleared, so only the leaked ones are ever enqueued.
+   */
+  private final class LeakDetector {
+    /**
+     * References enqueued by the collector.
+     */
+    private final ReferenceQueue<ByteBuffer> collected = new ReferenceQueue<ByteBuffer>();
+    /**
+     * References of the buffers handed out, chained by identity hash code.
+     */
+    private final Map<Integer, Tracker> tracked = new HashMap<Integer, Tracker>();
+    /**
+     * Leaks found.
+     */
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * @param buffer is handed out.
+     */
+    void track(final ByteBuffer buffer) {
+      poll();
+      Integer key = System.identityHashCode(buffer);
+      Tracker t = new Tracker(buffer, collected, key);
+      synchronized (tracked) {
+        t.next = tracked.put(key, t);
+      }
+    }
+
+    /**
+     * @param buffer is given back.
+     * @return true if it was handed out and not yet given back.
+     */
+    boolean untrack(final ByteBuffer buffer) {
+      poll();
+      Tracker t = remove(System.identityHashCode(buffer), buffer, null);
+      if (t == null) {
+        return false;
+      }
+      t.clear();
+      return true;
+    }
+
+    /**
+     * Reports the buffers collected since the last poll.
+     */
+    void poll() {
+      Tracker t = (Tracker) collected.poll();
+      while (t != null) {
+        if (remove(t.key, null, t) != null) {
+          count.increment();
+          logger.log(Level.WARNING, "buffer of " + t.capacity + " bytes collected without being released", t.site);
+        }
+        t = (Tracker) collected.poll();
+      }
+    }
+
+    /**
+     * @param key is the identity hash code of the buffer.
+     * @param buffer is the buffer, or null to match the reference itself.
+     * @param reference is the reference, once its buffer has been collected.
+     * @return Tracker removed, or null if none matched.
+     */
+    private Tracker remove(final Integer key, final ByteBuffer buffer, final Tracker reference) {
+      synchronized (tracked) {
+        Tracker previous = null;
+        Tracker t = tracked.get(key);
+        while (t != null && t != reference && (buffer == null || t.get() != buffer)) {
+          previous = t;
+          t = t.next;
+        }
+        if (t == null) {
+          return null;
+        }
+        if (previous != null) {
+          previous.next = t.next;
+        } else if (t.next != null) {
+          tracked.put(key, t.next);
+        } else {
+          tracked.remove(key);
+        }
+        return t;
+      }
+    }
+  }
+
+  /**
+   * Weak reference to a buffer handed out, with where it was taken.
+   */
+  private static final class Tracker extends WeakReference<ByteBuffer> {
+    /**
+     * Identity hash code of the buffer.
+     */
+    private final Integer key;
+    /**
+     * Capacity of the buffer.
+     */
+    private final int capacity;
+    /**
+     * Stack trace of the taking.
+     */
+    private final Throwable site = new Throwable("acquired here");
+    /**
+     * Next reference with the same key.
+     */
+    private Tracker next;
+
+    /**
+     * @param buffer is the buffer handed out.
+     * @param queue receives the reference once the buffer is unreachable.
+     * @param keyValue is the identity hash code of the buffer.
+     */
+    Tracker(final ByteBuffer buffer, final ReferenceQueue<ByteBuffer> queue, final Integer keyValue) {
+      super(buffer, queue);
+      this.key = keyValue;
+      this.capacity = buffer.capacity();
+    }
+  }
+}
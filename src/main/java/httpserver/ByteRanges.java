@@ -0,0 +1,156 @@
+package httpserver;
+
+import java.util.Locale;
+
+/**
+ * The byte ranges of a Range request header, resolved against the length of the file asked for.  Ranges the file can
+ * satisfy are kept in order; the others are dropped, so a request none of whose ranges is satisfiable is answered 416.
+ * @author kmatassa
+ */
+final class ByteRanges {
+  /**
+   * Range unit understood.
+   */
+  private static final String BYTES = "bytes=";
+  /**
+   * Most ranges honoured in one request.  Longer lists are ignored and the whole file sent, as they are more likely
+   * abuse than a viewer seeking.
+   */
+  static final int MAX_RANGES = 16;
+  /**
+   * First byte of each satisfiable range.
+   */
+  private final long[] starts = new long[MAX_RANGES];
+  /**
+   * Last byte of each satisfiable range, inclusive.
+   */
+  private final long[] ends = new long[MAX_RANGES];
+  /**
+   * Number of satisfiable ranges.
+   */
+  private int count = 0;
+  /**
+   * Length of the file.
+   */
+  private final long length;
+
+  /**
+   * @param lengthValue is the length of the file.
+   */
+  private ByteRanges(final long lengthValue) {
+    this.length = lengthValue;
+  }
+
+  /**
+   * Parses a Range header.
+   * @param header is the header value.
+   * @param length is the length of the file.
+   * @return ByteRanges, or null if the header is to be ignored: another unit, malformed, or too many ranges.
+   */
+  static ByteRanges parse(final String header, final long length) {
+    String value = header.trim();
+    if (!value.toLowerCase(Locale.ROOT).startsWith(BYTES)) {
+      return null;
+    }
+    String[] specs = value.substring(BYTES.length()).split(",");
+    if (specs.length > MAX_RANGES) {
+      return null;
+    }
+    ByteRanges ranges = new ByteRanges(length);
+    boolean any = false;
+    try {
+      for (String s : specs) {
+        String spec = s.trim();
+        if (spec.isEmpty()) {
+          continue;
+        }
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+          return null;
+        }
+        any = true;
+        String first = spec.substring(0, dash).trim();
+        String last = spec.substring(dash + 1).trim();
+        if (first.isEmpty()) {
+          // Suffix range: the final n bytes.
+          long n = Long.parseLong(last);
+          if (n < 0) {
+            return null;
+          }
+          if (n > 0 && length > 0) {
+            ranges.add(Math.max(0, length - n), length - 1);
+          }
+          continue;
+        }
+        long start = Long.parseLong(first);
+        long end = length - 1;
+        if (!last.isEmpty()) {
+          end = Long.parseLong(last);
+          if (end < start) {
+            return null;
+          }
+        }
+        if (start < 0) {
+          return null;
+        }
+        if (start < length) {
+          ranges.add(start, Math.min(end, length - 1));
+        }
+      }
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    if (!any) {
+      return null;
+    }
+    return ranges;
+  }
+
+  /**
+   * @param start is the first byte.
+   * @param end is the last byte, inclusive.
+   */
+  private void add(final long start, final long end) {
+    starts[count] = start;
+    ends[count] = end;
+    count++;
+  }
+
+  /**
+   * @return int number of satisfiable ranges; 0 is answered 416.
+   */
+  int size() {
+    return count;
+  }
+
+  /**
+   * @param i is the index of the range.
+   * @return long first byte of the range.
+   */
+  long getStart(final int i) {
+    return starts[i];
+  }
+
+  /**
+   * @param i is the index of the range.
+   * @return long number of bytes in the range.
+   */
+  long getLength(final int i) {
+    return ends[i] - starts[i] + 1;
+  }
+
+  /**
+   * @param i is the index of the range.
+   * @return String Content-Range value of the range.
+   */
+  String contentRange(final int i) {
+    return "bytes " + starts[i] + "-" + ends[i] + "/" + length;
+  }
+
+  /**
+   * @return String Content-Range value for a 416 response.
+   */
+  String unsatisfiedRange() {
+    return "bytes */" + length;
+  }
+}
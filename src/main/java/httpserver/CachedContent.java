@@ -0,0 +1,129 @@
+package httpserver;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A small static file held in memory, already encoded as the tail of its response: the entity headers, the blank line
+ * ending the head, then the body.  Answering from it takes a single buffer write after the status line.
+ * @author kmatassa
+ */
+final class CachedContent {
+  /**
+   * Entity headers, blank line and body.
+   */
+  private final byte[] data;
+  /**
+   * Offset of the body within data.
+   */
+  private final int bodyOffset;
+  /**
+   * Last modified time of the file when it was read.
+   */
+  private final long lastModified;
+  /**
+   * Size of the file read, which differs from the body length when the body is compressed.
+   */
+  private final long sourceSize;
+  /**
+   * Content type.
+   */
+  private final String contentType;
+  /**
+   * Entity tag.
+   */
+  private final String etag;
+  /**
+   * Encoded ETag and Last-Modified headers, for 304 responses.
+   */
+  private final byte[] validators;
+
+  /**
+   * @param dataValue holds entity headers, blank line and body.
+   * @param bodyOffsetValue is the offset of the body within data.
+   * @param lastModifiedValue is the last modified time of the file when it was read.
+   * @param sourceSizeValue is the size of the file read.
+   * @param contentTypeValue is the content type.
+   * @param etagValue is the entity tag.
+   * @param validatorsValue holds the encoded ETag and Last-Modified headers.
+   */
+  CachedContent(final byte[] dataValue, final int bodyOffsetValue, final long lastModifiedValue,
+                final long sourceSizeValue, final String contentTypeValue, final String etagValue,
+                final byte[] validatorsValue) {
+    this.data = dataValue;
+    this.bodyOffset = bodyOffsetValue;
+    this.lastModified = lastModifiedValue;
+    this.sourceSize = sourceSizeValue;
+    this.contentType = contentTypeValue;
+    this.etag = etagValue;
+    this.validators = validatorsValue;
+  }
+
+  /**
+   * @return ByteBuffer over the encoded ETag and Last-Modified headers.
+   */
+  ByteBuffer validatorsBuffer() {
+    return ByteBuffer.wrap(validators);
+  }
+
+  /**
+   * @return String entity tag.
+   */
+  String getEtag() {
+    return etag;
+  }
+
+  /**
+   * @param withBody is false for HEAD requests.
+   * @return ByteBuffer over the encoded entity headers, and body if asked for.
+   */
+  ByteBuffer asBuffer(final boolean withBody) {
+    if (withBody) {
+      return ByteBuffer.wrap(data);
+    }
+    return ByteBuffer.wrap(data, 0, bodyOffset);
+  }
+
+  /**
+   * @param start is the offset of the range within the body.
+   * @param length is the length of the range.
+   * @return ByteBuffer over a range of the body.
+   */
+  ByteBuffer bodyRange(final long start, final long length) {
+    return ByteBuffer.wrap(data, bodyOffset + (int) start, (int) length);
+  }
+
+  /**
+   * @return int bytes held in memory.
+   */
+  int getWeight() {
+    return data.length;
+  }
+
+  /**
+   * @return long body length.
+   */
+  long getContentLength() {
+    return data.length - bodyOffset;
+  }
+
+  /**
+   * @return long last modified time of the file when it was read.
+   */
+  long getLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * @return long size of the file read.
+   */
+  long getSourceSize() {
+    return sourceSize;
+  }
+
+  /**
+   * @return String content type.
+   */
+  String getContentType() {
+    return contentType;
+  }
+}
@@ -0,0 +1,151 @@
+package httpserver;
+
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Validators for conditional requests.  The entity tag of a file is derived from its size and last modified time, so it
+ * costs no read of the content; If-None-Match and If-Modified-Since are evaluated against it to answer 304.
+ * @author kmatassa
+ */
+public final class ConditionalGet {
+  /**
+   * Millisecs.
+   */
+  private static final int MS = 1000;
+  /**
+   * Request header name.
+   */
+  private static final String HDR_IF_NONE_MATCH = "If-None-Match";
+  /**
+   * Request header name.
+   */
+  private static final String HDR_IF_MODIFIED_SINCE = "If-Modified-Since";
+  /**
+   * Request header name.
+   */
+  private static final String HDR_IF_RANGE = "If-Range";
+  /**
+   * Prefix of weak entity tags.
+   */
+  private static final String WEAK = "W/";
+
+  /**
+   * Utility class.
+   */
+  private ConditionalGet() {
+  }
+
+  /**
+   * @param size is the file size.
+   * @param lastModified is the file's last modified time in millisecs.
+   * @return String quoted entity tag.
+   */
+  public static String etag(final long size, final long lastModified) {
+    return "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+  }
+
+  /**
+   * @param size is the file size.
+   * @param lastModified is the file's last modified time in millisecs.
+   * @param coding is the content coding of the representation, or null for identity.
+   * @return String quoted entity tag, distinct for each coding.
+   */
+  public static String etag(final long size, final long lastModified, final String coding) {
+    if (coding == null) {
+      return etag(size, lastModified);
+    }
+    return "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "-" + coding + "\"";
+  }
+
+  /**
+   * @param lastModified is a time in millisecs.
+   * @return String the time as an http date.
+   */
+  public static String httpDate(final long lastModified) {
+    return HttpDate.format(lastModified);
+  }
+
+  /**
+   * @param etag is the entity tag.
+   * @param lastModified is the file's last modified time in millisecs.
+   * @return String ETag and Last-Modified response headers, each ending in CRLF.
+   */
+  public static String validatorHeaders(final String etag, final long lastModified) {
+    return "ETag: " + etag + "\r\nLast-Modified: " + httpDate(lastModified) + "\r\n";
+  }
+
+  /**
+   * Evaluates the request's preconditions.  If-None-Match takes precedence; If-Modified-Since is only considered
+   * without it.
+   * @param request is the parsed request.
+   * @param etag is the current entity tag.
+   * @param lastModified is the file's last modified time in millisecs.
+   * @return true if the client's copy is current and 304 is to be answered.
+   */
+  public static boolean isNotModified(final RequestParser request, final String etag, final long lastModified) {
+    String ifNoneMatch = request.getHeader(HDR_IF_NONE_MATCH);
+    if (ifNoneMatch != null) {
+      return matches(ifNoneMatch, etag);
+    }
+    String ifModifiedSince = request.getHeader(HDR_IF_MODIFIED_SINCE);
+    if (ifModifiedSince != null) {
+      try {
+        long since = ZonedDateTime.parse(ifModifiedSince.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+        // Http dates have a resolution of seconds.
+        return lastModified / MS <= since;
+      } catch (DateTimeParseException e) {
+        // An invalid date is ignored.
+        return false;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Evaluates If-Range: a Range request is only honoured while the client's partial copy is of the current file.
+   * @param request is the parsed request.
+   * @param etag is the current entity tag.
+   * @param lastModified is the file's last modified time in millisecs.
+   * @return true if there is no If-Range, or its entity tag or date still matches exactly.
+   */
+  public static boolean isRangeCurrent(final RequestParser request, final String etag, final long lastModified) {
+    String ifRange = request.getHeader(HDR_IF_RANGE);
+    if (ifRange == null) {
+      return true;
+    }
+    String value = ifRange.trim();
+    if (value.startsWith("\"") || value.startsWith(WEAK)) {
+      // Strong comparison: a weak tag never matches.
+      return value.equals(etag);
+    }
+    try {
+      return ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond() == lastModified / MS;
+    } catch (DateTimeParseException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Weak comparison of an If-None-Match list against an entity tag.
+   * @param list is the header value: "*" or a comma separated list of entity tags.
+   * @param etag is the current entity tag.
+   * @return true if any listed tag matches.
+   */
+  static boolean matches(final String list, final String etag) {
+    for (String candidate : list.split(",")) {
+      String tag = candidate.trim();
+      if (tag.equals("*")) {
+        return true;
+      }
+      if (tag.startsWith(WEAK)) {
+        tag = tag.substring(WEAK.length());
+      }
+      if (tag.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,75 @@
+package httpserver;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Logger;
+
+/**
+ * A client connection that outlives the thread servicing it: between requests it is parked on a selector loop, and
+ * the Processor holding its buffered input travels along with it.
+ * @author kmatassa
+ */
+final class Connection {
+  /**
+   * Millisecs.
+   */
+  private static final int MS = 1000;
+  /**
+   * Local logger.
+   */
+  private Logger logger = Logger.getAnonymousLogger();
+  /**
+   * Socket channel.
+   */
+  private final SocketChannel channel;
+  /**
+   * Services requests on this connection.
+   */
+  private final Processor processor;
+  /**
+   * @param socketChannel is the accepted connection.
+   * @param context holds the settings and shared caches.
+   */
+  Connection(final SocketChannel socketChannel, final ServerContext context) {
+    this.channel = socketChannel;
+    this.processor = new Processor(socketChannel.socket(), context);
+  }
+
+  /**
+   * @param defaultMillis is the idle timeout of connections not granted a keep-alive timeout.
+   * @return long millisecs this connection may be parked idle, honouring the keep-alive timeout its Processor granted
+   *     on the last request.  0 means for ever.
+   */
+  long idleTimeout(final long defaultMillis) {
+    int granted = processor.getKeepAliveTimeout();
+    if (granted > 0) {
+      return (long) granted * MS;
+    }
+    return defaultMillis;
+  }
+
+  /**
+   * Closes the connection, quietly.
+   */
+  void close() {
+    try {
+      processor.close();
+    } catch (IOException e) {
+      logger.fine("close failed: " + e.getMessage());
+    }
+  }
+
+  /**
+   * @return SocketChannel of this connection.
+   */
+  SocketChannel getChannel() {
+    return channel;
+  }
+
+  /**
+   * @return Processor of this connection.
+   */
+  Processor getProcessor() {
+    return processor;
+  }
+}
@@ -0,0 +1,172 @@
+package httpserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds small, hot static files in memory as pre-encoded responses, validators included, keyed by canonical path.
+ * Entries are evicted in least-recently-used order once the total size passes its byte limit, and dropped when the
+ * file's last modified time or size no longer match.  Compressed variants are held alongside, under their own keys.
+ * @author kmatassa
+ */
+public class ContentCache {
+  /**
+   * CRLF.
+   */
+  private static final String CRLF = "\r\n";
+  /**
+   * Initial capacity of the entry map.
+   */
+  private static final int INITIAL_CAPACITY = 64;
+  /**
+   * Load factor of the entry map.
+   */
+  private static final float LOAD_FACTOR = 0.75f;
+  /**
+   * Entries in access order, eldest first.
+   */
+  private final LinkedHashMap<String, CachedContent> entries = new LinkedHashMap<String, CachedContent>(INITIAL_CAPACITY,
+      LOAD_FACTOR, true);
+  /**
+   * Limit on the bytes held by all entries.
+   */
+  private final long maxBytes;
+  /**
+   * Limit on the body size of a single entry.
+   */
+  private final long maxEntryBytes;
+  /**
+   * Bytes held by all entries.
+   */
+  private long totalBytes = 0;
+
+  /**
+   * @param maxBytesValue limits the bytes held by all entries, 0 disables the cache.
+   * @param maxEntryBytesValue limits the body size of a single entry.
+   */
+  public ContentCache(final long maxBytesValue, final long maxEntryBytesValue) {
+    this.maxBytes = maxBytesValue;
+    this.maxEntryBytes = Math.min(maxEntryBytesValue, maxBytesValue);
+  }
+
+  /**
+   * @param size is the file size.
+   * @return true if a file of this size may be cached.
+   */
+  public final boolean isCacheable(final long size) {
+    return maxBytes > 0 && size <= maxEntryBytes;
+  }
+
+  /**
+   * Looks up a file, dropping the entry if the file has changed since it was read.
+   * @param key is the canonical path.
+   * @param lastModified is the file's current last modified time.
+   * @param size is the file's current size.
+   * @return CachedContent or null if missing or stale.
+   */
+  final synchronized CachedContent get(final String key, final long lastModified, final long size) {
+    CachedContent entry = entries.get(key);
+    if (entry != null && (entry.getLastModified() != lastModified || entry.getSourceSize() != size)) {
+      remove(key);
+      entry = null;
+    }
+    return entry;
+  }
+
+  /**
+   * Reads a file and caches it with its entity headers.
+   * @param key is the canonical path.
+   * @param file is the file to read.
+   * @param lastModified is the file's last modified time, taken before reading it.
+   * @param contentType is the content type.
+   * @return CachedContent that has been cached.
+   * @throws IOException sometimes
+   */
+  final CachedContent load(final String key, final File file, final long lastModified, final String contentType)
+      throws IOException {
+    return load(key, file, lastModified, contentType, null, false);
+  }
+
+  /**
+   * Reads a file in a content coding and caches it with its entity headers.  The entry is answered even when too large
+   * to be held.
+   * @param key is the canonical path, qualified by the coding when compressed here.
+   * @param file is the file to read.
+   * @param lastModified is the file's last modified time, taken before reading it.
+   * @param contentType is the content type.
+   * @param coding is the content coding, or null for identity.
+   * @param compress is true to compress the file, false if it is already in the coding.
+   * @return CachedContent that has been cached.
+   * @throws IOException sometimes
+   */
+  final CachedContent load(final String key, final File file, final long lastModified, final String contentType,
+                           final String coding, final boolean compress) throws IOException {
+    byte[] body = Files.readAllBytes(file.toPath());
+    long sourceSize = body.length;
+    String etag = ConditionalGet.etag(sourceSize, lastModified, coding);
+    String validators = ConditionalGet.validatorHeaders(etag, lastModified);
+    if (compress) {
+      body = ContentEncoding.compress(body, coding);
+    }
+    String encoding = "";
+    if (coding != null) {
+      encoding = "Content-Encoding: " + coding + CRLF;
+    }
+    byte[] head = ("Content-Type: " + contentType + CRLF + "Content-Length: " + body.length + CRLF + encoding + validators
+                   + CRLF).getBytes(StandardCharsets.ISO_8859_1);
+    byte[] data = new byte[head.length + body.length];
+    System.arraycopy(head, 0, data, 0, head.length);
+    System.arraycopy(body, 0, data, head.length, body.length);
+    CachedContent entry = new CachedContent(data, head.length, lastModified, sourceSize, contentType, etag,
+                                            validators.getBytes(StandardCharsets.ISO_8859_1));
+    if (isCacheable(body.length)) {
+      put(key, entry);
+    }
+    return entry;
+  }
+
+  /**
+   * Adds an entry, evicting the least recently used ones to stay within the byte limit.
+   * @param key is the canonical path.
+   * @param entry is the content.
+   */
+  private synchronized void put(final String key, final CachedContent entry) {
+    remove(key);
+    entries.put(key, entry);
+    totalBytes += entry.getWeight();
+    Iterator<Map.Entry<String, CachedContent>> eldest = entries.entrySet().iterator();
+    while (totalBytes > maxBytes && eldest.hasNext()) {
+      totalBytes -= eldest.next().getValue().getWeight();
+      eldest.remove();
+    }
+  }
+
+  /**
+   * @param key is the canonical path.
+   */
+  final synchronized void remove(final String key) {
+    CachedContent old = entries.remove(key);
+    if (old != null) {
+      totalBytes -= old.getWeight();
+    }
+  }
+
+  /**
+   * @return long bytes held by all entries.
+   */
+  public final synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  /**
+   * @return int number of entries.
+   */
+  public final synchronized int size() {
+    return entries.size();
+  }
+}
@@ -0,0 +1,129 @@
+package httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content codings understood by http-server: negotiation against Accept-Encoding, which content types are worth
+ * compressing, and the compression itself.
+ * @author kmatassa
+ */
+public final class ContentEncoding {
+  /**
+   * The gzip coding.
+   */
+  public static final String GZIP = "gzip";
+  /**
+   * The deflate coding, zlib format.
+   */
+  public static final String DEFLATE = "deflate";
+  /**
+   * Suffix of precompressed gzip siblings.
+   */
+  public static final String GZIP_SUFFIX = ".gz";
+
+  /**
+   * Utility class.
+   */
+  private ContentEncoding() {
+  }
+
+  /**
+   * Picks the coding to answer with, preferring gzip.  Codings given a quality of 0 are refused.
+   * @param acceptEncoding is the Accept-Encoding header value, or null.
+   * @return String GZIP, DEFLATE, or null for the identity coding.
+   */
+  public static String negotiate(final String acceptEncoding) {
+    if (acceptEncoding == null) {
+      return null;
+    }
+    boolean gzip = false;
+    boolean deflate = false;
+    boolean any = false;
+    boolean gzipListed = false;
+    boolean deflateListed = false;
+    for (String element : acceptEncoding.split(",")) {
+      String[] params = element.split(";");
+      String coding = params[0].trim().toLowerCase(Locale.ROOT);
+      boolean accepted = isAccepted(params);
+      if (coding.equals(GZIP) || coding.equals("x-gzip")) {
+        gzip = accepted;
+        gzipListed = true;
+      } else if (coding.equals(DEFLATE)) {
+        deflate = accepted;
+        deflateListed = true;
+      } else if (coding.equals("*")) {
+        any = accepted;
+      }
+    }
+    if (gzip || (any && !gzipListed)) {
+      return GZIP;
+    }
+    if (deflate || (any && !deflateListed)) {
+      return DEFLATE;
+    }
+    return null;
+  }
+
+  /**
+   * @param params are the coding and its parameters.
+   * @return boolean false if the quality is 0.
+   */
+  private static boolean isAccepted(final String[] params) {
+    for (int i = 1; i < params.length; i++) {
+      String param = params[i].trim();
+      if (param.startsWith("q=") || param.startsWith("Q=")) {
+        try {
+          return Float.parseFloat(param.substring(2).trim()) > 0;
+        } catch (NumberFormatException e) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param contentType is the content type, parameters allowed.
+   * @return true for textual types that compress well.
+   */
+  public static boolean isCompressible(final String contentType) {
+    String type = contentType.toLowerCase(Locale.ROOT);
+    int semi = type.indexOf(';');
+    if (semi >= 0) {
+      type = type.substring(0, semi).trim();
+    }
+    return type.startsWith("text/")
+        || type.equals("application/javascript")
+        || type.equals("application/json")
+        || type.equals("application/xml")
+        || type.endsWith("+xml")
+        || type.endsWith("+json");
+  }
+
+  /**
+   * @param body is the content.
+   * @param coding is GZIP or DEFLATE.
+   * @return byte[] the compressed content.
+   * @throws IOException sometimes
+   */
+  public static byte[] compress(final byte[] body, final String coding) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(body.length / 2 + 1);
+    OutputStream out;
+    if (GZIP.equals(coding)) {
+      out = new GZIPOutputStream(bytes);
+    } else {
+      out = new DeflaterOutputStream(bytes);
+    }
+    try {
+      out.write(body);
+    } finally {
+      out.close();
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,149 @@
+package httpserver;
+
+import java.io.File;
+
+/**
+ * The representation of a file chosen for a request: the file itself, its precompressed ".gz" sibling, or a
+ * compressed copy made once and held in the content cache.  Vary is set whenever the choice depends on Accept-Encoding,
+ * so that shared caches keep the representations apart.
+ * @author kmatassa
+ */
+final class ContentVariant {
+  /**
+   * Request header name.
+   */
+  private static final String HDR_ACCEPT_ENCODING = "Accept-Encoding";
+  /**
+   * The file whose bytes are sent: the requested one, or its sibling.
+   */
+  private final File file;
+  /**
+   * Last modified time of that file.
+   */
+  private final long lastModified;
+  /**
+   * Size of that file.
+   */
+  private final long size;
+  /**
+   * Coding of the response, or null for identity.
+   */
+  private final String coding;
+  /**
+   * True if the bytes are to be compressed, rather than already being so.
+   */
+  private final boolean compressed;
+  /**
+   * True if the response varies on Accept-Encoding.
+   */
+  private final boolean vary;
+
+  /**
+   * @param fileValue is the file whose bytes are sent.
+   * @param lastModifiedValue is its last modified time.
+   * @param sizeValue is its size.
+   * @param codingValue is the coding of the response, or null.
+   * @param compressedValue is true if the bytes are to be compressed.
+   * @param varyValue is true if the response varies on Accept-Encoding.
+   */
+  private ContentVariant(final File fileValue, final long lastModifiedValue, final long sizeValue,
+                         final String codingValue, final boolean compressedValue, final boolean varyValue) {
+    this.file = fileValue;
+    this.lastModified = lastModifiedValue;
+    this.size = sizeValue;
+    this.coding = codingValue;
+    this.compressed = compressedValue;
+    this.vary = varyValue;
+  }
+
+  /**
+   * Chooses the representation of a file.  A precompressed sibling is preferred for gzip; otherwise compressible
+   * types within the size limits are compressed.  A file is compressed only if the cache can hold it, so that the
+   * compressed copy is made once rather than on every request.  Range requests are answered from the file itself.
+   * @param request is the parsed request.
+   * @param source is the requested file.
+   * @param index holds any precompressed sibling.
+   * @param config holds the compression limits.
+   * @param cache holds the compressed copies.
+   * @return ContentVariant
+   */
+  static ContentVariant select(final RequestParser request, final DocRootIndex.Entry source, final DocRootIndex index,
+                               final ServerConfig config, final ContentCache cache) {
+    long size = source.getSize();
+    DocRootIndex.Entry sibling = index.get(source.getPath() + ContentEncoding.GZIP_SUFFIX);
+    // Textual bodies do not grow when compressed, so a file the cache holds has a compressed copy it holds too.
+    boolean compressible = size >= config.getCompressMinBytes() && size <= config.getCompressMaxBytes()
+        && cache.isCacheable(size) && ContentEncoding.isCompressible(source.getContentType());
+    boolean vary = compressible || sibling != null;
+    String accepted = ContentEncoding.negotiate(request.getHeader(HDR_ACCEPT_ENCODING));
+    if (accepted != null && request.getHeader("Range") == null) {
+      if (sibling != null && accepted.equals(ContentEncoding.GZIP)) {
+        return new ContentVariant(sibling.getFile(), sibling.getLastModified(), sibling.getSize(), ContentEncoding.GZIP,
+                                  false, vary);
+      }
+      if (compressible) {
+        return new ContentVariant(source.getFile(), source.getLastModified(), size, accepted, true, vary);
+      }
+    }
+    return new ContentVariant(source.getFile(), source.getLastModified(), size, null, false, vary);
+  }
+
+  /**
+   * @return String content cache key: the path of the file, with the coding when compressed on the fly.
+   */
+  String getCacheKey() {
+    if (compressed) {
+      return file.getPath() + "#" + coding;
+    }
+    return file.getPath();
+  }
+
+  /**
+   * @return String entity tag, distinct for each coding.
+   */
+  String etag() {
+    return ConditionalGet.etag(size, lastModified, coding);
+  }
+
+  /**
+   * @return File whose bytes are sent.
+   */
+  File getFile() {
+    return file;
+  }
+
+  /**
+   * @return long last modified time of the file.
+   */
+  long getLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * @return long size of the file.
+   */
+  long getSize() {
+    return size;
+  }
+
+  /**
+   * @return String coding of the response, or null for identity.
+   */
+  String getCoding() {
+    return coding;
+  }
+
+  /**
+   * @return true if the bytes are to be compressed, rather than already being so.
+   */
+  boolean isCompressed() {
+    return compressed;
+  }
+
+  /**
+   * @return true if the response varies on Accept-Encoding.
+   */
+  boolean isVary() {
+    return vary;
+  }
+}
@@ -0,0 +1,428 @@
+package httpserver;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.net.URI;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * An index of the files of the docroot, by request path, holding what a response needs to know of each: its canonical
+ * file, size, last modified time and content type.  The tree is walked once at startup, the canonical path check done
+ * for every file then, and a WatchService keeps the index current as files come, change and go.  A lookup is thus a
+ * map get, with no file system calls.  A change to a ".mime.types" file, or events lost to an overflow, re-read the
+ * tables and re-walk the whole tree, swapping the new index in at once.
+ * @author kmatassa
+ */
+final class DocRootIndex implements Closeable {
+  /**
+   * Local logger.
+   */
+  private Logger logger = Logger.getAnonymousLogger();
+  /**
+   * Canonical docroot.
+   */
+  private final Path root;
+  /**
+   * Content types of the files.
+   */
+  private final MimeTypes mimeTypes;
+  /**
+   * Watches the folders of the docroot, or null if the file system cannot.
+   */
+  private final WatchService watcher;
+  /**
+   * Folders watched, by key.  Used by the constructor, then by the watching thread and by uploads.
+   */
+  private final Map<WatchKey, Path> folders = new ConcurrentHashMap<WatchKey, Path>();
+  /**
+   * Files by request path.
+   */
+  private volatile Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+  /**
+   * A file of the docroot.
+   */
+  static final class Entry {
+    /**
+     * Request path.
+     */
+    private final String path;
+    /**
+     * The file, by its canonical path.
+     */
+    private final File file;
+    /**
+     * Size in bytes.
+     */
+    private final long size;
+    /**
+     * Last modified time in millisecs.
+     */
+    private final long lastModified;
+    /**
+     * Content type.
+     */
+    private final String contentType;
+
+    /**
+     * @param pathValue is the request path.
+     * @param fileValue is the file, by its canonical path.
+     * @param attrs are its attributes.
+     * @param contentTypeValue is its content type.
+     */
+    Entry(final String pathValue, final File fileValue, final BasicFileAttributes attrs, final String contentTypeValue) {
+      this.path = pathValue;
+      this.file = fileValue;
+      this.size = attrs.size();
+      this.lastModified = attrs.lastModifiedTime().toMillis();
+      this.contentType = contentTypeValue;
+    }
+
+    /**
+     * @return String request path.
+     */
+    String getPath() {
+      return path;
+    }
+
+    /**
+     * @return File by its canonical path.
+     */
+    File getFile() {
+      return file;
+    }
+
+    /**
+     * @return long size in bytes.
+     */
+    long getSize() {
+      return size;
+    }
+
+    /**
+     * @return long last modified time in millisecs.
+     */
+    long getLastModified() {
+      return lastModified;
+    }
+
+    /**
+     * @return String content type.
+     */
+    String getContentType() {
+      return contentType;
+    }
+  }
+
+  /**
+   * Indexes the docroot, and starts watching it.
+   * @param docRoot is the folder served.
+   * @param mimeTypesValue gives the content types of the files.
+   * @throws IOException if the docroot cannot be resolved.
+   */
+  DocRootIndex(final File docRoot, final MimeTypes mimeTypesValue) throws IOException {
+    this.root = docRoot.getCanonicalFile().toPath();
+    this.mimeTypes = mimeTypesValue;
+    WatchService w = null;
+    if (Files.isDirectory(root)) {
+      try {
+        w = root.getFileSystem().newWatchService();
+      } catch (IOException | UnsupportedOperationException e) {
+        logger.warning("cannot watch " + root + ", changes will not be seen: " + e.getMessage());
+      }
+    } else {
+      logger.warning("docroot " + root + " is not a folder");
+    }
+    this.watcher = w;
+    scan(root, entries);
+    logger.info("docroot " + root + " indexed: " + entries.size() + " files");
+    if (watcher != null) {
+      Thread t = new Thread("http-server-docroot") {
+        public void run() {
+          watch();
+        }
+      };
+      t.setDaemon(true);
+      t.start();
+    }
+  }
+
+  /**
+   * @param uri is the request URI.
+   * @return Entry of the file requested.
+   * @throws FileNotFoundException if there is no such file.
+   * @throws IOException if the path leads out of the docroot.
+   */
+  Entry lookup(final String uri) throws IOException {
+    Map<String, Entry> index = entries;
+    // A plain path is a key as it is; others are decoded and normalized first.
+    if (uri.startsWith("/") && uri.indexOf('%') < 0 && uri.indexOf('?') < 0 && uri.indexOf('#') < 0) {
+      Entry e = index.get(uri);
+      if (e != null) {
+        return e;
+      }
+    }
+    String path = URI.create(uri).normalize().getPath();
+    if (path == null || path.startsWith("/..") || path.startsWith("..")) {
+      logger.warning("Suspicious request, skipping: " + uri);
+      throw new IOException("bad request");
+    }
+    Entry e = index.get(path);
+    if (e == null) {
+      throw new FileNotFoundException();
+    }
+    return e;
+  }
+
+  /**
+   * Resolves the file a request would store, whether or not it exists yet.
+   * @param uri is the request URI.
+   * @return Path of the file, within the docroot.
+   * @throws IOException sometimes, ProtocolException if the path is not that of a file, or leads out of the docroot.
+   */
+  Path resolve(final String uri) throws IOException {
+    String path;
+    try {
+      path = URI.create(uri).normalize().getPath();
+    } catch (IllegalArgumentException e) {
+      throw new ProtocolException("bad path " + uri);
+    }
+    if (path == null || !path.startsWith("/") || path.startsWith("/..") || path.endsWith("/")) {
+      throw new ProtocolException("bad path " + uri);
+    }
+    Path target = root.resolve(path.substring(1)).normalize();
+    if (!target.startsWith(root) || target.equals(root) || isPrivate(target.getFileName().toString())) {
+      throw new ProtocolException("bad path " + uri);
+    }
+    // Its nearest existing folder must not be a link out of the docroot.
+    Path existing = target.getParent();
+    while (!Files.exists(existing)) {
+      existing = existing.getParent();
+    }
+    if (!existing.toRealPath().startsWith(root)) {
+      throw new ProtocolException("bad path " + uri);
+    }
+    return target;
+  }
+
+  /**
+   * @param path is a normalized request path.
+   * @return Entry of the file, or null if there is none.
+   */
+  Entry get(final String path) {
+    return entries.get(path);
+  }
+
+  /**
+   * @return int number of files indexed.
+   */
+  int size() {
+    return entries.size();
+  }
+
+  /**
+   * Stops watching.
+   * @throws IOException sometimes
+   */
+  @Override
+  public void close() throws IOException {
+    if (watcher != null) {
+      watcher.close();
+    }
+  }
+
+  /**
+   * Indexes the files of a folder and its sub-folders, watching each folder.
+   * @param folder is the folder.
+   * @param index receives the files.
+   */
+  private void scan(final Path folder, final Map<String, Entry> index) {
+    try {
+      Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+          register(dir);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+          index(file, attrs, index);
+          return FileVisitResult.CONTINUE;
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+          logger.fine("cannot index " + file + ": " + e.getMessage());
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    } catch (IOException e) {
+      logger.warning("cannot index " + folder + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * @param dir is a folder to watch.
+   * @throws IOException sometimes
+   */
+  private void register(final Path dir) throws IOException {
+    if (watcher != null) {
+      WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                                  StandardWatchEventKinds.ENTRY_MODIFY);
+      folders.put(key, dir);
+    }
+  }
+
+  /**
+   * Indexes a file, or drops it if it is not a regular file within the docroot, or is private to the server.
+   * @param file is the file, as found in its folder.
+   * @param attrs are its attributes, links not followed.
+   * @param index receives the file.
+   */
+  private void index(final Path file, final BasicFileAttributes attrs, final Map<String, Entry> index) {
+    String key = key(file);
+    if (isPrivate(file.getFileName().toString())) {
+      index.remove(key);
+      return;
+    }
+    Path canonical = file;
+    BasicFileAttributes target = attrs;
+    try {
+      if (attrs.isSymbolicLink()) {
+        // Served only if it leads to a file within the docroot.
+        canonical = file.toRealPath();
+        target = Files.readAttributes(canonical, BasicFileAttributes.class);
+      }
+    } catch (IOException e) {
+      index.remove(key);
+      return;
+    }
+    if (target.isRegularFile() && canonical.startsWith(root)) {
+      File f = canonical.toFile();
+      index.put(key, new Entry(key, f, target, mimeTypes.getContentType(f)));
+    } else {
+      index.remove(key);
+    }
+  }
+
+  /**
+   * @param fileName is the name of a file of the docroot.
+   * @return true if the file is the server's own, neither served nor stored by requests: an upload in progress, or a
+   * folder's content type overrides.
+   */
+  private static boolean isPrivate(final String fileName) {
+    return Upload.isTemporary(fileName) || fileName.equals(MimeTypes.OVERRIDE_FILE);
+  }
+
+  /**
+   * @param file is a file of the docroot.
+   * @return String its request path.
+   */
+  private String key(final Path file) {
+    StringBuilder sb = new StringBuilder();
+    for (Path name : root.relativize(file)) {
+      sb.append('/').append(name.toString());
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Applies the changes to the docroot as they are reported, until closed.
+   */
+  private void watch() {
+    try {
+      for (;;) {
+        WatchKey key = watcher.take();
+        Path dir = folders.get(key);
+        boolean rescan = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+            rescan = true;
+          } else {
+            Path p = dir.resolve((Path) event.context());
+            if (p.getFileName().toString().equals(MimeTypes.OVERRIDE_FILE)) {
+              rescan = true;
+            } else {
+              update(p);
+            }
+          }
+        }
+        if (!key.reset()) {
+          folders.remove(key);
+        }
+        if (rescan) {
+          rescan();
+        }
+      }
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      logger.fine("docroot no longer watched");
+    }
+  }
+
+  /**
+   * Brings the index up to date with a path reported changed, by the watcher, or by an upload that is not to wait for
+   * the watcher.
+   * @param p is the path.
+   */
+  void update(final Path p) {
+    Map<String, Entry> index = entries;
+    BasicFileAttributes attrs;
+    try {
+      attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+    } catch (NoSuchFileException e) {
+      // Gone, and with it anything below it.
+      String key = key(p);
+      index.remove(key);
+      Iterator<String> i = index.keySet().iterator();
+      while (i.hasNext()) {
+        if (i.next().startsWith(key + "/")) {
+          i.remove();
+        }
+      }
+      return;
+    } catch (IOException e) {
+      logger.warning("cannot index " + p + ": " + e.getMessage());
+      return;
+    }
+    if (attrs.isDirectory()) {
+      // A new folder may have been filled before it could be watched.
+      scan(p, index);
+    } else {
+      index(p, attrs, index);
+    }
+  }
+
+  /**
+   * Re-reads the content types and re-walks the docroot, swapping in the new index.
+   */
+  private void rescan() {
+    mimeTypes.reload();
+    for (WatchKey key : folders.keySet()) {
+      key.cancel();
+    }
+    folders.clear();
+    Map<String, Entry> index = new ConcurrentHashMap<String, Entry>();
+    scan(root, index);
+    entries = index;
+    logger.info("docroot " + root + " re-indexed: " + index.size() + " files");
+  }
+}
@@ -0,0 +1,250 @@
+package httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+import org.apache.http.client.methods.HttpHead;
+
+/**
+ * A request and its response, as seen by a {@link Handler}.  A connection reuses one exchange for all its requests, so
+ * handlers must not keep it past their return.  Simple handlers answer with {@link #respond} or {@link #fail}; those
+ * of the server itself build their responses from the batch of the connection.
+ * @author kmatassa
+ */
+public final class Exchange {
+  /**
+   * Most path parameters a route may have.
+   */
+  static final int MAX_PARAMETERS = 8;
+  /**
+   * Settings and shared caches.
+   */
+  private final ServerContext context;
+  /**
+   * Responses not yet written.
+   */
+  private final ResponseBatch batch;
+  /**
+   * Socket connection, or null for the stream of an HTTP/2 connection.
+   */
+  private final Socket client;
+  /**
+   * Bytes read from the connection and not yet parsed, between position and limit.
+   */
+  private ByteBuffer inBuf;
+  /**
+   * Request input.
+   */
+  private InputStream input;
+  /**
+   * The request.
+   */
+  private RequestParser request;
+  /**
+   * Keep-alive options of the response.
+   */
+  private KeepAliveExtension keepAlive;
+  /**
+   * Path of the request URI, without query or fragment.
+   */
+  private String path;
+  /**
+   * Names of the path parameters of the route taken.
+   */
+  private final String[] names = new String[MAX_PARAMETERS];
+  /**
+   * Values of the path parameters of the route taken.
+   */
+  private final String[] values = new String[MAX_PARAMETERS];
+  /**
+   * Status code of the response, 0 until one is begun.
+   */
+  private int status;
+  /**
+   * Body bytes of the response.
+   */
+  private long sent;
+
+  /**
+   * @param serverContext holds the settings and shared caches.
+   * @param responseBatch holds the responses not yet written.
+   * @param clientSocket is the socket connection, or null for an HTTP/2 stream.
+   */
+  Exchange(final ServerContext serverContext, final ResponseBatch responseBatch, final Socket clientSocket) {
+    this.context = serverContext;
+    this.batch = responseBatch;
+    this.client = clientSocket;
+  }
+
+  /**
+   * Begins the next request.
+   * @param requestValue is the request.
+   * @param keepAliveValue holds the keep-alive options of the response.
+   * @param inputValue is the request input.
+   * @param buffer holds the bytes read from the connection and not yet parsed.
+   * @param pathValue is the path of the request URI.
+   */
+  void reset(final RequestParser requestValue, final KeepAliveExtension keepAliveValue, final InputStream inputValue,
+             final ByteBuffer buffer, final String pathValue) {
+    this.request = requestValue;
+    this.keepAlive = keepAliveValue;
+    this.input = inputValue;
+    this.inBuf = buffer;
+    this.path = pathValue;
+    this.status = 0;
+    this.sent = 0;
+    for (int i = 0; i < MAX_PARAMETERS && names[i] != null; i++) {
+      names[i] = null;
+      values[i] = null;
+    }
+  }
+
+  /**
+   * @return RequestParser the request.
+   */
+  public RequestParser getRequest() {
+    return request;
+  }
+
+  /**
+   * @return ServerContext settings and shared caches.
+   */
+  public ServerContext getContext() {
+    return context;
+  }
+
+  /**
+   * @return String path of the request URI, without query or fragment, not decoded.
+   */
+  public String getPath() {
+    return path;
+  }
+
+  /**
+   * @param name is the name of a parameter of the route, as in /items/{name}.
+   * @return String the path segment it matched, not decoded, or null if the route has no such parameter.
+   */
+  public String getParameter(final String name) {
+    for (int i = 0; i < MAX_PARAMETERS && names[i] != null; i++) {
+      if (names[i].equals(name)) {
+        return values[i];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param index is the position of the parameter in the route.
+   * @param name is its name.
+   * @param value is the path segment it matched.
+   */
+  void setParameter(final int index, final String name, final String value) {
+    names[index] = name;
+    values[index] = value;
+  }
+
+  /**
+   * Answers the request with a body held in memory; a HEAD request is answered with the head alone.
+   * @param code is the status code.
+   * @param contentType is the content type of the body, in ISO-8859-1.
+   * @param body is the body.
+   * @return true, the connection being kept open if the client asked for it.
+   * @throws IllegalArgumentException if the content type holds CR, LF, NUL or a character beyond ISO-8859-1.
+   */
+  public boolean respond(final int code, final String contentType, final byte[] body) {
+    batch.add(begin(code).header(ResponseHead.CONTENT_TYPE, contentType)
+              .header(ResponseHead.CONTENT_LENGTH, body.length)
+              .end());
+    if (!request.isMethod(HttpHead.METHOD_NAME)) {
+      sent = body.length;
+      batch.add(ByteBuffer.wrap(body));
+    }
+    return true;
+  }
+
+  /**
+   * Answers the request with a status code alone, closing the connection.  Whatever part of a response was added
+   * before is dropped.
+   * @param code is the status code.
+   * @return false, the connection being closed.
+   */
+  public boolean fail(final int code) {
+    status = code;
+    sent = 0;
+    batch.dropResponse();
+    batch.add(batch.head().issue(request, code));
+    return false;
+  }
+
+  /**
+   * Begins the head of the response, with the Connection header and the Keep-Alive options granted.
+   * @param code is the status code.
+   * @return ResponseHead with the status line, Date, Connection and Keep-Alive headers.
+   */
+  ResponseHead begin(final int code) {
+    status = code;
+    ResponseHead head = batch.head().begin(request, code);
+    if (keepAlive.isKeepAliveSupported() && keepAlive.isKeepAliveEnabled()) {
+      return head.put(ResponseHead.CONNECTION_KEEP_ALIVE).keepAlive(keepAlive.getTimeout(), keepAlive.getRemaining());
+    }
+    return head.put(ResponseHead.CONNECTION_CLOSE);
+  }
+
+  /**
+   * @return ResponseBatch of the connection.
+   */
+  ResponseBatch getBatch() {
+    return batch;
+  }
+
+  /**
+   * @return int status code of the response, 0 if none has been begun.
+   */
+  int getStatus() {
+    return status;
+  }
+
+  /**
+   * @return long body bytes of the response.
+   */
+  long getSent() {
+    return sent;
+  }
+
+  /**
+   * @param sentValue is the number of body bytes of the response.
+   */
+  void setSent(final long sentValue) {
+    this.sent = sentValue;
+  }
+
+  /**
+   * @return true if the request came on a connection of its own, rather than as an HTTP/2 stream, whose body is not
+   *         read.
+   */
+  boolean isConnection() {
+    return client != null;
+  }
+
+  /**
+   * Works out the framing of the request body, which is read through the buffer holding the head.
+   * @param maxBytes is the most body bytes accepted.
+   * @return RequestBody of the request, or null if it gives no length.
+   * @throws ProtocolException if the framing is malformed, RequestBody.TooLarge if the body is over the limit.
+   */
+  RequestBody body(final long maxBytes) throws ProtocolException {
+    return RequestBody.of(request, input, inBuf, maxBytes);
+  }
+
+  /**
+   * Tells the client to go on with its body, writing at once what the batch holds.
+   * @throws IOException sometimes
+   */
+  void sendContinue() throws IOException {
+    batch.add(Upload.continueResponse());
+    batch.flush();
+  }
+}
@@ -0,0 +1,16 @@
+package httpserver;
+
+/**
+ * Selects the kind of threads that service connections.
+ * @author kmatassa
+ */
+public enum ExecutorMode {
+  /**
+   * A fixed-length pool of platform threads.
+   */
+  POOLED,
+  /**
+   * A new virtual thread per connection, on JVMs that support them.  Falls back to POOLED otherwise.
+   */
+  VIRTUAL
+}
@@ -0,0 +1,256 @@
+package httpserver;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.NoSuchFileException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Logger;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+
+/**
+ * Serves the files of the docroot, the handler of GET and HEAD requests routed to no other.
+ * @author kmatassa
+ */
+final class FileHandler implements Handler {
+  /**
+   * Request header name.
+   */
+  private static final String HDR_RANGE = "Range";
+  /**
+   * Local logger.
+   */
+  private Logger logger = Logger.getAnonymousLogger();
+
+  /**
+   * Delivers the file at the request path.  A missing file, or one deleted since it was indexed, is answered 404, and
+   * a request that fails otherwise, such as one for a path out of the docroot, 400; either replaces whatever part of
+   * the response was added.
+   * @param exchange holds the request and receives the response.
+   * @return true if the connection may be kept open, false if an issue was delivered.
+   * @throws IOException sometimes
+   */
+  @Override
+  public boolean handle(final Exchange exchange) throws IOException {
+    try {
+      deliverAFile(exchange);
+      return true;
+    } catch (FileNotFoundException | NoSuchFileException e) {
+      return exchange.fail(HttpStatus.SC_NOT_FOUND);
+    } catch (Exception e) {
+      return exchange.fail(HttpStatus.SC_BAD_REQUEST);
+    }
+  }
+
+  /**
+   * Delivers the request URL if possible.  Small files are answered from the content cache, large ones from memory
+   * mappings.  Clients accepting gzip or deflate get a precompressed sibling, or a compressed copy made once, of
+   * textual files.  A conditional request whose validators still match is answered 304 without a body, and a Range
+   * request is answered with just the parts asked for.
+   * @param exchange holds the request and receives the response.
+   * @throws IOException sometimes
+   */
+  private void deliverAFile(final Exchange exchange) throws IOException {
+    RequestParser request = exchange.getRequest();
+    ServerContext context = exchange.getContext();
+    ResponseBatch batch = exchange.getBatch();
+    DocRootIndex index = context.getDocRootIndex();
+    DocRootIndex.Entry source = index.lookup(request.getUri());
+    boolean withBody = request.isMethod(HttpGet.METHOD_NAME);
+    String contentType = source.getContentType();
+    ContentVariant variant = ContentVariant.select(request, source, index, context.getConfig(),
+                                                   context.getContentCache());
+    File file = variant.getFile();
+    long size = variant.getSize();
+    long lastModified = variant.getLastModified();
+    ContentCache cache = context.getContentCache();
+    CachedContent cached = cache.get(variant.getCacheKey(), lastModified, size);
+    String etag;
+    if (cached != null) {
+      etag = cached.getEtag();
+    } else {
+      etag = variant.etag();
+    }
+    if (ConditionalGet.isNotModified(request, etag, lastModified)) {
+      // The client's copy is current: answer the validators alone, without reading the file.
+      ResponseHead head = beginHead(exchange, HttpStatus.SC_NOT_MODIFIED, variant);
+      if (cached != null) {
+        batch.add(head.take());
+        batch.add(cached.validatorsBuffer());
+        batch.add(ByteBuffer.wrap(ResponseHead.CRLF));
+      } else {
+        batch.add(putValidators(head, etag, lastModified).end());
+      }
+      return;
+    }
+    String range = request.getHeader(HDR_RANGE);
+    if (withBody && range != null && ConditionalGet.isRangeCurrent(request, etag, lastModified)) {
+      // Ranges are of the identity representation.
+      ByteRanges ranges = ByteRanges.parse(range, size);
+      if (ranges != null) {
+        int status = HttpStatus.SC_PARTIAL_CONTENT;
+        if (ranges.size() == 0) {
+          status = HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE;
+        }
+        deliverRanges(exchange, ranges, file, cached, contentType,
+                      putValidators(beginHead(exchange, status, variant), etag, lastModified));
+        return;
+      }
+    }
+    if (cached == null && (variant.isCompressed() || cache.isCacheable(size))) {
+      // Compressed once, then answered from the cache like any small file.
+      cached = cache.load(variant.getCacheKey(), file, lastModified, contentType, variant.getCoding(),
+                          variant.isCompressed());
+    }
+    ResponseHead head = beginHead(exchange, HttpStatus.SC_OK, variant).put(ResponseHead.ACCEPT_RANGES);
+    try {
+      if (cached != null) {
+        // The entity headers follow, pre-encoded along with the body.
+        if (context.isDebug()) {
+          logger.info("content-type [" + cached.getContentType() + "] (cached)");
+          logger.info("content-length [" + cached.getContentLength() + "]");
+        }
+        if (withBody) {
+          exchange.setSent(cached.getContentLength());
+        }
+        batch.add(head.take());
+        batch.add(cached.asBuffer(withBody));
+        return;
+      }
+      long contentLength = size;
+      if (context.isDebug()) {
+        logger.info("content-type [" + contentType + "]");
+        logger.info("content-length [" + contentLength + "]");
+      }
+      if (withBody) {
+        exchange.setSent(contentLength);
+      }
+
+      head.header(ResponseHead.CONTENT_TYPE, contentType)
+          .header(ResponseHead.CONTENT_LENGTH, contentLength);
+      if (variant.getCoding() != null) {
+        head.header(ResponseHead.CONTENT_ENCODING, variant.getCoding());
+      }
+      ByteBuffer txt = putValidators(head, etag, lastModified).end();
+      MappedFileTier mapped = context.getMappedFiles();
+      if (withBody && mapped.isMappable(contentLength)) {
+        // Large files go out from a mapping shared with concurrent requests, along with the head.
+        MappedFile mapping = mapped.acquire(file.getPath(), file, lastModified, contentLength);
+        batch.hold(mapping);
+        batch.add(txt);
+        batch.add(mapping.slice());
+        return;
+      }
+      batch.add(txt);
+      // Only deliver content for GET.
+      if (withBody) {
+        batch.addFile(file, 0, contentLength);
+      }
+    } catch (Exception e) {
+      logger.severe(e.getMessage());
+      throw e;
+    }
+  }
+
+  /**
+   * Begins the head of a response about a file.
+   * @param exchange holds the request and receives the response.
+   * @param code is the status code.
+   * @param variant is the representation of the file.
+   * @return ResponseHead with the status line, Date, Connection, Keep-Alive and Vary headers.
+   */
+  private ResponseHead beginHead(final Exchange exchange, final int code, final ContentVariant variant) {
+    ResponseHead head = exchange.begin(code);
+    if (variant.isVary()) {
+      head.put(ResponseHead.VARY_ACCEPT_ENCODING);
+    }
+    return head;
+  }
+
+  /**
+   * @param head is the head being built.
+   * @param etag is the entity tag.
+   * @param lastModified is the file's last modified time.
+   * @return ResponseHead with the ETag and Last-Modified headers.
+   */
+  private ResponseHead putValidators(final ResponseHead head, final String etag, final long lastModified) {
+    return head.header(ResponseHead.ETAG, etag).header(ResponseHead.LAST_MODIFIED, HttpDate.format(lastModified));
+  }
+
+  /**
+   * Delivers parts of a file: a single range as 206 with its Content-Range, several as a multipart/byteranges body, or
+   * 416 if none can be satisfied.  Parts of cached files are sliced from memory, others are sent from the file, with
+   * zero-copy transfers for large regions.
+   * @param exchange holds the request and receives the response.
+   * @param ranges are the requested ranges, resolved against the file length.
+   * @param source is the file.
+   * @param cached is the cached content of the file, or null.
+   * @param contentType is the content type of the file.
+   * @param head is the head begun with a 206 or 416 status, Date, Connection and validator headers.
+   * @throws IOException sometimes
+   */
+  private void deliverRanges(final Exchange exchange, final ByteRanges ranges, final File source,
+                             final CachedContent cached, final String contentType, final ResponseHead head)
+      throws IOException {
+    ResponseBatch batch = exchange.getBatch();
+    if (ranges.size() == 0) {
+      batch.add(head.header(ResponseHead.CONTENT_RANGE, ranges.unsatisfiedRange())
+                .put(ResponseHead.CONTENT_LENGTH_ZERO)
+                .end());
+      return;
+    }
+    if (ranges.size() == 1) {
+      exchange.setSent(ranges.getLength(0));
+      batch.add(head.header(ResponseHead.CONTENT_TYPE, contentType)
+                .header(ResponseHead.CONTENT_LENGTH, ranges.getLength(0))
+                .header(ResponseHead.CONTENT_RANGE, ranges.contentRange(0))
+                .end());
+      addRange(batch, source, cached, ranges.getStart(0), ranges.getLength(0));
+      return;
+    }
+    // Each part is preceded by its delimiter and headers, built after the head in its buffer; the length of the whole
+    // body is known up front, every character of them being a byte.
+    String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    int crLf = ResponseHead.CRLF.length;
+    int delimiter = crLf + ResponseHead.DASHES.length + boundary.length() + crLf;
+    long contentLength = delimiter + ResponseHead.DASHES.length;
+    for (int i = 0; i < ranges.size(); i++) {
+      contentLength += delimiter + ResponseHead.CONTENT_TYPE.length + contentType.length() + crLf
+                       + ResponseHead.CONTENT_RANGE.length + ranges.contentRange(i).length() + crLf + crLf
+                       + ranges.getLength(i);
+    }
+    exchange.setSent(contentLength);
+    batch.add(head.header(ResponseHead.CONTENT_TYPE, "multipart/byteranges; boundary=" + boundary)
+              .header(ResponseHead.CONTENT_LENGTH, contentLength)
+              .end());
+    for (int i = 0; i < ranges.size(); i++) {
+      batch.add(head.put(ResponseHead.CRLF).header(ResponseHead.DASHES, boundary)
+                .header(ResponseHead.CONTENT_TYPE, contentType)
+                .header(ResponseHead.CONTENT_RANGE, ranges.contentRange(i))
+                .end());
+      addRange(batch, source, cached, ranges.getStart(i), ranges.getLength(i));
+    }
+    batch.add(head.put(ResponseHead.CRLF).header(ResponseHead.DASHES, boundary + "--").take());
+  }
+
+  /**
+   * Adds a range of a file's content to the batch.
+   * @param batch receives the range.
+   * @param source is the file.
+   * @param cached is the cached content of the file, or null.
+   * @param start is the offset of the range.
+   * @param length is the length of the range.
+   * @throws IOException sometimes
+   */
+  private void addRange(final ResponseBatch batch, final File source, final CachedContent cached, final long start,
+                        final long length) throws IOException {
+    if (cached != null) {
+      batch.add(cached.bodyRange(start, length));
+    } else {
+      batch.addFile(source, start, length);
+    }
+  }
+}
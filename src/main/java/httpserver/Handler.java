@@ -0,0 +1,20 @@
+package httpserver;
+
+import java.io.IOException;
+
+/**
+ * Serves the requests routed to it.  Handlers are registered with {@link ServerConfig#addRoute} by method and path
+ * pattern, and are shared by all connections, so they hold no state of their own between requests.
+ * @author kmatassa
+ */
+public interface Handler {
+  /**
+   * Answers a request, adding its response to the exchange.  Failures not answered by the handler close the
+   * connection, replacing whatever part of the response was added: a FileNotFoundException or NoSuchFileException is
+   * answered 404, a ProtocolException 400, and any other exception 500.
+   * @param exchange holds the request and receives the response.
+   * @return true if the connection may be kept open for further requests.
+   * @throws IOException sometimes
+   */
+  boolean handle(Exchange exchange) throws IOException;
+}
@@ -0,0 +1,160 @@
+package httpserver;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A log-linear histogram of non-negative values, after HdrHistogram: values below 32 have a bucket each, and each
+ * further power of two is split into 16 buckets, so any value is known to within about 6%.  Buckets are striped
+ * LongAdders, so recording from many threads at once stays cheap.
+ * @author kmatassa
+ */
+final class Histogram {
+  /**
+   * Values below this have a bucket each.
+   */
+  private static final int LINEAR_BUCKETS = 32;
+  /**
+   * Bits of the linear range.
+   */
+  private static final int LINEAR_BITS = 5;
+  /**
+   * Buckets per power of two above the linear range.
+   */
+  private static final int SUB_BUCKETS = 16;
+  /**
+   * Highest bit index of a long.
+   */
+  private static final int TOP_BIT = 63;
+  /**
+   * Bucket counts.
+   */
+  private final LongAdder[] buckets;
+  /**
+   * Sum of all values recorded.
+   */
+  private final LongAdder sum = new LongAdder();
+
+  /**
+   * Creates an empty histogram covering every non-negative long.
+   */
+  Histogram() {
+    buckets = new LongAdder[index(Long.MAX_VALUE) + 1];
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * @param value is a non-negative value; negative ones are recorded as 0.
+   */
+  void record(final long value) {
+    long v = Math.max(0, value);
+    buckets[index(v)].increment();
+    sum.add(v);
+  }
+
+  /**
+   * Records a value measured by a closed-loop client, correcting for coordinated omission: a client that waits for
+   * each response sends nothing while a response is late, so the requests it would have sent meanwhile are recorded
+   * too, with the latencies they would have seen.
+   * @param value is a non-negative value.
+   * @param expectedInterval is the interval between requests without stalls; 0 or less records the value alone.
+   */
+  void recordCorrected(final long value, final long expectedInterval) {
+    record(value);
+    if (expectedInterval <= 0) {
+      return;
+    }
+    for (long missed = value - expectedInterval; missed >= expectedInterval; missed -= expectedInterval) {
+      record(missed);
+    }
+  }
+
+  /**
+   * @param value is a non-negative value.
+   * @return int index of its bucket.
+   */
+  static int index(final long value) {
+    if (value < LINEAR_BUCKETS) {
+      return (int) value;
+    }
+    int shift = TOP_BIT - Long.numberOfLeadingZeros(value) - (LINEAR_BITS - 1);
+    int sub = (int) (value >>> shift);
+    return LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + sub - SUB_BUCKETS;
+  }
+
+  /**
+   * @param index is a bucket index.
+   * @return long highest value counted in the bucket.
+   */
+  static long upperBound(final int index) {
+    if (index < LINEAR_BUCKETS) {
+      return index;
+    }
+    int j = index - LINEAR_BUCKETS;
+    int shift = j / SUB_BUCKETS + 1;
+    long sub = SUB_BUCKETS + j % SUB_BUCKETS;
+    return ((sub + 1) << shift) - 1;
+  }
+
+  /**
+   * @param value is a non-negative value.
+   * @return long highest value counted in its bucket, the nearest bound at or above it that buckets count exactly.
+   */
+  static long exactBound(final long value) {
+    return upperBound(index(Math.max(0, value)));
+  }
+
+  /**
+   * @return long number of values recorded.
+   */
+  long getCount() {
+    long n = 0;
+    for (LongAdder b : buckets) {
+      n += b.sum();
+    }
+    return n;
+  }
+
+  /**
+   * @return long sum of the values recorded.
+   */
+  long getSum() {
+    return sum.sum();
+  }
+
+  /**
+   * @param value is a bound.
+   * @return long number of values recorded in the buckets lying wholly at or below the bound, which is every value at
+   * or below it if the bound is exact.
+   */
+  long countAtOrBelow(final long value) {
+    long n = 0;
+    for (int i = 0; i < buckets.length && upperBound(i) <= value; i++) {
+      n += buckets[i].sum();
+    }
+    return n;
+  }
+
+  /**
+   * @param quantile is between 0 and 1.
+   * @return long value at or below which that share of the values lie, to bucket precision; 0 if empty.
+   */
+  long valueAt(final double quantile) {
+    long[] counts = new long[buckets.length];
+    long total = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      counts[i] = buckets[i].sum();
+      total += counts[i];
+    }
+    long target = Math.max(1, (long) Math.ceil(quantile * total));
+    long seen = 0;
+    for (int i = 0; i < counts.length; i++) {
+      seen += counts[i];
+      if (seen >= target) {
+        return upperBound(i);
+      }
+    }
+    return 0;
+  }
+}
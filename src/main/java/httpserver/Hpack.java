@@ -0,0 +1,633 @@
+package httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HPACK, the header compression of HTTP/2 (RFC 7541): a {@link Decoder} for the header blocks of a connection's
+ * requests, and an {@link Encoder} for those of its responses.  Each keeps a dynamic table of the fields recently sent,
+ * so that a field repeated on the connection, such as a Content-Type or Vary, costs a byte or two.  Fields that change
+ * with every response, such as Date and ETag, are sent without being indexed, so as not to push the others out.
+ * Literal strings are Huffman coded whenever that makes them shorter.  Header fields are handled as a flat list of
+ * names and values.
+ * @author kmatassa
+ */
+final class Hpack {
+  /**
+   * Default size in octets of the dynamic tables.
+   */
+  static final int DEFAULT_TABLE_SIZE = 4096;
+  /**
+   * Octets counted per table entry besides its name and value.
+   */
+  private static final int ENTRY_OVERHEAD = 32;
+  /**
+   * Mask turning a byte into an unsigned char.
+   */
+  private static final int BYTE_MASK = 0xff;
+  /**
+   * Flag of an indexed field, and of a Huffman coded string.
+   */
+  private static final int HIGH_BIT = 0x80;
+  /**
+   * Pattern of a literal field with incremental indexing.
+   */
+  private static final int INCREMENTAL = 0x40;
+  /**
+   * Pattern of a dynamic table size update.
+   */
+  private static final int SIZE_UPDATE = 0x20;
+  /**
+   * Pattern of a literal field never indexed.
+   */
+  private static final int NEVER_INDEXED = 0x10;
+  /**
+   * Prefix bits of an indexed field, and of a string length.
+   */
+  private static final int PREFIX_7 = 7;
+  /**
+   * Prefix bits of a literal field with incremental indexing.
+   */
+  private static final int PREFIX_6 = 6;
+  /**
+   * Prefix bits of a dynamic table size update.
+   */
+  private static final int PREFIX_5 = 5;
+  /**
+   * Prefix bits of other literal fields.
+   */
+  private static final int PREFIX_4 = 4;
+  /**
+   * Bits of an integer carried per continuation byte.
+   */
+  private static final int CONTINUATION_BITS = 7;
+  /**
+   * Most bits of an integer accepted, so that it fits an int.
+   */
+  private static final int MAX_INTEGER_SHIFT = 28;
+  /**
+   * Bits per octet.
+   */
+  private static final int OCTET = 8;
+  /**
+   * Huffman code of the end of string symbol.
+   */
+  private static final int EOS_CODE = 0x3fffffff;
+  /**
+   * Length in bits of the end of string symbol.
+   */
+  private static final int EOS_LENGTH = 30;
+  /**
+   * Symbol of the end of string.
+   */
+  private static final int EOS = 256;
+  /**
+   * The static table (RFC 7541 Appendix A): names and values of indexes 1 to 61.
+   */
+  private static final String[][] STATIC_TABLE = {
+      {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"},
+      {":path", "/index.html"}, {":scheme", "http"}, {":scheme", "https"}, {":status", "200"},
+      {":status", "204"}, {":status", "206"}, {":status", "304"}, {":status", "400"},
+      {":status", "404"}, {":status", "500"}, {"accept-charset", ""}, {"accept-encoding", "gzip, deflate"},
+      {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""}, {"access-control-allow-origin", ""},
+      {"age", ""}, {"allow", ""}, {"authorization", ""}, {"cache-control", ""},
+      {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""},
+      {"content-location", ""}, {"content-range", ""}, {"content-type", ""}, {"cookie", ""},
+      {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""},
+      {"from", ""}, {"host", ""}, {"if-match", ""}, {"if-modified-since", ""},
+      {"if-none-match", ""}, {"if-range", ""}, {"if-unmodified-since", ""}, {"last-modified", ""},
+      {"link", ""}, {"location", ""}, {"max-forwards", ""}, {"proxy-authenticate", ""},
+      {"proxy-authorization", ""}, {"range", ""}, {"referer", ""}, {"refresh", ""},
+      {"retry-after", ""}, {"server", ""}, {"set-cookie", ""}, {"strict-transport-security", ""},
+      {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""},
+      {"www-authenticate", ""}
+  };
+  /**
+   * Huffman codes of the octets (RFC 7541 Appendix B).
+   */
+  private static final int[] HUFFMAN_CODES = {
+      0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+      0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+      0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+      0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+      0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+      0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+      0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+      0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+      0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+      0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+      0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+      0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+      0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+      0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+      0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+      0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+      0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+      0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+      0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+      0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+      0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+      0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+      0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+      0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+      0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+      0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+      0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+      0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+      0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+      0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+      0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+      0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee
+  };
+  /**
+   * Lengths in bits of the Huffman codes of the octets.
+   */
+  private static final byte[] HUFFMAN_LENGTHS = {
+      13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+      6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6, 5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+      13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+      15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5, 6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+      20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23, 24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+      22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23, 21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+      26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25, 19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+      20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23, 26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26
+  };
+  /**
+   * Decoding tree of the Huffman code.
+   */
+  private static final Node HUFFMAN_TREE = huffmanTree();
+  /**
+   * Static table index of each name and value, keyed by name, a NUL, and value.
+   */
+  private static final Map<String, Integer> STATIC_FIELDS = new HashMap<String, Integer>();
+  /**
+   * Lowest static table index of each name.
+   */
+  private static final Map<String, Integer> STATIC_NAMES = new HashMap<String, Integer>();
+
+  static {
+    for (int i = STATIC_TABLE.length; i > 0; i--) {
+      STATIC_FIELDS.put(STATIC_TABLE[i - 1][0] + '\0' + STATIC_TABLE[i - 1][1], i);
+      STATIC_NAMES.put(STATIC_TABLE[i - 1][0], i);
+    }
+  }
+
+  /**
+   * Utility class.
+   */
+  private Hpack() {
+  }
+
+  /**
+   * A node of the Huffman decoding tree: a leaf holds a symbol, others their two children.
+   */
+  private static final class Node {
+    /**
+     * Child for a 0 bit.
+     */
+    private Node zero;
+    /**
+     * Child for a 1 bit.
+     */
+    private Node one;
+    /**
+     * Symbol of a leaf, -1 for others.
+     */
+    private int symbol = -1;
+  }
+
+  /**
+   * @return Node root of the Huffman decoding tree.
+   */
+  private static Node huffmanTree() {
+    Node root = new Node();
+    for (int sym = 0; sym <= EOS; sym++) {
+      int code = EOS_CODE;
+      int length = EOS_LENGTH;
+      if (sym < EOS) {
+        code = HUFFMAN_CODES[sym];
+        length = HUFFMAN_LENGTHS[sym];
+      }
+      Node n = root;
+      for (int bit = length - 1; bit >= 0; bit--) {
+        if ((code >>> bit & 1) == 0) {
+          if (n.zero == null) {
+            n.zero = new Node();
+          }
+          n = n.zero;
+        } else {
+          if (n.one == null) {
+            n.one = new Node();
+          }
+          n = n.one;
+        }
+      }
+      n.symbol = sym;
+    }
+    return root;
+  }
+
+  /**
+   * The table of fields of one direction of a connection: the static table, followed by the dynamic table, newest
+   * entry first.
+   */
+  private static final class Table {
+    /**
+     * Dynamic entries, oldest first: name and value.
+     */
+    private final List<String[]> entries = new ArrayList<String[]>();
+    /**
+     * Size in octets of the dynamic entries.
+     */
+    private int size = 0;
+    /**
+     * Most octets the dynamic entries may take.
+     */
+    private int maxSize = DEFAULT_TABLE_SIZE;
+
+    /**
+     * @param index is an index of the static or dynamic table, from 1.
+     * @return String[] name and value.
+     * @throws ProtocolException if there is no such entry.
+     */
+    String[] get(final int index) throws ProtocolException {
+      if (index > 0 && index <= STATIC_TABLE.length) {
+        return STATIC_TABLE[index - 1];
+      }
+      int i = entries.size() - (index - STATIC_TABLE.length);
+      if (index <= 0 || i < 0) {
+        throw new ProtocolException("bad hpack index " + index);
+      }
+      return entries.get(i);
+    }
+
+    /**
+     * Adds an entry, evicting the oldest ones to make room.
+     * @param name is the name.
+     * @param value is the value.
+     */
+    void add(final String name, final String value) {
+      int entrySize = name.length() + value.length() + ENTRY_OVERHEAD;
+      if (entrySize > maxSize) {
+        // An entry larger than the table empties it.
+        entries.clear();
+        size = 0;
+        return;
+      }
+      entries.add(new String[] {name, value});
+      size += entrySize;
+      evict();
+    }
+
+    /**
+     * @param maxSizeValue to be set, evicting entries that no longer fit.
+     */
+    void setMaxSize(final int maxSizeValue) {
+      this.maxSize = maxSizeValue;
+      evict();
+    }
+
+    /**
+     * Evicts the oldest entries until the rest fit.
+     */
+    private void evict() {
+      while (size > maxSize) {
+        String[] e = entries.remove(0);
+        size -= e[0].length() + e[1].length() + ENTRY_OVERHEAD;
+      }
+    }
+
+    /**
+     * @param name is the name.
+     * @param value is the value.
+     * @return int index of the dynamic entry with this name and value, or 0 if there is none.
+     */
+    int indexOf(final String name, final String value) {
+      for (int i = entries.size() - 1; i >= 0; i--) {
+        String[] e = entries.get(i);
+        if (e[0].equals(name) && e[1].equals(value)) {
+          return STATIC_TABLE.length + entries.size() - i;
+        }
+      }
+      return 0;
+    }
+
+    /**
+     * @param name is the name.
+     * @return int index of a dynamic entry with this name, or 0 if there is none.
+     */
+    int indexOfName(final String name) {
+      for (int i = entries.size() - 1; i >= 0; i--) {
+        if (entries.get(i)[0].equals(name)) {
+          return STATIC_TABLE.length + entries.size() - i;
+        }
+      }
+      return 0;
+    }
+  }
+
+  /**
+   * Decodes the header blocks received on a connection, in the order received.
+   */
+  static final class Decoder {
+    /**
+     * Fields of the connection.
+     */
+    private final Table table = new Table();
+    /**
+     * Most octets the peer may have the dynamic table take.
+     */
+    private final int maxTableSize;
+
+    /**
+     * @param maxTableSizeValue is the table size allowed the peer, as advertised in SETTINGS_HEADER_TABLE_SIZE.
+     */
+    Decoder(final int maxTableSizeValue) {
+      this.maxTableSize = maxTableSizeValue;
+      table.setMaxSize(maxTableSizeValue);
+    }
+
+    /**
+     * @param block is a complete header block, backed by an array.
+     * @param fields receives the names and values, in turn.
+     * @throws ProtocolException if the block is malformed; the connection's decoding state is then lost.
+     */
+    void decode(final ByteBuffer block, final List<String> fields) throws ProtocolException {
+      try {
+        while (block.hasRemaining()) {
+          int b = block.get(block.position()) & BYTE_MASK;
+          if ((b & HIGH_BIT) != 0) {
+            String[] e = table.get(readInteger(block, PREFIX_7));
+            fields.add(e[0]);
+            fields.add(e[1]);
+          } else if ((b & INCREMENTAL) != 0) {
+            String[] e = readLiteral(block, PREFIX_6, fields);
+            table.add(e[0], e[1]);
+          } else if ((b & SIZE_UPDATE) != 0) {
+            int size = readInteger(block, PREFIX_5);
+            if (size > maxTableSize) {
+              throw new ProtocolException("hpack table size " + size + " over " + maxTableSize);
+            }
+            table.setMaxSize(size);
+          } else {
+            readLiteral(block, PREFIX_4, fields);
+          }
+        }
+      } catch (BufferUnderflowException e) {
+        throw new ProtocolException("truncated header block");
+      }
+    }
+
+    /**
+     * Reads a literal field.
+     * @param block is the header block.
+     * @param prefix is the prefix bits of the name index.
+     * @param fields receives the name and value.
+     * @return String[] name and value.
+     * @throws ProtocolException if the field is malformed.
+     */
+    private String[] readLiteral(final ByteBuffer block, final int prefix, final List<String> fields)
+        throws ProtocolException {
+      int index = readInteger(block, prefix);
+      String name;
+      if (index == 0) {
+        name = readString(block);
+      } else {
+        name = table.get(index)[0];
+      }
+      String value = readString(block);
+      fields.add(name);
+      fields.add(value);
+      return new String[] {name, value};
+    }
+  }
+
+  /**
+   * Encodes the header blocks sent on a connection.  Blocks must be sent in the order encoded.
+   */
+  static final class Encoder {
+    /**
+     * Names of fields that change with every response, and are not worth indexing.
+     */
+    private static final String[] VOLATILE = {"date", "etag", "last-modified", "content-length", "content-range", "age",
+                                              "expires"};
+    /**
+     * Fields of the connection.
+     */
+    private final Table table = new Table();
+    /**
+     * Table size to announce at the start of the next block, or -1 if unchanged.
+     */
+    private int pendingSize = -1;
+
+    /**
+     * Follows the table size the peer allows, as advertised in its SETTINGS_HEADER_TABLE_SIZE, up to the default.
+     * @param size is the table size allowed.
+     */
+    void setMaxTableSize(final int size) {
+      int s = Math.min(size, DEFAULT_TABLE_SIZE);
+      table.setMaxSize(s);
+      pendingSize = s;
+    }
+
+    /**
+     * @param fields are the names and values, in turn; names are lower case.
+     * @return byte[] the header block.
+     */
+    byte[] encode(final List<String> fields) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      if (pendingSize >= 0) {
+        writeInteger(out, SIZE_UPDATE, PREFIX_5, pendingSize);
+        pendingSize = -1;
+      }
+      for (int i = 0; i < fields.size(); i += 2) {
+        String name = fields.get(i);
+        String value = fields.get(i + 1);
+        Integer exact = STATIC_FIELDS.get(name + '\0' + value);
+        int index = table.indexOf(name, value);
+        if (exact != null) {
+          writeInteger(out, HIGH_BIT, PREFIX_7, exact);
+        } else if (index > 0) {
+          writeInteger(out, HIGH_BIT, PREFIX_7, index);
+        } else {
+          Integer nameIndex = STATIC_NAMES.get(name);
+          if (nameIndex == null) {
+            nameIndex = table.indexOfName(name);
+          }
+          if (isVolatile(name)) {
+            writeInteger(out, 0, PREFIX_4, nameIndex);
+          } else {
+            writeInteger(out, INCREMENTAL, PREFIX_6, nameIndex);
+            table.add(name, value);
+          }
+          if (nameIndex == 0) {
+            writeString(out, name);
+          }
+          writeString(out, value);
+        }
+      }
+      return out.toByteArray();
+    }
+
+    /**
+     * @param name is a field name.
+     * @return true if its values change with every response.
+     */
+    private static boolean isVolatile(final String name) {
+      for (String v : VOLATILE) {
+        if (v.equals(name)) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Reads an integer with an N-bit prefix (RFC 7541 5.1).
+   * @param block is the header block, at the first byte of the integer.
+   * @param prefix is the number of bits of the prefix.
+   * @return int the integer.
+   * @throws ProtocolException if it does not fit an int.
+   */
+  static int readInteger(final ByteBuffer block, final int prefix) throws ProtocolException {
+    int max = (1 << prefix) - 1;
+    int value = block.get() & max;
+    if (value < max) {
+      return value;
+    }
+    int shift = 0;
+    int b;
+    do {
+      if (shift > MAX_INTEGER_SHIFT) {
+        throw new ProtocolException("hpack integer overflow");
+      }
+      b = block.get() & BYTE_MASK;
+      value += (b & ~HIGH_BIT) << shift;
+      shift += CONTINUATION_BITS;
+    } while ((b & HIGH_BIT) != 0);
+    if (value < 0) {
+      throw new ProtocolException("hpack integer overflow");
+    }
+    return value;
+  }
+
+  /**
+   * Writes an integer with an N-bit prefix.
+   * @param out receives the integer.
+   * @param pattern is the bits above the prefix in the first byte.
+   * @param prefix is the number of bits of the prefix.
+   * @param value is the integer.
+   */
+  static void writeInteger(final ByteArrayOutputStream out, final int pattern, final int prefix, final int value) {
+    int max = (1 << prefix) - 1;
+    if (value < max) {
+      out.write(pattern | value);
+      return;
+    }
+    out.write(pattern | max);
+    int rest = value - max;
+    while (rest >= HIGH_BIT) {
+      out.write(rest & ~HIGH_BIT | HIGH_BIT);
+      rest >>>= CONTINUATION_BITS;
+    }
+    out.write(rest);
+  }
+
+  /**
+   * Reads a string literal, Huffman coded or not.
+   * @param block is the header block, at the first byte of the string.
+   * @return String the string, of ISO-8859-1 characters.
+   * @throws ProtocolException if it is malformed.
+   */
+  static String readString(final ByteBuffer block) throws ProtocolException {
+    boolean huffman = (block.get(block.position()) & HIGH_BIT) != 0;
+    int length = readInteger(block, PREFIX_7);
+    if (length > block.remaining()) {
+      throw new ProtocolException("truncated hpack string");
+    }
+    if (!huffman) {
+      String s = new String(block.array(), block.arrayOffset() + block.position(), length, StandardCharsets.ISO_8859_1);
+      block.position(block.position() + length);
+      return s;
+    }
+    StringBuilder sb = new StringBuilder(length * 2);
+    Node n = HUFFMAN_TREE;
+    int pending = 0;
+    boolean ones = true;
+    for (int i = 0; i < length; i++) {
+      int b = block.get() & BYTE_MASK;
+      for (int bit = OCTET - 1; bit >= 0; bit--) {
+        int v = b >>> bit & 1;
+        if (v == 0) {
+          n = n.zero;
+        } else {
+          n = n.one;
+        }
+        pending++;
+        ones = ones && v == 1;
+        if (n == null) {
+          throw new ProtocolException("bad huffman code");
+        }
+        if (n.symbol >= 0) {
+          if (n.symbol == EOS) {
+            throw new ProtocolException("huffman end of string in a literal");
+          }
+          sb.append((char) n.symbol);
+          n = HUFFMAN_TREE;
+          pending = 0;
+          ones = true;
+        }
+      }
+    }
+    // Padding is the most significant bits of the EOS symbol, shorter than an octet.
+    if (pending >= OCTET || !ones) {
+      throw new ProtocolException("bad huffman padding");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Writes a string literal, Huffman coded if that makes it shorter.
+   * @param out receives the string.
+   * @param s is the string, of ISO-8859-1 characters.
+   */
+  static void writeString(final ByteArrayOutputStream out, final String s) {
+    byte[] raw = s.getBytes(StandardCharsets.ISO_8859_1);
+    long bits = 0;
+    for (byte b : raw) {
+      bits += HUFFMAN_LENGTHS[b & BYTE_MASK];
+    }
+    int coded = (int) ((bits + OCTET - 1) / OCTET);
+    if (coded >= raw.length) {
+      writeInteger(out, 0, PREFIX_7, raw.length);
+      out.write(raw, 0, raw.length);
+      return;
+    }
+    writeInteger(out, HIGH_BIT, PREFIX_7, coded);
+    long acc = 0;
+    int accBits = 0;
+    for (byte b : raw) {
+      int sym = b & BYTE_MASK;
+      int len = HUFFMAN_LENGTHS[sym];
+      acc = acc << len | HUFFMAN_CODES[sym];
+      accBits += len;
+      while (accBits >= OCTET) {
+        accBits -= OCTET;
+        out.write((int) (acc >>> accBits));
+      }
+      acc &= (1L << accBits) - 1;
+    }
+    if (accBits > 0) {
+      // Pad with the most significant bits of EOS, all ones.
+      out.write((int) (acc << (OCTET - accBits) | BYTE_MASK >>> accBits));
+    }
+  }
+}
@@ -0,0 +1,1184 @@
+package httpserver;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Logger;
+
+/**
+ * A cleartext HTTP/2 (h2c) connection, entered either with the connection preface (prior knowledge) or by upgrading an
+ * HTTP/1.1 request that asks for it.  The connection's thread reads the frames; each request stream is then serviced
+ * on a thread of its own, by a {@link Processor} reading the request as an HTTP/1.1 head and writing its response to
+ * the stream's {@link Http2Stream} channel, so that file delivery, caching, compression, validators and ranges are
+ * exactly those of HTTP/1.1.  Many requests thus share one connection at once, their frames interleaved.  Header
+ * blocks are compressed with {@link Hpack}, and response bodies are sent within the flow control windows granted by
+ * the client.  Keep-alive follows the server's {@link KeepAlivePolicy}: an idle connection is closed after its timeout,
+ * and one that has carried as many streams as a connection may carry requests is sent GOAWAY.
+ * @author kmatassa
+ */
+final class Http2Connection {
+  /**
+   * Connection preface left once the "PRI * HTTP/2.0" request head has been parsed.
+   */
+  private static final byte[] PREFACE_REST = "SM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+  /**
+   * Whole connection preface, sent by the client after the 101 of an upgrade.
+   */
+  private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+  /**
+   * Answer to an upgrade request.
+   */
+  private static final byte[] SWITCHING_PROTOCOLS =
+      "HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+  /**
+   * Request header naming the protocol upgraded to.
+   */
+  private static final String HDR_UPGRADE = "Upgrade";
+  /**
+   * Request header carrying the client's settings with an upgrade.
+   */
+  private static final String HDR_HTTP2_SETTINGS = "HTTP2-Settings";
+  /**
+   * Protocol token of cleartext HTTP/2.
+   */
+  private static final String H2C = "h2c";
+  /**
+   * Request headers specific to an HTTP/1.1 connection, not passed on.
+   */
+  private static final String[] CONNECTION_HEADERS = {"connection", "keep-alive", "proxy-connection", "transfer-encoding",
+                                                       "upgrade", "http2-settings"};
+  /**
+   * Length of a frame header.
+   */
+  static final int FRAME_HEADER = 9;
+  /**
+   * Largest frame payload, as sent and as accepted, until the peer allows more.
+   */
+  static final int DEFAULT_MAX_FRAME = 16 * 1024;
+  /**
+   * Largest frame payload a peer may allow.
+   */
+  private static final int MAX_FRAME_LIMIT = 0xffffff;
+  /**
+   * Flow control window of a new connection or stream.
+   */
+  static final int DEFAULT_WINDOW = 65535;
+  /**
+   * Largest flow control window.
+   */
+  private static final long MAX_WINDOW = Integer.MAX_VALUE;
+  /**
+   * Most octets of a header block accepted.
+   */
+  private static final int MAX_HEADER_BLOCK = 64 * 1024;
+  /**
+   * Size of the input buffer.
+   */
+  private static final int INPUT_BUFFER = 16 * 1024;
+  /**
+   * Millisecs.
+   */
+  private static final int MS = 1000;
+  /**
+   * Mask turning a byte into an unsigned char.
+   */
+  private static final int BYTE_MASK = 0xff;
+  /**
+   * Mask turning a short into an unsigned int.
+   */
+  private static final int SHORT_MASK = 0xffff;
+  /**
+   * Mask turning an int into an unsigned long.
+   */
+  private static final long INT_MASK = 0xffffffffL;
+  /**
+   * Mask clearing the reserved bit of a stream id or window increment.
+   */
+  private static final int ID_MASK = 0x7fffffff;
+  /**
+   * Bits per octet.
+   */
+  private static final int OCTET = 8;
+  /**
+   * Shift of the second byte of a 24-bit length.
+   */
+  private static final int SHIFT_16 = 16;
+  /**
+   * Offset of the flags in a frame header.
+   */
+  private static final int FLAGS_OFFSET = 4;
+  /**
+   * Offset of the stream id in a frame header.
+   */
+  private static final int STREAM_OFFSET = 5;
+  /**
+   * Length of a setting.
+   */
+  private static final int SETTING_LENGTH = 6;
+  /**
+   * Length of a PING payload.
+   */
+  private static final int PING_LENGTH = 8;
+  /**
+   * Length of the priority fields of a HEADERS frame.
+   */
+  private static final int PRIORITY_LENGTH = 5;
+  /**
+   * Length of a 32-bit field.
+   */
+  private static final int INT_LENGTH = 4;
+  /**
+   * Frame type DATA.
+   */
+  static final int DATA = 0x0;
+  /**
+   * Frame type HEADERS.
+   */
+  static final int HEADERS = 0x1;
+  /**
+   * Frame type RST_STREAM.
+   */
+  static final int RST_STREAM = 0x3;
+  /**
+   * Frame type SETTINGS.
+   */
+  static final int SETTINGS = 0x4;
+  /**
+   * Frame type PUSH_PROMISE.
+   */
+  static final int PUSH_PROMISE = 0x5;
+  /**
+   * Frame type PING.
+   */
+  static final int PING = 0x6;
+  /**
+   * Frame type GOAWAY.
+   */
+  static final int GOAWAY = 0x7;
+  /**
+   * Frame type WINDOW_UPDATE.
+   */
+  static final int WINDOW_UPDATE = 0x8;
+  /**
+   * Frame type CONTINUATION.
+   */
+  static final int CONTINUATION = 0x9;
+  /**
+   * Flag END_STREAM of DATA and HEADERS.
+   */
+  static final int END_STREAM = 0x1;
+  /**
+   * Flag ACK of SETTINGS and PING.
+   */
+  static final int ACK = 0x1;
+  /**
+   * Flag END_HEADERS of HEADERS and CONTINUATION.
+   */
+  static final int END_HEADERS = 0x4;
+  /**
+   * Flag PADDED of DATA and HEADERS.
+   */
+  static final int PADDED = 0x8;
+  /**
+   * Flag PRIORITY of HEADERS.
+   */
+  static final int PRIORITY = 0x20;
+  /**
+   * Setting of the HPACK table size.
+   */
+  static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+  /**
+   * Setting of the most concurrent streams.
+   */
+  static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+  /**
+   * Setting of the initial stream window.
+   */
+  static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+  /**
+   * Setting of the largest frame payload.
+   */
+  static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+  /**
+   * Error code NO_ERROR.
+   */
+  static final int NO_ERROR = 0x0;
+  /**
+   * Error code PROTOCOL_ERROR.
+   */
+  static final int PROTOCOL_ERROR = 0x1;
+  /**
+   * Error code INTERNAL_ERROR.
+   */
+  static final int INTERNAL_ERROR = 0x2;
+  /**
+   * Error code FLOW_CONTROL_ERROR.
+   */
+  static final int FLOW_CONTROL_ERROR = 0x3;
+  /**
+   * Error code FRAME_SIZE_ERROR.
+   */
+  static final int FRAME_SIZE_ERROR = 0x6;
+  /**
+   * Error code REFUSED_STREAM.
+   */
+  static final int REFUSED_STREAM = 0x7;
+  /**
+   * Error code COMPRESSION_ERROR.
+   */
+  static final int COMPRESSION_ERROR = 0x9;
+  /**
+   * Local logger.
+   */
+  private Logger logger = Logger.getAnonymousLogger();
+  /**
+   * Settings and shared caches.
+   */
+  private final ServerContext context;
+  /**
+   * Socket connection.
+   */
+  private final Socket client;
+  /**
+   * Client address, for the access log.
+   */
+  private final String remoteHost;
+  /**
+   * Frames read, starting with the input already buffered by the HTTP/1.1 processor.
+   */
+  private final InputStream in;
+  /**
+   * Frames written.
+   */
+  private final WritableByteChannel out;
+  /**
+   * Guards writes, and the encoder, so that frames go out whole and header blocks in the order encoded.
+   */
+  private final Object writeLock = new Object();
+  /**
+   * Guards the flow control windows; writers wait on it for a window to open.
+   */
+  private final Object flow = new Object();
+  /**
+   * Decodes the request header blocks.
+   */
+  private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+  /**
+   * Encodes the response header blocks.
+   */
+  private final Hpack.Encoder encoder = new Hpack.Encoder();
+  /**
+   * Open streams by id.
+   */
+  private final Map<Integer, Http2Stream> streams = new ConcurrentHashMap<Integer, Http2Stream>();
+  /**
+   * Ids of the streams opened whose request the client has not ended, which may still carry DATA and trailers once
+   * their response is done.  Only touched by the reading thread.
+   */
+  private final Set<Integer> receiving = new HashSet<Integer>();
+  /**
+   * Header block being received across CONTINUATION frames.
+   */
+  private final ByteArrayOutputStream headerBlock = new ByteArrayOutputStream();
+  /**
+   * Frame header being read.
+   */
+  private final byte[] frameHead = new byte[FRAME_HEADER];
+  /**
+   * Frame payload being read.
+   */
+  private final byte[] payload = new byte[DEFAULT_MAX_FRAME];
+  /**
+   * Frame header being written.
+   */
+  private final ByteBuffer writeHead = ByteBuffer.allocate(FRAME_HEADER);
+  /**
+   * Most streams open at once.
+   */
+  private final int maxStreams;
+  /**
+   * Streams this connection may carry in all, as many as a connection may carry requests.
+   */
+  private int maxRequests;
+  /**
+   * Streams opened.
+   */
+  private int opened = 0;
+  /**
+   * Id of the last stream opened by the client.
+   */
+  private int lastStreamId = 0;
+  /**
+   * Stream whose header block continues, or 0.
+   */
+  private int continuing = 0;
+  /**
+   * True if the header block being continued ends its stream.
+   */
+  private boolean continuingEnds = false;
+  /**
+   * Connection send window.
+   */
+  private long sendWindow = DEFAULT_WINDOW;
+  /**
+   * Initial send window of new streams, as set by the client.
+   */
+  private int initialWindow = DEFAULT_WINDOW;
+  /**
+   * Largest frame payload the client accepts.
+   */
+  private volatile int maxFrame = DEFAULT_MAX_FRAME;
+  /**
+   * True once GOAWAY has been sent or received: no new streams are opened.
+   */
+  private volatile boolean goingAway = false;
+  /**
+   * True once the output is shut down.
+   */
+  private boolean outputShut = false;
+  /**
+   * True once the connection is no longer read.
+   */
+  private boolean closed = false;
+
+  /**
+   * An error of the connection as a whole, answered with GOAWAY.
+   */
+  static final class ConnectionError extends ProtocolException {
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Error code.
+     */
+    private final int code;
+
+    /**
+     * @param codeValue is the error code.
+     * @param message is the detail.
+     */
+    ConnectionError(final int codeValue, final String message) {
+      super(message);
+      this.code = codeValue;
+    }
+
+    /**
+     * @return int error code.
+     */
+    int getCode() {
+      return code;
+    }
+  }
+
+  /**
+   * @param serverContext holds the settings and shared caches.
+   * @param clientSocket is the socket connection.
+   * @param input is the connection's input.
+   * @param buffered holds input already read from it, between position and limit.
+   * @throws IOException sometimes
+   */
+  Http2Connection(final ServerContext serverContext, final Socket clientSocket, final InputStream input,
+                  final ByteBuffer buffered) throws IOException {
+    this.context = serverContext;
+    this.client = clientSocket;
+    this.remoteHost = clientSocket.getInetAddress().getHostAddress();
+    byte[] rest = new byte[buffered.remaining()];
+    buffered.get(rest);
+    this.in = new BufferedInputStream(new SequenceInputStream(new ByteArrayInputStream(rest), input),
+                                      INPUT_BUFFER);
+    WritableByteChannel channel = clientSocket.getChannel();
+    if (channel == null) {
+      channel = Channels.newChannel(clientSocket.getOutputStream());
+    }
+    this.out = channel;
+    this.maxStreams = serverContext.getConfig().getHttp2MaxStreams();
+  }
+
+  /**
+   * @param request is a request just parsed.
+   * @return true if it is the start of the HTTP/2 connection preface.
+   */
+  static boolean isPreface(final RequestParser request) {
+    return request.isMethod("PRI") && "*".equals(request.getUri()) && request.isHttpVersionTwoO();
+  }
+
+  /**
+   * @param request is a request just parsed.
+   * @return true if it asks for an upgrade to h2c, and has no body that would have to be read first.  Others are
+   *     answered over HTTP/1.1, as if the upgrade had not been asked for.
+   */
+  static boolean isUpgrade(final RequestParser request) {
+    String upgrade = request.getHeader(HDR_UPGRADE);
+    String connection = request.getHeader("Connection");
+    return request.isHttpVersionOneOne() && upgrade != null && connection != null && hasToken(upgrade, H2C)
+        && hasToken(connection, HDR_UPGRADE) && upgradeSettings(request) != null
+        && hasNoBody(request);
+  }
+
+  /**
+   * @param request is a request.
+   * @return true if it has no body.
+   */
+  private static boolean hasNoBody(final RequestParser request) {
+    String length = request.getHeader("Content-Length");
+    return request.getHeader("Transfer-Encoding") == null && (length == null || "0".equals(length.trim()));
+  }
+
+  /**
+   * @param request is a request asking for an upgrade.
+   * @return byte[] the SETTINGS payload of its HTTP2-Settings header, or null if it has none or it is malformed.
+   */
+  private static byte[] upgradeSettings(final RequestParser request) {
+    String settings = request.getHeader(HDR_HTTP2_SETTINGS);
+    if (settings == null) {
+      return null;
+    }
+    try {
+      byte[] b = Base64.getUrlDecoder().decode(settings.trim());
+      if (b.length % SETTING_LENGTH != 0) {
+        return null;
+      }
+      return b;
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @param list is a comma-separated header value.
+   * @param token is a token.
+   * @return true if the token is in the list, ignoring case.
+   */
+  private static boolean hasToken(final String list, final String token) {
+    for (String t : list.split(",")) {
+      if (t.trim().equalsIgnoreCase(token)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Serves the connection until it is closed by either side, or idle past its keep-alive timeout.
+   * @param request is the connection preface, or the HTTP/1.1 request asking for the upgrade, which becomes stream 1.
+   * @throws IOException sometimes
+   */
+  void serve(final RequestParser request) throws IOException {
+    KeepAlivePolicy policy = context.getKeepAlivePolicy();
+    maxRequests = policy.maxRequests(0);
+    client.setSoTimeout(policy.timeout(0) * MS);
+    try {
+      if (isPreface(request)) {
+        writeSettings();
+        expect(PREFACE_REST);
+      } else {
+        byte[] settings = upgradeSettings(request);
+        write(ByteBuffer.wrap(SWITCHING_PROTOCOLS), null);
+        writeSettings();
+        applySettings(settings, settings.length);
+        open(1, upgradedHead(request), true);
+        lastStreamId = 1;
+        expect(PREFACE);
+      }
+      for (;;) {
+        try {
+          readFrame();
+        } catch (SocketTimeoutException e) {
+          if (goingAway) {
+            break;
+          }
+          // Idle past the keep-alive timeout.
+          goAway(NO_ERROR);
+        }
+      }
+    } catch (ConnectionError e) {
+      logger.warning("http2 connection error: " + e.getMessage());
+      goAway(e.getCode());
+    } catch (EOFException e) {
+      // The client closed its end.
+      logger.fine("http2 connection closed");
+    } finally {
+      synchronized (flow) {
+        closed = true;
+        flow.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Reads the connection preface, or what is left of it.
+   * @param preface is the octets expected.
+   * @throws IOException if they do not follow.
+   */
+  private void expect(final byte[] preface) throws IOException {
+    byte[] b = new byte[preface.length];
+    readFully(b, b.length);
+    for (int i = 0; i < b.length; i++) {
+      if (b[i] != preface[i]) {
+        throw new ConnectionError(PROTOCOL_ERROR, "bad connection preface");
+      }
+    }
+  }
+
+  /**
+   * Reads and handles a frame.
+   * @throws IOException sometimes; SocketTimeoutException if the connection has been idle past its timeout.
+   */
+  private void readFrame() throws IOException {
+    readFully(frameHead, FRAME_HEADER);
+    int length = (frameHead[0] & BYTE_MASK) << SHIFT_16 | (frameHead[1] & BYTE_MASK) << OCTET
+        | frameHead[2] & BYTE_MASK;
+    int type = frameHead[FLAGS_OFFSET - 1] & BYTE_MASK;
+    int flags = frameHead[FLAGS_OFFSET] & BYTE_MASK;
+    int stream = ByteBuffer.wrap(frameHead, STREAM_OFFSET, INT_LENGTH).getInt() & ID_MASK;
+    if (length > DEFAULT_MAX_FRAME) {
+      throw new ConnectionError(FRAME_SIZE_ERROR, "frame of " + length + " octets");
+    }
+    readFully(payload, length);
+    if (continuing != 0 && (type != CONTINUATION || stream != continuing)) {
+      throw new ConnectionError(PROTOCOL_ERROR, "header block interrupted");
+    }
+    switch (type) {
+      case DATA:
+        onData(stream, flags, length);
+        break;
+      case HEADERS:
+        onHeaders(stream, flags, length);
+        break;
+      case CONTINUATION:
+        if (continuing == 0) {
+          throw new ConnectionError(PROTOCOL_ERROR, "unexpected CONTINUATION");
+        }
+        appendHeaderBlock(0, length);
+        if ((flags & END_HEADERS) != 0) {
+          continuing = 0;
+          onHeaderBlock(stream, continuingEnds);
+        }
+        break;
+      case RST_STREAM:
+        if (stream == 0 || length != INT_LENGTH) {
+          throw new ConnectionError(PROTOCOL_ERROR, "bad RST_STREAM");
+        }
+        receiving.remove(stream);
+        Http2Stream s = streams.remove(stream);
+        if (s != null) {
+          s.reset();
+          synchronized (flow) {
+            flow.notifyAll();
+          }
+        }
+        break;
+      case SETTINGS:
+        onSettings(stream, flags, length);
+        break;
+      case PING:
+        if (stream != 0 || length != PING_LENGTH) {
+          throw new ConnectionError(FRAME_SIZE_ERROR, "bad PING");
+        }
+        if ((flags & ACK) == 0) {
+          writeFrame(PING, ACK, 0, ByteBuffer.wrap(payload, 0, PING_LENGTH));
+        }
+        break;
+      case GOAWAY:
+        goingAway = true;
+        drained();
+        break;
+      case WINDOW_UPDATE:
+        onWindowUpdate(stream, length);
+        break;
+      case PUSH_PROMISE:
+        throw new ConnectionError(PROTOCOL_ERROR, "PUSH_PROMISE from a client");
+      default:
+        // PRIORITY, and frames of unknown types, are ignored.
+        break;
+    }
+  }
+
+  /**
+   * Reads octets, waiting while requests are in progress, but not while the connection is idle.
+   * @param b receives the octets.
+   * @param length is the number of octets.
+   * @throws IOException sometimes; SocketTimeoutException if the connection has been idle past its timeout.
+   */
+  private void readFully(final byte[] b, final int length) throws IOException {
+    int n = 0;
+    while (n < length) {
+      int r;
+      try {
+        r = in.read(b, n, length - n);
+      } catch (SocketTimeoutException e) {
+        if (n == 0 && !streams.isEmpty()) {
+          continue;
+        }
+        if (n > 0) {
+          throw new IOException("http2 client stalled within a frame");
+        }
+        throw e;
+      }
+      if (r < 0) {
+        throw new EOFException();
+      }
+      n += r;
+    }
+  }
+
+  /**
+   * Request bodies are not used, and are dropped; their flow control window is handed straight back.
+   * @param stream is the stream id.
+   * @param flags are the frame flags.
+   * @param length is the frame length.
+   * @throws IOException sometimes
+   */
+  private void onData(final int stream, final int flags, final int length) throws IOException {
+    if (stream == 0) {
+      throw new ConnectionError(PROTOCOL_ERROR, "DATA on stream 0");
+    }
+    if ((flags & END_STREAM) != 0) {
+      receiving.remove(stream);
+    }
+    if (length > 0) {
+      writeWindowUpdate(0, length);
+      if (streams.containsKey(stream)) {
+        writeWindowUpdate(stream, length);
+      }
+    }
+  }
+
+  /**
+   * @param stream is the stream id.
+   * @param flags are the frame flags.
+   * @param length is the frame length.
+   * @throws IOException sometimes
+   */
+  private void onHeaders(final int stream, final int flags, final int length) throws IOException {
+    if (stream == 0) {
+      throw new ConnectionError(PROTOCOL_ERROR, "HEADERS on stream 0");
+    }
+    int offset = 0;
+    int end = length;
+    if ((flags & PADDED) != 0) {
+      if (length < 1) {
+        throw new ConnectionError(PROTOCOL_ERROR, "bad padding");
+      }
+      offset++;
+      end -= payload[0] & BYTE_MASK;
+    }
+    if ((flags & PRIORITY) != 0) {
+      offset += PRIORITY_LENGTH;
+    }
+    if (end < offset) {
+      throw new ConnectionError(PROTOCOL_ERROR, "bad padding");
+    }
+    headerBlock.reset();
+    appendHeaderBlock(offset, end - offset);
+    boolean endStream = (flags & END_STREAM) != 0;
+    if ((flags & END_HEADERS) != 0) {
+      onHeaderBlock(stream, endStream);
+    } else {
+      continuing = stream;
+      continuingEnds = endStream;
+    }
+  }
+
+  /**
+   * @param offset is the offset of the fragment in the payload.
+   * @param length is the length of the fragment.
+   * @throws ConnectionError if the header block is too large.
+   */
+  private void appendHeaderBlock(final int offset, final int length) throws ConnectionError {
+    if (headerBlock.size() + length > MAX_HEADER_BLOCK) {
+      throw new ConnectionError(PROTOCOL_ERROR, "header block too large");
+    }
+    headerBlock.write(payload, offset, length);
+  }
+
+  /**
+   * Decodes a complete header block, opening its stream unless it is a trailer or is refused.
+   * @param stream is the stream id.
+   * @param endStream is true if the request has no body.
+   * @throws IOException sometimes
+   */
+  private void onHeaderBlock(final int stream, final boolean endStream) throws IOException {
+    List<String> fields = new ArrayList<String>();
+    try {
+      // Every block is decoded, even of refused streams, to keep the table in step with the client's.
+      decoder.decode(ByteBuffer.wrap(headerBlock.toByteArray()), fields);
+    } catch (ProtocolException e) {
+      throw new ConnectionError(COMPRESSION_ERROR, e.getMessage());
+    }
+    if (stream <= lastStreamId) {
+      // Trailers of a request body, not used; they may follow the response.
+      if (!receiving.remove(stream) && !streams.containsKey(stream)) {
+        throw new ConnectionError(PROTOCOL_ERROR, "HEADERS on closed stream " + stream);
+      }
+      if (!endStream) {
+        receiving.add(stream);
+      }
+      return;
+    }
+    if (stream % 2 == 0) {
+      throw new ConnectionError(PROTOCOL_ERROR, "even stream id " + stream);
+    }
+    lastStreamId = stream;
+    if (goingAway) {
+      return;
+    }
+    if (streams.size() >= maxStreams) {
+      writeReset(stream, REFUSED_STREAM);
+      return;
+    }
+    byte[] head = requestHead(fields);
+    if (head == null) {
+      writeReset(stream, PROTOCOL_ERROR);
+      return;
+    }
+    open(stream, head, endStream);
+  }
+
+  /**
+   * Services a request on a thread of its own, sending GOAWAY once the connection has carried all it may.
+   * @param stream is the stream id.
+   * @param head is the request as an HTTP/1.1 head.
+   * @param endStream is true if the request has no body.
+   * @throws IOException sometimes
+   */
+  private void open(final int stream, final byte[] head, final boolean endStream) throws IOException {
+    Http2Stream s;
+    synchronized (flow) {
+      s = new Http2Stream(this, context, stream, head, remoteHost, initialWindow);
+    }
+    streams.put(stream, s);
+    try {
+      context.getStreamExecutor().execute(s);
+    } catch (RejectedExecutionException e) {
+      streams.remove(stream);
+      writeReset(stream, REFUSED_STREAM);
+      return;
+    }
+    if (!endStream) {
+      receiving.add(stream);
+    }
+    opened++;
+    if (opened >= maxRequests) {
+      goAway(NO_ERROR);
+    }
+  }
+
+  /**
+   * Builds the HTTP/1.1 head of a request from its pseudo-header and header fields.
+   * @param fields are the names and values, in turn.
+   * @return byte[] the head, or null if the request is malformed.
+   */
+  static byte[] requestHead(final List<String> fields) {
+    String method = null;
+    String path = null;
+    String authority = null;
+    boolean scheme = false;
+    StringBuilder headers = new StringBuilder();
+    StringBuilder cookie = null;
+    for (int i = 0; i < fields.size(); i += 2) {
+      String name = fields.get(i);
+      String value = fields.get(i + 1);
+      if (!isSafe(name) || !isSafe(value)) {
+        return null;
+      }
+      if (name.equals(":method")) {
+        method = value;
+      } else if (name.equals(":path")) {
+        path = value;
+      } else if (name.equals(":authority")) {
+        authority = value;
+      } else if (name.equals(":scheme")) {
+        scheme = true;
+      } else if (name.startsWith(":") || isConnectionHeader(name)) {
+        return null;
+      } else if (name.equals("cookie")) {
+        // Cookies may be split into several fields; HTTP/1.1 has them in one.
+        if (cookie == null) {
+          cookie = new StringBuilder(value);
+        } else {
+          cookie.append("; ").append(value);
+        }
+      } else {
+        if (name.equals("host")) {
+          authority = null;
+        }
+        headers.append(name).append(": ").append(value).append("\r\n");
+      }
+    }
+    if (method == null || path == null || !scheme || method.isEmpty() || path.isEmpty() || method.indexOf(' ') >= 0
+        || path.indexOf(' ') >= 0) {
+      return null;
+    }
+    StringBuilder sb = new StringBuilder(method).append(' ').append(path).append(" HTTP/1.1\r\n");
+    if (authority != null && headers.indexOf("host: ") != 0 && headers.indexOf("\r\nhost: ") < 0) {
+      sb.append("Host: ").append(authority).append("\r\n");
+    }
+    sb.append(headers);
+    if (cookie != null) {
+      sb.append("cookie: ").append(cookie).append("\r\n");
+    }
+    return sb.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * @param request is the HTTP/1.1 request asking for the upgrade.
+   * @return byte[] its head, without the headers of the upgrade.
+   */
+  private static byte[] upgradedHead(final RequestParser request) {
+    StringBuilder sb = new StringBuilder(request.getMethod()).append(' ').append(request.getUri()).append(" HTTP/1.1\r\n");
+    for (Map.Entry<String, String> h : request.getHeaders().entrySet()) {
+      if (!isConnectionHeader(h.getKey().toLowerCase(Locale.ROOT))) {
+        sb.append(h.getKey()).append(": ").append(h.getValue()).append("\r\n");
+      }
+    }
+    return sb.append("\r\n").toString().getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * @param name is a lower case header name.
+   * @return true if the header is specific to an HTTP/1.1 connection.
+   */
+  static boolean isConnectionHeader(final String name) {
+    for (String h : CONNECTION_HEADERS) {
+      if (h.equals(name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param s is a field name or value.
+   * @return true if it cannot break the HTTP/1.1 head it is put in.
+   */
+  private static boolean isSafe(final String s) {
+    return s.indexOf('\r') < 0 && s.indexOf('\n') < 0 && s.indexOf('\0') < 0;
+  }
+
+  /**
+   * @param stream is the stream id, 0.
+   * @param flags are the frame flags.
+   * @param length is the frame length.
+   * @throws IOException sometimes
+   */
+  private void onSettings(final int stream, final int flags, final int length) throws IOException {
+    if (stream != 0) {
+      throw new ConnectionError(PROTOCOL_ERROR, "SETTINGS on stream " + stream);
+    }
+    if ((flags & ACK) != 0) {
+      if (length != 0) {
+        throw new ConnectionError(FRAME_SIZE_ERROR, "SETTINGS ack with a payload");
+      }
+      return;
+    }
+    applySettings(payload, length);
+    writeFrame(SETTINGS, ACK, 0, null);
+  }
+
+  /**
+   * Applies the client's settings.
+   * @param settings holds the settings.
+   * @param length is their length.
+   * @throws ConnectionError if they are malformed or out of range.
+   */
+  private void applySettings(final byte[] settings, final int length) throws ConnectionError {
+    if (length % SETTING_LENGTH != 0) {
+      throw new ConnectionError(FRAME_SIZE_ERROR, "bad SETTINGS length " + length);
+    }
+    ByteBuffer b = ByteBuffer.wrap(settings, 0, length);
+    while (b.hasRemaining()) {
+      int id = b.getShort() & SHORT_MASK;
+      long value = b.getInt() & INT_MASK;
+      if (id == SETTINGS_HEADER_TABLE_SIZE) {
+        synchronized (writeLock) {
+          encoder.setMaxTableSize((int) Math.min(value, Hpack.DEFAULT_TABLE_SIZE));
+        }
+      } else if (id == SETTINGS_INITIAL_WINDOW_SIZE) {
+        if (value > MAX_WINDOW) {
+          throw new ConnectionError(FLOW_CONTROL_ERROR, "initial window " + value);
+        }
+        synchronized (flow) {
+          int delta = (int) value - initialWindow;
+          initialWindow = (int) value;
+          for (Http2Stream s : streams.values()) {
+            s.addWindow(delta);
+          }
+          flow.notifyAll();
+        }
+      } else if (id == SETTINGS_MAX_FRAME_SIZE) {
+        if (value < DEFAULT_MAX_FRAME || value > MAX_FRAME_LIMIT) {
+          throw new ConnectionError(PROTOCOL_ERROR, "max frame size " + value);
+        }
+        maxFrame = (int) value;
+      }
+    }
+  }
+
+  /**
+   * @param stream is the stream id, 0 for the connection.
+   * @param length is the frame length.
+   * @throws IOException sometimes
+   */
+  private void onWindowUpdate(final int stream, final int length) throws IOException {
+    if (length != INT_LENGTH) {
+      throw new ConnectionError(FRAME_SIZE_ERROR, "bad WINDOW_UPDATE");
+    }
+    int increment = ByteBuffer.wrap(payload, 0, INT_LENGTH).getInt() & ID_MASK;
+    if (increment == 0) {
+      if (stream == 0) {
+        throw new ConnectionError(PROTOCOL_ERROR, "window increment 0");
+      }
+      writeReset(stream, PROTOCOL_ERROR);
+      return;
+    }
+    synchronized (flow) {
+      if (stream == 0) {
+        sendWindow += increment;
+        if (sendWindow > MAX_WINDOW) {
+          throw new ConnectionError(FLOW_CONTROL_ERROR, "connection window overflow");
+        }
+      } else {
+        Http2Stream s = streams.get(stream);
+        if (s != null && !s.addWindow(increment)) {
+          streams.remove(stream);
+          s.reset();
+          writeReset(stream, FLOW_CONTROL_ERROR);
+        }
+      }
+      flow.notifyAll();
+    }
+  }
+
+  /**
+   * Sends GOAWAY: no new streams are opened, and the connection is shut down once those open are done.
+   * @param code is the error code.
+   * @throws IOException sometimes
+   */
+  private void goAway(final int code) throws IOException {
+    goingAway = true;
+    ByteBuffer b = ByteBuffer.allocate(INT_LENGTH * 2);
+    b.putInt(lastStreamId).putInt(code).flip();
+    writeFrame(GOAWAY, 0, 0, b);
+    drained();
+  }
+
+  /**
+   * Called as a stream ends.
+   * @param stream is the stream.
+   */
+  void streamClosed(final Http2Stream stream) {
+    streams.remove(stream.getId());
+    try {
+      drained();
+    } catch (IOException e) {
+      logger.fine("http2 shutdown failed: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Once going away and no stream is open, shuts down the output; the client then closes the connection, which is read
+   * until it does so that nothing it sends meanwhile resets it.
+   * @throws IOException sometimes
+   */
+  private void drained() throws IOException {
+    if (goingAway && streams.isEmpty()) {
+      synchronized (writeLock) {
+        if (!outputShut) {
+          outputShut = true;
+          client.shutdownOutput();
+        }
+      }
+    }
+  }
+
+  /**
+   * Takes flow control window for data, waiting until the client grants some.
+   * @param stream is the stream.
+   * @param wanted is the most octets wanted.
+   * @return int octets granted, at least 1.
+   * @throws IOException if the stream is reset or the connection closed meanwhile.
+   */
+  private int acquire(final Http2Stream stream, final int wanted) throws IOException {
+    synchronized (flow) {
+      while (sendWindow <= 0 || stream.getWindow() <= 0) {
+        if (stream.isReset() || closed) {
+          throw new IOException("http2 stream " + stream.getId() + " closed");
+        }
+        try {
+          flow.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException();
+        }
+      }
+      int n = (int) Math.min(wanted, Math.min(sendWindow, stream.getWindow()));
+      sendWindow -= n;
+      stream.addWindow(-n);
+      return n;
+    }
+  }
+
+  /**
+   * Sends a response header block, in as many frames as it takes.
+   * @param stream is the stream id.
+   * @param fields are the names and values, in turn.
+   * @param endStream is true if the response has no body.
+   * @throws IOException sometimes
+   */
+  void writeHeaders(final int stream, final List<String> fields, final boolean endStream) throws IOException {
+    synchronized (writeLock) {
+      byte[] block = encoder.encode(fields);
+      int limit = maxFrame;
+      int type = HEADERS;
+      int flags = 0;
+      if (endStream) {
+        flags = END_STREAM;
+      }
+      int offset = 0;
+      do {
+        int n = Math.min(limit, block.length - offset);
+        if (offset + n == block.length) {
+          flags |= END_HEADERS;
+        }
+        writeFrame(type, flags, stream, ByteBuffer.wrap(block, offset, n));
+        offset += n;
+        type = CONTINUATION;
+        flags = 0;
+      } while (offset < block.length);
+    }
+  }
+
+  /**
+   * Sends response data, in frames no larger than the client accepts, as its flow control windows allow.
+   * @param stream is the stream.
+   * @param data is the data.
+   * @param endStream is true if it ends the response.
+   * @throws IOException sometimes
+   */
+  void writeData(final Http2Stream stream, final ByteBuffer data, final boolean endStream) throws IOException {
+    int flags = 0;
+    if (endStream) {
+      flags = END_STREAM;
+    }
+    if (!data.hasRemaining()) {
+      writeFrame(DATA, flags, stream.getId(), data);
+      return;
+    }
+    while (data.hasRemaining()) {
+      int n = acquire(stream, Math.min(data.remaining(), maxFrame));
+      ByteBuffer chunk = data.duplicate();
+      chunk.limit(chunk.position() + n);
+      data.position(data.position() + n);
+      if (data.hasRemaining()) {
+        writeFrame(DATA, 0, stream.getId(), chunk);
+      } else {
+        writeFrame(DATA, flags, stream.getId(), chunk);
+      }
+    }
+  }
+
+  /**
+   * @param stream is the stream id.
+   * @param code is the error code.
+   * @throws IOException sometimes
+   */
+  void writeReset(final int stream, final int code) throws IOException {
+    ByteBuffer b = ByteBuffer.allocate(INT_LENGTH);
+    b.putInt(code).flip();
+    writeFrame(RST_STREAM, 0, stream, b);
+  }
+
+  /**
+   * @param stream is the stream id, 0 for the connection.
+   * @param increment is the octets granted.
+   * @throws IOException sometimes
+   */
+  private void writeWindowUpdate(final int stream, final int increment) throws IOException {
+    ByteBuffer b = ByteBuffer.allocate(INT_LENGTH);
+    b.putInt(increment).flip();
+    writeFrame(WINDOW_UPDATE, 0, stream, b);
+  }
+
+  /**
+   * Sends the server's settings, those that differ from the defaults.
+   * @throws IOException sometimes
+   */
+  private void writeSettings() throws IOException {
+    ByteBuffer b = ByteBuffer.allocate(SETTING_LENGTH);
+    b.putShort((short) SETTINGS_MAX_CONCURRENT_STREAMS).putInt(maxStreams).flip();
+    writeFrame(SETTINGS, 0, 0, b);
+  }
+
+  /**
+   * Writes a frame whole.  Frames are dropped once the output is shut down.
+   * @param type is the frame type.
+   * @param flags are the flags.
+   * @param stream is the stream id.
+   * @param framePayload is the payload, or null for none.
+   * @throws IOException sometimes
+   */
+  private void writeFrame(final int type, final int flags, final int stream, final ByteBuffer framePayload)
+      throws IOException {
+    int length = 0;
+    if (framePayload != null) {
+      length = framePayload.remaining();
+    }
+    synchronized (writeLock) {
+      if (outputShut) {
+        return;
+      }
+      writeHead.clear();
+      writeHead.put((byte) (length >>> SHIFT_16)).put((byte) (length >>> OCTET)).put((byte) length)
+          .put((byte) type).put((byte) flags).putInt(stream);
+      writeHead.flip();
+      write(writeHead, framePayload);
+    }
+  }
+
+  /**
+   * @param first is written first.
+   * @param second is written next, or null.
+   * @throws IOException sometimes
+   */
+  private void write(final ByteBuffer first, final ByteBuffer second) throws IOException {
+    synchronized (writeLock) {
+      if (second != null && out instanceof GatheringByteChannel) {
+        ByteBuffer[] both = {first, second};
+        while (first.hasRemaining() || second.hasRemaining()) {
+          ((GatheringByteChannel) out).write(both);
+        }
+        return;
+      }
+      while (first.hasRemaining()) {
+        out.write(first);
+      }
+      while (second != null && second.hasRemaining()) {
+        out.write(second);
+      }
+    }
+  }
+}
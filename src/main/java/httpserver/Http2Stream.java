@@ -0,0 +1,278 @@
+package httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * A request stream of an {@link Http2Connection}.  Its request is serviced by a {@link Processor} of its own, which
+ * writes an HTTP/1.1 response to this channel; the channel turns it into frames: the status line and headers into a
+ * HEADERS frame, minus those specific to an HTTP/1.1 connection, and the body into DATA frames.  The stream ends with
+ * the last octet of the Content-Length, or when the Processor is done.
+ * @author kmatassa
+ */
+final class Http2Stream implements WritableByteChannel, Runnable {
+  /**
+   * Last four octets of a head, CRLF CRLF.
+   */
+  private static final int HEAD_END = 0x0d0a0d0a;
+  /**
+   * Most parts of a status line: version, code and reason.
+   */
+  private static final int STATUS_PARTS = 3;
+  /**
+   * Bits per octet.
+   */
+  private static final int OCTET = 8;
+  /**
+   * Mask turning a byte into an unsigned char.
+   */
+  private static final int BYTE_MASK = 0xff;
+  /**
+   * Local logger.
+   */
+  private Logger logger = Logger.getAnonymousLogger();
+  /**
+   * Connection carrying the stream.
+   */
+  private final Http2Connection connection;
+  /**
+   * Settings and shared caches.
+   */
+  private final ServerContext context;
+  /**
+   * Stream id.
+   */
+  private final int id;
+  /**
+   * The request, as an HTTP/1.1 head.
+   */
+  private final byte[] requestHead;
+  /**
+   * Client address, for the access log.
+   */
+  private final String remoteHost;
+  /**
+   * Send window; guarded by the connection's flow control lock.
+   */
+  private long window;
+  /**
+   * True once reset by the client.
+   */
+  private volatile boolean reset = false;
+  /**
+   * Response head received so far.
+   */
+  private final ByteArrayOutputStream responseHead = new ByteArrayOutputStream();
+  /**
+   * Last four octets of the response head received.
+   */
+  private int tail = 0;
+  /**
+   * Response header fields, names and values in turn, once the head is complete.
+   */
+  private List<String> fields = null;
+  /**
+   * True once the HEADERS frame has been sent.
+   */
+  private boolean headersSent = false;
+  /**
+   * True once END_STREAM has been sent.
+   */
+  private boolean ended = false;
+  /**
+   * Body octets still to come, or -1 if unknown.
+   */
+  private long remaining = -1;
+
+  /**
+   * @param connectionValue carries the stream.
+   * @param serverContext holds the settings and shared caches.
+   * @param idValue is the stream id.
+   * @param requestHeadValue is the request, as an HTTP/1.1 head.
+   * @param remoteHostValue is the client address.
+   * @param windowValue is the initial send window.
+   */
+  Http2Stream(final Http2Connection connectionValue, final ServerContext serverContext, final int idValue,
+              final byte[] requestHeadValue, final String remoteHostValue, final int windowValue) {
+    this.connection = connectionValue;
+    this.context = serverContext;
+    this.id = idValue;
+    this.requestHead = requestHeadValue;
+    this.remoteHost = remoteHostValue;
+    this.window = windowValue;
+  }
+
+  /**
+   * Services the request.
+   */
+  @Override
+  public void run() {
+    Processor p = new Processor(context, new ByteArrayInputStream(requestHead), this, remoteHost);
+    try {
+      p.processStream();
+      finish();
+    } catch (IOException e) {
+      logger.fine("http2 stream " + id + " failed: " + e.getMessage());
+      if (!ended && !reset) {
+        try {
+          connection.writeReset(id, Http2Connection.INTERNAL_ERROR);
+        } catch (IOException e2) {
+          logger.fine("http2 reset failed: " + e2.getMessage());
+        }
+      }
+    } finally {
+      connection.streamClosed(this);
+    }
+  }
+
+  /**
+   * Takes the next part of the HTTP/1.1 response.
+   * @param src is the part.
+   * @return int octets taken, all of them.
+   * @throws IOException if the stream has been reset or the connection closed.
+   */
+  @Override
+  public int write(final ByteBuffer src) throws IOException {
+    if (reset || ended) {
+      throw new ClosedChannelException();
+    }
+    int n = src.remaining();
+    while (fields == null && src.hasRemaining()) {
+      byte b = src.get();
+      responseHead.write(b);
+      tail = tail << OCTET | b & BYTE_MASK;
+      if (tail == HEAD_END) {
+        parseHead();
+      }
+    }
+    if (src.hasRemaining()) {
+      if (!headersSent) {
+        headersSent = true;
+        connection.writeHeaders(id, fields, false);
+      }
+      if (remaining >= 0 && src.remaining() > remaining) {
+        throw new IOException("response body longer than its Content-Length");
+      }
+      boolean last = src.remaining() == remaining;
+      if (remaining >= 0) {
+        remaining -= src.remaining();
+      }
+      connection.writeData(this, src, last);
+      ended = last;
+    }
+    return n;
+  }
+
+  /**
+   * Ends the stream, if the response has not done so already.
+   * @throws IOException sometimes
+   */
+  private void finish() throws IOException {
+    if (ended || reset) {
+      return;
+    }
+    if (fields == null) {
+      throw new IOException("no response");
+    }
+    if (headersSent) {
+      connection.writeData(this, ByteBuffer.allocate(0), true);
+    } else {
+      headersSent = true;
+      connection.writeHeaders(id, fields, true);
+    }
+    ended = true;
+  }
+
+  /**
+   * Turns the HTTP/1.1 status line and headers into HTTP/2 fields.
+   * @throws IOException if the head is malformed.
+   */
+  private void parseHead() throws IOException {
+    String[] lines = new String(responseHead.toByteArray(), StandardCharsets.ISO_8859_1).split("\r\n");
+    String[] status = lines[0].split(" ", STATUS_PARTS);
+    if (status.length < 2) {
+      throw new IOException("bad response status line " + lines[0]);
+    }
+    List<String> f = new ArrayList<String>();
+    f.add(":status");
+    f.add(status[1]);
+    for (int i = 1; i < lines.length; i++) {
+      int colon = lines[i].indexOf(':');
+      if (colon <= 0) {
+        continue;
+      }
+      String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+      String value = lines[i].substring(colon + 1).trim();
+      if (Http2Connection.isConnectionHeader(name)) {
+        continue;
+      }
+      if (name.equals("content-length")) {
+        remaining = Long.parseLong(value);
+      }
+      f.add(name);
+      f.add(value);
+    }
+    fields = f;
+  }
+
+  /**
+   * @return true until the stream ends.
+   */
+  @Override
+  public boolean isOpen() {
+    return !ended && !reset;
+  }
+
+  /**
+   * Nothing to close: the stream ends with its response.
+   */
+  @Override
+  public void close() {
+  }
+
+  /**
+   * @return int stream id.
+   */
+  int getId() {
+    return id;
+  }
+
+  /**
+   * @return long send window; the caller holds the connection's flow control lock.
+   */
+  long getWindow() {
+    return window;
+  }
+
+  /**
+   * @param delta is added to the send window; the caller holds the connection's flow control lock.
+   * @return false if the window overflows.
+   */
+  boolean addWindow(final long delta) {
+    window += delta;
+    return window <= Integer.MAX_VALUE;
+  }
+
+  /**
+   * Marks the stream reset by the client: whatever is left of the response is dropped.
+   */
+  void reset() {
+    reset = true;
+  }
+
+  /**
+   * @return true if reset by the client.
+   */
+  boolean isReset() {
+    return reset;
+  }
+}
@@ -0,0 +1,79 @@
+package httpserver;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * A shared clock for the Date response header.  Its encoded value is formatted once per second, by whichever request
+ * first notices the second has ticked over, and shared by every response until the next tick.
+ * @author kmatassa
+ */
+final class HttpDate {
+  /**
+   * Millisecs.
+   */
+  private static final int MS = 1000;
+  /**
+   * The IMF-fixdate format of RFC 7231, which senders must use; unlike RFC_1123_DATE_TIME, it gives the day two digits.
+   */
+  private static final DateTimeFormatter IMF_FIXDATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'",
+                                                                                   Locale.US).withZone(ZoneOffset.UTC);
+  /**
+   * The current tick.
+   */
+  private static volatile Tick current = new Tick(-1, null);
+
+  /**
+   * An immutable second and its encoded Date header.
+   */
+  private static final class Tick {
+    /**
+     * Seconds since the epoch.
+     */
+    private final long second;
+    /**
+     * "Date: ...\r\n".
+     */
+    private final byte[] header;
+
+    /**
+     * @param secondValue is the second.
+     * @param headerValue is its encoded Date header.
+     */
+    Tick(final long secondValue, final byte[] headerValue) {
+      this.second = secondValue;
+      this.header = headerValue;
+    }
+  }
+
+  /**
+   * Utility class.
+   */
+  private HttpDate() {
+  }
+
+  /**
+   * @return byte[] the encoded Date header line of the current second, CRLF included; not to be modified.
+   */
+  static byte[] dateHeader() {
+    long second = System.currentTimeMillis() / MS;
+    Tick tick = current;
+    if (tick.second != second) {
+      // Racing threads may both format the new second; either result is the same.
+      tick = new Tick(second, ("Date: " + format(second * MS) + "\r\n").getBytes(StandardCharsets.ISO_8859_1));
+      current = tick;
+    }
+    return tick.header;
+  }
+
+  /**
+   * @param millis is a time in millisecs.
+   * @return String the time as an http date, in IMF-fixdate format.
+   */
+  static String format(final long millis) {
+    return IMF_FIXDATE.format(Instant.ofEpochMilli(millis));
+  }
+}
@@ -0,0 +1,17 @@
+package httpserver;
+
+/**
+ * Selects how http-server waits on its client sockets.
+ * @author kmatassa
+ */
+public enum IoMode {
+  /**
+   * Classic model: every accepted socket is handed to a worker thread that blocks on it until it is closed.
+   */
+  BLOCKING,
+  /**
+   * Selector model: idle keep-alive sockets are parked on a selector, and only sockets with a request ready to be read
+   * are dispatched to a worker thread.
+   */
+  NIO
+}
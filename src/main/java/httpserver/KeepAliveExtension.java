@@ -6,7 +6,9 @@ import java.util.logging.Logger;
 
 /**
  * Encapsulates and performs support for keep-alive functionality, by looking for the enablement of the feature,
- * and looking for the associated options for tuning the max number of requests or idle connection timeout.
+ * and looking for the associated options for tuning the max number of requests or idle connection timeout.  The
+ * options applied are those the client asks for within the bounds of the server's {@link KeepAlivePolicy}, and are
+ * advertised back in a Keep-Alive header.
  * @author kmatassa
  */
 public class KeepAliveExtension {
@@ -34,14 +36,22 @@ public class KeepAliveExtension {
    * Millisecs.
    */
   private static final int MS = 1000;
-  /**
-   * Max seconds for keep-alive.
-   */
-  private static final int MAX_SECS = 10;
   /**
    * Contains the parsed http request in a usable format.
    */
   private RequestParser request = null;
+  /**
+   * Server side bounds of the options.
+   */
+  private final KeepAlivePolicy policy;
+  /**
+   * Idle timeout applied, in seconds.
+   */
+  private int timeout = 0;
+  /**
+   * Further requests allowed on the connection.
+   */
+  private int remaining = 0;
   /**
    * Local logger.
    */
@@ -57,9 +67,11 @@ public class KeepAliveExtension {
 
   /**
    * @param parser Holds the parsed request.
+   * @param keepAlivePolicy bounds the options.
    */
-  KeepAliveExtension(final RequestParser parser) {
+  KeepAliveExtension(final RequestParser parser, final KeepAlivePolicy keepAlivePolicy) {
     this.setRequest(parser);
+    this.policy = keepAlivePolicy;
   }
 
   /**
@@ -78,23 +90,18 @@ public class KeepAliveExtension {
       setKeepAliveEnabled(hasRequestedKeepAlive());
       // Further conditions to disable keep-alive is based on # requests, or timeout duration of idle.
       if (isKeepAliveEnabled()) {
-        if (keepAliveMaxRequests() > 0 && numSocketRequests >= keepAliveMaxRequests()) {
+        int maxRequests = policy.maxRequests(keepAliveMaxRequests());
+        if (numSocketRequests >= maxRequests) {
           setKeepAliveEnabled(false);
         } else {
-          int keepAliveTimeout = keepAliveTimeout();
-          // Single digit only
-          if (keepAliveTimeout > 0) {
-            if (keepAliveTimeout < MAX_SECS) {
-              // Set to milliseconds.
-              int to = keepAliveTimeout * MS;
-              // Only if changed.
-              if (client.getSoTimeout() != to) {
-                logger.info("keep-alive timeout set to: " + keepAliveTimeout * MS);
-                client.setSoTimeout(keepAliveTimeout * MS);
-              }
-            } else {
-              logger.warning("bad keep-alive timeout, skipping");
-            }
+          remaining = maxRequests - numSocketRequests;
+          timeout = policy.timeout(keepAliveTimeout());
+          // Set to milliseconds.
+          int to = timeout * MS;
+          // Only if changed.
+          if (client.getSoTimeout() != to) {
+            logger.fine("keep-alive timeout set to: " + to);
+            client.setSoTimeout(to);
           }
         }
       }
@@ -105,8 +112,9 @@ public class KeepAliveExtension {
    * @return true if there's a valid request for keep-alive.
    */
   private boolean hasRequestedKeepAlive() {
-    if (getRequest().getHeaders().containsKey(HDR_CONNECTION)) {
-      return getRequest().getHeaders().get(HDR_CONNECTION).equalsIgnoreCase(KEEP_ALIVE_VALUE);
+    String connection = getRequest().getHeader(HDR_CONNECTION);
+    if (connection != null) {
+      return connection.equalsIgnoreCase(KEEP_ALIVE_VALUE);
     }
     return false;
   }
@@ -131,11 +139,18 @@ public class KeepAliveExtension {
    * @return requested attribute value
    */
   private int parseKeepAliveHeader(final String attr) {
-    String h = getRequest().getHeaders().get(HDR_KEEP_ALIVE);
+    String h = getRequest().getHeader(HDR_KEEP_ALIVE);
     if (h != null) {
-      String[] parts = h.split("=");
-      if (parts[0].equalsIgnoreCase(attr)) {
-        return Integer.parseInt(parts[1]);
+      // e.g. "timeout=5, max=100"
+      for (String param : h.split(",")) {
+        String[] parts = param.split("=", 2);
+        if (parts.length == 2 && parts[0].trim().equalsIgnoreCase(attr)) {
+          try {
+            return Integer.parseInt(parts[1].trim());
+          } catch (NumberFormatException e) {
+            logger.warning("bad keep-alive " + attr + ", skipping");
+          }
+        }
       }
     }
     return -1;
@@ -148,6 +163,20 @@ public class KeepAliveExtension {
     return keepAliveEnabled;
   }
 
+  /**
+   * @return int idle timeout applied in seconds, if enabled.
+   */
+  public final int getTimeout() {
+    return timeout;
+  }
+
+  /**
+   * @return int further requests allowed on the connection, if enabled.
+   */
+  public final int getRemaining() {
+    return remaining;
+  }
+
   /**
    * @return true if supported.
    */
@@ -0,0 +1,152 @@
+package httpserver;
+
+/**
+ * The server's side of keep-alive: how long an idle connection is kept, and how many requests it may carry, whatever
+ * its client asks for.  The bounds follow the load, taken as the larger of the share of connection permits in use and
+ * the share of worker threads busy or queued for: with no load they widen to the maxima, at the low watermark they are
+ * the defaults, and they shrink to one second and a single request at the high watermark, so that connections near
+ * capacity are handed back to new clients rather than held idle.  Client requests for less are honoured.  The load is
+ * sampled at most once per {@link #SAMPLE_MILLIS}, so a request costs no more than reading a volatile.
+ * @author kmatassa
+ */
+final class KeepAlivePolicy {
+  /**
+   * Millisecs between load samples.
+   */
+  static final long SAMPLE_MILLIS = 100;
+  /**
+   * Load at which the bounds are the defaults.
+   */
+  static final double LOW_WATERMARK = 0.5;
+  /**
+   * Load from which the bounds are the minima.
+   */
+  static final double HIGH_WATERMARK = 0.9;
+  /**
+   * Shortest timeout in seconds.
+   */
+  private static final int MIN_TIMEOUT = 1;
+  /**
+   * Fewest requests per connection.
+   */
+  private static final int MIN_REQUESTS = 1;
+  /**
+   * Default timeout in seconds.
+   */
+  private final int timeout;
+  /**
+   * Longest timeout in seconds.
+   */
+  private final int maxTimeout;
+  /**
+   * Default requests per connection.
+   */
+  private final int requests;
+  /**
+   * Most requests per connection.
+   */
+  private final int maxRequests;
+  /**
+   * False to keep the bounds at the defaults whatever the load.
+   */
+  private final boolean adaptive;
+  /**
+   * Connection permits in all.
+   */
+  private final int maxConnections;
+  /**
+   * Connection permits.
+   */
+  private final Admission admission;
+  /**
+   * Worker thread usage.
+   */
+  private final Metrics metrics;
+  /**
+   * Load at the last sample, from 0.
+   */
+  private volatile double load = 0;
+  /**
+   * Time in millisecs of the next sample.
+   */
+  private volatile long nextSample = 0;
+
+  /**
+   * @param config holds the settings.
+   * @param admissionControl holds the connection permits.
+   * @param metricsValue holds the worker threads.
+   */
+  KeepAlivePolicy(final ServerConfig config, final Admission admissionControl, final Metrics metricsValue) {
+    this.maxTimeout = Math.max(MIN_TIMEOUT, config.getKeepAliveMaxTimeout());
+    this.timeout = Math.max(MIN_TIMEOUT, Math.min(config.getKeepAliveTimeout(), maxTimeout));
+    this.maxRequests = Math.max(MIN_REQUESTS, config.getKeepAliveMaxRequests());
+    this.requests = Math.max(MIN_REQUESTS, Math.min(config.getKeepAliveRequests(), maxRequests));
+    this.adaptive = config.isKeepAliveAdaptive();
+    this.maxConnections = config.getMaxConnections();
+    this.admission = admissionControl;
+    this.metrics = metricsValue;
+  }
+
+  /**
+   * @param requested is the timeout asked for by the client in seconds, or 0 or less if none.
+   * @return int seconds an idle connection is to be kept.
+   */
+  int timeout(final int requested) {
+    return offer(requested, bound(maxTimeout, timeout, MIN_TIMEOUT), maxTimeout);
+  }
+
+  /**
+   * @param requested is the number of requests asked for by the client, or 0 or less if none.
+   * @return int requests the connection may carry in all.
+   */
+  int maxRequests(final int requested) {
+    return offer(requested, bound(maxRequests, requests, MIN_REQUESTS), maxRequests);
+  }
+
+  /**
+   * @param requested is the value asked for by the client, or 0 or less if none.
+   * @param bound is the value allowed at the current load.
+   * @param max is the most allowed.
+   * @return int the value requested, if within the bound, else the bound.
+   */
+  private static int offer(final int requested, final int bound, final int max) {
+    if (requested > 0) {
+      return Math.min(requested, Math.min(bound, max));
+    }
+    return bound;
+  }
+
+  /**
+   * Interpolates between the maximum with no load, the default at the low watermark, and the minimum at the high one.
+   * @param max is the most allowed.
+   * @param dflt is the default.
+   * @param min is the least allowed.
+   * @return int the value allowed at the current load.
+   */
+  private int bound(final int max, final int dflt, final int min) {
+    if (!adaptive) {
+      return dflt;
+    }
+    double l = load();
+    if (l <= LOW_WATERMARK) {
+      return (int) Math.round(max - (max - dflt) * l / LOW_WATERMARK);
+    }
+    if (l < HIGH_WATERMARK) {
+      return (int) Math.round(dflt - (dflt - min) * (l - LOW_WATERMARK) / (HIGH_WATERMARK - LOW_WATERMARK));
+    }
+    return min;
+  }
+
+  /**
+   * @return double the load, sampled anew if the last sample is stale.
+   */
+  double load() {
+    long now = System.currentTimeMillis();
+    if (now >= nextSample) {
+      nextSample = now + SAMPLE_MILLIS;
+      double connections = (double) (maxConnections - admission.available()) / maxConnections;
+      load = Math.max(connections, metrics.workerUsage());
+    }
+    return load;
+  }
+}
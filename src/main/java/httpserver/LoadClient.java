@@ -0,0 +1,339 @@
+package httpserver;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+import org.apache.http.HttpVersion;
+
+/**
+ * One connection of the {@link LoadGenerator}, driven by a thread of its own.  It writes a batch of requests, as many
+ * as the pipeline depth, then reads their responses, either as soon as the previous batch is answered (closed loop)
+ * or at fixed intervals (open loop).  Responses are read with a plain byte buffer, skipping bodies by their
+ * Content-Length, so the client costs little next to the server.
+ * @author kmatassa
+ */
+final class LoadClient implements Runnable {
+  /**
+   * Size of the read buffer.
+   */
+  private static final int READ_BUFFER = 64 * 1024;
+  /**
+   * Length of the start of a status line: "HTTP/1.1 ".
+   */
+  private static final int STATUS_OFFSET = 9;
+  /**
+   * Length of a status code.
+   */
+  private static final int STATUS_LENGTH = 3;
+  /**
+   * Length of the blank line ending a head.
+   */
+  private static final int HEAD_END = 4;
+  /**
+   * Local logger.
+   */
+  private Logger logger = Logger.getAnonymousLogger();
+  /**
+   * Settings.
+   */
+  private final LoadConfig config;
+  /**
+   * Receives the results.
+   */
+  private final LoadReport report;
+  /**
+   * Nanotime from which results are recorded.
+   */
+  private final long measureFrom;
+  /**
+   * Nanotime at which the client stops.
+   */
+  private final long stopAt;
+  /**
+   * Nanotime the first batch is due, in an open loop.
+   */
+  private final long firstDue;
+  /**
+   * Encoded requests, one per URI.
+   */
+  private final byte[][] requests;
+  /**
+   * Current connection, or null.
+   */
+  private Socket socket = null;
+  /**
+   * Its input.
+   */
+  private InputStream in = null;
+  /**
+   * Its output.
+   */
+  private OutputStream out = null;
+  /**
+   * True if the server has said it closes the connection.
+   */
+  private boolean closing = false;
+  /**
+   * Read buffer, holding the unread input between start and end.
+   */
+  private final byte[] buf = new byte[READ_BUFFER];
+  /**
+   * Offset of the unread input.
+   */
+  private int start = 0;
+  /**
+   * Offset past the unread input.
+   */
+  private int end = 0;
+  /**
+   * Sum of the service times of the warm-up, in nanosecs.
+   */
+  private long warmupNanos = 0;
+  /**
+   * Number of responses of the warm-up.
+   */
+  private long warmupResponses = 0;
+
+  /**
+   * @param loadConfig holds the settings.
+   * @param loadReport receives the results.
+   * @param measureFromValue is the nanotime from which results are recorded.
+   * @param firstDueValue is the nanotime the first batch is due, in an open loop.
+   */
+  LoadClient(final LoadConfig loadConfig, final LoadReport loadReport, final long measureFromValue,
+             final long firstDueValue) {
+    this.config = loadConfig;
+    this.report = loadReport;
+    this.measureFrom = measureFromValue;
+    this.stopAt = measureFromValue + loadConfig.getDurationMillis() * LoadGenerator.NANOS_PER_MILLI;
+    this.firstDue = firstDueValue;
+    String connection = "close";
+    if (loadConfig.isKeepAlive()) {
+      connection = "keep-alive";
+    }
+    List<String> uris = loadConfig.getUris();
+    this.requests = new byte[uris.size()][];
+    for (int i = 0; i < requests.length; i++) {
+      requests[i] = ("GET " + uris.get(i) + " " + loadConfig.getVersion() + "\r\nHost: " + loadConfig.getHost()
+                     + "\r\nConnection: " + connection + "\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+  }
+
+  @Override
+  public void run() {
+    // HTTP/1.0 connections close after each response, so only 1.1 ones are pipelined.
+    int depth = 1;
+    if (config.isKeepAlive() && !HttpVersion.HTTP_1_0.toString().equals(config.getVersion())) {
+      depth = config.getPipeline();
+    }
+    long interval = 0;
+    if (config.isOpenLoop()) {
+      interval = LoadGenerator.NANOS_PER_SECOND * config.getConnections() * depth / config.getRate();
+    }
+    long due = firstDue;
+    try {
+      for (;;) {
+        long now = System.nanoTime();
+        long intended = now;
+        if (interval > 0) {
+          intended = due;
+          due += interval;
+        }
+        if (intended - stopAt >= 0) {
+          break;
+        }
+        if (interval > 0) {
+          if (intended - measureFrom >= 0) {
+            report.recordScheduled(depth);
+          }
+          for (long wait = intended - now; wait > 0; wait = intended - System.nanoTime()) {
+            LockSupport.parkNanos(wait);
+          }
+        }
+        exchange(depth, intended);
+      }
+    } finally {
+      disconnect();
+    }
+  }
+
+  /**
+   * Writes a batch of requests and reads their responses, recording each.
+   * @param depth is the number of requests in the batch.
+   * @param intended is the nanotime the batch should have been sent.
+   */
+  private void exchange(final int depth, final long intended) {
+    try {
+      if (socket == null || closing) {
+        connect();
+      }
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      for (int i = 0; i < depth; i++) {
+        out.write(requests[random.nextInt(requests.length)]);
+      }
+      out.flush();
+      long sent = System.nanoTime();
+      for (int i = 0; i < depth; i++) {
+        int status = readResponse();
+        long done = System.nanoTime();
+        record(status, intended, done - sent, done - intended);
+      }
+      if (!config.isKeepAlive()) {
+        disconnect();
+      }
+    } catch (IOException e) {
+      if (intended - measureFrom >= 0) {
+        report.recordError();
+      }
+      logger.fine("load request failed: " + e);
+      disconnect();
+    }
+  }
+
+  /**
+   * Records a response to a request due after the warm-up.  In a closed loop, the mean service time of the warm-up is
+   * taken as the interval expected between requests, to correct for those held back by slow responses.
+   * @param status is its status code.
+   * @param intended is the nanotime the batch should have been sent.
+   * @param serviceNanos is the time from the batch being written.
+   * @param responseNanos is the time from when the batch should have been sent.
+   */
+  private void record(final int status, final long intended, final long serviceNanos, final long responseNanos) {
+    if (intended - measureFrom < 0) {
+      warmupNanos += serviceNanos;
+      warmupResponses++;
+      return;
+    }
+    long expected = 0;
+    if (!config.isOpenLoop() && warmupResponses > 0) {
+      expected = warmupNanos / warmupResponses;
+    }
+    report.record(status, serviceNanos, responseNanos, expected);
+  }
+
+  /**
+   * @throws IOException sometimes
+   */
+  private void connect() throws IOException {
+    disconnect();
+    socket = new Socket();
+    socket.setTcpNoDelay(true);
+    socket.connect(new InetSocketAddress(config.getHost(), config.getPort()));
+    in = socket.getInputStream();
+    out = socket.getOutputStream();
+    closing = false;
+    start = 0;
+    end = 0;
+  }
+
+  /**
+   * Closes the connection, if open.
+   */
+  private void disconnect() {
+    if (socket != null) {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        logger.fine("close failed: " + e);
+      }
+      socket = null;
+    }
+  }
+
+  /**
+   * Reads a response head, and skips its Content-Length body.
+   * @return int status code.
+   * @throws IOException sometimes, EOFException if the connection closes first.
+   */
+  private int readResponse() throws IOException {
+    int headEnd;
+    while ((headEnd = indexOfBlankLine()) < 0) {
+      fill();
+    }
+    String head = new String(buf, start, headEnd - start, StandardCharsets.ISO_8859_1);
+    if (head.length() < STATUS_OFFSET + STATUS_LENGTH) {
+      throw new ProtocolException("short status line");
+    }
+    int status;
+    try {
+      status = Integer.parseInt(head.substring(STATUS_OFFSET, STATUS_OFFSET + STATUS_LENGTH));
+    } catch (NumberFormatException e) {
+      throw new ProtocolException("bad status line");
+    }
+    String lower = head.toLowerCase(Locale.ROOT);
+    if (lower.contains("\r\nconnection: close")) {
+      closing = true;
+    }
+    long remaining = contentLength(lower);
+    start = headEnd;
+    while (remaining > 0) {
+      if (start == end) {
+        fill();
+      }
+      int n = (int) Math.min(remaining, end - start);
+      start += n;
+      remaining -= n;
+    }
+    return status;
+  }
+
+  /**
+   * @return int offset past the blank line ending the next head, or -1.
+   */
+  private int indexOfBlankLine() {
+    for (int i = start; i + HEAD_END - 1 < end; i++) {
+      if (buf[i] == '\r' && buf[i + 1] == '\n' && buf[i + 2] == '\r' && buf[i + HEAD_END - 1] == '\n') {
+        return i + HEAD_END;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Reads more input, after moving the unread part to the front.
+   * @throws IOException sometimes, EOFException at the end of the stream.
+   */
+  private void fill() throws IOException {
+    System.arraycopy(buf, start, buf, 0, end - start);
+    end -= start;
+    start = 0;
+    if (end == buf.length) {
+      throw new ProtocolException("response head too large");
+    }
+    int n = in.read(buf, end, buf.length - end);
+    if (n < 0) {
+      throw new EOFException();
+    }
+    end += n;
+  }
+
+  /**
+   * @param head is the response head, in lower case.
+   * @return long value of its Content-Length header, 0 if absent.
+   * @throws ProtocolException if it is malformed.
+   */
+  private static long contentLength(final String head) throws ProtocolException {
+    String name = "\r\ncontent-length:";
+    int i = head.indexOf(name);
+    if (i < 0) {
+      return 0;
+    }
+    int lineEnd = head.indexOf('\r', i + name.length());
+    try {
+      return Long.parseLong(head.substring(i + name.length(), lineEnd).trim());
+    } catch (NumberFormatException e) {
+      throw new ProtocolException("bad content length");
+    }
+  }
+}
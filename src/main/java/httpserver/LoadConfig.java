@@ -0,0 +1,295 @@
+package httpserver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Holds the settings of the {@link LoadGenerator}.  Each may be overridden with a "httpserver.load.*" system property,
+ * e.g. -Dhttpserver.load.rate=2000.
+ * @author kmatassa
+ */
+public class LoadConfig {
+  /**
+   * Default port.
+   */
+  private static final int DEFAULTPORT = 8080;
+  /**
+   * Default number of connections.
+   */
+  private static final int CONNECTIONS = 16;
+  /**
+   * Default millisecs measured.
+   */
+  private static final int DURATION_MILLIS = 10000;
+  /**
+   * Default millisecs run before measuring.
+   */
+  private static final int WARMUP_MILLIS = 2000;
+  /**
+   * Host requested from.
+   */
+  private String host = "localhost";
+  /**
+   * Port requested from.
+   */
+  private int port = DEFAULTPORT;
+  /**
+   * Number of client connections, each driven by a thread of its own.
+   */
+  private int connections = CONNECTIONS;
+  /**
+   * Millisecs measured, after the warm-up.
+   */
+  private int durationMillis = DURATION_MILLIS;
+  /**
+   * Millisecs run before measuring.  In a closed loop, it also gives the expected interval between requests.
+   */
+  private int warmupMillis = WARMUP_MILLIS;
+  /**
+   * Requests per second over all connections, sent at a constant rate whether answered or not; 0 runs a closed loop,
+   * where each connection sends its next request once the previous one is answered.
+   */
+  private int rate = 0;
+  /**
+   * True to keep connections open between requests.
+   */
+  private boolean keepAlive = true;
+  /**
+   * Number of requests sent back to back on a connection before their responses are read.
+   */
+  private int pipeline = 1;
+  /**
+   * Protocol version of the requests, HTTP/1.0 or HTTP/1.1.
+   */
+  private String version = "HTTP/1.1";
+  /**
+   * URIs requested, at random.  A URI given more than once is requested more often.
+   */
+  private List<String> uris = Collections.emptyList();
+  /**
+   * True to start a server in the same JVM, with the "httpserver.*" settings, and close it afterwards.
+   */
+  private boolean embedded = true;
+
+  /**
+   * Builds a configuration from the "httpserver.load.*" system properties.  The URIs default to every file under the
+   * docroot.
+   * @param portValue is the port requested from.
+   * @return LoadConfig
+   */
+  public static LoadConfig fromSystemProperties(final int portValue) {
+    ServerConfig props = new ServerConfig();
+    LoadConfig config = new LoadConfig();
+    config.setPort(portValue);
+    config.setHost(props.stringProperty("load.host", config.getHost()));
+    config.setConnections(props.intProperty("load.connections", config.getConnections()));
+    config.setDurationMillis(props.intProperty("load.duration", config.getDurationMillis()));
+    config.setWarmupMillis(props.intProperty("load.warmup", config.getWarmupMillis()));
+    config.setRate(props.intProperty("load.rate", config.getRate()));
+    config.setKeepAlive(Boolean.parseBoolean(props.stringProperty("load.keepAlive", String.valueOf(config.isKeepAlive()))));
+    config.setPipeline(props.intProperty("load.pipeline", config.getPipeline()));
+    config.setVersion(props.stringProperty("load.version", config.getVersion()));
+    config.setEmbedded(Boolean.parseBoolean(props.stringProperty("load.embedded", String.valueOf(config.isEmbedded()))));
+    String list = props.stringProperty("load.uris", null);
+    List<String> found = new ArrayList<String>();
+    if (list != null) {
+      for (String uri : list.split(",")) {
+        if (!uri.trim().isEmpty()) {
+          found.add(uri.trim());
+        }
+      }
+    } else {
+      File root = ServerContext.docRoot(props.stringProperty("docRoot", null));
+      addFiles(root, root, found);
+    }
+    config.setUris(found);
+    return config;
+  }
+
+  /**
+   * Adds the URIs of the files of a folder, and of its sub-folders, skipping hidden ones.
+   * @param root is the docroot.
+   * @param dir is the folder.
+   * @param found receives the URIs.
+   */
+  private static void addFiles(final File root, final File dir, final List<String> found) {
+    File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File f : files) {
+      if (f.getName().startsWith(".")) {
+        continue;
+      }
+      if (f.isDirectory()) {
+        addFiles(root, f, found);
+      } else {
+        String relative = root.toURI().relativize(f.toURI()).getRawPath();
+        found.add("/" + relative);
+      }
+    }
+  }
+
+  /**
+   * @return boolean true if requests are sent at a constant rate.
+   */
+  public final boolean isOpenLoop() {
+    return rate > 0;
+  }
+
+  /**
+   * @return String host.
+   */
+  public final String getHost() {
+    return host;
+  }
+
+  /**
+   * @param hostValue is the host requested from.
+   */
+  public final void setHost(final String hostValue) {
+    this.host = hostValue;
+  }
+
+  /**
+   * @return int port.
+   */
+  public final int getPort() {
+    return port;
+  }
+
+  /**
+   * @param portValue is the port requested from.
+   */
+  public final void setPort(final int portValue) {
+    this.port = portValue;
+  }
+
+  /**
+   * @return int number of connections.
+   */
+  public final int getConnections() {
+    return connections;
+  }
+
+  /**
+   * @param connectionsValue is the number of connections, at least 1.
+   */
+  public final void setConnections(final int connectionsValue) {
+    this.connections = Math.max(1, connectionsValue);
+  }
+
+  /**
+   * @return int millisecs measured.
+   */
+  public final int getDurationMillis() {
+    return durationMillis;
+  }
+
+  /**
+   * @param durationMillisValue is the millisecs measured.
+   */
+  public final void setDurationMillis(final int durationMillisValue) {
+    this.durationMillis = durationMillisValue;
+  }
+
+  /**
+   * @return int millisecs run before measuring.
+   */
+  public final int getWarmupMillis() {
+    return warmupMillis;
+  }
+
+  /**
+   * @param warmupMillisValue is the millisecs run before measuring.
+   */
+  public final void setWarmupMillis(final int warmupMillisValue) {
+    this.warmupMillis = Math.max(0, warmupMillisValue);
+  }
+
+  /**
+   * @return int requests per second, 0 for a closed loop.
+   */
+  public final int getRate() {
+    return rate;
+  }
+
+  /**
+   * @param rateValue is the requests per second, 0 for a closed loop.
+   */
+  public final void setRate(final int rateValue) {
+    this.rate = Math.max(0, rateValue);
+  }
+
+  /**
+   * @return boolean true if connections are kept open.
+   */
+  public final boolean isKeepAlive() {
+    return keepAlive;
+  }
+
+  /**
+   * @param keepAliveValue is true to keep connections open.
+   */
+  public final void setKeepAlive(final boolean keepAliveValue) {
+    this.keepAlive = keepAliveValue;
+  }
+
+  /**
+   * @return int requests sent back to back.
+   */
+  public final int getPipeline() {
+    return pipeline;
+  }
+
+  /**
+   * @param pipelineValue is the number of requests sent back to back, at least 1.
+   */
+  public final void setPipeline(final int pipelineValue) {
+    this.pipeline = Math.max(1, pipelineValue);
+  }
+
+  /**
+   * @return String protocol version.
+   */
+  public final String getVersion() {
+    return version;
+  }
+
+  /**
+   * @param versionValue is the protocol version, HTTP/1.0 or HTTP/1.1.
+   */
+  public final void setVersion(final String versionValue) {
+    this.version = versionValue;
+  }
+
+  /**
+   * @return List of the URIs requested.
+   */
+  public final List<String> getUris() {
+    return uris;
+  }
+
+  /**
+   * @param urisValue is the URIs requested.
+   */
+  public final void setUris(final List<String> urisValue) {
+    this.uris = urisValue;
+  }
+
+  /**
+   * @return boolean true if a server is started in the same JVM.
+   */
+  public final boolean isEmbedded() {
+    return embedded;
+  }
+
+  /**
+   * @param embeddedValue is true to start a server in the same JVM.
+   */
+  public final void setEmbedded(final boolean embeddedValue) {
+    this.embedded = embeddedValue;
+  }
+}
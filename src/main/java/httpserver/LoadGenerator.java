@@ -0,0 +1,109 @@
+package httpserver;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * Puts a http-server under load and reports its throughput and latency percentiles, e.g. to size the worker pool or to
+ * compare IO and executor modes.  A closed loop has each connection send its next request once the previous one is
+ * answered; an open loop sends requests at a constant rate, answered or not, as independent users do.  Latency is
+ * corrected for coordinated omission, see {@link LoadReport}.  By default a server is started in the same JVM, with the
+ * "httpserver.*" settings, and the load settings are read from "httpserver.load.*" properties, see {@link LoadConfig}:
+ * <pre>
+ * mvn exec:java -Dexec.mainClass=httpserver.LoadGenerator -Dhttpserver.load.rate=5000 -Dhttpserver.io=nio
+ * </pre>
+ * @author kmatassa
+ */
+public final class LoadGenerator {
+  /**
+   * Nanosecs in a millisec.
+   */
+  static final long NANOS_PER_MILLI = 1000000L;
+  /**
+   * Nanosecs in a second.
+   */
+  static final long NANOS_PER_SECOND = 1000000000L;
+  /**
+   * Default port.
+   */
+  private static final int DEFAULTPORT = 8080;
+  /**
+   * Local logger.
+   */
+  private static Logger logger = Logger.getAnonymousLogger();
+
+  /**
+   * Not instantiated.
+   */
+  private LoadGenerator() {
+  }
+
+  /**
+   * Main entry point.  Prints the report, then exits.
+   * @param args can contain an optional alternate port.  8080 is default.
+   */
+  public static void main(final String[] args) {
+    int port = DEFAULTPORT;
+    if (args != null && args.length > 0) {
+      try {
+        port = Integer.parseInt(args[0]);
+      } catch (NumberFormatException e) {
+        System.err.println("Argument " + args[0] + " must be an integer.");
+        System.exit(1);
+      }
+    }
+    LoadConfig config = LoadConfig.fromSystemProperties(port);
+    Server server = null;
+    try {
+      if (config.isEmbedded()) {
+        server = App.start(ServerConfig.fromSystemProperties(port));
+      }
+      System.out.print(run(config));
+    } catch (IOException | InterruptedException e) {
+      logger.severe(e.getMessage());
+      System.exit(1);
+    } finally {
+      if (server != null) {
+        try {
+          server.close();
+        } catch (IOException e) {
+          logger.warning(e.getMessage());
+        }
+      }
+    }
+    System.exit(0);
+  }
+
+  /**
+   * Runs the load described by the settings against a server that is already listening.
+   * @param config holds the settings.
+   * @return LoadReport results of the measured part of the run.
+   * @throws InterruptedException if interrupted while waiting for the clients.
+   */
+  public static LoadReport run(final LoadConfig config) throws InterruptedException {
+    if (config.getUris().isEmpty()) {
+      throw new IllegalArgumentException("no URIs to request");
+    }
+    LoadReport report = new LoadReport(config);
+    long now = System.nanoTime();
+    long measureFrom = now + config.getWarmupMillis() * NANOS_PER_MILLI;
+    // In an open loop, the connections' schedules are staggered so that requests arrive evenly.
+    long stagger = 0;
+    if (config.isOpenLoop()) {
+      stagger = NANOS_PER_SECOND / config.getRate();
+    }
+    Thread[] clients = new Thread[config.getConnections()];
+    for (int i = 0; i < clients.length; i++) {
+      LoadClient client = new LoadClient(config, report, measureFrom, now + i * stagger);
+      clients[i] = new Thread(client, "http-load-" + i);
+      clients[i].setDaemon(true);
+      clients[i].start();
+    }
+    for (Thread t : clients) {
+      t.join();
+    }
+    report.setElapsedNanos(Math.min(System.nanoTime(), measureFrom + config.getDurationMillis() * NANOS_PER_MILLI)
+                           - measureFrom);
+    return report;
+  }
+}
@@ -0,0 +1,221 @@
+package httpserver;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Results of a {@link LoadGenerator} run: responses by status, errors, throughput, and latency percentiles.  Latency is
+ * kept twice.  Service time runs from a request being written to its response being read.  Response time runs from
+ * when the request should have been sent, so that requests held back by a stalled server are not left out, which is
+ * known as coordinated omission.  In an open loop the intended send times are known; in a closed loop the missing
+ * requests are estimated from the expected interval between requests.
+ * @author kmatassa
+ */
+public class LoadReport {
+  /**
+   * Nanosecs in a microsec.
+   */
+  private static final long NANOS_PER_MICRO = 1000;
+  /**
+   * Microsecs in a millisec, as a double.
+   */
+  private static final double MICROS_PER_MILLI = 1000.0;
+  /**
+   * Nanosecs in a second, as a double.
+   */
+  private static final double NANOS_PER_SECOND = 1e9;
+  /**
+   * Lowest status code.
+   */
+  private static final int MIN_STATUS = 100;
+  /**
+   * Highest status code.
+   */
+  private static final int MAX_STATUS = 599;
+  /**
+   * Percentiles reported.
+   */
+  private static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999, 1.0};
+  /**
+   * Settings of the run.
+   */
+  private final LoadConfig config;
+  /**
+   * Response times in microsecs, corrected for coordinated omission.
+   */
+  private final Histogram responseTimes = new Histogram();
+  /**
+   * Service times in microsecs.
+   */
+  private final Histogram serviceTimes = new Histogram();
+  /**
+   * Responses by status code.
+   */
+  private final LongAdder[] statuses = new LongAdder[MAX_STATUS - MIN_STATUS + 1];
+  /**
+   * Requests that failed with an IO error.
+   */
+  private final LongAdder errors = new LongAdder();
+  /**
+   * Requests of an open loop due within the measured time, whether sent on time or not.
+   */
+  private final LongAdder scheduled = new LongAdder();
+  /**
+   * Nanosecs measured.
+   */
+  private long elapsedNanos = 0;
+
+  /**
+   * @param loadConfig holds the settings of the run.
+   */
+  public LoadReport(final LoadConfig loadConfig) {
+    this.config = loadConfig;
+    for (int i = 0; i < statuses.length; i++) {
+      statuses[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * Records a response.
+   * @param status is its status code.
+   * @param serviceNanos is the time from the request being written to the response being read.
+   * @param responseNanos is the time from when the request should have been sent to the response being read.
+   * @param expectedNanos is the interval expected between requests of a closed loop, to correct for the requests it
+   *        held back; 0 when responseNanos already accounts for them.
+   */
+  final void record(final int status, final long serviceNanos, final long responseNanos, final long expectedNanos) {
+    if (status >= MIN_STATUS && status <= MAX_STATUS) {
+      statuses[status - MIN_STATUS].increment();
+    }
+    serviceTimes.record(serviceNanos / NANOS_PER_MICRO);
+    responseTimes.recordCorrected(responseNanos / NANOS_PER_MICRO, expectedNanos / NANOS_PER_MICRO);
+  }
+
+  /**
+   * Records a request that failed with an IO error.
+   */
+  final void recordError() {
+    errors.increment();
+  }
+
+  /**
+   * Records requests of an open loop due within the measured time.
+   * @param n is their number.
+   */
+  final void recordScheduled(final int n) {
+    scheduled.add(n);
+  }
+
+  /**
+   * @param elapsedNanosValue is the nanosecs measured.
+   */
+  final void setElapsedNanos(final long elapsedNanosValue) {
+    this.elapsedNanos = elapsedNanosValue;
+  }
+
+  /**
+   * @return long responses read.
+   */
+  public final long getResponses() {
+    long n = 0;
+    for (LongAdder s : statuses) {
+      n += s.sum();
+    }
+    return n;
+  }
+
+  /**
+   * @param status is a status code.
+   * @return long responses with that status.
+   */
+  public final long getResponses(final int status) {
+    if (status < MIN_STATUS || status > MAX_STATUS) {
+      return 0;
+    }
+    return statuses[status - MIN_STATUS].sum();
+  }
+
+  /**
+   * @return long requests that failed with an IO error.
+   */
+  public final long getErrors() {
+    return errors.sum();
+  }
+
+  /**
+   * @return long requests of an open loop due within the measured time, which depends on the rate and duration alone;
+   * 0 in a closed loop.
+   */
+  public final long getScheduled() {
+    return scheduled.sum();
+  }
+
+  /**
+   * @return double responses per second.
+   */
+  public final double getThroughput() {
+    if (elapsedNanos <= 0) {
+      return 0;
+    }
+    return getResponses() * NANOS_PER_SECOND / elapsedNanos;
+  }
+
+  /**
+   * @param quantile is between 0 and 1.
+   * @return long response time in microsecs, corrected for coordinated omission.
+   */
+  public final long getResponseTime(final double quantile) {
+    return responseTimes.valueAt(quantile);
+  }
+
+  /**
+   * @param quantile is between 0 and 1.
+   * @return long service time in microsecs.
+   */
+  public final long getServiceTime(final double quantile) {
+    return serviceTimes.valueAt(quantile);
+  }
+
+  /**
+   * @return String a summary of the run, with latency percentiles in millisecs.
+   */
+  @Override
+  public final String toString() {
+    StringBuilder sb = new StringBuilder();
+    String loop = "closed loop";
+    if (config.isOpenLoop()) {
+      loop = "open loop at " + config.getRate() + " req/s";
+    }
+    String connection = "close";
+    if (config.isKeepAlive()) {
+      connection = "keep-alive";
+    }
+    sb.append(String.format(Locale.ROOT, "%s, %d connections, %s, pipeline %d, %s, %d ms%n", loop, config.getConnections(),
+                            connection, config.getPipeline(), config.getVersion(), config.getDurationMillis()));
+    sb.append(String.format(Locale.ROOT, "responses %d, errors %d, %.1f req/s%n", getResponses(), getErrors(),
+                            getThroughput()));
+    for (int i = 0; i < statuses.length; i++) {
+      long n = statuses[i].sum();
+      if (n > 0) {
+        sb.append(String.format(Locale.ROOT, "  status %d: %d%n", MIN_STATUS + i, n));
+      }
+    }
+    sb.append(String.format(Locale.ROOT, "%-10s%10s%10s%10s%10s%10s%n", "ms", "p50", "p90", "p99", "p999", "max"));
+    row(sb, "response", responseTimes);
+    row(sb, "service", serviceTimes);
+    return sb.toString();
+  }
+
+  /**
+   * @param sb receives the row.
+   * @param name is the row name.
+   * @param h holds the latencies in microsecs.
+   */
+  private static void row(final StringBuilder sb, final String name, final Histogram h) {
+    sb.append(String.format(Locale.ROOT, "%-10s", name));
+    for (double q : PERCENTILES) {
+      sb.append(String.format(Locale.ROOT, "%10.3f", h.valueAt(q) / MICROS_PER_MILLI));
+    }
+    sb.append(String.format("%n"));
+  }
+}
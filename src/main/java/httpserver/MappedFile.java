@@ -0,0 +1,133 @@
+package httpserver;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * A read-only mapping of a large file, shared by every request serving it.  The mapping is reference counted: the tier
+ * holds one reference while the file is current, each request holds one while writing, and the mapping is released
+ * once the last reference is dropped.
+ * @author kmatassa
+ */
+final class MappedFile {
+  /**
+   * Local logger.
+   */
+  private static Logger logger = Logger.getAnonymousLogger();
+  /**
+   * Unsafe.invokeCleaner (Java 9+) and the Unsafe instance to call it on, or null if unavailable.
+   */
+  private static final Object[] CLEANER = findCleaner();
+  /**
+   * The mapping.
+   */
+  private final MappedByteBuffer buffer;
+  /**
+   * Last modified time of the file when it was mapped.
+   */
+  private final long lastModified;
+  /**
+   * References held; 0 once released.
+   */
+  private final AtomicInteger refCount = new AtomicInteger(1);
+  /**
+   * Time in millisecs of the last request for this mapping.
+   */
+  private volatile long lastUsed;
+
+  /**
+   * @param mapping is the mapped file.
+   * @param lastModifiedValue is the last modified time of the file when it was mapped.
+   * @param now is the current time in millisecs.
+   */
+  MappedFile(final MappedByteBuffer mapping, final long lastModifiedValue, final long now) {
+    this.buffer = mapping;
+    this.lastModified = lastModifiedValue;
+    this.lastUsed = now;
+  }
+
+  /**
+   * @return Object[] holding the Unsafe instance and its invokeCleaner method, or null.
+   */
+  private static Object[] findCleaner() {
+    try {
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+      Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+      theUnsafe.setAccessible(true);
+      return new Object[] {theUnsafe.get(null), invokeCleaner};
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      logger.fine("mappings will be released by the garbage collector: " + e);
+      return null;
+    }
+  }
+
+  /**
+   * Takes a reference for a request.
+   * @param now is the current time in millisecs.
+   * @return true if taken, false if the mapping has already been released.
+   */
+  boolean retain(final long now) {
+    int count;
+    do {
+      count = refCount.get();
+      if (count == 0) {
+        return false;
+      }
+    } while (!refCount.compareAndSet(count, count + 1));
+    lastUsed = now;
+    return true;
+  }
+
+  /**
+   * Drops a reference, unmapping the file when it was the last one.
+   */
+  void release() {
+    if (refCount.decrementAndGet() == 0 && CLEANER != null) {
+      try {
+        ((Method) CLEANER[1]).invoke(CLEANER[0], buffer);
+      } catch (ReflectiveOperationException e) {
+        logger.fine("unmap failed: " + e);
+      }
+    }
+  }
+
+  /**
+   * @return ByteBuffer over the whole file, with a position of its own.
+   */
+  ByteBuffer slice() {
+    return buffer.duplicate();
+  }
+
+  /**
+   * @return long size of the mapping.
+   */
+  long getSize() {
+    return buffer.capacity();
+  }
+
+  /**
+   * @return long last modified time of the file when it was mapped.
+   */
+  long getLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * @return long time in millisecs of the last request.
+   */
+  long getLastUsed() {
+    return lastUsed;
+  }
+
+  /**
+   * @return true once every reference has been dropped.
+   */
+  boolean isReleased() {
+    return refCount.get() == 0;
+  }
+}
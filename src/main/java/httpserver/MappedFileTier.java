@@ -0,0 +1,143 @@
+package httpserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Serves large files from read-only memory mappings, made once and shared by concurrent requests.  A mapping is
+ * retired when its file changes, or when it has gone unrequested for longer than the idle limit; it is unmapped once
+ * the requests still writing from it are done.
+ * @author kmatassa
+ */
+public class MappedFileTier {
+  /**
+   * Local logger.
+   */
+  private Logger logger = Logger.getAnonymousLogger();
+  /**
+   * Current mappings, keyed by canonical path.
+   */
+  private final Map<String, MappedFile> mappings = new ConcurrentHashMap<String, MappedFile>();
+  /**
+   * Size in bytes from which files are mapped.  0 or less disables the tier.
+   */
+  private final long threshold;
+  /**
+   * Millisecs a mapping may go unrequested before it is retired.
+   */
+  private final long idleMillis;
+  /**
+   * Time of the next sweep for cold mappings.
+   */
+  private volatile long nextSweep = 0;
+
+  /**
+   * @param thresholdValue is the size in bytes from which files are mapped, 0 or less disables the tier.
+   * @param idleMillisValue is how long a mapping may go unrequested before it is retired.
+   */
+  public MappedFileTier(final long thresholdValue, final long idleMillisValue) {
+    this.threshold = thresholdValue;
+    this.idleMillis = idleMillisValue;
+  }
+
+  /**
+   * @param size is the file size.
+   * @return true if a file of this size is served from a mapping.
+   */
+  public final boolean isMappable(final long size) {
+    return threshold > 0 && size >= threshold && size <= Integer.MAX_VALUE;
+  }
+
+  /**
+   * Returns the mapping of a file, mapping it if needed, with a reference taken for the caller to release.
+   * @param key is the canonical path.
+   * @param file is the file.
+   * @param lastModified is the file's current last modified time.
+   * @param size is the file's current size.
+   * @return MappedFile to be released by the caller once written.
+   * @throws IOException sometimes
+   */
+  final MappedFile acquire(final String key, final File file, final long lastModified, final long size)
+      throws IOException {
+    long now = System.currentTimeMillis();
+    sweep(now);
+    for (;;) {
+      MappedFile current = mappings.get(key);
+      if (current != null && (current.getLastModified() != lastModified || current.getSize() != size)) {
+        logger.info("file changed, unmapping: " + key);
+        retire(key, current);
+        current = null;
+      }
+      if (current == null) {
+        MappedFile mapped = map(file, lastModified, now);
+        current = mappings.putIfAbsent(key, mapped);
+        if (current == null) {
+          current = mapped;
+        } else {
+          // Another request mapped it first.
+          mapped.release();
+        }
+      }
+      if (current.retain(now)) {
+        return current;
+      }
+      // Retired meanwhile, try again.
+    }
+  }
+
+  /**
+   * @param file is the file.
+   * @param lastModified is its last modified time.
+   * @param now is the current time in millisecs.
+   * @return MappedFile holding the tier's reference.
+   * @throws IOException sometimes
+   */
+  private MappedFile map(final File file, final long lastModified, final long now) throws IOException {
+    try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      return new MappedFile(fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()), lastModified, now);
+    }
+  }
+
+  /**
+   * Removes a mapping and drops the tier's reference to it.
+   * @param key is the canonical path.
+   * @param mapping is the mapping.
+   */
+  private void retire(final String key, final MappedFile mapping) {
+    if (mappings.remove(key, mapping)) {
+      mapping.release();
+    }
+  }
+
+  /**
+   * Retires mappings that have gone cold, at most once per idle period.
+   * @param now is the current time in millisecs.
+   */
+  private void sweep(final long now) {
+    if (now < nextSweep) {
+      return;
+    }
+    nextSweep = now + idleMillis;
+    Iterator<Map.Entry<String, MappedFile>> it = mappings.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, MappedFile> e = it.next();
+      if (now - e.getValue().getLastUsed() > idleMillis) {
+        logger.info("cold, unmapping: " + e.getKey());
+        retire(e.getKey(), e.getValue());
+      }
+    }
+  }
+
+  /**
+   * @return int number of files currently mapped.
+   */
+  public final int size() {
+    return mappings.size();
+  }
+}
@@ -0,0 +1,360 @@
+package httpserver;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts what http-server does, cheaply enough to record on every request: latency and keep-alive reuse histograms,
+ * bytes sent, responses by status code, and open connections.  Everything is held in striped LongAdders.  The metrics
+ * are rendered in the Prometheus text exposition format, served on a reserved path.
+ * @author kmatassa
+ */
+public class Metrics {
+  /**
+   * Content type of the rendered metrics.
+   */
+  public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+  /**
+   * Lowest status code counted.
+   */
+  private static final int MIN_STATUS = 100;
+  /**
+   * Highest status code counted.
+   */
+  private static final int MAX_STATUS = 599;
+  /**
+   * Decimal places of a microsecond, in seconds.
+   */
+  private static final int MICROS_SCALE = 6;
+  /**
+   * Nanosecs per microsecond.
+   */
+  private static final long NANOS_PER_MICRO = 1000;
+  /**
+   * Latency bucket bounds of the exposed histogram, in microseconds: round values moved up to the nearest exact bound
+   * of a bucket, so that each exposed bucket counts what is at or below its bound and nothing above.
+   */
+  private static final long[] LATENCY_BOUNDS = exact(new long[] {100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000,
+                                                                 100000, 250000, 500000, 1000000, 2500000, 5000000,
+                                                                 10000000});
+  /**
+   * The same bounds, in seconds, as exposed.
+   */
+  private static final String[] LATENCY_LABELS = seconds(LATENCY_BOUNDS);
+  /**
+   * Latency quantiles exposed.
+   */
+  private static final String[] QUANTILES = {"0.5", "0.9", "0.99", "0.999"};
+  /**
+   * Bucket bounds of the exposed requests-per-connection histogram, made exact the same way.
+   */
+  private static final long[] REUSE_BOUNDS = exact(new long[] {1, 2, 5, 10, 20, 50, 100, 1000});
+  /**
+   * Request latency, from the request being read to its response being written or batched, in microseconds.
+   */
+  private final Histogram latency = new Histogram();
+  /**
+   * Requests served on each connection, recorded when it closes.
+   */
+  private final Histogram connectionRequests = new Histogram();
+  /**
+   * Responses by status code less MIN_STATUS.
+   */
+  private final LongAdder[] statuses = new LongAdder[MAX_STATUS - MIN_STATUS + 1];
+  /**
+   * Body bytes sent.
+   */
+  private final LongAdder bytesSent = new LongAdder();
+  /**
+   * Requests served on a connection that had served one before.
+   */
+  private final LongAdder reusedRequests = new LongAdder();
+  /**
+   * Connections opened.
+   */
+  private final LongAdder connectionsOpened = new LongAdder();
+  /**
+   * Connections open.
+   */
+  private final LongAdder connectionsActive = new LongAdder();
+  /**
+   * Connections turned away at a limit.
+   */
+  private final LongAdder connectionsShed = new LongAdder();
+  /**
+   * Worker groups, whose queue depths are sampled when rendering.
+   */
+  private volatile ExecutorService[] executors = new ExecutorService[0];
+  /**
+   * Access log, whose dropped entries are sampled when rendering, or null.
+   */
+  private volatile AccessLog accessLog = null;
+  /**
+   * Buffer pools, whose use is sampled when rendering.
+   */
+  private volatile BufferPool[] bufferPools = new BufferPool[0];
+
+  /**
+   * Creates empty metrics.
+   */
+  public Metrics() {
+    for (int i = 0; i < statuses.length; i++) {
+      statuses[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * @param bounds are in microseconds.
+   * @return String[] the bounds in seconds, as plain decimals.
+   */
+  private static String[] seconds(final long[] bounds) {
+    String[] labels = new String[bounds.length];
+    for (int i = 0; i < bounds.length; i++) {
+      labels[i] = BigDecimal.valueOf(bounds[i], MICROS_SCALE).stripTrailingZeros().toPlainString();
+    }
+    return labels;
+  }
+
+  /**
+   * @param bounds are bucket bounds.
+   * @return long[] the bounds, each moved up to the highest value of the histogram bucket holding it.
+   */
+  private static long[] exact(final long[] bounds) {
+    long[] exact = new long[bounds.length];
+    for (int i = 0; i < bounds.length; i++) {
+      exact[i] = Histogram.exactBound(bounds[i]);
+    }
+    return exact;
+  }
+
+  /**
+   * Records a response.
+   * @param status is its status code.
+   * @param bytes is the number of body bytes sent.
+   * @param nanos is the time taken to answer, in nanosecs.
+   * @param requestOnConnection is the number of the request on its connection, from 1.
+   */
+  public final void recordRequest(final int status, final long bytes, final long nanos, final int requestOnConnection) {
+    if (status >= MIN_STATUS && status <= MAX_STATUS) {
+      statuses[status - MIN_STATUS].increment();
+    }
+    bytesSent.add(bytes);
+    latency.record(nanos / NANOS_PER_MICRO);
+    if (requestOnConnection > 1) {
+      reusedRequests.increment();
+    }
+  }
+
+  /**
+   * Records a connection being opened.
+   */
+  public final void connectionOpened() {
+    connectionsOpened.increment();
+    connectionsActive.increment();
+  }
+
+  /**
+   * Records a connection being closed.
+   * @param requests is the number of requests it served.
+   */
+  public final void connectionClosed(final int requests) {
+    connectionsActive.decrement();
+    connectionRequests.record(requests);
+  }
+
+  /**
+   * Records a connection turned away at a limit.
+   */
+  public final void connectionShed() {
+    connectionsShed.increment();
+  }
+
+  /**
+   * @param executorsValue are the worker executors, one per group, whose queue depth is exposed.
+   */
+  public final void setExecutors(final ExecutorService... executorsValue) {
+    this.executors = executorsValue.clone();
+  }
+
+  /**
+   * @param accessLogValue is the access log, whose dropped entries are exposed.
+   */
+  public final void setAccessLog(final AccessLog accessLogValue) {
+    this.accessLog = accessLogValue;
+  }
+
+  /**
+   * @param pools are the buffer pools, whose use is exposed.
+   */
+  final void setBufferPools(final BufferPool... pools) {
+    this.bufferPools = pools.clone();
+  }
+
+  /**
+   * @return double share of the pooled worker threads busy or queued for, from 0; 0 if the workers are not pooled.
+   */
+  final double workerUsage() {
+    long threads = 0;
+    long busy = 0;
+    for (ExecutorService e : executors) {
+      if (e instanceof ThreadPoolExecutor) {
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) e;
+        threads += pool.getMaximumPoolSize();
+        busy += pool.getActiveCount() + pool.getQueue().size();
+      }
+    }
+    if (threads == 0) {
+      return 0;
+    }
+    return (double) busy / threads;
+  }
+
+  /**
+   * @return Histogram of request latency in microseconds.
+   */
+  final Histogram getLatency() {
+    return latency;
+  }
+
+  /**
+   * Renders the metrics in the Prometheus text exposition format.
+   * @return String the metrics.
+   */
+  public final String render() {
+    StringBuilder sb = new StringBuilder();
+    header(sb, "http_server_requests_total", "counter", "Responses sent, by status code.");
+    for (int i = 0; i < statuses.length; i++) {
+      long n = statuses[i].sum();
+      if (n > 0) {
+        sb.append("http_server_requests_total{code=\"").append(MIN_STATUS + i).append("\"} ").append(n).append('\n');
+      }
+    }
+    header(sb, "http_server_request_duration_seconds", "histogram",
+           "Time from a request being read to its response being written or batched.");
+    for (int i = 0; i < LATENCY_BOUNDS.length; i++) {
+      sb.append("http_server_request_duration_seconds_bucket{le=\"").append(LATENCY_LABELS[i]).append("\"} ")
+          .append(latency.countAtOrBelow(LATENCY_BOUNDS[i])).append('\n');
+    }
+    long count = latency.getCount();
+    sb.append("http_server_request_duration_seconds_bucket{le=\"+Inf\"} ").append(count).append('\n');
+    String sum = BigDecimal.valueOf(latency.getSum(), MICROS_SCALE).toPlainString();
+    sb.append("http_server_request_duration_seconds_sum ").append(sum).append('\n');
+    sb.append("http_server_request_duration_seconds_count ").append(count).append('\n');
+    header(sb, "http_server_request_latency_seconds", "summary", "Request latency quantiles, to about 6%.");
+    for (String q : QUANTILES) {
+      long micros = latency.valueAt(Double.parseDouble(q));
+      sb.append("http_server_request_latency_seconds{quantile=\"").append(q).append("\"} ")
+          .append(BigDecimal.valueOf(micros, MICROS_SCALE).toPlainString()).append('\n');
+    }
+    sb.append("http_server_request_latency_seconds_sum ").append(sum).append('\n');
+    sb.append("http_server_request_latency_seconds_count ").append(count).append('\n');
+    counter(sb, "http_server_response_bytes_total", "Body bytes sent.", bytesSent.sum());
+    counter(sb, "http_server_keepalive_reused_requests_total", "Requests served on an already used connection.",
+            reusedRequests.sum());
+    header(sb, "http_server_connection_requests", "histogram", "Requests served per closed connection.");
+    for (long bound : REUSE_BOUNDS) {
+      sb.append("http_server_connection_requests_bucket{le=\"").append(bound).append("\"} ")
+          .append(connectionRequests.countAtOrBelow(bound)).append('\n');
+    }
+    long closed = connectionRequests.getCount();
+    sb.append("http_server_connection_requests_bucket{le=\"+Inf\"} ").append(closed).append('\n');
+    sb.append("http_server_connection_requests_sum ").append(connectionRequests.getSum()).append('\n');
+    sb.append("http_server_connection_requests_count ").append(closed).append('\n');
+    counter(sb, "http_server_connections_opened_total", "Connections accepted.", connectionsOpened.sum());
+    gauge(sb, "http_server_connections_active", "Connections open.", connectionsActive.sum());
+    counter(sb, "http_server_connections_shed_total", "Connections turned away at the connection or queue limit.",
+            connectionsShed.sum());
+    long queued = 0;
+    long busy = 0;
+    boolean pooled = false;
+    for (ExecutorService e : executors) {
+      if (e instanceof ThreadPoolExecutor) {
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) e;
+        queued += pool.getQueue().size();
+        busy += pool.getActiveCount();
+        pooled = true;
+      }
+    }
+    if (pooled) {
+      gauge(sb, "http_server_executor_queue_depth", "Tasks waiting for a worker thread.", queued);
+      gauge(sb, "http_server_executor_active_threads", "Worker threads busy.", busy);
+    }
+    AccessLog log = accessLog;
+    if (log != null) {
+      counter(sb, "http_server_access_log_dropped_total", "Access log entries dropped.", log.getDropped());
+    }
+    BufferPool[] pools = bufferPools;
+    if (pools.length > 0) {
+      header(sb, "http_server_buffer_acquired_total", "counter", "Buffers taken from the pools.");
+      for (BufferPool p : pools) {
+        pool(sb, "http_server_buffer_acquired_total", p, p.getAcquired());
+      }
+      header(sb, "http_server_buffer_allocated_total", "counter", "Buffers allocated for want of an idle one.");
+      for (BufferPool p : pools) {
+        pool(sb, "http_server_buffer_allocated_total", p, p.getAllocated());
+      }
+      header(sb, "http_server_buffer_outstanding", "gauge", "Buffers taken and not given back.");
+      for (BufferPool p : pools) {
+        pool(sb, "http_server_buffer_outstanding", p, p.getOutstanding());
+      }
+      header(sb, "http_server_buffer_pooled_bytes", "gauge", "Bytes of idle buffers shared, not counting per-thread caches.");
+      for (BufferPool p : pools) {
+        pool(sb, "http_server_buffer_pooled_bytes", p, p.getQueuedBytes());
+      }
+      header(sb, "http_server_buffer_leaks_total", "counter", "Buffers collected without being given back, when detected.");
+      for (BufferPool p : pools) {
+        pool(sb, "http_server_buffer_leaks_total", p, p.getLeaks());
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @param sb receives the lines.
+   * @param name is the metric name.
+   * @param type is the metric type.
+   * @param help is the description.
+   */
+  private static void header(final StringBuilder sb, final String name, final String type, final String help) {
+    sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+    sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+  }
+
+  /**
+   * @param sb receives the line.
+   * @param name is the metric name.
+   * @param pool is the buffer pool measured, labelled by the kind of its buffers.
+   * @param value is the value.
+   */
+  private static void pool(final StringBuilder sb, final String name, final BufferPool pool, final long value) {
+    String kind = "heap";
+    if (pool.isDirect()) {
+      kind = "direct";
+    }
+    sb.append(name).append("{pool=\"").append(kind).append("\"} ").append(value).append('\n');
+  }
+
+  /**
+   * @param sb receives the lines.
+   * @param name is the metric name.
+   * @param help is the description.
+   * @param value is the value.
+   */
+  private static void counter(final StringBuilder sb, final String name, final String help, final long value) {
+    header(sb, name, "counter", help);
+    sb.append(name).append(' ').append(value).append('\n');
+  }
+
+  /**
+   * @param sb receives the lines.
+   * @param name is the metric name.
+   * @param help is the description.
+   * @param value is the value.
+   */
+  private static void gauge(final StringBuilder sb, final String name, final String help, final long value) {
+    header(sb, name, "gauge", help);
+    sb.append(name).append(' ').append(value).append('\n');
+  }
+}
@@ -0,0 +1,33 @@
+package httpserver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+
+/**
+ * Serves the metrics, rendered for Prometheus, at the metrics path.  They are never cached.
+ * @author kmatassa
+ */
+final class MetricsHandler implements Handler {
+  /**
+   * @param exchange holds the request and receives the response.
+   * @return true, the connection being kept open if the client asked for it.
+   */
+  @Override
+  public boolean handle(final Exchange exchange) {
+    byte[] body = exchange.getContext().getMetrics().render().getBytes(StandardCharsets.UTF_8);
+    ResponseBatch batch = exchange.getBatch();
+    batch.add(exchange.begin(HttpStatus.SC_OK)
+              .put(ResponseHead.CACHE_CONTROL_NO_STORE)
+              .header(ResponseHead.CONTENT_TYPE, Metrics.CONTENT_TYPE)
+              .header(ResponseHead.CONTENT_LENGTH, body.length)
+              .end());
+    if (exchange.getRequest().isMethod(HttpGet.METHOD_NAME)) {
+      exchange.setSent(body.length);
+      batch.add(ByteBuffer.wrap(body));
+    }
+    return true;
+  }
+}
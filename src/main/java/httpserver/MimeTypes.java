@@ -0,0 +1,322 @@
+package httpserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Resolves content types from file name extensions.  The mime.types tables are read once into an immutable lookup
+ * table, searched case-insensitively in place, so that a lookup allocates nothing.  A ".mime.types" file in a
+ * directory of the docroot overrides the tables for the files of that directory.  {@link #reload()} re-reads
+ * everything, swapping the tables in atomically.
+ * @author kmatassa
+ */
+public class MimeTypes {
+  /**
+   * Content type of files whose extension is unknown.
+   */
+  public static final String DEFAULT_TYPE = "application/octet-stream";
+  /**
+   * Name of per-directory override files.
+   */
+  public static final String OVERRIDE_FILE = ".mime.types";
+  /**
+   * Classpath tables, in increasing precedence: those of the activation library, then those built in, then any on the
+   * classpath.
+   */
+  private static final String[] RESOURCES = {"META-INF/mimetypes.default", "httpserver/mime.types", "META-INF/mime.types"};
+  /**
+   * Multiplier of the extension hash.
+   */
+  private static final int HASH_MULTIPLIER = 31;
+  /**
+   * Shift folding the high bits of the extension hash into the low ones.
+   */
+  private static final int HASH_SHIFT = 16;
+  /**
+   * Local logger.
+   */
+  private Logger logger = Logger.getAnonymousLogger();
+  /**
+   * Directory scanned for override files.
+   */
+  private final File root;
+  /**
+   * Further mime.types file, or null.
+   */
+  private final String typesFile;
+  /**
+   * Charset parameter given to text types, or null.
+   */
+  private final String charset;
+  /**
+   * Table used for every directory without an override file.
+   */
+  private volatile Table table;
+  /**
+   * Tables of the directories with an override file, keyed by canonical path.
+   */
+  private volatile Map<String, Table> overrides;
+
+  /**
+   * An immutable open-addressed hash table from lower case extension to content type.
+   */
+  static final class Table {
+    /**
+     * Extensions, lower case; null for free slots.
+     */
+    private final String[] keys;
+    /**
+     * Content types, charset included.
+     */
+    private final String[] values;
+    /**
+     * Slot count less one; the slot count is a power of two.
+     */
+    private final int mask;
+
+    /**
+     * @param types maps lower case extensions to content types.
+     */
+    Table(final Map<String, String> types) {
+      int slots = Integer.highestOneBit(Math.max(types.size(), 1) * 2) * 2;
+      keys = new String[slots];
+      values = new String[slots];
+      mask = slots - 1;
+      for (Map.Entry<String, String> e : types.entrySet()) {
+        String key = e.getKey();
+        int i = hash(key, 0, key.length()) & mask;
+        while (keys[i] != null) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = e.getValue();
+      }
+    }
+
+    /**
+     * @param name holds the extension.
+     * @param from is the offset of the extension within name.
+     * @return String content type, or null if the extension is unknown.
+     */
+    String lookup(final String name, final int from) {
+      int i = hash(name, from, name.length()) & mask;
+      String key;
+      while ((key = keys[i]) != null) {
+        if (matches(key, name, from)) {
+          return values[i];
+        }
+        i = (i + 1) & mask;
+      }
+      return null;
+    }
+
+    /**
+     * @param key is a lower case extension.
+     * @param name holds an extension of either case.
+     * @param from is the offset of the extension within name.
+     * @return true if they are the same extension.
+     */
+    private static boolean matches(final String key, final String name, final int from) {
+      if (key.length() != name.length() - from) {
+        return false;
+      }
+      for (int i = 0; i < key.length(); i++) {
+        if (key.charAt(i) != lower(name.charAt(from + i))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * @param s holds the characters.
+     * @param from is the first index.
+     * @param to is the index past the last.
+     * @return int case-insensitive hash of the characters.
+     */
+    private static int hash(final String s, final int from, final int to) {
+      int h = 0;
+      for (int i = from; i < to; i++) {
+        h = HASH_MULTIPLIER * h + lower(s.charAt(i));
+      }
+      return h ^ (h >>> HASH_SHIFT);
+    }
+
+    /**
+     * @param c is a character.
+     * @return char lower case of an ASCII letter, else c.
+     */
+    private static char lower(final char c) {
+      if (c >= 'A' && c <= 'Z') {
+        return (char) (c + ('a' - 'A'));
+      }
+      return c;
+    }
+  }
+
+  /**
+   * @param rootValue is the directory scanned for override files, or null for none.
+   * @param typesFileValue is a further mime.types file, or null.
+   * @param charsetValue is the charset parameter given to text types, or null for none.
+   */
+  public MimeTypes(final File rootValue, final String typesFileValue, final String charsetValue) {
+    this.root = rootValue;
+    this.typesFile = typesFileValue;
+    if (charsetValue == null || charsetValue.trim().isEmpty()) {
+      this.charset = null;
+    } else {
+      this.charset = charsetValue.trim();
+    }
+    reload();
+  }
+
+  /**
+   * Re-reads the tables and override files.  Lookups in progress carry on with the previous tables.
+   */
+  public final synchronized void reload() {
+    Map<String, String> types = new HashMap<String, String>();
+    for (String resource : RESOURCES) {
+      try {
+        Enumeration<URL> urls = MimeTypes.class.getClassLoader().getResources(resource);
+        for (URL url : Collections.list(urls)) {
+          try (InputStream in = url.openStream()) {
+            parse(IOUtils.toString(in, StandardCharsets.ISO_8859_1), types);
+          }
+        }
+      } catch (IOException e) {
+        logger.warning("cannot read " + resource + ": " + e.getMessage());
+      }
+    }
+    if (typesFile != null) {
+      readFile(new File(typesFile).toPath(), types);
+    }
+    Map<String, Table> dirs = new HashMap<String, Table>();
+    if (root != null && root.isDirectory()) {
+      try (Stream<Path> paths = Files.walk(root.toPath())) {
+        Iterator<Path> i = paths.iterator();
+        while (i.hasNext()) {
+          Path p = i.next();
+          if (p.getFileName().toString().equals(OVERRIDE_FILE) && Files.isRegularFile(p)) {
+            Map<String, String> dirTypes = new HashMap<String, String>(types);
+            readFile(p, dirTypes);
+            dirs.put(p.getParent().toFile().getCanonicalPath(), new Table(dirTypes));
+          }
+        }
+      } catch (IOException e) {
+        logger.warning("cannot scan " + root + " for " + OVERRIDE_FILE + ": " + e.getMessage());
+      }
+    }
+    this.table = new Table(types);
+    this.overrides = dirs;
+    logger.info("mime types loaded: " + types.size() + " extensions, " + dirs.size() + " directory overrides");
+  }
+
+  /**
+   * @param path is a mime.types file.
+   * @param types receives its entries.
+   */
+  private void readFile(final Path path, final Map<String, String> types) {
+    try {
+      parse(new String(Files.readAllBytes(path), StandardCharsets.ISO_8859_1), types);
+    } catch (IOException e) {
+      logger.warning("cannot read " + path + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Parses mime.types content: lines of a type followed by its extensions, or of "type=" and "exts=" pairs, with "#"
+   * comments.  Later entries replace earlier ones.
+   * @param content is the file content.
+   * @param types receives the entries, keyed by lower case extension.
+   */
+  final void parse(final String content, final Map<String, String> types) {
+    for (String line : content.split("\r?\n")) {
+      String entry = line;
+      int hash = entry.indexOf('#');
+      if (hash >= 0) {
+        entry = entry.substring(0, hash);
+      }
+      String[] tokens = entry.trim().split("\\s+");
+      if (tokens.length < 2) {
+        continue;
+      }
+      String type = tokens[0];
+      String[] exts = Arrays.copyOfRange(tokens, 1, tokens.length);
+      if (type.startsWith("type=")) {
+        type = type.substring("type=".length());
+        exts = new String[0];
+        for (String token : tokens) {
+          if (token.startsWith("exts=")) {
+            exts = token.substring("exts=".length()).split(",");
+          }
+        }
+      }
+      String value = withCharset(type);
+      for (String ext : exts) {
+        if (!ext.isEmpty()) {
+          types.put(ext.toLowerCase(Locale.ROOT), value);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param type is a content type.
+   * @return String the content type, with the charset parameter when it is a text type.
+   */
+  private String withCharset(final String type) {
+    if (charset != null && type.startsWith("text/") && type.indexOf(';') < 0) {
+      return type + "; charset=" + charset;
+    }
+    return type;
+  }
+
+  /**
+   * @param file is the file.
+   * @return String content type of the file.
+   */
+  public final String getContentType(final File file) {
+    Table t = table;
+    Map<String, Table> dirs = overrides;
+    if (!dirs.isEmpty()) {
+      Table dir = dirs.get(file.getParent());
+      if (dir != null) {
+        t = dir;
+      }
+    }
+    return getContentType(file.getName(), t);
+  }
+
+  /**
+   * @param name is a file name.
+   * @param t is the table to search.
+   * @return String content type of the name's extension.
+   */
+  private static String getContentType(final String name, final Table t) {
+    int dot = name.lastIndexOf('.');
+    if (dot < 0 || dot == name.length() - 1) {
+      return DEFAULT_TYPE;
+    }
+    String type = t.lookup(name, dot + 1);
+    if (type == null) {
+      return DEFAULT_TYPE;
+    }
+    return type;
+  }
+}
@@ -0,0 +1,138 @@
+package httpserver;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * A selector based listener: an acceptor thread hands each new connection to one of the selector loops, which park it
+ * until a request is ready to be read and only then dispatch it to a worker thread.  Thousands of mostly-idle keep-alive
+ * connections thus cost no threads.  At most maxConnections are open at once, and a ready connection that finds the
+ * work queue full is turned away, see {@link Admission}.  Several acceptors may be run, each with selector loops and
+ * workers of its own, see {@link ServerSockets}.
+ * @author kmatassa
+ */
+public class NioServer implements Server {
+  /**
+   * Local logger.
+   */
+  private Logger logger = Logger.getAnonymousLogger();
+  /**
+   * Settings and shared caches.
+   */
+  private final ServerContext context;
+  /**
+   * Settings.
+   */
+  private final ServerConfig config;
+  /**
+   * Listening channels of the acceptors.
+   */
+  private ServerSocketChannel[] channels = new ServerSocketChannel[0];
+  /**
+   * Worker threads, a group per acceptor.
+   */
+  private ExecutorService[] executors = new ExecutorService[0];
+  /**
+   * Selector loops, a group per acceptor, each assigned the acceptor's new connections round-robin.
+   */
+  private SelectorLoop[][] loops = new SelectorLoop[0][];
+  /**
+   * Connections parked on all the selector loops, counted against the cap on idle connections.
+   */
+  private final AtomicInteger idleConnections = new AtomicInteger();
+
+  /**
+   * @param serverContext holds the settings and shared caches.
+   */
+  NioServer(final ServerContext serverContext) {
+    this.context = serverContext;
+    this.config = serverContext.getConfig();
+  }
+
+  @Override
+  public final void start() throws IOException {
+    int groups = config.getAcceptors();
+    int selectors = WorkerExecutors.share(config.getSelectorThreads(), groups);
+    executors = new ExecutorService[groups];
+    loops = new SelectorLoop[groups][selectors];
+    for (int g = 0; g < groups; g++) {
+      executors[g] = WorkerExecutors.create(config, groups);
+      for (int i = 0; i < selectors; i++) {
+        loops[g][i] = new SelectorLoop(executors[g], context.getAdmission(), config, idleConnections);
+        new Thread(loops[g][i], "http-server-selector-" + (g * selectors + i)).start();
+      }
+    }
+    context.getMetrics().setExecutors(executors);
+    channels = ServerSockets.open(config);
+    for (int g = 0; g < groups; g++) {
+      final ServerSocketChannel ssc = channels[g];
+      final SelectorLoop[] group = loops[g];
+      new Thread("http-server-accept-" + g) {
+        public void run() {
+          accept(ssc, group);
+        }
+      }.start();
+    }
+  }
+
+  /**
+   * Accepts connections until the channel is closed, parking each on a selector loop of the group.
+   * @param ssc is the listening channel.
+   * @param group is the selector loops of the acceptor's worker group.
+   */
+  private void accept(final ServerSocketChannel ssc, final SelectorLoop[] group) {
+    final Admission admission = context.getAdmission();
+    int next = 0;
+    try {
+      for (;;) {
+        SocketChannel client = ssc.accept();
+        if (!admission.tryAdmit()) {
+          admission.shed(client);
+          continue;
+        }
+        try {
+          ServerSockets.configure(client, config);
+        } catch (IOException e) {
+          logger.fine("cannot set socket options: " + e.getMessage());
+        }
+        if (context.isDebug()) {
+          logger.info(client.toString());
+        }
+        group[next].park(new Connection(client, context));
+        next = (next + 1) % group.length;
+      }
+    } catch (Exception e) {
+      if (ssc.isOpen()) {
+        logger.severe(e.getMessage());
+      }
+    }
+  }
+
+  @Override
+  public final ServerConfig getConfig() {
+    return config;
+  }
+
+  @Override
+  public final ServerContext getContext() {
+    return context;
+  }
+
+  @Override
+  public final void close() throws IOException {
+    ServerSockets.close(channels);
+    for (SelectorLoop[] group : loops) {
+      for (SelectorLoop loop : group) {
+        loop.shutdown();
+      }
+    }
+    for (ExecutorService e : executors) {
+      e.shutdownNow();
+    }
+    context.close();
+  }
+}
@@ -0,0 +1,16 @@
+package httpserver;
+
+/**
+ * Selects what a worker does when the access log buffer is full.
+ * @author kmatassa
+ */
+public enum OverflowPolicy {
+  /**
+   * Drop the entry and count it, so request handling never waits on the log.
+   */
+  DROP,
+  /**
+   * Wait for the writer to make room, so no entry is lost.
+   */
+  BLOCK
+}
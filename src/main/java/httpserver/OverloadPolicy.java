@@ -0,0 +1,16 @@
+package httpserver;
+
+/**
+ * Selects how a connection is turned away when the server is at its connection or work queue limit.
+ * @author kmatassa
+ */
+public enum OverloadPolicy {
+  /**
+   * Answer 503 Service Unavailable with a Retry-After header, then close.
+   */
+  REJECT,
+  /**
+   * Close the connection without answering.
+   */
+  CLOSE
+}
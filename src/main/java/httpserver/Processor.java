@@ -1,37 +1,28 @@
 package httpserver;
 
-import java.io.BufferedReader;
-import java.io.File;
+import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStream;
+import java.io.InputStream;
+import java.net.ProtocolException;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
-import java.net.URI;
-import java.nio.file.FileSystems;
-import java.time.ZoneOffset;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.activation.MimetypesFileTypeMap;
-
-import org.apache.commons.io.FileUtils;
 import org.apache.http.HttpStatus;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpHead;
 
 /**
- * Processor reads HTTP requests and where possible delivers file-based content.  It supports GET and HEAD requests.  It supports
- * Keep-Alive as well, and thus multiple HTTP requests may be serviced continuously on the same socket.
+ * Processor reads HTTP requests and hands each to the {@link Handler} its route leads to: files for GET and HEAD
+ * requests, the metrics at their path, the bodies of PUT and POST requests when uploads are enabled, and whatever else
+ * is registered.  It supports Keep-Alive as well, and thus multiple HTTP requests may be serviced continuously on the
+ * same socket.
  * @author kmatassa
  */
 public class Processor {
-  /**
-   * CRLF.
-   */
-  private final String crLf = "\r\n";
   /**
    * Local logger.
    */
@@ -40,12 +31,106 @@ public class Processor {
    * Socket connection.
    */
   private Socket client = null;
+  /**
+   * Settings.
+   */
+  private final ServerConfig config;
+  /**
+   * Settings and shared caches.
+   */
+  private final ServerContext context;
+  /**
+   * Size of the buffer holding request heads.
+   */
+  private static final int REQUEST_BUFFER_SIZE = 8 * 1024;
+  /**
+   * Request input, created on first use and kept for the life of the connection.
+   */
+  private InputStream input = null;
+  /**
+   * Bytes read from the connection and not yet parsed, between position and limit; taken from the pool when a request
+   * is read, and given back while the connection is parked with nothing buffered, or once it closes.
+   */
+  private ByteBuffer inBuf = null;
+  /**
+   * Parser, reused for every request on the connection.
+   */
+  private final RequestParser parser = new RequestParser();
+  /**
+   * Responses not yet written.
+   */
+  private final ResponseBatch batch;
+  /**
+   * Request and response as seen by handlers, reused for every request on the connection.
+   */
+  private final Exchange exchange;
+  /**
+   * The number of requests made on this socket.
+   */
+  private int numSocketRequests = 1;
+  /**
+   * Keep-alive timeout granted on the last request, in seconds, or 0 if the connection is not kept alive.
+   */
+  private int keepAliveTimeout = 0;
+  /**
+   * Status code of the response to the current request, 0 until one is made.
+   */
+  private int status = 0;
+  /**
+   * Body bytes of the response to the current request.
+   */
+  private long sent = 0;
+  /**
+   * Client address, for the access log.
+   */
+  private String remoteHost = null;
+  /**
+   * Time the current request was read, in nanosecs.
+   */
+  private long requestStart = 0;
+  /**
+   * Number of responses made on this connection.
+   */
+  private int served = 0;
+  /**
+   * True once the connection has been closed.
+   */
+  private boolean closed = false;
+  /**
+   * Protocol of the requests for the access log, or null for the version of their request line.
+   */
+  private String protocol = null;
 
   /**
    * @param clientSocket is the socket connection to process.
+   * @param serverContext holds the settings and shared caches.
    */
-  Processor(final Socket clientSocket) {
+  Processor(final Socket clientSocket, final ServerContext serverContext) {
     this.client = clientSocket;
+    this.context = serverContext;
+    this.config = serverContext.getConfig();
+    this.batch = new ResponseBatch(clientSocket, config, serverContext.getDirectBuffers());
+    this.exchange = new Exchange(serverContext, batch, clientSocket);
+    serverContext.getMetrics().connectionOpened();
+  }
+
+  /**
+   * Services the request of an HTTP/2 stream, given as an HTTP/1.1 head, writing the response to the stream.  The
+   * stream is not a connection: it is neither counted nor admitted as one, and is not closed.
+   * @param serverContext holds the settings and shared caches.
+   * @param request holds the request head.
+   * @param out is the stream the response is written to.
+   * @param remoteHostValue is the client address.
+   */
+  Processor(final ServerContext serverContext, final InputStream request, final WritableByteChannel out,
+            final String remoteHostValue) {
+    this.context = serverContext;
+    this.config = serverContext.getConfig();
+    this.batch = new ResponseBatch(out, config, serverContext.getDirectBuffers());
+    this.exchange = new Exchange(serverContext, batch, null);
+    this.input = request;
+    this.remoteHost = remoteHostValue;
+    this.protocol = "HTTP/2.0";
   }
 
   /**
@@ -53,141 +138,262 @@ public class Processor {
    * @throws IOException sometimes
    */
   public final void process() throws IOException {
-    // Get input and output streams.
-    BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream()));
-    OutputStream out = client.getOutputStream();
+    boolean open;
+    try {
+      // Loop on this inputStream for either 1 or more requests depending on keep-alive extension.
+      do {
+        // May block if we are in keep-alive
+        open = processNext();
+      } while (open);
+    } finally {
+      // Falling out of continuous processing either due to an error, or keep-alive is disabled, maxed, or timed-out.
+      // Force close the socket as a simplified behaviour.
+      close();
+    }
+  }
+
+  /**
+   * @return int keep-alive timeout granted on the last request, in seconds, or 0 if the connection is not kept alive.
+   */
+  final int getKeepAliveTimeout() {
+    return keepAliveTimeout;
+  }
+
+  /**
+   * Services the requests that are ready on this connection without waiting for further ones.  Used when idle
+   * connections are parked on a selector between requests, rather than blocking a thread.
+   * @return true if the connection is to be kept open, false if it has been closed.
+   * @throws IOException sometimes
+   */
+  final boolean processAvailable() throws IOException {
+    boolean open = false;
+    try {
+      do {
+        open = processNext();
+      } while (open && (inBuf.hasRemaining() || input.available() > 0));
+    } finally {
+      if (!open) {
+        close();
+      } else if (!inBuf.hasRemaining()) {
+        // Parked with nothing buffered: the next request is read into a buffer taken then.
+        releaseInput();
+      }
+    }
+    return open;
+  }
+
+  /**
+   * Services the single request of an HTTP/2 stream.
+   * @throws IOException sometimes
+   */
+  final void processStream() throws IOException {
+    try {
+      processNext();
+    } finally {
+      releaseInput();
+    }
+  }
+
+  /**
+   * Drops unwritten responses and closes the socket.
+   * @throws IOException sometimes
+   */
+  final void close() throws IOException {
+    batch.discard();
+    releaseInput();
+    if (!closed) {
+      closed = true;
+      context.getMetrics().connectionClosed(served);
+      context.getAdmission().release();
+    }
+    client.close();
+  }
+
+  /**
+   * Gives the input buffer back to the pool, if it holds one.
+   */
+  private void releaseInput() {
+    context.getHeapBuffers().release(inBuf);
+    inBuf = null;
+  }
+
+  /**
+   * Services the next request.  Its response is held back while further pipelined requests are already buffered, so
+   * that they are all written together; it is flushed before the connection could block waiting for more input.
+   * @return true if the connection is to be kept open for further requests.
+   * @throws IOException sometimes
+   */
+  private boolean processNext() throws IOException {
+    boolean open = serviceRequest();
+    batch.endResponse();
+    if (!open || batch.isFull() || RequestParser.findHeadEnd(inBuf) < 0) {
+      batch.flush();
+    }
+    if (status != 0) {
+      served++;
+      context.getMetrics().recordRequest(status, sent, System.nanoTime() - requestStart, served);
+    }
+    return open;
+  }
+
+  /**
+   * Reads and services a single request, adding its response to the batch.
+   * @return true if the connection is to be kept open for further requests.
+   * @throws IOException sometimes
+   */
+  private boolean serviceRequest() throws IOException {
+    if (input == null) {
+      // Get input stream.
+      input = client.getInputStream();
+    }
+    if (inBuf == null) {
+      inBuf = context.getHeapBuffers().acquire(REQUEST_BUFFER_SIZE);
+      inBuf.limit(0);
+    }
     boolean noErrors = true;
     boolean keepAliveEnabled = true;
-    int numSocketRequests = 1;
-    // Loop on this inputStream for either 1 or more requests depending on keep-alive extension.
-    do {
-      RequestParser request = new RequestParser();
-      try {
-        // May block if we are in keep-alive
-        request.parse(in);
-        if (request.hasValidHeaders()) {
+    boolean parsed = false;
+    RequestParser request = parser;
+    status = 0;
+    sent = 0;
+    try {
+      request.parse(input, inBuf);
+      requestStart = System.nanoTime();
+      parsed = true;
+      if (config.isHttp2() && client != null
+          && (Http2Connection.isPreface(request) || Http2Connection.isUpgrade(request))) {
+        return serveHttp2(request);
+      }
+      if (request.hasValidHeaders()) {
+        if (context.isDebug()) {
           logger.info("http-server request: " + request);
-          // Create the extension
-          KeepAliveExtension keepAlive = new KeepAliveExtension(request);
-          // Process the extension in context with the current http request.
-          keepAlive.processKeepAliveOptions(client, numSocketRequests);
-          keepAliveEnabled = keepAlive.isKeepAliveEnabled();
+        }
+        // Create the extension
+        KeepAliveExtension keepAlive = new KeepAliveExtension(request, context.getKeepAlivePolicy());
+        // Process the extension in context with the current http request.
+        keepAlive.processKeepAliveOptions(client, numSocketRequests);
+        keepAliveEnabled = keepAlive.isKeepAliveEnabled();
+        keepAliveTimeout = 0;
+        if (keepAliveEnabled) {
+          keepAliveTimeout = keepAlive.getTimeout();
+        }
 
+        if (context.isDebug()) {
           logger.info("http-server keep-alive mode: " + keepAliveEnabled
-                      + " number of requests on this socket: " + numSocketRequests++);
-          // Minimum methods
-          if (request.getMethod().equals(HttpGet.METHOD_NAME) || request.getMethod().equals(HttpHead.METHOD_NAME)) {
-            try {
-              deliverAFile(out, request, keepAlive);
-            } catch (FileNotFoundException e) {
-              deliverAnIssue(out, request, HttpStatus.SC_NOT_FOUND);
-              noErrors = false;
-            } catch (Exception e) {
-              deliverAnIssue(out, request, HttpStatus.SC_BAD_REQUEST);
-              noErrors = false;
-            }
-          } else {
-            deliverAnIssue(out, request, HttpStatus.SC_NOT_IMPLEMENTED);
+                      + " number of requests on this socket: " + numSocketRequests);
+        }
+        numSocketRequests++;
+        exchange.reset(request, keepAlive, input, inBuf, Router.path(request.getUri()));
+        Router router = context.getRouter();
+        Handler handler = router.route(exchange);
+        if (handler != null) {
+          try {
+            noErrors = handler.handle(exchange);
+          } catch (FileNotFoundException | NoSuchFileException e) {
+            noErrors = exchange.fail(HttpStatus.SC_NOT_FOUND);
+          } catch (RuntimeException e) {
+            // Answered 500 below; a handler's bug must not go unseen.
+            logger.log(Level.WARNING, "handler " + handler.getClass().getName() + " failed", e);
+            throw e;
+          }
+          status = exchange.getStatus();
+          sent = exchange.getSent();
+          if (status == 0) {
+            logger.warning("no response from " + handler.getClass().getName());
+            deliverAnIssue(request, HttpStatus.SC_INTERNAL_SERVER_ERROR);
             noErrors = false;
           }
+        } else if (router.isRouted(request)) {
+          deliverAnIssue(request, HttpStatus.SC_NOT_FOUND);
+          noErrors = false;
         } else {
-          deliverAnIssue(out, request, HttpStatus.SC_BAD_REQUEST);
+          deliverAnIssue(request, HttpStatus.SC_NOT_IMPLEMENTED);
           noErrors = false;
         }
-      } catch (SocketTimeoutException e) {
-        // Keep-alive idle connection timeout.
+      } else {
+        deliverAnIssue(request, HttpStatus.SC_BAD_REQUEST);
         noErrors = false;
+      }
+    } catch (SocketTimeoutException e) {
+      // Keep-alive idle connection timeout.
+      noErrors = false;
+      if (context.isDebug()) {
         logger.info("socket timed-out, closing...");
-      } catch (Exception e) {
-        deliverAnIssue(out, request, HttpStatus.SC_INTERNAL_SERVER_ERROR);
-        noErrors = false;
-      } finally {
-        out.flush();
       }
-    } while (noErrors && keepAliveEnabled);
-    // Falling out of continuous processing either due to an error, or keep-alive is disabled, maxed, or timed-out.
-    // Force close the socket as a simplified behaviour.
-    client.close();
+    } catch (EOFException e) {
+      // Client closed its end between requests.
+      noErrors = false;
+    } catch (ProtocolException e) {
+      logger.warning("bad request: " + e.getMessage());
+      deliverAnIssue(request, HttpStatus.SC_BAD_REQUEST);
+      noErrors = false;
+    } catch (Exception e) {
+      deliverAnIssue(request, HttpStatus.SC_INTERNAL_SERVER_ERROR);
+      noErrors = false;
+    }
+    if (status != 0) {
+      record(request, parsed);
+    }
+    return noErrors && keepAliveEnabled;
   }
 
   /**
-   * Delivers an unexpected HTTP code back to the client.
-   * @param out is the OutputStream
-   * @param request is the RequestParser content
-   * @param issue is the Http status code to return
+   * Switches the connection to HTTP/2 for the rest of its life.
+   * @param request is the connection preface, or a request asking for an upgrade to h2c.
+   * @return false, once the connection is to be closed.
    * @throws IOException sometimes
    */
-  private void deliverAnIssue(final OutputStream out, final RequestParser request, final int issue) throws IOException {
-    String txt = String.format("%s %d%s", request.getVersion(), issue, crLf);
-    out.write(txt.getBytes());
+  private boolean serveHttp2(final RequestParser request) throws IOException {
+    // Responses to requests pipelined ahead of it go out first.
+    batch.flush();
+    try {
+      new Http2Connection(context, client, input, inBuf).serve(request);
+    } catch (IOException e) {
+      logger.fine("http2 connection failed: " + e.getMessage());
+    }
+    return false;
   }
 
   /**
-   * Delivers the request URL if possible.
-   * @param out is the OutputStream
+   * Hands the request and the status and size of its response to the access log, if there is one.
    * @param request is the RequestParser content
-   * @param keepAlive is the extension that affects the connection response value.
-   * @throws IOException sometimes
+   * @param parsed is false if no request line was read.
    */
-  private void deliverAFile(final OutputStream out, final RequestParser request, final KeepAliveExtension keepAlive)
-      throws IOException {
-    File source = this.getFile(request.getUri());
-    if (source.exists() && source.isFile()) {
-      // Rely on activation library to determine the content type.
-      String contentType = new MimetypesFileTypeMap().getContentType(source);
-      long contentLength = source.length();
-      String date = DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now(ZoneOffset.UTC));
-      String connection = "Connection: close" + crLf;
-      if (keepAlive.isKeepAliveSupported()) {
-         if (keepAlive.isKeepAliveEnabled()) {
-           connection = "Connection: keep-alive" + crLf;
-         }
-      }
-      logger.info("content-type [" + contentType + "]");
-      logger.info("content-length [" + contentLength + "]");
-      logger.info("Date: [" + date + "]");
-
-      String txt = String.format("%s %d %sContent-Type: %s%sContent-Length: %d%s%sDate: %s%s%s", request.getVersion(),
-                                 HttpStatus.SC_OK, crLf,
-                                 contentType, crLf,
-                                 contentLength, crLf,
-                                 connection,
-                                 date, crLf,
-                                 crLf);
-      try {
-        out.write(txt.getBytes());
-        // Only deliver content for GET.
-        if (request.getMethod().equals(HttpGet.METHOD_NAME)) {
-          FileUtils.copyFile(source, out);
-        }
-      } catch (Exception e) {
-        logger.severe(e.getMessage());
-        throw e;
+  private void record(final RequestParser request, final boolean parsed) {
+    AccessLog accessLog = context.getAccessLog();
+    if (accessLog == null) {
+      return;
+    }
+    if (remoteHost == null) {
+      remoteHost = client.getInetAddress().getHostAddress();
+    }
+    String requestLine = null;
+    String referer = null;
+    String userAgent = null;
+    if (parsed) {
+      String version = request.getVersion();
+      if (protocol != null) {
+        version = protocol;
       }
-    } else {
-      throw new FileNotFoundException();
+      requestLine = request.getMethod() + " " + request.getUri() + " " + version;
+      referer = request.getHeader("Referer");
+      userAgent = request.getHeader("User-Agent");
     }
+    accessLog.log(new AccessLog.Entry(remoteHost, System.currentTimeMillis(), requestLine, status, sent, referer,
+                                      userAgent));
   }
 
   /**
-   * Crufts up a file containing the path to the resource, to be delivered as content.
-   * @param uri is the basis of where a resource may be.
-   * @return File containing the resource
+   * Delivers an unexpected HTTP code back to the client, closing the connection.
+   * @param request is the RequestParser content
+   * @param issue is the Http status code to return
    * @throws IOException sometimes
    */
-  private File getFile(final String uri) throws IOException {
-    File path = FileSystems.getDefault().getPath("").toAbsolutePath().toFile();
-    String httpServerRoot = "src" + File.separator + "main" + File.separator + "resources" + File.separator + "files";
-    File dir = FileUtils.getFile(path, httpServerRoot);
-    URI u = URI.create(uri);
-
-    // Grab the path component only
-    File resourceFileRequested = FileUtils.getFile(dir, u.getPath());
-    // Security check for requested resource winding up above httpServerRoot.
-    if (!resourceFileRequested.getCanonicalPath().startsWith(dir.getCanonicalPath())) {
-      logger.warning("Suspicious request, skipping: " + resourceFileRequested);
-      throw new IOException("bad request");
-    }
-    return resourceFileRequested;
+  private void deliverAnIssue(final RequestParser request, final int issue) throws IOException {
+    status = issue;
+    sent = 0;
+    // A handler may have failed after adding part of its response.
+    batch.dropResponse();
+    batch.add(batch.head().issue(request, issue));
   }
 }
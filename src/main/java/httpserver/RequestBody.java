@@ -0,0 +1,328 @@
+package httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The body of a request, read from the connection as a channel, with its Content-Length or chunked framing taken off.
+ * It is read through the connection's input buffer, so that whatever follows the body stays there for the next request,
+ * and no more of the body is ever held than that buffer.  A body longer than allowed fails with {@link TooLarge}, as
+ * soon as its length or the size of a chunk says so.
+ * @author kmatassa
+ */
+final class RequestBody implements ReadableByteChannel {
+  /**
+   * Request header name.
+   */
+  private static final String HDR_CONTENT_LENGTH = "Content-Length";
+  /**
+   * Request header name.
+   */
+  private static final String HDR_TRANSFER_ENCODING = "Transfer-Encoding";
+  /**
+   * Transfer coding of a chunked body.
+   */
+  private static final String CHUNKED = "chunked";
+  /**
+   * Radix of chunk sizes.
+   */
+  private static final int HEX = 16;
+  /**
+   * Most hex digits of a chunk size, keeping it within a long.
+   */
+  private static final int MAX_HEX_DIGITS = 15;
+  /**
+   * Most bytes of the trailer after the last chunk, line ends included.
+   */
+  private static final int MAX_TRAILER_BYTES = 8 * 1024;
+  /**
+   * Connection input.
+   */
+  private final InputStream in;
+  /**
+   * Connection input buffer; unread input is between its position and limit.
+   */
+  private final ByteBuffer buf;
+  /**
+   * True if the body is chunked.
+   */
+  private final boolean chunked;
+  /**
+   * Length given by Content-Length, or -1 if chunked.
+   */
+  private final long length;
+  /**
+   * Most body bytes accepted.
+   */
+  private final long maxBytes;
+  /**
+   * Bytes still to come of the body, or of the current chunk.
+   */
+  private long remaining;
+  /**
+   * Body bytes read so far.
+   */
+  private long total = 0;
+  /**
+   * True once a chunk has been read and the CRLF ending it has not.
+   */
+  private boolean inChunk = false;
+  /**
+   * True once the end of the body has been read.
+   */
+  private boolean end = false;
+  /**
+   * First failure reading the body, thrown again by any later read: FileChannel.transferFrom drops the failure of a
+   * read once it has moved some bytes.
+   */
+  private IOException failure = null;
+
+  /**
+   * A body longer than allowed.
+   */
+  static final class TooLarge extends ProtocolException {
+    /**
+     * Serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @param message says by how much.
+     */
+    TooLarge(final String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * @param input is the connection input.
+   * @param buffer is the connection input buffer, positioned at the start of the body.
+   * @param lengthValue is the Content-Length, or -1 for a chunked body.
+   * @param maxBytesValue is the most body bytes accepted.
+   */
+  private RequestBody(final InputStream input, final ByteBuffer buffer, final long lengthValue, final long maxBytesValue) {
+    this.in = input;
+    this.buf = buffer;
+    this.chunked = lengthValue < 0;
+    this.length = lengthValue;
+    this.maxBytes = maxBytesValue;
+    this.remaining = Math.max(0, lengthValue);
+  }
+
+  /**
+   * Works out the framing of the body of a request.  The headers are read here, before the body is, as reading the
+   * body may overwrite the head in the buffer.
+   * @param request is the request, just parsed.
+   * @param input is the connection input.
+   * @param buffer is the connection input buffer, positioned just past the head.
+   * @param maxBytes is the most body bytes accepted.
+   * @return RequestBody of the request, or null if it gives no length.
+   * @throws ProtocolException if the framing is malformed, TooLarge if the Content-Length is over the limit.
+   */
+  static RequestBody of(final RequestParser request, final InputStream input, final ByteBuffer buffer,
+                        final long maxBytes) throws ProtocolException {
+    String codings = request.getHeader(HDR_TRANSFER_ENCODING);
+    if (codings != null) {
+      String[] list = codings.split(",");
+      if (!list[list.length - 1].trim().equalsIgnoreCase(CHUNKED) || request.isHttpVersionOneO()) {
+        throw new ProtocolException("unsupported transfer coding " + codings);
+      }
+      return new RequestBody(input, buffer, -1, maxBytes);
+    }
+    String value = request.getHeader(HDR_CONTENT_LENGTH);
+    if (value == null) {
+      return null;
+    }
+    long n;
+    try {
+      n = Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      throw new ProtocolException("bad Content-Length " + value);
+    }
+    if (n < 0) {
+      throw new ProtocolException("bad Content-Length " + value);
+    }
+    if (n > maxBytes) {
+      throw new TooLarge("body of " + n + " bytes, over " + maxBytes);
+    }
+    return new RequestBody(input, buffer, n, maxBytes);
+  }
+
+  /**
+   * @return long the Content-Length, or -1 if the body is chunked.
+   */
+  long getLength() {
+    return length;
+  }
+
+  /**
+   * @return long body bytes read so far.
+   */
+  long getTotal() {
+    return total;
+  }
+
+  /**
+   * @return true once the whole body has been read.
+   */
+  boolean isEnd() {
+    return end;
+  }
+
+  /**
+   * Reads the next part of the body.
+   * @param dst receives it.
+   * @return int bytes read, or -1 at the end of the body.
+   * @throws IOException sometimes, ProtocolException if the body is truncated or its framing malformed.
+   */
+  @Override
+  public int read(final ByteBuffer dst) throws IOException {
+    if (failure != null) {
+      throw failure;
+    }
+    try {
+      return readBody(dst);
+    } catch (IOException e) {
+      failure = e;
+      throw e;
+    }
+  }
+
+  /**
+   * @param dst receives the next part of the body.
+   * @return int bytes read, or -1 at the end of the body.
+   * @throws IOException sometimes
+   */
+  private int readBody(final ByteBuffer dst) throws IOException {
+    if (end) {
+      return -1;
+    }
+    if (remaining == 0) {
+      if (chunked) {
+        nextChunk();
+      }
+      if (remaining == 0) {
+        end = true;
+        return -1;
+      }
+    }
+    if (!buf.hasRemaining()) {
+      fill();
+    }
+    int n = (int) Math.min(remaining, Math.min(buf.remaining(), dst.remaining()));
+    ByteBuffer part = buf.duplicate();
+    part.limit(part.position() + n);
+    dst.put(part);
+    buf.position(buf.position() + n);
+    remaining -= n;
+    total += n;
+    return n;
+  }
+
+  /**
+   * Reads the size line of the next chunk, and the trailer after the last one.  A trailer over MAX_TRAILER_BYTES is
+   * refused, as is a body over maxBytes.
+   * @throws IOException sometimes
+   */
+  private void nextChunk() throws IOException {
+    if (inChunk && readLine().length() > 0) {
+      throw new ProtocolException("chunk longer than its size");
+    }
+    String line = readLine();
+    int extension = line.indexOf(';');
+    if (extension >= 0) {
+      line = line.substring(0, extension);
+    }
+    line = line.trim();
+    if (line.isEmpty() || line.length() > MAX_HEX_DIGITS) {
+      throw new ProtocolException("bad chunk size " + line);
+    }
+    long size;
+    try {
+      size = Long.parseLong(line, HEX);
+    } catch (NumberFormatException e) {
+      throw new ProtocolException("bad chunk size " + line);
+    }
+    if (size < 0) {
+      throw new ProtocolException("bad chunk size " + line);
+    }
+    if (total + size > maxBytes) {
+      throw new TooLarge("body of over " + (total + size) + " bytes, over " + maxBytes);
+    }
+    remaining = size;
+    inChunk = true;
+    if (size == 0) {
+      // Trailer fields are not used, but are bounded like a head.
+      String trailer = readLine();
+      int trailerBytes = trailer.length() + 2;
+      while (trailer.length() > 0) {
+        if (trailerBytes > MAX_TRAILER_BYTES) {
+          throw new ProtocolException("trailer of over " + MAX_TRAILER_BYTES + " bytes");
+        }
+        trailer = readLine();
+        trailerBytes += trailer.length() + 2;
+      }
+    }
+  }
+
+  /**
+   * @return String the next line of the chunk framing, without its line end.
+   * @throws IOException sometimes
+   */
+  private String readLine() throws IOException {
+    for (;;) {
+      for (int i = buf.position(); i < buf.limit(); i++) {
+        if (buf.get(i) == '\n') {
+          int lineEnd = i;
+          if (lineEnd > buf.position() && buf.get(lineEnd - 1) == '\r') {
+            lineEnd--;
+          }
+          String line = new String(buf.array(), buf.arrayOffset() + buf.position(), lineEnd - buf.position(),
+                                   StandardCharsets.ISO_8859_1);
+          buf.position(i + 1);
+          return line;
+        }
+      }
+      fill();
+    }
+  }
+
+  /**
+   * Reads more from the connection, after compacting away what has been consumed.
+   * @throws IOException sometimes
+   */
+  private void fill() throws IOException {
+    buf.compact();
+    try {
+      if (!buf.hasRemaining()) {
+        throw new ProtocolException("chunk size line too long");
+      }
+      int n = in.read(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+      if (n < 0) {
+        throw new ProtocolException("truncated request body");
+      }
+      buf.position(buf.position() + n);
+    } finally {
+      buf.flip();
+    }
+  }
+
+  /**
+   * @return true: the body is read until its end, and the connection stays open.
+   */
+  @Override
+  public boolean isOpen() {
+    return true;
+  }
+
+  /**
+   * Nothing to close: the connection outlives the body.
+   */
+  @Override
+  public void close() {
+  }
+}
@@ -1,23 +1,74 @@
 package httpserver;
 
-import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.net.ProtocolException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
-import org.apache.http.Header;
-import org.apache.http.RequestLine;
-import org.apache.http.message.BasicLineParser;
-
 /**
- * RequestParse holds the parsed Http Request in a usable format.
+ * RequestParse holds the parsed Http Request in a usable format.  It works on the bytes of the request head where they
+ * lie in the connection's input buffer, recording only the offsets of the method, uri, version and header names and
+ * values; Strings are decoded on demand.  One parser is reused for all requests on a connection, so the hot path
+ * allocates nothing.
  * @author kmatassa
  */
 public class RequestParser {
+  /**
+   * Initial number of header slots.
+   */
+  private static final int INITIAL_HEADERS = 16;
+  /**
+   * Mask turning a byte into an unsigned char.
+   */
+  private static final int BYTE_MASK = 0xff;
+  /**
+   * Case bit of ASCII letters.
+   */
+  private static final int CASE_BIT = 0x20;
+  /**
+   * Offsets recorded per header: name start, name end, value start, value end.
+   */
+  private static final int HEADER_SLOTS = 4;
+  /**
+   * Index of the value start within a header's offsets.
+   */
+  private static final int VALUE_START = 2;
+  /**
+   * Index of the value end within a header's offsets.
+   */
+  private static final int VALUE_END = 3;
+  /**
+   * Index of the uri start within the request line offsets.
+   */
+  private static final int URI_START = 2;
+  /**
+   * Index of the uri end within the request line offsets.
+   */
+  private static final int URI_END = 3;
+  /**
+   * Index of the version start within the request line offsets.
+   */
+  private static final int VERSION_START = 4;
+  /**
+   * Index of the version end within the request line offsets.
+   */
+  private static final int VERSION_END = 5;
+  /**
+   * Length of "HTTP/".
+   */
+  private static final int PROTOCOL_PREFIX = 5;
+  /**
+   * Length of "HTTP/1.1".
+   */
+  private static final int VERSION_LENGTH = 8;
   /**
    * Http method.
    */
@@ -35,52 +86,353 @@ public class RequestParser {
    */
   private Logger logger = Logger.getAnonymousLogger();
   /**
-   * Map of Http headers.
+   * Map of Http headers, built on demand.
+   */
+  private Map<String, String> headers = null;
+  /**
+   * Buffer holding the request head.
    */
-  private Map<String, String> headers = new ConcurrentHashMap<String, String>();
+  private ByteBuffer buf = null;
+  /**
+   * Offsets of method, uri and version: start and end of each, in that order.
+   */
+  private final int[] requestLine = new int[VERSION_END + 1];
+  /**
+   * Offsets of header names and values: name start, name end, value start, value end for each header.
+   */
+  private int[] headerOffsets = new int[INITIAL_HEADERS * HEADER_SLOTS];
+  /**
+   * Number of headers.
+   */
+  private int headerCount = 0;
+  /**
+   * Major version digit.
+   */
+  private int versionMajor = -1;
+  /**
+   * Minor version digit.
+   */
+  private int versionMinor = -1;
 
   /**
-   * Parses the incoming request into this object for easier handling.
-   * @param in BufferedReader holding request content
+   * Parses the next request head in the connection's input buffer, reading more from the stream as needed.  On
+   * return the buffer's position is just past the head.
+   * @param in InputStream of the connection
+   * @param buffer holds unparsed input between its position and limit; it is compacted and filled as needed.
    * @return String containing the method received in the request.
-   * @throws IOException sometimes
+   * @throws IOException sometimes, EOFException if the client closed the connection before sending a request line,
+   *         ProtocolException if the head is malformed or too large.
    */
-  public final String parse(final BufferedReader in) throws IOException {
-    // Note that the readLine() method works across platforms.
-    readRequestLine(in);
-    readRequestHeaders(in);
+  public final String parse(final InputStream in, final ByteBuffer buffer) throws IOException {
+    reset(buffer);
+    int headEnd;
+    while ((headEnd = findHeadEnd(buf)) < 0) {
+      fill(in);
+    }
+    int lineEnd = readRequestLine(buf.position(), headEnd);
+    readRequestHeaders(lineEnd, headEnd);
+    buf.position(headEnd);
     return getMethod();
   }
 
   /**
-   * Parses: "Method SP Request-URI SP HTTP-Version". Steals BasicLineParser.
-   * @param in BufferedReader holding request content
-   * @throws IOException sometimes
-   * {@link} https://hc.apache.org/httpcomponentxs-core-ga/httpcore
+   * Forgets the previous request.
+   * @param buffer holds the next request.
    */
-  private void readRequestLine(final BufferedReader in) throws IOException {
-    String line = in.readLine();
-    RequestLine p = BasicLineParser.parseRequestLine(line, new BasicLineParser());
-    this.setMethod(p.getMethod());
-    this.setUri(p.getUri());
-    this.setVersion(p.getProtocolVersion().toString());
+  private void reset(final ByteBuffer buffer) {
+    this.buf = buffer;
+    this.method = null;
+    this.uri = null;
+    this.version = null;
+    this.headers = null;
+    this.headerCount = 0;
+    this.versionMajor = -1;
+    this.versionMinor = -1;
   }
 
   /**
-   * Parses headers. Steals BasicLineParser.
-   * @param in BufferedREader holding request content
+   * Reads more of the request from the stream, after compacting away what has been consumed.
+   * @param in InputStream of the connection
    * @throws IOException sometimes
-   * {@link} https://hc.apache.org/httpcomponentxs-core-ga/httpcore
    */
-  private void readRequestHeaders(final BufferedReader in) throws IOException {
-    String line;
-    while ((line = in.readLine()) != null) {
-      if (line.length() == 0) {
+  private void fill(final InputStream in) throws IOException {
+    boolean empty = !buf.hasRemaining();
+    buf.compact();
+    try {
+      if (!buf.hasRemaining()) {
+        throw new ProtocolException("request head too large");
+      }
+      int n = in.read(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+      if (n < 0) {
+        if (empty) {
+          throw new EOFException();
+        }
+        throw new ProtocolException("truncated request");
+      }
+      buf.position(buf.position() + n);
+    } finally {
+      buf.flip();
+    }
+  }
+
+  /**
+   * @param b holds input between its position and limit.
+   * @return int offset just past the blank line ending the next request head, or -1 if it has not been read yet.
+   */
+  static int findHeadEnd(final ByteBuffer b) {
+    int limit = b.limit();
+    for (int i = b.position(); i < limit; i++) {
+      if (b.get(i) == '\n') {
+        int next = i + 1;
+        if (next < limit && b.get(next) == '\r') {
+          next++;
+        }
+        if (next < limit && b.get(next) == '\n') {
+          return next + 1;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Parses: "Method SP Request-URI SP HTTP-Version".
+   * @param start is the offset of the line.
+   * @param headEnd is the offset just past the head.
+   * @return int offset of the next line.
+   * @throws ProtocolException if the line is malformed.
+   */
+  private int readRequestLine(final int start, final int headEnd) throws ProtocolException {
+    int pos = start;
+    // Tolerate empty lines ahead of the request line.
+    while (pos < headEnd && (buf.get(pos) == '\r' || buf.get(pos) == '\n')) {
+      pos++;
+    }
+    int eol = endOfLine(pos, headEnd);
+    int sp1 = indexOf(' ', pos, eol);
+    int sp2 = indexOf(' ', sp1 + 1, eol);
+    if (sp1 <= pos || sp2 <= sp1 + 1 || sp2 + 1 >= eol) {
+      throw new ProtocolException("bad request line");
+    }
+    requestLine[0] = pos;
+    requestLine[1] = sp1;
+    requestLine[URI_START] = sp1 + 1;
+    requestLine[URI_END] = sp2;
+    requestLine[VERSION_START] = sp2 + 1;
+    requestLine[VERSION_END] = trimEnd(sp2 + 1, eol);
+    parseVersion(requestLine[VERSION_START], requestLine[VERSION_END]);
+    return nextLine(eol, headEnd);
+  }
+
+  /**
+   * Parses "HTTP/d.d".
+   * @param start is the offset of the version.
+   * @param end is the offset past the version.
+   * @throws ProtocolException if the version is malformed.
+   */
+  private void parseVersion(final int start, final int end) throws ProtocolException {
+    if (end - start != VERSION_LENGTH || !regionMatches(start, "HTTP/") || buf.get(start + PROTOCOL_PREFIX + 1) != '.'
+        || !isDigit(buf.get(start + PROTOCOL_PREFIX)) || !isDigit(buf.get(end - 1))) {
+      throw new ProtocolException("bad http version");
+    }
+    versionMajor = buf.get(start + PROTOCOL_PREFIX) - '0';
+    versionMinor = buf.get(end - 1) - '0';
+  }
+
+  /**
+   * Parses headers: "Name: value" lines up to the blank line.
+   * @param start is the offset of the first header line.
+   * @param headEnd is the offset just past the head.
+   * @throws ProtocolException if a header is malformed.
+   */
+  private void readRequestHeaders(final int start, final int headEnd) throws ProtocolException {
+    int pos = start;
+    while (pos < headEnd) {
+      int eol = endOfLine(pos, headEnd);
+      if (eol == pos) {
         break;
       }
-      Header p = BasicLineParser.parseHeader(line, new BasicLineParser());
-      this.getHeaders().put(p.getName(), p.getValue());
+      int colon = indexOf(':', pos, eol);
+      if (colon <= pos || buf.get(pos) == ' ' || buf.get(pos) == '\t') {
+        throw new ProtocolException("bad header");
+      }
+      int valueStart = colon + 1;
+      while (valueStart < eol && (buf.get(valueStart) == ' ' || buf.get(valueStart) == '\t')) {
+        valueStart++;
+      }
+      addHeader(pos, trimEnd(pos, colon), valueStart, trimEnd(valueStart, eol));
+      pos = nextLine(eol, headEnd);
+    }
+  }
+
+  /**
+   * Records the offsets of a header, growing the offset table if needed.
+   * @param nameStart is the offset of the name.
+   * @param nameEnd is the offset past the name.
+   * @param valueStart is the offset of the value.
+   * @param valueEnd is the offset past the value.
+   */
+  private void addHeader(final int nameStart, final int nameEnd, final int valueStart, final int valueEnd) {
+    int i = headerCount * HEADER_SLOTS;
+    if (i == headerOffsets.length) {
+      headerOffsets = Arrays.copyOf(headerOffsets, headerOffsets.length * 2);
+    }
+    headerOffsets[i] = nameStart;
+    headerOffsets[i + 1] = nameEnd;
+    headerOffsets[i + VALUE_START] = valueStart;
+    headerOffsets[i + VALUE_END] = valueEnd;
+    headerCount++;
+  }
+
+  /**
+   * @param start is the offset of a line.
+   * @param limit bounds the search.
+   * @return int offset of the line's CR or LF.
+   */
+  private int endOfLine(final int start, final int limit) {
+    int lf = indexOf('\n', start, limit);
+    if (lf > start && buf.get(lf - 1) == '\r') {
+      return lf - 1;
+    }
+    return lf;
+  }
+
+  /**
+   * @param eol is the offset of a line's CR or LF.
+   * @param limit bounds the search.
+   * @return int offset of the following line.
+   */
+  private int nextLine(final int eol, final int limit) {
+    return Math.min(indexOf('\n', eol, limit) + 1, limit);
+  }
+
+  /**
+   * @param b is the byte to find.
+   * @param start is where to start.
+   * @param limit bounds the search.
+   * @return int offset of the byte, or limit if absent.
+   */
+  private int indexOf(final char b, final int start, final int limit) {
+    for (int i = start; i < limit; i++) {
+      if (buf.get(i) == b) {
+        return i;
+      }
+    }
+    return limit;
+  }
+
+  /**
+   * @param start is the lower bound.
+   * @param end is the offset past a field.
+   * @return int offset past the field without trailing whitespace.
+   */
+  private int trimEnd(final int start, final int end) {
+    int e = end;
+    while (e > start && (buf.get(e - 1) == ' ' || buf.get(e - 1) == '\t')) {
+      e--;
+    }
+    return e;
+  }
+
+  /**
+   * @param b is a byte.
+   * @return true if an ASCII digit.
+   */
+  private static boolean isDigit(final byte b) {
+    return b >= '0' && b <= '9';
+  }
+
+  /**
+   * @param start is the offset in the buffer.
+   * @param s is the ASCII text to compare.
+   * @return true if the bytes at start equal s exactly.
+   */
+  private boolean regionMatches(final int start, final String s) {
+    for (int i = 0; i < s.length(); i++) {
+      if (buf.get(start + i) != s.charAt(i)) {
+        return false;
+      }
     }
+    return true;
+  }
+
+  /**
+   * @param start is the offset of a field.
+   * @param end is the offset past the field.
+   * @param s is the ASCII text to compare.
+   * @return true if the field equals s, ignoring case.
+   */
+  private boolean equalsIgnoreCase(final int start, final int end, final String s) {
+    if (end - start != s.length()) {
+      return false;
+    }
+    for (int i = 0; i < s.length(); i++) {
+      int a = buf.get(start + i);
+      int b = s.charAt(i);
+      if (a != b && ((a | CASE_BIT) != (b | CASE_BIT) || (a | CASE_BIT) < 'a' || (a | CASE_BIT) > 'z')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Decodes a field as ISO-8859-1.
+   * @param start is the offset of the field.
+   * @param end is the offset past the field.
+   * @return String of the field.
+   */
+  private String decode(final int start, final int end) {
+    char[] c = new char[end - start];
+    for (int i = 0; i < c.length; i++) {
+      c[i] = (char) (buf.get(start + i) & BYTE_MASK);
+    }
+    return new String(c);
+  }
+
+  /**
+   * @param name is the method name, e.g. GET.
+   * @return true if this request's method is the one given.  Compares bytes, without decoding the method.
+   */
+  public final boolean isMethod(final String name) {
+    if (method != null || buf == null) {
+      return name.equals(method);
+    }
+    return requestLine[1] - requestLine[0] == name.length() && regionMatches(requestLine[0], name);
+  }
+
+  /**
+   * Looks up a header by name, ignoring case, without decoding the other headers.
+   * @param name is the header name.
+   * @return String value of the first header with that name, or null.
+   */
+  public final String getHeader(final String name) {
+    if (headers != null) {
+      for (Map.Entry<String, String> e : headers.entrySet()) {
+        if (e.getKey().equalsIgnoreCase(name)) {
+          return e.getValue();
+        }
+      }
+      return null;
+    }
+    for (int i = 0; i < headerCount * HEADER_SLOTS; i += HEADER_SLOTS) {
+      if (equalsIgnoreCase(headerOffsets[i], headerOffsets[i + 1], name)) {
+        return decode(headerOffsets[i + VALUE_START], headerOffsets[i + VALUE_END]);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Decodes whatever of the head is still held as offsets into the buffer, so that the request outlives the bytes of its
+   * head, as when a body that follows it is read through the same buffer.
+   */
+  public final void detach() {
+    getMethod();
+    getUri();
+    getVersion();
+    getHeaders();
+    buf = null;
   }
 
   /**
@@ -90,7 +442,7 @@ public class RequestParser {
    */
   public final boolean hasValidHeaders() throws MalformedURLException, URISyntaxException {
     if (this.isHttpVersionOneOne()) {
-      String host = this.getHeaders().get("Host");
+      String host = this.getHeader("Host");
       if (host == null) {
         logger.warning("bad request: missing Host");
         // Well formed check.
@@ -114,6 +466,9 @@ public class RequestParser {
    * @return String containing request method.
    */
   public final String getMethod() {
+    if (method == null && buf != null) {
+      method = decode(requestLine[0], requestLine[1]);
+    }
     return method;
   }
 
@@ -128,6 +483,9 @@ public class RequestParser {
    * @return String containing the uri.
    */
   public final String getUri() {
+    if (uri == null && buf != null) {
+      uri = decode(requestLine[URI_START], requestLine[URI_END]);
+    }
     return uri;
   }
 
@@ -142,6 +500,9 @@ public class RequestParser {
    * @return String containing the version.
    */
   public final String getVersion() {
+    if (version == null && versionMajor >= 0) {
+      version = decode(requestLine[VERSION_START], requestLine[VERSION_END]);
+    }
     return version;
   }
 
@@ -150,12 +511,25 @@ public class RequestParser {
    */
   public final void setVersion(final String versionValue) {
     this.version = versionValue;
+    this.versionMajor = -1;
+    this.versionMinor = -1;
+    if (versionValue != null && versionValue.length() == VERSION_LENGTH) {
+      this.versionMajor = versionValue.charAt(PROTOCOL_PREFIX) - '0';
+      this.versionMinor = versionValue.charAt(VERSION_LENGTH - 1) - '0';
+    }
   }
 
   /**
-   * @return Map containg the headers.
+   * @return Map containg the headers, decoded on first use.
    */
   public final Map<String, String> getHeaders() {
+    if (headers == null) {
+      headers = new LinkedHashMap<String, String>();
+      for (int i = 0; i < headerCount * HEADER_SLOTS; i += HEADER_SLOTS) {
+        headers.put(decode(headerOffsets[i], headerOffsets[i + 1]),
+                    decode(headerOffsets[i + VALUE_START], headerOffsets[i + VALUE_END]));
+      }
+    }
     return headers;
   }
 
@@ -163,14 +537,21 @@ public class RequestParser {
    * @return true if the current http request is version 1.0
    */
   public final boolean isHttpVersionOneO() {
-    return getVersion().contains("1.0");
+    return versionMajor == 1 && versionMinor == 0;
   }
 
   /**
    * @return true if the current http request is version 1.1
    */
   public final boolean isHttpVersionOneOne() {
-    return getVersion().contains("1.1");
+    return versionMajor == 1 && versionMinor == 1;
+  }
+
+  /**
+   * @return true if the current http request is version 2.0, as in the HTTP/2 connection preface.
+   */
+  public final boolean isHttpVersionTwoO() {
+    return versionMajor == 2 && versionMinor == 0;
   }
 
   /**
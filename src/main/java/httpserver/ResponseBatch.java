@@ -0,0 +1,325 @@
+package httpserver;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the responses to the requests of a connection until they are flushed together.  Pipelined requests are
+ * thus answered in order with a single gathering write, rather than a write and flush each.  Large file bodies stay on
+ * disk until the flush, and are then sent with zero-copy transfers between the buffered parts.  Heads and small file
+ * bodies are built in pooled direct buffers, given back once written.
+ * @author kmatassa
+ */
+final class ResponseBatch {
+  /**
+   * Most responses held before a flush.
+   */
+  private static final int MAX_RESPONSES = 16;
+  /**
+   * Most buffered bytes held before a flush.
+   */
+  private static final long MAX_BUFFERED_BYTES = 256 * 1024;
+  /**
+   * Socket connection, or null if written to a channel.
+   */
+  private final Socket client;
+  /**
+   * Channel written to, or null to write to the socket.
+   */
+  private final WritableByteChannel channel;
+  /**
+   * Settings.
+   */
+  private final ServerConfig config;
+  /**
+   * Response parts in order: ByteBuffers, or FileRegions to be transferred.
+   */
+  private final List<Object> parts = new ArrayList<Object>();
+  /**
+   * Mappings to be released once flushed.
+   */
+  private final List<MappedFile> held = new ArrayList<MappedFile>();
+  /**
+   * Pool of the direct buffers the parts are read into.
+   */
+  private final BufferPool buffers;
+  /**
+   * Pooled buffers to be given back once flushed.
+   */
+  private final List<ByteBuffer> pooled = new ArrayList<ByteBuffer>();
+  /**
+   * Scratch array for gathering writes, reused across flushes.
+   */
+  private ByteBuffer[] gather = new ByteBuffer[MAX_RESPONSES];
+  /**
+   * Builds the response heads, in pooled buffers given back after each flush.
+   */
+  private final ResponseHead head;
+  /**
+   * Number of responses held.
+   */
+  private int responses = 0;
+  /**
+   * Number of buffered bytes held.
+   */
+  private long bufferedBytes = 0;
+  /**
+   * Number of parts held before the current response.
+   */
+  private int responseStart = 0;
+  /**
+   * Number of buffered bytes held before the current response.
+   */
+  private long responseStartBytes = 0;
+
+  /**
+   * A region of a file, sent when the batch is flushed.
+   */
+  private static final class FileRegion {
+    /**
+     * The file.
+     */
+    private final File file;
+    /**
+     * Offset of the region.
+     */
+    private final long position;
+    /**
+     * Length of the region.
+     */
+    private final long length;
+
+    /**
+     * @param fileValue is the file.
+     * @param positionValue is the offset of the region.
+     * @param lengthValue is the length of the region.
+     */
+    FileRegion(final File fileValue, final long positionValue, final long lengthValue) {
+      this.file = fileValue;
+      this.position = positionValue;
+      this.length = lengthValue;
+    }
+  }
+
+  /**
+   * @param clientSocket is the socket connection written to.
+   * @param serverConfig holds the settings.
+   * @param directBuffers is the pool of direct buffers for heads and small bodies.
+   */
+  ResponseBatch(final Socket clientSocket, final ServerConfig serverConfig, final BufferPool directBuffers) {
+    this.client = clientSocket;
+    this.channel = null;
+    this.config = serverConfig;
+    this.buffers = directBuffers;
+    this.head = new ResponseHead(directBuffers);
+  }
+
+  /**
+   * @param out is the channel written to, such as an HTTP/2 stream.
+   * @param serverConfig holds the settings.
+   * @param directBuffers is the pool of direct buffers for heads and small bodies.
+   */
+  ResponseBatch(final WritableByteChannel out, final ServerConfig serverConfig, final BufferPool directBuffers) {
+    this.client = null;
+    this.channel = out;
+    this.config = serverConfig;
+    this.buffers = directBuffers;
+    this.head = new ResponseHead(directBuffers);
+  }
+
+  /**
+   * @return ResponseHead builder of the heads of the responses held.
+   */
+  ResponseHead head() {
+    return head;
+  }
+
+  /**
+   * @param buffer is the next part of the current response.
+   */
+  void add(final ByteBuffer buffer) {
+    parts.add(buffer);
+    bufferedBytes += buffer.remaining();
+  }
+
+  /**
+   * Adds a file region as the next part of the current response.  Small regions are read now, to be gathered with the
+   * surrounding parts; large ones are sent with FileChannel.transferTo (sendfile) when flushed.
+   * @param file is the file.
+   * @param position is the offset of the region.
+   * @param length is the length of the region.
+   * @throws IOException sometimes
+   */
+  void addFile(final File file, final long position, final long length) throws IOException {
+    if (length >= config.getTransferThreshold()) {
+      parts.add(new FileRegion(file, position, length));
+      return;
+    }
+    ByteBuffer body = buffers.acquire((int) length);
+    pooled.add(body);
+    try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      while (body.hasRemaining()) {
+        if (fc.read(body, position + body.position()) < 0) {
+          throw new EOFException("file truncated while reading: " + file);
+        }
+      }
+    }
+    body.flip();
+    add(body);
+  }
+
+  /**
+   * Keeps a mapping referenced until the parts written from it are flushed.
+   * @param mapping is released after the flush.
+   */
+  void hold(final MappedFile mapping) {
+    held.add(mapping);
+  }
+
+  /**
+   * Marks the end of the current response.
+   */
+  void endResponse() {
+    responses++;
+    responseStart = parts.size();
+    responseStartBytes = bufferedBytes;
+  }
+
+  /**
+   * Drops the parts of the current response added so far, so that it can be answered with an issue instead.  Mappings
+   * and pooled buffers it used are still released when the batch is.
+   */
+  void dropResponse() {
+    while (parts.size() > responseStart) {
+      parts.remove(parts.size() - 1);
+    }
+    bufferedBytes = responseStartBytes;
+  }
+
+  /**
+   * @return true if enough is held that it should be flushed before answering more requests.
+   */
+  boolean isFull() {
+    return responses >= MAX_RESPONSES || bufferedBytes >= MAX_BUFFERED_BYTES;
+  }
+
+  /**
+   * Writes everything held, in order.
+   * @throws IOException sometimes
+   */
+  void flush() throws IOException {
+    try {
+      WritableByteChannel out = channel;
+      if (out == null) {
+        out = client.getChannel();
+      }
+      if (out == null) {
+        out = Channels.newChannel(client.getOutputStream());
+      }
+      int run = 0;
+      for (Object part : parts) {
+        if (part instanceof ByteBuffer) {
+          if (run == gather.length) {
+            ByteBuffer[] bigger = new ByteBuffer[gather.length * 2];
+            System.arraycopy(gather, 0, bigger, 0, run);
+            gather = bigger;
+          }
+          gather[run++] = (ByteBuffer) part;
+        } else {
+          writeFully(out, run);
+          run = 0;
+          transfer(out, (FileRegion) part);
+        }
+      }
+      writeFully(out, run);
+    } finally {
+      discard();
+    }
+  }
+
+  /**
+   * Writes the gathered buffers.
+   * @param out is the channel.
+   * @param count is the number of buffers gathered.
+   * @throws IOException sometimes
+   */
+  private void writeFully(final WritableByteChannel out, final int count) throws IOException {
+    if (count == 0) {
+      return;
+    }
+    if (out instanceof GatheringByteChannel) {
+      long remaining = 0;
+      for (int i = 0; i < count; i++) {
+        remaining += gather[i].remaining();
+      }
+      while (remaining > 0) {
+        remaining -= ((GatheringByteChannel) out).write(gather, 0, count);
+      }
+    } else {
+      for (int i = 0; i < count; i++) {
+        while (gather[i].hasRemaining()) {
+          out.write(gather[i]);
+        }
+      }
+    }
+    for (int i = 0; i < count; i++) {
+      gather[i] = null;
+    }
+  }
+
+  /**
+   * Sends a file region straight from the page cache.
+   * @param out is the channel.
+   * @param region is the file region.
+   * @throws IOException sometimes
+   */
+  private void transfer(final WritableByteChannel out, final FileRegion region) throws IOException {
+    try (FileChannel fc = FileChannel.open(region.file.toPath(), StandardOpenOption.READ)) {
+      long sent = 0;
+      while (sent < region.length) {
+        long n = fc.transferTo(region.position + sent, region.length - sent, out);
+        if (n <= 0 && region.position + sent >= fc.size()) {
+          throw new EOFException("file truncated while sending: " + region.file);
+        }
+        sent += n;
+      }
+    }
+  }
+
+  /**
+   * Drops everything held, releasing mappings.
+   */
+  void discard() {
+    for (MappedFile m : held) {
+      m.release();
+    }
+    held.clear();
+    for (ByteBuffer b : pooled) {
+      buffers.release(b);
+    }
+    pooled.clear();
+    parts.clear();
+    head.reset();
+    responses = 0;
+    bufferedBytes = 0;
+    responseStart = 0;
+    responseStartBytes = 0;
+  }
+
+  /**
+   * @return true if nothing is held.
+   */
+  boolean isEmpty() {
+    return parts.isEmpty();
+  }
+}
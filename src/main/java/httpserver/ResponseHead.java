@@ -0,0 +1,349 @@
+package httpserver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+
+/**
+ * Assembles response heads as bytes.  Status lines and constant headers are encoded once, the Date header comes from
+ * the shared {@link HttpDate} clock, and variable values are copied in as ASCII, so a head is built without formatting
+ * or charset encoding.  The heads of a batch of responses are laid end to end in one direct buffer, reused once the
+ * batch has been written; a head taken from a pool gives its buffers back instead, so that idle connections hold none.
+ * @author kmatassa
+ */
+final class ResponseHead {
+  /**
+   * Initial capacity of the buffer.
+   */
+  private static final int INITIAL_CAPACITY = 4 * 1024;
+  /**
+   * Lowest status code.
+   */
+  private static final int MIN_STATUS = 100;
+  /**
+   * Highest status code.
+   */
+  private static final int MAX_STATUS = 599;
+  /**
+   * Radix of status codes and lengths.
+   */
+  private static final int RADIX = 10;
+  /**
+   * Most digits of a long.
+   */
+  private static final int MAX_DIGITS = 20;
+  /**
+   * Last character of ISO-8859-1, the most a header value may hold.
+   */
+  private static final char LATIN1_LAST = '\u00ff';
+  /**
+   * CRLF.
+   */
+  static final byte[] CRLF = bytes("\r\n");
+  /**
+   * Header line.
+   */
+  static final byte[] CONNECTION_CLOSE = bytes("Connection: close\r\n");
+  /**
+   * Header line.
+   */
+  static final byte[] CONNECTION_KEEP_ALIVE = bytes("Connection: keep-alive\r\n");
+  /**
+   * Header name and first parameter.
+   */
+  static final byte[] KEEP_ALIVE_TIMEOUT = bytes("Keep-Alive: timeout=");
+  /**
+   * Header parameter.
+   */
+  static final byte[] KEEP_ALIVE_MAX = bytes(", max=");
+  /**
+   * Header line.
+   */
+  static final byte[] ACCEPT_RANGES = bytes("Accept-Ranges: bytes\r\n");
+  /**
+   * Header line.
+   */
+  static final byte[] VARY_ACCEPT_ENCODING = bytes("Vary: Accept-Encoding\r\n");
+  /**
+   * Header line.
+   */
+  static final byte[] CACHE_CONTROL_NO_STORE = bytes("Cache-Control: no-store\r\n");
+  /**
+   * Header line.
+   */
+  static final byte[] CONTENT_LENGTH_ZERO = bytes("Content-Length: 0\r\n");
+  /**
+   * Header name.
+   */
+  static final byte[] CONTENT_TYPE = bytes("Content-Type: ");
+  /**
+   * Header name.
+   */
+  static final byte[] CONTENT_LENGTH = bytes("Content-Length: ");
+  /**
+   * Header name.
+   */
+  static final byte[] CONTENT_ENCODING = bytes("Content-Encoding: ");
+  /**
+   * Header name.
+   */
+  static final byte[] CONTENT_RANGE = bytes("Content-Range: ");
+  /**
+   * Header name.
+   */
+  static final byte[] ETAG = bytes("ETag: ");
+  /**
+   * Header name.
+   */
+  static final byte[] LAST_MODIFIED = bytes("Last-Modified: ");
+  /**
+   * Start of a multipart delimiter, written as a header name before the boundary.
+   */
+  static final byte[] DASHES = bytes("--");
+  /**
+   * Encoded HTTP/1.0 status lines, by status code less MIN_STATUS.
+   */
+  private static final byte[][] STATUS_1_0 = statusLines("HTTP/1.0");
+  /**
+   * Encoded HTTP/1.1 status lines, by status code less MIN_STATUS.
+   */
+  private static final byte[][] STATUS_1_1 = statusLines("HTTP/1.1");
+  /**
+   * Pool the buffers are taken from, or null to allocate and keep them.
+   */
+  private final BufferPool pool;
+  /**
+   * Heads laid end to end, from position 0 up to start, then the head being built; null until needed if pooled.
+   */
+  private ByteBuffer buf;
+  /**
+   * Pooled buffers outgrown, still holding heads taken, given back on reset.
+   */
+  private final List<ByteBuffer> outgrown = new ArrayList<ByteBuffer>();
+  /**
+   * Offset of the head being built.
+   */
+  private int start = 0;
+  /**
+   * Scratch for the digits of a number.
+   */
+  private final byte[] digits = new byte[MAX_DIGITS];
+
+  /**
+   * Builds heads in a direct buffer of its own.
+   */
+  ResponseHead() {
+    this(null);
+  }
+
+  /**
+   * @param buffers is the pool of direct buffers the heads are built in, or null to allocate one and keep it.
+   */
+  ResponseHead(final BufferPool buffers) {
+    this.pool = buffers;
+    if (buffers == null) {
+      this.buf = ByteBuffer.allocateDirect(INITIAL_CAPACITY);
+    }
+  }
+
+  /**
+   * @param s is ASCII text.
+   * @return byte[] its encoding.
+   */
+  private static byte[] bytes(final String s) {
+    return s.getBytes(StandardCharsets.ISO_8859_1);
+  }
+
+  /**
+   * @param version is the protocol version.
+   * @return byte[][] the status lines of every code with a known reason phrase.
+   */
+  private static byte[][] statusLines(final String version) {
+    byte[][] lines = new byte[MAX_STATUS - MIN_STATUS + 1][];
+    for (int code = MIN_STATUS; code <= MAX_STATUS; code++) {
+      String reason = EnglishReasonPhraseCatalog.INSTANCE.getReason(code, Locale.ENGLISH);
+      if (reason != null) {
+        lines[code - MIN_STATUS] = bytes(version + " " + code + " " + reason + "\r\n");
+      }
+    }
+    return lines;
+  }
+
+  /**
+   * Begins a head with its status line and Date header.
+   * @param request is the request answered; HTTP/1.0 requests are answered as HTTP/1.0, all others as HTTP/1.1.
+   * @param status is the status code.
+   * @return ResponseHead this
+   */
+  ResponseHead begin(final RequestParser request, final int status) {
+    ensure(0);
+    start = buf.position();
+    byte[][] lines = STATUS_1_1;
+    String version = "HTTP/1.1";
+    if (request.isHttpVersionOneO()) {
+      lines = STATUS_1_0;
+      version = "HTTP/1.0";
+    }
+    byte[] line = null;
+    if (status >= MIN_STATUS && status <= MAX_STATUS) {
+      line = lines[status - MIN_STATUS];
+    }
+    if (line == null) {
+      line = bytes(version + " " + status + " \r\n");
+    }
+    return put(line).put(HttpDate.dateHeader());
+  }
+
+  /**
+   * Builds the whole head of a response made of a status code alone, closing the connection.
+   * @param request is the request answered.
+   * @param status is the status code.
+   * @return ByteBuffer over the head.
+   */
+  ByteBuffer issue(final RequestParser request, final int status) {
+    return begin(request, status).put(CONNECTION_CLOSE).put(CONTENT_LENGTH_ZERO).end();
+  }
+
+  /**
+   * @param line is an encoded header line, CRLF included.
+   * @return ResponseHead this
+   */
+  ResponseHead put(final byte[] line) {
+    ensure(line.length);
+    buf.put(line);
+    return this;
+  }
+
+  /**
+   * @param name is an encoded header name, colon and space included.
+   * @param value is the header value, in ISO-8859-1.
+   * @return ResponseHead this
+   * @throws IllegalArgumentException if the value holds CR, LF, NUL or a character beyond ISO-8859-1, which would split
+   *         the response or be garbled.
+   */
+  ResponseHead header(final byte[] name, final String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c == '\r' || c == '\n' || c == '\0' || c > LATIN1_LAST) {
+        throw new IllegalArgumentException("bad header value: " + value);
+      }
+    }
+    put(name);
+    ensure(value.length() + CRLF.length);
+    for (int i = 0; i < value.length(); i++) {
+      buf.put((byte) value.charAt(i));
+    }
+    buf.put(CRLF);
+    return this;
+  }
+
+  /**
+   * @param name is an encoded header name, colon and space included.
+   * @param value is a non-negative header value.
+   * @return ResponseHead this
+   */
+  ResponseHead header(final byte[] name, final long value) {
+    put(name);
+    number(value);
+    return put(CRLF);
+  }
+
+  /**
+   * @param timeout is the keep-alive timeout in seconds.
+   * @param max is the number of further requests allowed on the connection.
+   * @return ResponseHead this, with the Keep-Alive header.
+   */
+  ResponseHead keepAlive(final int timeout, final int max) {
+    put(KEEP_ALIVE_TIMEOUT);
+    number(timeout);
+    put(KEEP_ALIVE_MAX);
+    number(max);
+    return put(CRLF);
+  }
+
+  /**
+   * @param value is a non-negative number, put in decimal.
+   */
+  private void number(final long value) {
+    int n = digits.length;
+    long v = value;
+    do {
+      digits[--n] = (byte) ('0' + (v % RADIX));
+      v /= RADIX;
+    } while (v > 0);
+    ensure(digits.length - n);
+    buf.put(digits, n, digits.length - n);
+  }
+
+  /**
+   * Ends the head with the blank line.
+   * @return ByteBuffer over the head.
+   */
+  ByteBuffer end() {
+    put(CRLF);
+    return take();
+  }
+
+  /**
+   * Takes the head as built so far, for pre-encoded headers and the blank line to follow.
+   * @return ByteBuffer over the head.
+   */
+  ByteBuffer take() {
+    ByteBuffer head = buf.duplicate();
+    head.limit(buf.position());
+    head.position(start);
+    start = buf.position();
+    return head.slice();
+  }
+
+  /**
+   * Makes the buffer reusable once the heads taken from it have been written.
+   */
+  void reset() {
+    start = 0;
+    if (pool == null) {
+      buf.clear();
+      return;
+    }
+    pool.release(buf);
+    buf = null;
+    for (ByteBuffer b : outgrown) {
+      pool.release(b);
+    }
+    outgrown.clear();
+  }
+
+  /**
+   * Makes room for more bytes, moving the head being built to a larger buffer.  Heads already taken stay in the old
+   * one.
+   * @param n is the number of bytes to be put.
+   */
+  private void ensure(final int n) {
+    if (buf == null) {
+      buf = pool.acquire(Math.max(INITIAL_CAPACITY, n));
+      return;
+    }
+    if (buf.remaining() >= n) {
+      return;
+    }
+    int building = buf.position() - start;
+    int size = Math.max(buf.capacity() * 2, building + n);
+    ByteBuffer bigger;
+    if (pool == null) {
+      bigger = ByteBuffer.allocateDirect(size);
+    } else {
+      bigger = pool.acquire(size);
+      outgrown.add(buf);
+    }
+    ByteBuffer partial = buf.duplicate();
+    partial.limit(buf.position());
+    partial.position(start);
+    bigger.put(partial);
+    buf = bigger;
+    start = 0;
+  }
+}
@@ -0,0 +1,94 @@
+package httpserver;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free queue for many producers and a single consumer.  Each slot carries a sequence number telling
+ * whose turn it is: a producer claims the tail with a compare-and-set, fills the slot and publishes it by advancing the
+ * slot's sequence; the consumer takes slots in order and hands them back a lap later.
+ * @param <T> is the type of element.
+ * @author kmatassa
+ */
+final class RingBuffer<T> {
+  /**
+   * Elements; a slot is only read after its sequence has been published.
+   */
+  private final Object[] items;
+  /**
+   * Sequence of each slot.
+   */
+  private final AtomicLongArray sequences;
+  /**
+   * Slot count less one; the slot count is a power of two.
+   */
+  private final int mask;
+  /**
+   * Next position to be claimed by a producer.
+   */
+  private final AtomicLong tail = new AtomicLong();
+  /**
+   * Next position to be taken by the consumer.
+   */
+  private long head = 0;
+
+  /**
+   * @param capacity is rounded up to a power of two.
+   */
+  RingBuffer(final int capacity) {
+    int slots = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+    items = new Object[slots];
+    sequences = new AtomicLongArray(slots);
+    for (int i = 0; i < slots; i++) {
+      sequences.set(i, i);
+    }
+    mask = slots - 1;
+  }
+
+  /**
+   * Adds an element unless the buffer is full.  May be called from any thread.
+   * @param item is the element.
+   * @return true if added.
+   */
+  boolean offer(final T item) {
+    for (;;) {
+      long pos = tail.get();
+      int i = (int) pos & mask;
+      long lag = sequences.get(i) - pos;
+      if (lag == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          items[i] = item;
+          sequences.set(i, pos + 1);
+          return true;
+        }
+      } else if (lag < 0) {
+        // The slot is still a lap behind: full.
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Takes the eldest element.  Only to be called from the consumer thread.
+   * @return T or null if empty.
+   */
+  @SuppressWarnings("unchecked")
+  T poll() {
+    int i = (int) head & mask;
+    if (sequences.get(i) != head + 1) {
+      return null;
+    }
+    T item = (T) items[i];
+    items[i] = null;
+    sequences.set(i, head + items.length);
+    head++;
+    return item;
+  }
+
+  /**
+   * @return int number of slots.
+   */
+  int capacity() {
+    return items.length;
+  }
+}
@@ -0,0 +1,286 @@
+package httpserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Routes requests to handlers by method and path.  The routes are compiled once, at startup, into a trie of path
+ * characters per method, so that a lookup walks the path once, whatever the number of routes.  A pattern is a path, to
+ * be matched exactly; a path ending in "*", matching any path it is a prefix of; and may have parameters standing for
+ * whole segments, as in /items/{id}.  Literal characters are preferred to parameters, exact matches to prefixes, and
+ * longer prefixes to shorter ones.  A later route for the same method and pattern replaces an earlier one.
+ * @author kmatassa
+ */
+final class Router {
+  /**
+   * Methods routed.
+   */
+  private final String[] methods;
+  /**
+   * Trie roots, by method.
+   */
+  private final Node[] roots;
+
+  /**
+   * A route: method, path pattern and handler.
+   */
+  static final class Route {
+    /**
+     * Request method.
+     */
+    private final String method;
+    /**
+     * Path pattern.
+     */
+    private final String pattern;
+    /**
+     * Handler of the requests matched.
+     */
+    private final Handler handler;
+
+    /**
+     * @param methodValue is the request method.
+     * @param patternValue is the path pattern.
+     * @param handlerValue handles the requests matched.
+     */
+    Route(final String methodValue, final String patternValue, final Handler handlerValue) {
+      if (methodValue == null || methodValue.isEmpty() || handlerValue == null) {
+        throw new IllegalArgumentException("route needs a method and a handler");
+      }
+      if (patternValue == null || !patternValue.startsWith("/")
+          || patternValue.indexOf('*') >= 0 && patternValue.indexOf('*') != patternValue.length() - 1) {
+        throw new IllegalArgumentException("bad route pattern " + patternValue);
+      }
+      this.method = methodValue;
+      this.pattern = patternValue;
+      this.handler = handlerValue;
+    }
+  }
+
+  /**
+   * A node of the trie: the routes ending after the characters leading to it, and the ways on.
+   */
+  private static final class Node {
+    /**
+     * Next characters, in order.
+     */
+    private char[] chars = new char[0];
+    /**
+     * Nodes after each of the next characters.
+     */
+    private Node[] children = new Node[0];
+    /**
+     * Node after a parameter segment starting here, or null.
+     */
+    private Node parameter;
+    /**
+     * Name of that parameter.
+     */
+    private String parameterName;
+    /**
+     * Handler of the paths ending here, or null.
+     */
+    private Handler exact;
+    /**
+     * Handler of the paths going on from here, or null.
+     */
+    private Handler prefix;
+
+    /**
+     * @param c is a path character.
+     * @return Node after it, or null.
+     */
+    Node child(final char c) {
+      int i = Arrays.binarySearch(chars, c);
+      if (i < 0) {
+        return null;
+      }
+      return children[i];
+    }
+
+    /**
+     * @param c is a path character.
+     * @return Node after it, added if there was none.
+     */
+    Node add(final char c) {
+      int i = Arrays.binarySearch(chars, c);
+      if (i >= 0) {
+        return children[i];
+      }
+      int at = -i - 1;
+      char[] c2 = new char[chars.length + 1];
+      Node[] n2 = new Node[children.length + 1];
+      System.arraycopy(chars, 0, c2, 0, at);
+      System.arraycopy(children, 0, n2, 0, at);
+      System.arraycopy(chars, at, c2, at + 1, chars.length - at);
+      System.arraycopy(children, at, n2, at + 1, children.length - at);
+      c2[at] = c;
+      n2[at] = new Node();
+      chars = c2;
+      children = n2;
+      return n2[at];
+    }
+  }
+
+  /**
+   * Compiles the routes.
+   * @param routes are the routes, later ones replacing earlier ones of the same method and pattern.
+   */
+  Router(final List<Route> routes) {
+    List<String> m = new ArrayList<String>();
+    List<Node> r = new ArrayList<Node>();
+    for (Route route : routes) {
+      int i = m.indexOf(route.method);
+      if (i < 0) {
+        i = m.size();
+        m.add(route.method);
+        r.add(new Node());
+      }
+      insert(r.get(i), route);
+    }
+    this.methods = m.toArray(new String[m.size()]);
+    this.roots = r.toArray(new Node[r.size()]);
+  }
+
+  /**
+   * Adds a route to the trie of its method.
+   * @param root is the root of the trie.
+   * @param route is the route.
+   */
+  private static void insert(final Node root, final Route route) {
+    String p = route.pattern;
+    Node node = root;
+    int parameters = 0;
+    int i = 0;
+    while (i < p.length()) {
+      char c = p.charAt(i);
+      if (c == '*') {
+        node.prefix = route.handler;
+        return;
+      }
+      if (c == '{') {
+        int close = p.indexOf('}', i);
+        parameters++;
+        if (close < 0 || p.charAt(i - 1) != '/' || close + 1 < p.length() && p.charAt(close + 1) != '/'
+            || parameters > Exchange.MAX_PARAMETERS) {
+          throw new IllegalArgumentException("bad route pattern " + p);
+        }
+        String name = p.substring(i + 1, close);
+        if (node.parameter == null) {
+          node.parameter = new Node();
+          node.parameterName = name;
+        } else if (!node.parameterName.equals(name)) {
+          throw new IllegalArgumentException("route " + p + " names parameter " + node.parameterName + " " + name);
+        }
+        node = node.parameter;
+        i = close + 1;
+      } else {
+        node = node.add(c);
+        i++;
+      }
+    }
+    node.exact = route.handler;
+  }
+
+  /**
+   * @param uri is a request URI.
+   * @return String its path, without query or fragment.
+   */
+  static String path(final String uri) {
+    int start = 0;
+    if (!uri.startsWith("/")) {
+      // Absolute form: the path follows the authority.
+      int scheme = uri.indexOf("://");
+      if (scheme > 0) {
+        start = uri.indexOf('/', scheme + "://".length());
+        if (start < 0) {
+          return "/";
+        }
+      }
+    }
+    int end = start;
+    while (end < uri.length() && uri.charAt(end) != '?' && uri.charAt(end) != '#') {
+      end++;
+    }
+    if (start == 0 && end == uri.length()) {
+      return uri;
+    }
+    return uri.substring(start, end);
+  }
+
+  /**
+   * Finds the handler of a request, setting the path parameters of its route on the exchange.
+   * @param exchange holds the request and its path.
+   * @return Handler of the request, or null if no route matches.
+   */
+  Handler route(final Exchange exchange) {
+    Node root = root(exchange.getRequest());
+    if (root == null) {
+      return null;
+    }
+    String path = exchange.getPath();
+    return match(root, path, 0, exchange, 0);
+  }
+
+  /**
+   * @param request is a request.
+   * @return true if there are routes for its method.
+   */
+  boolean isRouted(final RequestParser request) {
+    return root(request) != null;
+  }
+
+  /**
+   * @param request is a request.
+   * @return Node root of the trie of its method, or null.
+   */
+  private Node root(final RequestParser request) {
+    for (int i = 0; i < methods.length; i++) {
+      if (request.isMethod(methods[i])) {
+        return roots[i];
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Matches the rest of a path.  Recursion goes no deeper than the longest pattern.
+   * @param node is the node reached.
+   * @param path is the path.
+   * @param i is the offset of the rest of the path.
+   * @param exchange receives the path parameters.
+   * @param parameter is the index of the next parameter.
+   * @return Handler of the best match of the rest of the path, or null.
+   */
+  private static Handler match(final Node node, final String path, final int i, final Exchange exchange,
+                               final int parameter) {
+    if (i == path.length()) {
+      if (node.exact != null) {
+        return node.exact;
+      }
+      return node.prefix;
+    }
+    Node next = node.child(path.charAt(i));
+    if (next != null) {
+      Handler h = match(next, path, i + 1, exchange, parameter);
+      if (h != null) {
+        return h;
+      }
+    }
+    if (node.parameter != null) {
+      int end = i;
+      while (end < path.length() && path.charAt(end) != '/') {
+        end++;
+      }
+      if (end > i) {
+        Handler h = match(node.parameter, path, end, exchange, parameter + 1);
+        if (h != null) {
+          exchange.setParameter(parameter, node.parameterName, path.substring(i, end));
+          return h;
+        }
+      }
+    }
+    return node.prefix;
+  }
+}
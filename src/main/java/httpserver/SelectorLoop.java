@@ -0,0 +1,266 @@
+package httpserver;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * An IO loop that parks idle connections on a selector and dispatches those with a request ready to be read to the
+ * worker threads.  A parked connection costs no thread; a dispatched one is switched to blocking mode so that the
+ * existing Processor code can service it, and is parked again once its buffered requests are answered.  The idle
+ * deadlines of parked connections are kept on a {@link TimerWheel}, so that expiring them costs O(1) per tick whatever
+ * the number parked, and the least recently parked are closed first when the server holds more idle connections than
+ * it is allowed.
+ * @author kmatassa
+ */
+public class SelectorLoop implements Runnable {
+  /**
+   * How often, in millisecs, parked connections are checked for idle expiry.
+   */
+  private static final long TICK = 100;
+  /**
+   * Slots of the timer wheel, making a rotation of about 100 secs.
+   */
+  private static final int WHEEL_SLOTS = 1024;
+  /**
+   * Local logger.
+   */
+  private Logger logger = Logger.getAnonymousLogger();
+  /**
+   * Selector holding the parked connections.
+   */
+  private final Selector selector;
+  /**
+   * Worker threads that service ready connections.
+   */
+  private final Executor workers;
+  /**
+   * Turns away connections the workers have no room for.
+   */
+  private final Admission admission;
+  /**
+   * Connections waiting to be (re)registered by the loop thread.
+   */
+  private final Queue<Connection> pending = new ConcurrentLinkedQueue<Connection>();
+  /**
+   * Connections whose keys were cancelled in the previous pass, to be dispatched once the selector has released them.
+   */
+  private final List<Connection> ready = new ArrayList<Connection>();
+  /**
+   * Cleared to stop the loop.
+   */
+  private volatile boolean running = true;
+  /**
+   * Idle deadlines of the parked connections.
+   */
+  private final TimerWheel<Connection> deadlines = new TimerWheel<Connection>(TICK, WHEEL_SLOTS,
+                                                                              System.currentTimeMillis());
+  /**
+   * Connections found expired by the last tick.
+   */
+  private final List<Connection> expired = new ArrayList<Connection>();
+  /**
+   * Parked connections, least recently parked first.
+   */
+  private final Set<Connection> idle = new LinkedHashSet<Connection>();
+  /**
+   * Connections parked on all the loops of the server.
+   */
+  private final AtomicInteger idleCount;
+  /**
+   * Idle timeout of connections whose client has not asked for one, in millisecs; 0 means none.
+   */
+  private final long idleTimeout;
+  /**
+   * Most connections parked on all the loops of the server; 0 means no limit.
+   */
+  private final int maxIdle;
+
+  /**
+   * @param workerThreads services ready connections.
+   * @param admissionControl turns away connections the workers have no room for.
+   * @param config holds the idle settings.
+   * @param idleConnections counts the connections parked on all the loops of the server.
+   * @throws IOException if a selector cannot be opened.
+   */
+  SelectorLoop(final Executor workerThreads, final Admission admissionControl, final ServerConfig config,
+               final AtomicInteger idleConnections) throws IOException {
+    this.selector = Selector.open();
+    this.workers = workerThreads;
+    this.admission = admissionControl;
+    this.idleTimeout = config.getIdleTimeout();
+    this.maxIdle = config.getMaxIdleConnections();
+    this.idleCount = idleConnections;
+  }
+
+  /**
+   * Hands a connection to this loop to wait for its next request.  May be called from any thread.
+   * @param connection to be parked.
+   */
+  final void park(final Connection connection) {
+    pending.add(connection);
+    selector.wakeup();
+  }
+
+  @Override
+  public final void run() {
+    try {
+      while (running) {
+        // A key cancelled in the previous pass is only released by the next selection, so don't block while any wait.
+        if (!ready.isEmpty()) {
+          selector.selectNow();
+        } else if (deadlines.size() > 0) {
+          selector.select(TICK);
+        } else {
+          selector.select();
+        }
+        for (Connection c : ready) {
+          dispatch(c);
+        }
+        ready.clear();
+        registerPending();
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          if (key.isValid() && key.isReadable()) {
+            key.cancel();
+            Connection c = (Connection) key.attachment();
+            unpark(c);
+            ready.add(c);
+          }
+        }
+        expireIdle();
+      }
+    } catch (IOException | ClosedSelectorException e) {
+      if (running) {
+        logger.severe(e.getMessage());
+      }
+    } finally {
+      closeAll();
+    }
+  }
+
+  /**
+   * Registers connections handed over by other threads for read readiness.
+   */
+  private void registerPending() {
+    Connection c;
+    long now = System.currentTimeMillis();
+    while ((c = pending.poll()) != null) {
+      try {
+        c.getChannel().configureBlocking(false);
+        c.getChannel().register(selector, SelectionKey.OP_READ, c);
+      } catch (IOException e) {
+        logger.warning("cannot park connection: " + e.getMessage());
+        c.close();
+        continue;
+      }
+      long timeout = c.idleTimeout(idleTimeout);
+      if (timeout > 0) {
+        deadlines.schedule(c, now + timeout);
+      }
+      idle.add(c);
+      idleCount.incrementAndGet();
+    }
+    // Over the cap, each loop closes its own least recently parked connections: LRU per loop, capped server-wide.
+    Iterator<Connection> eldest = idle.iterator();
+    while (maxIdle > 0 && idleCount.get() > maxIdle && eldest.hasNext()) {
+      c = eldest.next();
+      eldest.remove();
+      idleCount.decrementAndGet();
+      deadlines.cancel(c);
+      logger.fine("too many idle connections, closing...");
+      c.close();
+    }
+  }
+
+  /**
+   * Stops tracking a connection as parked idle.
+   * @param connection is no longer parked.
+   */
+  private void unpark(final Connection connection) {
+    deadlines.cancel(connection);
+    if (idle.remove(connection)) {
+      idleCount.decrementAndGet();
+    }
+  }
+
+  /**
+   * Services a ready connection on a worker thread, then parks it again if it is to be kept alive.
+   * @param connection is ready to be read.
+   */
+  private void dispatch(final Connection connection) {
+    try {
+      workers.execute(new Runnable() {
+        public void run() {
+          try {
+            connection.getChannel().configureBlocking(true);
+            if (connection.getProcessor().processAvailable()) {
+              park(connection);
+            }
+          } catch (IOException e) {
+            logger.severe(e.getMessage());
+            connection.close();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // The work queue is full, or the server is shutting down.
+      admission.shed(connection.getChannel());
+      connection.close();
+    }
+  }
+
+  /**
+   * Closes parked connections that have been idle past their keep-alive timeout.
+   */
+  private void expireIdle() {
+    if (deadlines.size() == 0) {
+      return;
+    }
+    deadlines.advance(System.currentTimeMillis(), expired);
+    for (Connection c : expired) {
+      logger.fine("socket timed-out, closing...");
+      unpark(c);
+      c.close();
+    }
+    expired.clear();
+  }
+
+  /**
+   * Stops the loop, which then closes every connection parked on it.
+   */
+  final void shutdown() {
+    running = false;
+    selector.wakeup();
+  }
+
+  /**
+   * Closes the selector and every connection parked on it.  Runs on the loop thread.
+   */
+  private void closeAll() {
+    try {
+      for (SelectionKey key : selector.keys()) {
+        ((Connection) key.attachment()).close();
+      }
+      idleCount.addAndGet(-idle.size());
+      idle.clear();
+      selector.close();
+    } catch (IOException | ClosedSelectorException e) {
+      logger.warning(e.getMessage());
+    }
+  }
+}
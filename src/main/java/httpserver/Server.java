@@ -0,0 +1,26 @@
+package httpserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A running http-server listener.  Implementations differ in how accepted sockets are waited on and serviced.
+ * @author kmatassa
+ */
+public interface Server extends Closeable {
+  /**
+   * Binds the listening port and starts servicing connections in the background.
+   * @throws IOException if the port cannot be bound.
+   */
+  void start() throws IOException;
+
+  /**
+   * @return ServerConfig this server was started with.
+   */
+  ServerConfig getConfig();
+
+  /**
+   * @return ServerContext shared by the connections of this server, e.g. to switch diagnostics at runtime.
+   */
+  ServerContext getContext();
+}
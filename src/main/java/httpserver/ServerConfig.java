@@ -0,0 +1,1046 @@
+package httpserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Holds the tunable settings of http-server.  Defaults match the original hard-wired values, and each setting may be
+ * overridden with a "httpserver.*" system property, e.g. -Dhttpserver.io=nio.
+ * @author kmatassa
+ */
+public class ServerConfig {
+  /**
+   * Prefix of all system properties understood by http-server.
+   */
+  private static final String PREFIX = "httpserver.";
+  /**
+   * Default port.
+   */
+  private static final int DEFAULTPORT = 8080;
+  /**
+   * Default concurrency for this simple case.
+   */
+  private static final int MAXTHREADS = 10;
+  /**
+   * Default cap on connections serviced at once.
+   */
+  private static final int MAXCONNECTIONS = 10000;
+  /**
+   * Default bound on the tasks waiting for a pooled worker thread.
+   */
+  private static final int QUEUE_SIZE = 1000;
+  /**
+   * Default size in bytes from which file bodies are sent with zero-copy transfers.
+   */
+  private static final int TRANSFER_THRESHOLD = 16 * 1024;
+  /**
+   * Default limit on the bytes held by the content cache.
+   */
+  private static final int CACHE_MAX_BYTES = 16 * 1024 * 1024;
+  /**
+   * Default limit on the size of a file held by the content cache.
+   */
+  private static final int CACHE_MAX_ENTRY_BYTES = 64 * 1024;
+  /**
+   * Default size in bytes from which files are served from memory mappings.
+   */
+  private static final int MAP_THRESHOLD = 512 * 1024;
+  /**
+   * Default millisecs a memory mapping may go unrequested before it is released.
+   */
+  private static final int MAP_IDLE_MILLIS = 60 * 1000;
+  /**
+   * Default smallest file compressed on the fly.
+   */
+  private static final int COMPRESS_MIN_BYTES = 1024;
+  /**
+   * Default largest file compressed on the fly.
+   */
+  private static final int COMPRESS_MAX_BYTES = 64 * 1024;
+  /**
+   * Default number of access log entries buffered.
+   */
+  private static final int ACCESS_LOG_BUFFER_SIZE = 8192;
+  /**
+   * Default idle timeout of parked connections in millisecs.
+   */
+  private static final int IDLE_TIMEOUT = 60 * 1000;
+  /**
+   * Default keep-alive timeout in seconds.
+   */
+  private static final int KEEP_ALIVE_TIMEOUT = 5;
+  /**
+   * Default longest keep-alive timeout in seconds.
+   */
+  private static final int KEEP_ALIVE_MAX_TIMEOUT = 15;
+  /**
+   * Default requests per connection.
+   */
+  private static final int KEEP_ALIVE_REQUESTS = 100;
+  /**
+   * Default most requests per connection.
+   */
+  private static final int KEEP_ALIVE_MAX_REQUESTS = 1000;
+  /**
+   * Default most streams open at once on an HTTP/2 connection.
+   */
+  private static final int HTTP2_MAX_STREAMS = 100;
+  /**
+   * Default largest request body stored by an upload.
+   */
+  private static final int UPLOAD_MAX_BYTES = 64 * 1024 * 1024;
+  /**
+   * Default most bytes of idle buffers kept by each buffer pool.
+   */
+  private static final int BUFFER_POOL_MAX_BYTES = 16 * 1024 * 1024;
+  /**
+   * Local logger.
+   */
+  private Logger logger = Logger.getAnonymousLogger();
+  /**
+   * Port to listen on.
+   */
+  private int port = DEFAULTPORT;
+  /**
+   * How client sockets are waited on.
+   */
+  private IoMode ioMode = IoMode.BLOCKING;
+  /**
+   * Number of worker threads that process requests.
+   */
+  private int maxThreads = MAXTHREADS;
+  /**
+   * Number of selector loops used in NIO mode.
+   */
+  private int selectorThreads = 1;
+  /**
+   * Kind of threads that service connections.
+   */
+  private ExecutorMode executorMode = ExecutorMode.POOLED;
+  /**
+   * Cap on connections open at once.  Further connections are turned away, see {@link OverloadPolicy}.
+   */
+  private int maxConnections = MAXCONNECTIONS;
+  /**
+   * Size in bytes from which file bodies are sent with FileChannel.transferTo.  Smaller ones are copied.
+   */
+  private long transferThreshold = TRANSFER_THRESHOLD;
+  /**
+   * Limit on the bytes held by the content cache.  0 disables it.
+   */
+  private long cacheMaxBytes = CACHE_MAX_BYTES;
+  /**
+   * Limit on the size of a file held by the content cache.
+   */
+  private long cacheMaxEntryBytes = CACHE_MAX_ENTRY_BYTES;
+  /**
+   * Size in bytes from which files are served from memory mappings.  0 disables them.
+   */
+  private long mapThreshold = MAP_THRESHOLD;
+  /**
+   * Millisecs a memory mapping may go unrequested before it is released.
+   */
+  private long mapIdleMillis = MAP_IDLE_MILLIS;
+  /**
+   * Smallest file compressed on the fly.  Below it, the coding overhead outweighs the saving.
+   */
+  private long compressMinBytes = COMPRESS_MIN_BYTES;
+  /**
+   * Largest file compressed on the fly, if the cache can hold it too.  0 disables on-the-fly compression;
+   * precompressed siblings are still served.
+   */
+  private long compressMaxBytes = COMPRESS_MAX_BYTES;
+  /**
+   * Further mime.types file, read after the built-in tables, or null.
+   */
+  private String mimeTypesFile = null;
+  /**
+   * Charset parameter given to text content types, or null for none.
+   */
+  private String mimeCharset = null;
+  /**
+   * Access log file, or null for none.
+   */
+  private String accessLogFile = null;
+  /**
+   * Line format of the access log.
+   */
+  private AccessLogFormat accessLogFormat = AccessLogFormat.COMBINED;
+  /**
+   * What a worker does when the access log buffer is full.
+   */
+  private OverflowPolicy accessLogPolicy = OverflowPolicy.DROP;
+  /**
+   * Number of access log entries buffered.
+   */
+  private int accessLogBufferSize = ACCESS_LOG_BUFFER_SIZE;
+  /**
+   * True to log per-request diagnostics at start-up; may be switched at runtime, see {@link ServerContext#setDebug}.
+   */
+  private boolean debug = false;
+  /**
+   * True to serve the metrics.
+   */
+  private boolean metrics = true;
+  /**
+   * Reserved path the metrics are served on.
+   */
+  private String metricsPath = "/__metrics";
+  /**
+   * Bound on the tasks waiting for a pooled worker thread; 0 leaves it unbounded.  Connections over it are turned away.
+   */
+  private int queueSize = QUEUE_SIZE;
+  /**
+   * How connections over a limit are turned away.
+   */
+  private OverloadPolicy overloadPolicy = OverloadPolicy.REJECT;
+  /**
+   * Seconds a turned away client is asked to wait before retrying.
+   */
+  private int retryAfterSeconds = 1;
+  /**
+   * Number of acceptor threads, each feeding a worker group of its own.
+   */
+  private int acceptors = 1;
+  /**
+   * True to give each acceptor a listening channel of its own, bound with SO_REUSEPORT where supported.
+   */
+  private boolean reusePort = false;
+  /**
+   * Length of the accept backlog; 0 or less uses the JVM default.
+   */
+  private int backlog = 0;
+  /**
+   * True to disable Nagle's algorithm on accepted sockets.
+   */
+  private boolean tcpNoDelay = false;
+  /**
+   * SO_SNDBUF of accepted sockets in bytes; 0 or less leaves the system default.
+   */
+  private int sendBufferSize = 0;
+  /**
+   * SO_RCVBUF of accepted sockets in bytes; 0 or less leaves the system default.
+   */
+  private int receiveBufferSize = 0;
+  /**
+   * Millisecs a connection may be parked idle in nio mode, unless its client asks for a keep-alive timeout; 0 means for
+   * ever.
+   */
+  private int idleTimeout = IDLE_TIMEOUT;
+  /**
+   * Most connections parked idle at once in nio mode, the least recently parked being closed beyond it; 0 means no
+   * limit.
+   */
+  private int maxIdleConnections = 0;
+  /**
+   * Keep-alive timeout in seconds given to clients that ask for none.
+   */
+  private int keepAliveTimeout = KEEP_ALIVE_TIMEOUT;
+  /**
+   * Longest keep-alive timeout in seconds, given under no load.
+   */
+  private int keepAliveMaxTimeout = KEEP_ALIVE_MAX_TIMEOUT;
+  /**
+   * Requests per connection allowed to clients that ask for no limit.
+   */
+  private int keepAliveRequests = KEEP_ALIVE_REQUESTS;
+  /**
+   * Most requests per connection, allowed under no load.
+   */
+  private int keepAliveMaxRequests = KEEP_ALIVE_MAX_REQUESTS;
+  /**
+   * True to widen the keep-alive bounds under light load and shrink them near capacity.
+   */
+  private boolean keepAliveAdaptive = true;
+  /**
+   * Folder served, or null for src/main/resources/files under the working directory.
+   */
+  private String docRoot = null;
+  /**
+   * True to serve cleartext HTTP/2 to clients that ask for it.
+   */
+  private boolean http2 = true;
+  /**
+   * Most streams open at once on an HTTP/2 connection.
+   */
+  private int http2MaxStreams = HTTP2_MAX_STREAMS;
+  /**
+   * True to store the bodies of PUT and POST requests in the docroot.
+   */
+  private boolean upload = false;
+  /**
+   * Largest request body stored by an upload.
+   */
+  private long uploadMaxBytes = UPLOAD_MAX_BYTES;
+  /**
+   * Most bytes of idle buffers kept by each buffer pool, besides those cached by each thread.
+   */
+  private long bufferPoolMaxBytes = BUFFER_POOL_MAX_BYTES;
+  /**
+   * True to track pooled buffers and report those never given back.
+   */
+  private boolean bufferLeakDetection = false;
+  /**
+   * Handlers registered, in order.
+   */
+  private final List<Router.Route> routes = new ArrayList<Router.Route>();
+
+  /**
+   * Builds a configuration from the "httpserver.*" system properties, falling back to the defaults.
+   * @param portValue is the port to listen on.
+   * @return ServerConfig
+   */
+  public static ServerConfig fromSystemProperties(final int portValue) {
+    ServerConfig config = new ServerConfig();
+    config.setPort(portValue);
+    config.setIoMode(config.enumProperty("io", IoMode.class, config.getIoMode()));
+    config.setMaxThreads(config.intProperty("threads", config.getMaxThreads()));
+    config.setSelectorThreads(config.intProperty("selectors", config.getSelectorThreads()));
+    config.setExecutorMode(config.enumProperty("executor", ExecutorMode.class, config.getExecutorMode()));
+    config.setMaxConnections(config.intProperty("maxConnections", config.getMaxConnections()));
+    config.setTransferThreshold(config.intProperty("transferThreshold", (int) config.getTransferThreshold()));
+    config.setCacheMaxBytes(config.intProperty("cache.maxBytes", (int) config.getCacheMaxBytes()));
+    config.setCacheMaxEntryBytes(config.intProperty("cache.maxEntryBytes", (int) config.getCacheMaxEntryBytes()));
+    config.setMapThreshold(config.intProperty("map.threshold", (int) config.getMapThreshold()));
+    config.setMapIdleMillis(config.intProperty("map.idleMillis", (int) config.getMapIdleMillis()));
+    config.setCompressMinBytes(config.intProperty("compress.minBytes", (int) config.getCompressMinBytes()));
+    config.setCompressMaxBytes(config.intProperty("compress.maxBytes", (int) config.getCompressMaxBytes()));
+    config.setMimeTypesFile(config.stringProperty("mime.types", config.getMimeTypesFile()));
+    config.setMimeCharset(config.stringProperty("mime.charset", config.getMimeCharset()));
+    config.setAccessLogFile(config.stringProperty("accessLog", config.getAccessLogFile()));
+    config.setAccessLogFormat(config.enumProperty("accessLog.format", AccessLogFormat.class, config.getAccessLogFormat()));
+    config.setAccessLogPolicy(config.enumProperty("accessLog.policy", OverflowPolicy.class, config.getAccessLogPolicy()));
+    config.setAccessLogBufferSize(config.intProperty("accessLog.bufferSize", config.getAccessLogBufferSize()));
+    config.setDebug(Boolean.parseBoolean(config.stringProperty("debug", String.valueOf(config.isDebug()))));
+    config.setMetrics(Boolean.parseBoolean(config.stringProperty("metrics", String.valueOf(config.isMetrics()))));
+    config.setMetricsPath(config.stringProperty("metrics.path", config.getMetricsPath()));
+    config.setQueueSize(config.intProperty("queueSize", config.getQueueSize()));
+    config.setOverloadPolicy(config.enumProperty("overload", OverloadPolicy.class, config.getOverloadPolicy()));
+    config.setRetryAfterSeconds(config.intProperty("retryAfter", config.getRetryAfterSeconds()));
+    config.setAcceptors(config.intProperty("acceptors", config.getAcceptors()));
+    config.setReusePort(Boolean.parseBoolean(config.stringProperty("reusePort", String.valueOf(config.isReusePort()))));
+    config.setBacklog(config.intProperty("backlog", config.getBacklog()));
+    config.setTcpNoDelay(Boolean.parseBoolean(config.stringProperty("tcpNoDelay", String.valueOf(config.isTcpNoDelay()))));
+    config.setSendBufferSize(config.intProperty("sendBuffer", config.getSendBufferSize()));
+    config.setReceiveBufferSize(config.intProperty("receiveBuffer", config.getReceiveBufferSize()));
+    config.setIdleTimeout(config.intProperty("idleTimeout", config.getIdleTimeout()));
+    config.setMaxIdleConnections(config.intProperty("maxIdleConnections", config.getMaxIdleConnections()));
+    config.setKeepAliveTimeout(config.intProperty("keepAlive.timeout", config.getKeepAliveTimeout()));
+    config.setKeepAliveMaxTimeout(config.intProperty("keepAlive.maxTimeout", config.getKeepAliveMaxTimeout()));
+    config.setKeepAliveRequests(config.intProperty("keepAlive.requests", config.getKeepAliveRequests()));
+    config.setKeepAliveMaxRequests(config.intProperty("keepAlive.maxRequests", config.getKeepAliveMaxRequests()));
+    config.setDocRoot(config.stringProperty("docRoot", config.getDocRoot()));
+    config.setKeepAliveAdaptive(Boolean.parseBoolean(config.stringProperty("keepAlive.adaptive",
+                                                                           String.valueOf(config.isKeepAliveAdaptive()))));
+    config.setHttp2(Boolean.parseBoolean(config.stringProperty("http2", String.valueOf(config.isHttp2()))));
+    config.setHttp2MaxStreams(config.intProperty("http2.maxStreams", config.getHttp2MaxStreams()));
+    config.setUpload(Boolean.parseBoolean(config.stringProperty("upload", String.valueOf(config.isUpload()))));
+    config.setUploadMaxBytes(config.intProperty("upload.maxBytes", (int) config.getUploadMaxBytes()));
+    config.setBufferPoolMaxBytes(config.intProperty("bufferPool.maxBytes", (int) config.getBufferPoolMaxBytes()));
+    config.setBufferLeakDetection(Boolean.parseBoolean(config.stringProperty("bufferPool.leakDetection",
+                                                                             String.valueOf(config.isBufferLeakDetection()))));
+    return config;
+  }
+
+  /**
+   * Reads an integer system property.
+   * @param name is the property name, without prefix.
+   * @param defaultValue is returned when the property is absent or malformed.
+   * @return int value
+   */
+  final int intProperty(final String name, final int defaultValue) {
+    String value = System.getProperty(PREFIX + name);
+    if (value != null) {
+      try {
+        return Integer.parseInt(value.trim());
+      } catch (NumberFormatException e) {
+        logger.warning("bad value for " + PREFIX + name + ": " + value + ", using " + defaultValue);
+      }
+    }
+    return defaultValue;
+  }
+
+  /**
+   * Reads a string system property.
+   * @param name is the property name, without prefix.
+   * @param defaultValue is returned when the property is absent or blank.
+   * @return String value
+   */
+  final String stringProperty(final String name, final String defaultValue) {
+    String value = System.getProperty(PREFIX + name);
+    if (value != null && !value.trim().isEmpty()) {
+      return value.trim();
+    }
+    return defaultValue;
+  }
+
+  /**
+   * Reads an enum system property, case-insensitively.
+   * @param <E> is the enum type.
+   * @param name is the property name, without prefix.
+   * @param type is the enum class.
+   * @param defaultValue is returned when the property is absent or malformed.
+   * @return E value
+   */
+  final <E extends Enum<E>> E enumProperty(final String name, final Class<E> type, final E defaultValue) {
+    String value = System.getProperty(PREFIX + name);
+    if (value != null) {
+      for (E e : type.getEnumConstants()) {
+        if (e.name().equalsIgnoreCase(value.trim())) {
+          return e;
+        }
+      }
+      logger.warning("bad value for " + PREFIX + name + ": " + value + ", using " + defaultValue);
+    }
+    return defaultValue;
+  }
+
+  /**
+   * @return int port.
+   */
+  public final int getPort() {
+    return port;
+  }
+
+  /**
+   * @param portValue to be set.
+   */
+  public final void setPort(final int portValue) {
+    this.port = portValue;
+  }
+
+  /**
+   * @return IoMode in use.
+   */
+  public final IoMode getIoMode() {
+    return ioMode;
+  }
+
+  /**
+   * @param ioModeValue to be set.
+   */
+  public final void setIoMode(final IoMode ioModeValue) {
+    this.ioMode = ioModeValue;
+  }
+
+  /**
+   * @return int number of worker threads.
+   */
+  public final int getMaxThreads() {
+    return maxThreads;
+  }
+
+  /**
+   * @param maxThreadsValue to be set.
+   */
+  public final void setMaxThreads(final int maxThreadsValue) {
+    this.maxThreads = Math.max(1, maxThreadsValue);
+  }
+
+  /**
+   * @return int number of selector loops.
+   */
+  public final int getSelectorThreads() {
+    return selectorThreads;
+  }
+
+  /**
+   * @param selectorThreadsValue to be set.
+   */
+  public final void setSelectorThreads(final int selectorThreadsValue) {
+    this.selectorThreads = Math.max(1, selectorThreadsValue);
+  }
+
+  /**
+   * @return ExecutorMode in use.
+   */
+  public final ExecutorMode getExecutorMode() {
+    return executorMode;
+  }
+
+  /**
+   * @param executorModeValue to be set.
+   */
+  public final void setExecutorMode(final ExecutorMode executorModeValue) {
+    this.executorMode = executorModeValue;
+  }
+
+  /**
+   * @return int cap on connections serviced at once.
+   */
+  public final int getMaxConnections() {
+    return maxConnections;
+  }
+
+  /**
+   * @param maxConnectionsValue to be set.
+   */
+  public final void setMaxConnections(final int maxConnectionsValue) {
+    this.maxConnections = Math.max(1, maxConnectionsValue);
+  }
+
+  /**
+   * @return long size in bytes from which file bodies are sent with zero-copy transfers.
+   */
+  public final long getTransferThreshold() {
+    return transferThreshold;
+  }
+
+  /**
+   * @param transferThresholdValue to be set.
+   */
+  public final void setTransferThreshold(final long transferThresholdValue) {
+    this.transferThreshold = Math.max(0, transferThresholdValue);
+  }
+
+  /**
+   * @return long limit on the bytes held by the content cache.
+   */
+  public final long getCacheMaxBytes() {
+    return cacheMaxBytes;
+  }
+
+  /**
+   * @param cacheMaxBytesValue to be set.
+   */
+  public final void setCacheMaxBytes(final long cacheMaxBytesValue) {
+    this.cacheMaxBytes = Math.max(0, cacheMaxBytesValue);
+  }
+
+  /**
+   * @return long limit on the size of a file held by the content cache.
+   */
+  public final long getCacheMaxEntryBytes() {
+    return cacheMaxEntryBytes;
+  }
+
+  /**
+   * @param cacheMaxEntryBytesValue to be set.
+   */
+  public final void setCacheMaxEntryBytes(final long cacheMaxEntryBytesValue) {
+    this.cacheMaxEntryBytes = Math.max(0, cacheMaxEntryBytesValue);
+  }
+
+  /**
+   * @return long size in bytes from which files are served from memory mappings.
+   */
+  public final long getMapThreshold() {
+    return mapThreshold;
+  }
+
+  /**
+   * @param mapThresholdValue to be set.
+   */
+  public final void setMapThreshold(final long mapThresholdValue) {
+    this.mapThreshold = Math.max(0, mapThresholdValue);
+  }
+
+  /**
+   * @return long millisecs a memory mapping may go unrequested before it is released.
+   */
+  public final long getMapIdleMillis() {
+    return mapIdleMillis;
+  }
+
+  /**
+   * @param mapIdleMillisValue to be set.
+   */
+  public final void setMapIdleMillis(final long mapIdleMillisValue) {
+    this.mapIdleMillis = Math.max(1, mapIdleMillisValue);
+  }
+
+  /**
+   * @return long smallest file compressed on the fly.
+   */
+  public final long getCompressMinBytes() {
+    return compressMinBytes;
+  }
+
+  /**
+   * @param compressMinBytesValue to be set.
+   */
+  public final void setCompressMinBytes(final long compressMinBytesValue) {
+    this.compressMinBytes = Math.max(0, compressMinBytesValue);
+  }
+
+  /**
+   * @return long largest file compressed on the fly.
+   */
+  public final long getCompressMaxBytes() {
+    return compressMaxBytes;
+  }
+
+  /**
+   * @param compressMaxBytesValue to be set.
+   */
+  public final void setCompressMaxBytes(final long compressMaxBytesValue) {
+    this.compressMaxBytes = Math.max(0, compressMaxBytesValue);
+  }
+
+  /**
+   * @return String further mime.types file, or null.
+   */
+  public final String getMimeTypesFile() {
+    return mimeTypesFile;
+  }
+
+  /**
+   * @param mimeTypesFileValue to be set.
+   */
+  public final void setMimeTypesFile(final String mimeTypesFileValue) {
+    this.mimeTypesFile = mimeTypesFileValue;
+  }
+
+  /**
+   * @return String charset parameter given to text content types, or null.
+   */
+  public final String getMimeCharset() {
+    return mimeCharset;
+  }
+
+  /**
+   * @param mimeCharsetValue to be set.
+   */
+  public final void setMimeCharset(final String mimeCharsetValue) {
+    this.mimeCharset = mimeCharsetValue;
+  }
+
+  /**
+   * @return String access log file, or null.
+   */
+  public final String getAccessLogFile() {
+    return accessLogFile;
+  }
+
+  /**
+   * @param accessLogFileValue to be set.
+   */
+  public final void setAccessLogFile(final String accessLogFileValue) {
+    this.accessLogFile = accessLogFileValue;
+  }
+
+  /**
+   * @return AccessLogFormat line format of the access log.
+   */
+  public final AccessLogFormat getAccessLogFormat() {
+    return accessLogFormat;
+  }
+
+  /**
+   * @param accessLogFormatValue to be set.
+   */
+  public final void setAccessLogFormat(final AccessLogFormat accessLogFormatValue) {
+    this.accessLogFormat = accessLogFormatValue;
+  }
+
+  /**
+   * @return OverflowPolicy of the access log buffer.
+   */
+  public final OverflowPolicy getAccessLogPolicy() {
+    return accessLogPolicy;
+  }
+
+  /**
+   * @param accessLogPolicyValue to be set.
+   */
+  public final void setAccessLogPolicy(final OverflowPolicy accessLogPolicyValue) {
+    this.accessLogPolicy = accessLogPolicyValue;
+  }
+
+  /**
+   * @return int number of access log entries buffered.
+   */
+  public final int getAccessLogBufferSize() {
+    return accessLogBufferSize;
+  }
+
+  /**
+   * @param accessLogBufferSizeValue to be set.
+   */
+  public final void setAccessLogBufferSize(final int accessLogBufferSizeValue) {
+    this.accessLogBufferSize = Math.max(2, accessLogBufferSizeValue);
+  }
+
+  /**
+   * @return true if per-request diagnostics are logged at start-up.
+   */
+  public final boolean isDebug() {
+    return debug;
+  }
+
+  /**
+   * @param debugValue to be set.
+   */
+  public final void setDebug(final boolean debugValue) {
+    this.debug = debugValue;
+  }
+
+  /**
+   * @return true if the metrics are served.
+   */
+  public final boolean isMetrics() {
+    return metrics;
+  }
+
+  /**
+   * @param metricsValue to be set.
+   */
+  public final void setMetrics(final boolean metricsValue) {
+    this.metrics = metricsValue;
+  }
+
+  /**
+   * @return String reserved path the metrics are served on.
+   */
+  public final String getMetricsPath() {
+    return metricsPath;
+  }
+
+  /**
+   * @param metricsPathValue to be set.
+   */
+  public final void setMetricsPath(final String metricsPathValue) {
+    this.metricsPath = metricsPathValue;
+  }
+
+  /**
+   * @return int bound on the tasks waiting for a pooled worker thread, 0 if unbounded.
+   */
+  public final int getQueueSize() {
+    return queueSize;
+  }
+
+  /**
+   * @param queueSizeValue to be set.
+   */
+  public final void setQueueSize(final int queueSizeValue) {
+    this.queueSize = Math.max(0, queueSizeValue);
+  }
+
+  /**
+   * @return OverloadPolicy how connections over a limit are turned away.
+   */
+  public final OverloadPolicy getOverloadPolicy() {
+    return overloadPolicy;
+  }
+
+  /**
+   * @param overloadPolicyValue to be set.
+   */
+  public final void setOverloadPolicy(final OverloadPolicy overloadPolicyValue) {
+    this.overloadPolicy = overloadPolicyValue;
+  }
+
+  /**
+   * @return int seconds a turned away client is asked to wait.
+   */
+  public final int getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  /**
+   * @param retryAfterSecondsValue to be set.
+   */
+  public final void setRetryAfterSeconds(final int retryAfterSecondsValue) {
+    this.retryAfterSeconds = Math.max(0, retryAfterSecondsValue);
+  }
+
+  /**
+   * @return int number of acceptor threads.
+   */
+  public final int getAcceptors() {
+    return acceptors;
+  }
+
+  /**
+   * @param acceptorsValue to be set, at least 1.
+   */
+  public final void setAcceptors(final int acceptorsValue) {
+    this.acceptors = Math.max(1, acceptorsValue);
+  }
+
+  /**
+   * @return boolean true if each acceptor listens on a channel of its own.
+   */
+  public final boolean isReusePort() {
+    return reusePort;
+  }
+
+  /**
+   * @param reusePortValue to be set.
+   */
+  public final void setReusePort(final boolean reusePortValue) {
+    this.reusePort = reusePortValue;
+  }
+
+  /**
+   * @return int length of the accept backlog, 0 for the JVM default.
+   */
+  public final int getBacklog() {
+    return backlog;
+  }
+
+  /**
+   * @param backlogValue to be set.
+   */
+  public final void setBacklog(final int backlogValue) {
+    this.backlog = Math.max(0, backlogValue);
+  }
+
+  /**
+   * @return boolean true if Nagle's algorithm is disabled on accepted sockets.
+   */
+  public final boolean isTcpNoDelay() {
+    return tcpNoDelay;
+  }
+
+  /**
+   * @param tcpNoDelayValue to be set.
+   */
+  public final void setTcpNoDelay(final boolean tcpNoDelayValue) {
+    this.tcpNoDelay = tcpNoDelayValue;
+  }
+
+  /**
+   * @return int SO_SNDBUF of accepted sockets, 0 for the system default.
+   */
+  public final int getSendBufferSize() {
+    return sendBufferSize;
+  }
+
+  /**
+   * @param sendBufferSizeValue to be set.
+   */
+  public final void setSendBufferSize(final int sendBufferSizeValue) {
+    this.sendBufferSize = Math.max(0, sendBufferSizeValue);
+  }
+
+  /**
+   * @return int SO_RCVBUF of accepted sockets, 0 for the system default.
+   */
+  public final int getReceiveBufferSize() {
+    return receiveBufferSize;
+  }
+
+  /**
+   * @param receiveBufferSizeValue to be set.
+   */
+  public final void setReceiveBufferSize(final int receiveBufferSizeValue) {
+    this.receiveBufferSize = Math.max(0, receiveBufferSizeValue);
+  }
+
+  /**
+   * @return int millisecs a connection may be parked idle, 0 for ever.
+   */
+  public final int getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  /**
+   * @param idleTimeoutValue to be set.
+   */
+  public final void setIdleTimeout(final int idleTimeoutValue) {
+    this.idleTimeout = Math.max(0, idleTimeoutValue);
+  }
+
+  /**
+   * @return int most connections parked idle at once, 0 for no limit.
+   */
+  public final int getMaxIdleConnections() {
+    return maxIdleConnections;
+  }
+
+  /**
+   * @param maxIdleConnectionsValue to be set.
+   */
+  public final void setMaxIdleConnections(final int maxIdleConnectionsValue) {
+    this.maxIdleConnections = Math.max(0, maxIdleConnectionsValue);
+  }
+
+  /**
+   * @return int keep-alive timeout in seconds given to clients that ask for none.
+   */
+  public final int getKeepAliveTimeout() {
+    return keepAliveTimeout;
+  }
+
+  /**
+   * @param keepAliveTimeoutValue to be set.
+   */
+  public final void setKeepAliveTimeout(final int keepAliveTimeoutValue) {
+    this.keepAliveTimeout = Math.max(1, keepAliveTimeoutValue);
+  }
+
+  /**
+   * @return int longest keep-alive timeout in seconds.
+   */
+  public final int getKeepAliveMaxTimeout() {
+    return keepAliveMaxTimeout;
+  }
+
+  /**
+   * @param keepAliveMaxTimeoutValue to be set.
+   */
+  public final void setKeepAliveMaxTimeout(final int keepAliveMaxTimeoutValue) {
+    this.keepAliveMaxTimeout = Math.max(1, keepAliveMaxTimeoutValue);
+  }
+
+  /**
+   * @return int requests per connection allowed to clients that ask for no limit.
+   */
+  public final int getKeepAliveRequests() {
+    return keepAliveRequests;
+  }
+
+  /**
+   * @param keepAliveRequestsValue to be set.
+   */
+  public final void setKeepAliveRequests(final int keepAliveRequestsValue) {
+    this.keepAliveRequests = Math.max(1, keepAliveRequestsValue);
+  }
+
+  /**
+   * @return int most requests per connection.
+   */
+  public final int getKeepAliveMaxRequests() {
+    return keepAliveMaxRequests;
+  }
+
+  /**
+   * @param keepAliveMaxRequestsValue to be set.
+   */
+  public final void setKeepAliveMaxRequests(final int keepAliveMaxRequestsValue) {
+    this.keepAliveMaxRequests = Math.max(1, keepAliveMaxRequestsValue);
+  }
+
+  /**
+   * @return true if the keep-alive bounds follow the load.
+   */
+  public final boolean isKeepAliveAdaptive() {
+    return keepAliveAdaptive;
+  }
+
+  /**
+   * @param keepAliveAdaptiveValue to be set.
+   */
+  public final void setKeepAliveAdaptive(final boolean keepAliveAdaptiveValue) {
+    this.keepAliveAdaptive = keepAliveAdaptiveValue;
+  }
+
+  /**
+   * @return String folder served, or null for the default.
+   */
+  public final String getDocRoot() {
+    return docRoot;
+  }
+
+  /**
+   * @param docRootValue to be set.
+   */
+  public final void setDocRoot(final String docRootValue) {
+    this.docRoot = docRootValue;
+  }
+
+  /**
+   * @return true if cleartext HTTP/2 is served.
+   */
+  public final boolean isHttp2() {
+    return http2;
+  }
+
+  /**
+   * @param http2Value to be set.
+   */
+  public final void setHttp2(final boolean http2Value) {
+    this.http2 = http2Value;
+  }
+
+  /**
+   * @return int most streams open at once on an HTTP/2 connection.
+   */
+  public final int getHttp2MaxStreams() {
+    return http2MaxStreams;
+  }
+
+  /**
+   * @param http2MaxStreamsValue to be set.
+   */
+  public final void setHttp2MaxStreams(final int http2MaxStreamsValue) {
+    this.http2MaxStreams = Math.max(1, http2MaxStreamsValue);
+  }
+
+  /**
+   * @return true if PUT and POST request bodies are stored in the docroot.
+   */
+  public final boolean isUpload() {
+    return upload;
+  }
+
+  /**
+   * @param uploadValue to be set.
+   */
+  public final void setUpload(final boolean uploadValue) {
+    this.upload = uploadValue;
+  }
+
+  /**
+   * @return long largest request body stored by an upload.
+   */
+  public final long getUploadMaxBytes() {
+    return uploadMaxBytes;
+  }
+
+  /**
+   * @param uploadMaxBytesValue to be set.
+   */
+  public final void setUploadMaxBytes(final long uploadMaxBytesValue) {
+    this.uploadMaxBytes = Math.max(0, uploadMaxBytesValue);
+  }
+
+  /**
+   * Registers a handler, taking precedence over the server's own and earlier ones for the same method and pattern.
+   * @param method is the request method, e.g. GET.
+   * @param pattern is the path pattern: a path, matched exactly, such as /health; one ending in "*", matching any path
+   *        it is a prefix of, such as /api/*; with parameters standing for whole segments, such as /items/{id}.
+   * @param handler handles the requests matched.
+   */
+  public final void addRoute(final String method, final String pattern, final Handler handler) {
+    routes.add(new Router.Route(method, pattern, handler));
+  }
+
+  /**
+   * @return List of the handlers registered, in order.
+   */
+  final List<Router.Route> getRoutes() {
+    return routes;
+  }
+
+  /**
+   * @return long most bytes of idle buffers kept by each buffer pool; 0 turns pooling off.
+   */
+  public final long getBufferPoolMaxBytes() {
+    return bufferPoolMaxBytes;
+  }
+
+  /**
+   * @param bufferPoolMaxBytesValue to be set.
+   */
+  public final void setBufferPoolMaxBytes(final long bufferPoolMaxBytesValue) {
+    this.bufferPoolMaxBytes = Math.max(0, bufferPoolMaxBytesValue);
+  }
+
+  /**
+   * @return true if pooled buffers are tracked and those never given back are reported.
+   */
+  public final boolean isBufferLeakDetection() {
+    return bufferLeakDetection;
+  }
+
+  /**
+   * @param bufferLeakDetectionValue to be set.
+   */
+  public final void setBufferLeakDetection(final boolean bufferLeakDetectionValue) {
+    this.bufferLeakDetection = bufferLeakDetectionValue;
+  }
+}
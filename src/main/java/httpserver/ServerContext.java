@@ -0,0 +1,283 @@
+package httpserver;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+
+/**
+ * Holds what the connections of one running http-server share: its settings, its caches, its access log and metrics.
+ * @author kmatassa
+ */
+public class ServerContext implements Closeable {
+  /**
+   * Settings.
+   */
+  private final ServerConfig config;
+  /**
+   * Small static files held in memory.
+   */
+  private final ContentCache contentCache;
+  /**
+   * Large static files served from memory mappings.
+   */
+  private final MappedFileTier mappedFiles;
+  /**
+   * Directory the served files are found in.
+   */
+  private final File docRoot;
+  /**
+   * Content types by file extension.
+   */
+  private final MimeTypes mimeTypes;
+  /**
+   * Files of the docroot by request path.
+   */
+  private final DocRootIndex docRootIndex;
+  /**
+   * Access log, or null for none.
+   */
+  private final AccessLog accessLog;
+  /**
+   * Request and connection metrics.
+   */
+  private final Metrics metrics = new Metrics();
+  /**
+   * Admission control of new connections.
+   */
+  private final Admission admission;
+  /**
+   * Keep-alive bounds, following the load.
+   */
+  private final KeepAlivePolicy keepAlivePolicy;
+  /**
+   * Services the request streams of HTTP/2 connections.
+   */
+  private final ExecutorService streamExecutor;
+  /**
+   * Handlers by method and path.
+   */
+  private final Router router;
+  /**
+   * Direct buffers of the response heads and small bodies.
+   */
+  private final BufferPool directBuffers;
+  /**
+   * Heap buffers of the request input, read through the sockets' streams.
+   */
+  private final BufferPool heapBuffers;
+  /**
+   * True to log per-request diagnostics.
+   */
+  private volatile boolean debug;
+
+  /**
+   * @param serverConfig holds the settings.
+   * @throws IOException if the access log cannot be opened.
+   */
+  public ServerContext(final ServerConfig serverConfig) throws IOException {
+    this.config = serverConfig;
+    this.contentCache = new ContentCache(serverConfig.getCacheMaxBytes(), serverConfig.getCacheMaxEntryBytes());
+    this.mappedFiles = new MappedFileTier(serverConfig.getMapThreshold(), serverConfig.getMapIdleMillis());
+    this.docRoot = docRoot(serverConfig.getDocRoot());
+    this.mimeTypes = new MimeTypes(docRoot, serverConfig.getMimeTypesFile(), serverConfig.getMimeCharset());
+    this.docRootIndex = new DocRootIndex(docRoot, mimeTypes);
+    if (serverConfig.getAccessLogFile() != null) {
+      this.accessLog = new AccessLog(serverConfig.getAccessLogFile(), serverConfig.getAccessLogFormat(),
+                                     serverConfig.getAccessLogPolicy(), serverConfig.getAccessLogBufferSize());
+    } else {
+      this.accessLog = null;
+    }
+    this.debug = serverConfig.isDebug();
+    // A virtual thread serves one connection only, so buffers cached by it would never be taken again.
+    boolean threadCaches = serverConfig.getExecutorMode() != ExecutorMode.VIRTUAL;
+    this.directBuffers = new BufferPool(true, serverConfig.getBufferPoolMaxBytes(), threadCaches,
+                                        serverConfig.isBufferLeakDetection());
+    this.heapBuffers = new BufferPool(false, serverConfig.getBufferPoolMaxBytes(), threadCaches,
+                                      serverConfig.isBufferLeakDetection());
+    metrics.setAccessLog(accessLog);
+    metrics.setBufferPools(directBuffers, heapBuffers);
+    this.admission = new Admission(serverConfig, metrics, directBuffers);
+    this.keepAlivePolicy = new KeepAlivePolicy(serverConfig, admission, metrics);
+    this.streamExecutor = WorkerExecutors.create(serverConfig);
+    this.router = new Router(routes(serverConfig));
+  }
+
+  /**
+   * @param serverConfig holds the settings.
+   * @return List of the routes of the server's own handlers, followed by those registered, which take precedence.
+   */
+  private static List<Router.Route> routes(final ServerConfig serverConfig) {
+    List<Router.Route> routes = new ArrayList<Router.Route>();
+    Handler files = new FileHandler();
+    routes.add(new Router.Route(HttpGet.METHOD_NAME, "/*", files));
+    routes.add(new Router.Route(HttpHead.METHOD_NAME, "/*", files));
+    if (serverConfig.isMetrics() && serverConfig.getMetricsPath() != null) {
+      Handler metricsHandler = new MetricsHandler();
+      routes.add(new Router.Route(HttpGet.METHOD_NAME, serverConfig.getMetricsPath(), metricsHandler));
+      routes.add(new Router.Route(HttpHead.METHOD_NAME, serverConfig.getMetricsPath(), metricsHandler));
+    }
+    if (serverConfig.isUpload()) {
+      Handler uploads = new UploadHandler();
+      routes.add(new Router.Route(HttpPut.METHOD_NAME, "/*", uploads));
+      routes.add(new Router.Route(HttpPost.METHOD_NAME, "/*", uploads));
+    }
+    routes.addAll(serverConfig.getRoutes());
+    return routes;
+  }
+
+  /**
+   * @return ServerConfig settings.
+   */
+  public final ServerConfig getConfig() {
+    return config;
+  }
+
+  /**
+   * @return ContentCache of small static files.
+   */
+  public final ContentCache getContentCache() {
+    return contentCache;
+  }
+
+  /**
+   * @return MappedFileTier of large static files.
+   */
+  public final MappedFileTier getMappedFiles() {
+    return mappedFiles;
+  }
+
+  /**
+   * @return File directory the served files are found in.
+   */
+  public final File getDocRoot() {
+    return docRoot;
+  }
+
+  /**
+   * @return DocRootIndex files of the docroot by request path.
+   */
+  final DocRootIndex getDocRootIndex() {
+    return docRootIndex;
+  }
+
+  /**
+   * @return Router of requests to their handlers.
+   */
+  final Router getRouter() {
+    return router;
+  }
+
+  /**
+   * @return BufferPool of direct buffers, for the response heads and small bodies.
+   */
+  final BufferPool getDirectBuffers() {
+    return directBuffers;
+  }
+
+  /**
+   * @return BufferPool of heap buffers, for the request input.
+   */
+  final BufferPool getHeapBuffers() {
+    return heapBuffers;
+  }
+
+  /**
+   * @param configured is the folder to serve, or null for the default.
+   * @return File folder served.
+   */
+  static File docRoot(final String configured) {
+    if (configured == null) {
+      return defaultDocRoot();
+    }
+    return new File(configured);
+  }
+
+  /**
+   * @return File folder served by default, src/main/resources/files under the working directory.
+   */
+  static File defaultDocRoot() {
+    File path = FileSystems.getDefault().getPath("").toAbsolutePath().toFile();
+    String httpServerRoot = "src" + File.separator + "main" + File.separator + "resources" + File.separator + "files";
+    return FileUtils.getFile(path, httpServerRoot);
+  }
+
+  /**
+   * @return MimeTypes content types by file extension.
+   */
+  public final MimeTypes getMimeTypes() {
+    return mimeTypes;
+  }
+
+  /**
+   * @return AccessLog of the requests, or null for none.
+   */
+  public final AccessLog getAccessLog() {
+    return accessLog;
+  }
+
+  /**
+   * @return Metrics of the requests and connections.
+   */
+  public final Metrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * @return Admission control of new connections.
+   */
+  final Admission getAdmission() {
+    return admission;
+  }
+
+  /**
+   * @return KeepAlivePolicy bounding the keep-alive options of the connections.
+   */
+  final KeepAlivePolicy getKeepAlivePolicy() {
+    return keepAlivePolicy;
+  }
+
+  /**
+   * @return ExecutorService servicing the request streams of HTTP/2 connections, apart from the connections' threads.
+   */
+  final ExecutorService getStreamExecutor() {
+    return streamExecutor;
+  }
+
+  /**
+   * @return true if per-request diagnostics are logged.
+   */
+  public final boolean isDebug() {
+    return debug;
+  }
+
+  /**
+   * Switches per-request diagnostics on or off while running.
+   * @param debugValue to be set.
+   */
+  public final void setDebug(final boolean debugValue) {
+    this.debug = debugValue;
+  }
+
+  /**
+   * Writes out and closes the access log, stops watching the docroot, and stops the HTTP/2 stream threads.
+   * @throws IOException sometimes
+   */
+  @Override
+  public final void close() throws IOException {
+    streamExecutor.shutdownNow();
+    docRootIndex.close();
+    if (accessLog != null) {
+      accessLog.close();
+    }
+  }
+}
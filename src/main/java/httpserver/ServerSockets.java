@@ -0,0 +1,145 @@
+package httpserver;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Logger;
+
+/**
+ * Opens the listening channels and tunes accepted sockets according to the settings.  With several acceptors, each
+ * may listen on a channel of its own bound to the same port with SO_REUSEPORT, so that the kernel spreads new
+ * connections across them; otherwise they share one channel.  SO_REUSEPORT is looked up reflectively so that
+ * http-server still builds and runs on JVMs that predate it.
+ * @author kmatassa
+ */
+public final class ServerSockets {
+  /**
+   * Local logger.
+   */
+  private static Logger logger = Logger.getAnonymousLogger();
+  /**
+   * The SO_REUSEPORT option, or null if this JVM has none.
+   */
+  private static final SocketOption<Boolean> REUSE_PORT = findReusePort();
+
+  /**
+   * Utility class.
+   */
+  private ServerSockets() {
+  }
+
+  /**
+   * @return SocketOption SO_REUSEPORT, or null if not supported.
+   */
+  @SuppressWarnings("unchecked")
+  private static SocketOption<Boolean> findReusePort() {
+    try {
+      Field f = StandardSocketOptions.class.getField("SO_REUSEPORT");
+      return (SocketOption<Boolean>) f.get(null);
+    } catch (ReflectiveOperationException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return true if this JVM and platform let listening channels share a port.
+   */
+  public static boolean isReusePortSupported() {
+    if (REUSE_PORT == null) {
+      return false;
+    }
+    try (ServerSocketChannel probe = ServerSocketChannel.open()) {
+      return probe.supportedOptions().contains(REUSE_PORT);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Opens the listening channels of the acceptors: one each if SO_REUSEPORT is asked for and supported, else a single
+   * channel they share.
+   * @param config holds the settings.
+   * @return ServerSocketChannel[] one per acceptor, possibly the same one.
+   * @throws IOException if the port cannot be bound.
+   */
+  public static ServerSocketChannel[] open(final ServerConfig config) throws IOException {
+    ServerSocketChannel[] channels = new ServerSocketChannel[config.getAcceptors()];
+    boolean reusePort = config.isReusePort() && channels.length > 1;
+    if (reusePort && !isReusePortSupported()) {
+      logger.warning("SO_REUSEPORT is not supported here, " + channels.length + " acceptors share one channel");
+      reusePort = false;
+    }
+    try {
+      for (int i = 0; i < channels.length; i++) {
+        if (i == 0 || reusePort) {
+          channels[i] = bind(config, reusePort);
+        } else {
+          channels[i] = channels[0];
+        }
+      }
+    } catch (IOException e) {
+      close(channels);
+      throw e;
+    }
+    return channels;
+  }
+
+  /**
+   * @param config holds the settings.
+   * @param reusePort is true to share the port with other channels.
+   * @return ServerSocketChannel bound to the port.
+   * @throws IOException if the port cannot be bound.
+   */
+  private static ServerSocketChannel bind(final ServerConfig config, final boolean reusePort) throws IOException {
+    ServerSocketChannel ssc = ServerSocketChannel.open();
+    try {
+      if (reusePort) {
+        ssc.setOption(REUSE_PORT, true);
+      }
+      // Accepted sockets inherit the receive buffer, which must be set before the bind to allow large TCP windows.
+      if (config.getReceiveBufferSize() > 0) {
+        ssc.setOption(StandardSocketOptions.SO_RCVBUF, config.getReceiveBufferSize());
+      }
+      ssc.bind(new InetSocketAddress(config.getPort()), config.getBacklog());
+      return ssc;
+    } catch (IOException e) {
+      ssc.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Applies the per-connection socket options to an accepted socket.
+   * @param channel is the accepted connection.
+   * @param config holds the settings.
+   * @throws IOException sometimes
+   */
+  public static void configure(final SocketChannel channel, final ServerConfig config) throws IOException {
+    if (config.isTcpNoDelay()) {
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+    }
+    if (config.getSendBufferSize() > 0) {
+      channel.setOption(StandardSocketOptions.SO_SNDBUF, config.getSendBufferSize());
+    }
+  }
+
+  /**
+   * Closes listening channels, quietly.
+   * @param channels may hold nulls and repeats.
+   */
+  public static void close(final ServerSocketChannel[] channels) {
+    for (ServerSocketChannel ssc : channels) {
+      if (ssc != null) {
+        try {
+          ssc.close();
+        } catch (IOException e) {
+          logger.warning(e.getMessage());
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package httpserver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A hashed timer wheel, after Varghese and Lauck: deadlines are hashed by tick into a ring of slots, so scheduling and
+ * cancelling cost O(1), and each tick only looks at the items of one slot rather than at every item.  Items due in
+ * later rotations stay in their slot until a visit finds them due.  Not thread-safe: a wheel belongs to the thread
+ * that advances it.
+ * @param <T> is the type of the items timed.
+ * @author kmatassa
+ */
+final class TimerWheel<T> {
+  /**
+   * Millisecs per tick.
+   */
+  private final long tickMillis;
+  /**
+   * Slots, a power of two of them.
+   */
+  private final List<Set<T>> slots;
+  /**
+   * Mask giving the slot of a tick.
+   */
+  private final int mask;
+  /**
+   * Deadline and tick of each item scheduled.
+   */
+  private final Map<T, long[]> scheduled = new HashMap<T, long[]>();
+  /**
+   * Last tick advanced to.
+   */
+  private long currentTick;
+
+  /**
+   * @param tickMillisValue is the millisecs per tick, the precision of the deadlines.
+   * @param slotCount is the number of slots, rounded up to a power of two; one rotation should cover most deadlines.
+   * @param now is the current time in millisecs.
+   */
+  TimerWheel(final long tickMillisValue, final int slotCount, final long now) {
+    this.tickMillis = Math.max(1, tickMillisValue);
+    int n = Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1;
+    this.slots = new ArrayList<Set<T>>(n);
+    for (int i = 0; i < n; i++) {
+      slots.add(new HashSet<T>());
+    }
+    this.mask = n - 1;
+    this.currentTick = now / tickMillis;
+  }
+
+  /**
+   * Schedules an item, replacing any deadline it had.
+   * @param item is the item.
+   * @param deadline is the time in millisecs at which it is due.
+   */
+  void schedule(final T item, final long deadline) {
+    cancel(item);
+    // Round up, so that an item is never found due before its deadline; and never into a tick already passed.
+    long tick = Math.max((deadline + tickMillis - 1) / tickMillis, currentTick + 1);
+    slots.get((int) (tick & mask)).add(item);
+    scheduled.put(item, new long[] {deadline, tick});
+  }
+
+  /**
+   * @param item is the item.
+   * @return true if it was scheduled.
+   */
+  boolean cancel(final T item) {
+    long[] entry = scheduled.remove(item);
+    if (entry == null) {
+      return false;
+    }
+    slots.get((int) (entry[1] & mask)).remove(item);
+    return true;
+  }
+
+  /**
+   * Advances the wheel to the current time, removing the items that have come due.
+   * @param now is the current time in millisecs.
+   * @param due receives the items that have come due.
+   */
+  void advance(final long now, final List<T> due) {
+    long target = now / tickMillis;
+    // After a long pause every slot is visited once, not once per missed tick.
+    long from = Math.max(currentTick + 1, target - mask);
+    for (long tick = from; tick <= target; tick++) {
+      Iterator<T> it = slots.get((int) (tick & mask)).iterator();
+      while (it.hasNext()) {
+        T item = it.next();
+        if (scheduled.get(item)[0] <= now) {
+          it.remove();
+          scheduled.remove(item);
+          due.add(item);
+        }
+      }
+    }
+    currentTick = Math.max(currentTick, target);
+  }
+
+  /**
+   * @return int number of items scheduled.
+   */
+  int size() {
+    return scheduled.size();
+  }
+
+  /**
+   * @return long millisecs per tick.
+   */
+  long getTickMillis() {
+    return tickMillis;
+  }
+}
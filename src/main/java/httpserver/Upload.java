@@ -0,0 +1,99 @@
+package httpserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Stores request bodies as files of the docroot.  A body is streamed from the connection into a temporary file beside
+ * its target with FileChannel.transferFrom, so that it is never held in memory, and is renamed onto the target only once
+ * complete: readers see the old file or the whole new one, never a part.  Temporary files are not served.
+ * @author kmatassa
+ */
+final class Upload {
+  /**
+   * Prefix of temporary files.
+   */
+  private static final String TEMP_PREFIX = ".upload-";
+  /**
+   * Suffix of temporary files.
+   */
+  private static final String TEMP_SUFFIX = ".part";
+  /**
+   * Most bytes moved by a single transfer.
+   */
+  private static final long TRANSFER_SIZE = 64 * 1024;
+  /**
+   * Interim response to Expect: 100-continue.
+   */
+  private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+  /**
+   * Utility class.
+   */
+  private Upload() {
+  }
+
+  /**
+   * @param fileName is the name of a file.
+   * @return true if it is that of an upload in progress.
+   */
+  static boolean isTemporary(final String fileName) {
+    return fileName.startsWith(TEMP_PREFIX) && fileName.endsWith(TEMP_SUFFIX);
+  }
+
+  /**
+   * @return ByteBuffer the interim response telling a client to go on with its body.
+   */
+  static ByteBuffer continueResponse() {
+    return ByteBuffer.wrap(CONTINUE);
+  }
+
+  /**
+   * Reads a body to its end into a file, replacing any file already there.  The docroot index is updated at once, so
+   * that the file is served to the next request, without waiting for the index to see it change.
+   * @param body is the request body.
+   * @param target is the file, within the docroot.
+   * @param index is the docroot index.
+   * @return true if the file was created, false if it replaced one.
+   * @throws IOException sometimes, in which case the target is left as it was.
+   */
+  static boolean store(final RequestBody body, final Path target, final DocRootIndex index) throws IOException {
+    Path dir = target.getParent();
+    Path created = null;
+    for (Path p = dir; !Files.exists(p); p = p.getParent()) {
+      created = p;
+    }
+    Files.createDirectories(dir);
+    Path temp = Files.createTempFile(dir, TEMP_PREFIX, TEMP_SUFFIX);
+    boolean stored = false;
+    try {
+      try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        long position = 0;
+        while (!body.isEnd()) {
+          position += out.transferFrom(body, position, TRANSFER_SIZE);
+        }
+        out.force(false);
+      }
+      boolean exists = Files.exists(target);
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      stored = true;
+      if (created != null) {
+        // Indexes and watches the new folders, and the file in them.
+        index.update(created);
+      } else {
+        index.update(target);
+      }
+      return !exists;
+    } finally {
+      if (!stored) {
+        Files.deleteIfExists(temp);
+      }
+    }
+  }
+}
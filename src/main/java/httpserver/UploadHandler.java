@@ -0,0 +1,76 @@
+package httpserver;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.http.HttpStatus;
+
+/**
+ * Stores the bodies of PUT and POST requests as the files at their paths, answering 201 if one was created and 204 if
+ * it replaced one.  A client expecting 100-continue is told to go on only once the path and length have been accepted;
+ * a body over the limit is refused without being read, or as soon as a chunk takes it over.
+ * @author kmatassa
+ */
+final class UploadHandler implements Handler {
+  /**
+   * Request header name.
+   */
+  private static final String HDR_EXPECT = "Expect";
+  /**
+   * The one expectation met.
+   */
+  private static final String CONTINUE = "100-continue";
+
+  /**
+   * @param exchange holds the request and receives the response.
+   * @return true if the connection may be kept open, false if an issue was delivered.
+   * @throws IOException sometimes
+   */
+  @Override
+  public boolean handle(final Exchange exchange) throws IOException {
+    if (!exchange.isConnection()) {
+      return exchange.fail(HttpStatus.SC_NOT_IMPLEMENTED);
+    }
+    RequestParser request = exchange.getRequest();
+    ServerContext context = exchange.getContext();
+    Path target = context.getDocRootIndex().resolve(request.getUri());
+    String expect = request.getHeader(HDR_EXPECT);
+    if (expect != null && !expect.trim().equalsIgnoreCase(CONTINUE)) {
+      return exchange.fail(HttpStatus.SC_EXPECTATION_FAILED);
+    }
+    if (Files.isDirectory(target)) {
+      return exchange.fail(HttpStatus.SC_CONFLICT);
+    }
+    RequestBody body;
+    try {
+      body = exchange.body(context.getConfig().getUploadMaxBytes());
+    } catch (RequestBody.TooLarge e) {
+      return exchange.fail(HttpStatus.SC_REQUEST_TOO_LONG);
+    }
+    if (body == null) {
+      return exchange.fail(HttpStatus.SC_LENGTH_REQUIRED);
+    }
+    if (expect != null && request.isHttpVersionOneOne()) {
+      exchange.sendContinue();
+    }
+    // The body is read through the buffer holding the head.
+    request.detach();
+    boolean created;
+    try {
+      created = Upload.store(body, target, context.getDocRootIndex());
+    } catch (RequestBody.TooLarge e) {
+      return exchange.fail(HttpStatus.SC_REQUEST_TOO_LONG);
+    } catch (FileAlreadyExistsException e) {
+      // A file stands where a folder is needed.
+      return exchange.fail(HttpStatus.SC_CONFLICT);
+    }
+    if (created) {
+      exchange.getBatch().add(exchange.begin(HttpStatus.SC_CREATED).put(ResponseHead.CONTENT_LENGTH_ZERO).end());
+    } else {
+      exchange.getBatch().add(exchange.begin(HttpStatus.SC_NO_CONTENT).end());
+    }
+    return true;
+  }
+}
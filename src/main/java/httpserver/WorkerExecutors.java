@@ -0,0 +1,97 @@
+package httpserver;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Creates the executor that services connections, according to the configured {@link ExecutorMode}.  Virtual threads
+ * are looked up reflectively so that http-server still builds and runs on JVMs that predate them.
+ * @author kmatassa
+ */
+public final class WorkerExecutors {
+  /**
+   * Local logger.
+   */
+  private static Logger logger = Logger.getAnonymousLogger();
+  /**
+   * Factory method of virtual thread executors, or null if this JVM has none.
+   */
+  private static final Method VIRTUAL_FACTORY = findVirtualFactory();
+
+  /**
+   * Utility class.
+   */
+  private WorkerExecutors() {
+  }
+
+  /**
+   * @return Method creating a virtual thread per task executor, or null if not supported.
+   */
+  private static Method findVirtualFactory() {
+    try {
+      return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return true if this JVM supports virtual threads.
+   */
+  public static boolean isVirtualThreadSupported() {
+    return VIRTUAL_FACTORY != null;
+  }
+
+  /**
+   * Creates the worker executor.  A request for virtual threads on a JVM that has none falls back to the pool.  The
+   * pool's queue is bounded by the configured queue size, past which execute throws RejectedExecutionException, so that
+   * the caller can turn the work away rather than let it wait without limit.
+   * @param config holds the settings.
+   * @return ExecutorService servicing connections.
+   */
+  public static ExecutorService create(final ServerConfig config) {
+    return create(config, 1);
+  }
+
+  /**
+   * Creates the executor of one of several worker groups, which share the configured threads and queue bound between
+   * them.
+   * @param config holds the settings.
+   * @param groups is the number of worker groups.
+   * @return ExecutorService servicing the connections of one group.
+   */
+  public static ExecutorService create(final ServerConfig config, final int groups) {
+    if (config.getExecutorMode() == ExecutorMode.VIRTUAL) {
+      if (isVirtualThreadSupported()) {
+        try {
+          return (ExecutorService) VIRTUAL_FACTORY.invoke(null);
+        } catch (ReflectiveOperationException e) {
+          logger.warning("virtual threads unavailable: " + e.getMessage());
+        }
+      } else {
+        logger.warning("virtual threads are not supported by this JVM, using a pool of " + config.getMaxThreads());
+      }
+    }
+    int threads = share(config.getMaxThreads(), groups);
+    BlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>();
+    if (config.getQueueSize() > 0) {
+      queue = new LinkedBlockingQueue<Runnable>(share(config.getQueueSize(), groups));
+    }
+    return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue);
+  }
+
+  /**
+   * @param total is a number shared between groups.
+   * @param groups is the number of groups.
+   * @return int the share of one group, rounded up so that none is left with nothing.
+   */
+  static int share(final int total, final int groups) {
+    return Math.max(1, (total + groups - 1) / groups);
+  }
+}
@@ -0,0 +1,121 @@
+package httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Runs servers with several acceptors, sharing a channel or each with its own, under connection churn.
+ */
+public class AcceptorsTest {
+
+  private static String get(int port, String path) throws IOException {
+    Socket s = new Socket("localhost", port);
+    try {
+      s.setSoTimeout(5000);
+      s.getOutputStream().write(("GET " + path + " HTTP/1.0\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      InputStream in = s.getInputStream();
+      byte[] b = new byte[4096];
+      int n;
+      while ((n = in.read(b)) >= 0) {
+        out.write(b, 0, n);
+      }
+      return new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+    } finally {
+      s.close();
+    }
+  }
+
+  private static void churn(ServerConfig config) throws IOException {
+    Server server = App.start(config);
+    try {
+      for (int i = 0; i < 40; i++) {
+        String response = get(config.getPort(), "/helloworld.html");
+        assertTrue(response, response.startsWith("HTTP/1.0 200 OK\r\n"));
+      }
+    } finally {
+      server.close();
+    }
+  }
+
+  @Test
+  public void blockingAcceptorsWithPortsOfTheirOwn() throws Exception {
+    ServerConfig config = new ServerConfig();
+    config.setPort(8091);
+    config.setAcceptors(4);
+    config.setReusePort(true);
+    config.setBacklog(512);
+    config.setTcpNoDelay(true);
+    config.setSendBufferSize(64 * 1024);
+    config.setReceiveBufferSize(64 * 1024);
+    churn(config);
+  }
+
+  @Test
+  public void nioAcceptorsSharingAChannel() throws Exception {
+    ServerConfig config = new ServerConfig();
+    config.setPort(8092);
+    config.setIoMode(IoMode.NIO);
+    config.setAcceptors(2);
+    config.setSelectorThreads(3);
+    churn(config);
+  }
+
+  @Test
+  public void reusePortIsOpenedOncePerAcceptorWhereSupported() throws Exception {
+    ServerConfig config = new ServerConfig();
+    config.setPort(8093);
+    config.setAcceptors(3);
+    config.setReusePort(true);
+    ServerSocketChannel[] channels = ServerSockets.open(config);
+    try {
+      assertEquals(3, channels.length);
+      boolean distinct = channels[0] != channels[1] && channels[1] != channels[2];
+      assertEquals(ServerSockets.isReusePortSupported(), distinct);
+    } finally {
+      ServerSockets.close(channels);
+    }
+  }
+
+  @Test
+  public void acceptedSocketsAreTuned() throws Exception {
+    ServerConfig config = new ServerConfig();
+    config.setTcpNoDelay(true);
+    config.setSendBufferSize(32 * 1024);
+    ServerSocketChannel ssc = ServerSocketChannel.open();
+    try {
+      ssc.bind(new InetSocketAddress("localhost", 0));
+      Socket client = new Socket("localhost", ssc.socket().getLocalPort());
+      SocketChannel accepted = ssc.accept();
+      try {
+        ServerSockets.configure(accepted, config);
+        assertTrue(accepted.getOption(StandardSocketOptions.TCP_NODELAY));
+        assertTrue(accepted.getOption(StandardSocketOptions.SO_SNDBUF) >= 32 * 1024);
+      } finally {
+        accepted.close();
+        client.close();
+      }
+    } finally {
+      ssc.close();
+    }
+  }
+
+  @Test
+  public void threadsAndQueueAreSharedBetweenGroups() {
+    assertEquals(3, WorkerExecutors.share(10, 4));
+    assertEquals(1, WorkerExecutors.share(1, 4));
+    assertEquals(10, WorkerExecutors.share(10, 1));
+  }
+}
@@ -0,0 +1,177 @@
+package httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for the access log and its ring buffer.
+ */
+public class AccessLogTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void serverShouldLogEachRequest() throws Exception {
+    File logFile = new File(folder.getRoot(), "access.log");
+    ServerConfig config = new ServerConfig();
+    config.setPort(8083);
+    config.setAccessLogFile(logFile.getPath());
+    Server server = App.start(config);
+    CloseableHttpClient httpClient = HttpClients.createDefault();
+    try {
+      for (String path : new String[] {"/helloworld.html", "/missing.html"}) {
+        CloseableHttpResponse response = httpClient.execute(new HttpGet("http://localhost:8083" + path));
+        EntityUtils.consume(response.getEntity());
+        response.close();
+      }
+    } finally {
+      httpClient.close();
+      server.close();
+    }
+    List<String> lines = FileUtils.readLines(logFile, "UTF-8");
+    assertEquals(2, lines.size());
+    assertTrue(lines.get(0), lines.get(0).contains("\"GET /helloworld.html HTTP/1.1\" 200 228 \"-\" \"Apache-HttpClient"));
+    assertTrue(lines.get(1), lines.get(1).contains("\"GET /missing.html HTTP/1.1\" 404 -"));
+  }
+
+  @Test
+  public void ringBufferIsBoundedAndOrdered() {
+    RingBuffer<Integer> ring = new RingBuffer<Integer>(3);
+    assertEquals(4, ring.capacity());
+    for (int i = 0; i < 4; i++) {
+      assertTrue(ring.offer(i));
+    }
+    assertTrue("full", !ring.offer(4));
+    assertEquals(Integer.valueOf(0), ring.poll());
+    assertTrue(ring.offer(4));
+    for (int i = 1; i <= 4; i++) {
+      assertEquals(Integer.valueOf(i), ring.poll());
+    }
+    assertNull(ring.poll());
+  }
+
+  @Test
+  public void ringBufferLosesNothingUnderContention() throws Exception {
+    final RingBuffer<Integer> ring = new RingBuffer<Integer>(64);
+    final int producers = 4;
+    final int each = 10000;
+    final CountDownLatch go = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int p = 0; p < producers; p++) {
+      Thread t = new Thread() {
+        public void run() {
+          try {
+            go.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int i = 0; i < each; i++) {
+            while (!ring.offer(i)) {
+              Thread.yield();
+            }
+          }
+        }
+      };
+      t.start();
+      threads.add(t);
+    }
+    go.countDown();
+    long sum = 0;
+    int taken = 0;
+    while (taken < producers * each) {
+      Integer i = ring.poll();
+      if (i != null) {
+        sum += i;
+        taken++;
+      }
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    assertEquals((long) producers * each * (each - 1) / 2, sum);
+  }
+
+  @Test
+  public void shouldWriteCombinedLines() throws Exception {
+    StringWriter out = new StringWriter();
+    AccessLog log = new AccessLog(out, AccessLogFormat.COMBINED, OverflowPolicy.BLOCK, 16);
+    log.log(new AccessLog.Entry("127.0.0.1", 0, "GET /a.html HTTP/1.1", 200, 228, null, "curl/8"));
+    log.log(new AccessLog.Entry("127.0.0.1", 0, null, 400, 0, null, null));
+    log.close();
+    String[] lines = out.toString().split("\n");
+    assertEquals(2, lines.length);
+    assertTrue(lines[0], lines[0].matches("127\\.0\\.0\\.1 - - \\[01/Jan/1970:\\d\\d:\\d\\d:00 [+-]\\d{4}\\] "
+                                          + "\"GET /a.html HTTP/1.1\" 200 228 \"-\" \"curl/8\""));
+    assertTrue(lines[1], lines[1].endsWith("] \"-\" 400 - \"-\" \"-\""));
+    assertEquals(2, log.getWritten());
+  }
+
+  @Test(timeout = 10000)
+  public void shouldStopBlockingOnceTheWriterFails() throws Exception {
+    Writer broken = new Writer() {
+      @Override
+      public void write(char[] cbuf, int off, int len) throws IOException {
+        throw new IOException("disk full");
+      }
+
+      @Override
+      public void flush() throws IOException {
+        throw new IOException("disk full");
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    AccessLog log = new AccessLog(broken, AccessLogFormat.COMMON, OverflowPolicy.BLOCK, 4);
+    // Far more than the buffer holds: each call returns, though nothing is ever written.
+    for (int i = 0; i < 100; i++) {
+      log.log(new AccessLog.Entry("127.0.0.1", 0, "GET / HTTP/1.1", 200, 1, null, null));
+    }
+    log.close();
+    assertEquals(0, log.getWritten());
+    // What the writer took before failing is lost; the rest is counted.
+    assertTrue("dropped " + log.getDropped(), log.getDropped() > 0);
+  }
+
+  @Test
+  public void shouldEscapeQuotedFields() throws Exception {
+    StringWriter out = new StringWriter();
+    AccessLog log = new AccessLog(out, AccessLogFormat.COMBINED, OverflowPolicy.BLOCK, 16);
+    log.log(new AccessLog.Entry("127.0.0.1", 0, "GET /\"a\\b HTTP/1.1", 200, 1, "x\r\n\tz",
+                                "evil\" 200 1 \"\u0001\u00e9"));
+    log.close();
+    String text = out.toString();
+    assertEquals(text, 1, text.split("\n").length);
+    assertTrue(text, text.endsWith("] \"GET /\\\"a\\\\b HTTP/1.1\" 200 1 \"x\\r\\n\\tz\" "
+                                   + "\"evil\\\" 200 1 \\\"\\x01\\xe9\"\n"));
+  }
+
+  @Test
+  public void shouldWriteCommonLines() throws Exception {
+    StringWriter out = new StringWriter();
+    AccessLog log = new AccessLog(out, AccessLogFormat.COMMON, OverflowPolicy.DROP, 16);
+    log.log(new AccessLog.Entry("::1", 0, "HEAD / HTTP/1.0", 404, 0, "http://x/", "curl/8"));
+    log.close();
+    assertTrue(out.toString(), out.toString().endsWith("\"HEAD / HTTP/1.0\" 404 -\n"));
+  }
+}
@@ -4,11 +4,16 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.Socket;
+import java.util.Arrays;
 import java.util.UUID;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
@@ -117,6 +122,8 @@ public class AppTest {
     assertEquals("Should be OK", HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
     // Should be closed
     assertTrue("header connection", response.getFirstHeader("Connection").getValue().contains("keep-alive"));
+    // The timeout asked for is granted and advertised.
+    assertTrue("header keep-alive", response.getFirstHeader("Keep-Alive").getValue().startsWith("timeout=1, max="));
     EntityUtils.consume(entity);
     response.close();      
     Thread.sleep(3000);
@@ -143,6 +150,26 @@ public class AppTest {
     assertEquals("Should be OK", HttpStatus.SC_OK, rc);
   }  
 
+  @Test
+  public void pipelinedRequestsAreAnsweredInOrder() throws Exception {
+    System.out.println("----------------------");
+    String get = "GET /helloworld.html HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n";
+    String last = "GET /foo.bar HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n";
+    String responses = pipeline(get + get + last);
+    assertEquals("two files", 2, countMatches(responses, "HTTP/1.1 200 "));
+    assertTrue("404 last", responses.lastIndexOf("HTTP/1.1 404") > responses.lastIndexOf("HTTP/1.1 200 "));
+  }
+
+  @Test
+  public void pipelinedRequestsRespectKeepAliveMax() throws Exception {
+    System.out.println("----------------------");
+    String get = "GET /helloworld.html HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\nKeep-Alive: max=2\r\n\r\n";
+    String responses = pipeline(get + get + get);
+    // The server closes after the second; the third is left for the client to retry.
+    assertEquals("max 2", 2, countMatches(responses, "HTTP/1.1 200 "));
+    assertTrue("closed", responses.contains("Connection: close"));
+  }
+
   @Test
   public void shouldAnswerWithPDFContentInSubDirectory() throws Exception {
     System.out.println("----------------------");    
@@ -150,6 +177,21 @@ public class AppTest {
     assertEquals("Should be OK", HttpStatus.SC_OK, rc);
   }
 
+  @Test
+  public void shouldDeliverIdenticalBytesForLargeFile() throws Exception {
+    System.out.println("----------------------");
+    // Large enough to be sent from a memory mapping.
+    File source = new File("src/main/resources/files/foo/introducing_cairngorm.pdf");
+    CloseableHttpResponse response = AppTest.httpClient.execute(new HttpGet(getBaseUrl() + "/foo/introducing_cairngorm.pdf"));
+    try {
+      assertEquals("Should be OK", HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+      byte[] body = EntityUtils.toByteArray(response.getEntity());
+      assertTrue("same content", Arrays.equals(FileUtils.readFileToByteArray(source), body));
+    } finally {
+      response.close();
+    }
+  }
+
   @Test
   public void shouldAnswerWithPNGContent() throws Exception {
     System.out.println("----------------------");    
@@ -193,6 +235,204 @@ public class AppTest {
     }
   }
   
+  /**
+   * Sends requests in a single write and reads until the server closes the connection.
+   */
+  private String pipeline(String requests) throws IOException {
+    Socket socket = new Socket("localhost", Integer.parseInt(port));
+    try {
+      socket.setSoTimeout(5000);
+      socket.getOutputStream().write(requests.getBytes("ISO-8859-1"));
+      socket.getOutputStream().flush();
+      return IOUtils.toString(socket.getInputStream(), "ISO-8859-1");
+    } finally {
+      socket.close();
+    }
+  }
+
+  @Test
+  public void conditionalGetWithMatchingEtagIsNotModified() throws Exception {
+    System.out.println("----------------------");
+    HttpGet httpGet = new HttpGet(getBaseUrl() + "/helloworld.html");
+    CloseableHttpResponse response = AppTest.httpClient.execute(httpGet);
+    assertEquals("Should be OK", HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+    String etag = response.getFirstHeader("ETag").getValue();
+    String lastModified = response.getFirstHeader("Last-Modified").getValue();
+    EntityUtils.consume(response.getEntity());
+    response.close();
+
+    httpGet.addHeader("If-None-Match", etag);
+    response = AppTest.httpClient.execute(httpGet);
+    assertEquals("Should be not modified", HttpStatus.SC_NOT_MODIFIED, response.getStatusLine().getStatusCode());
+    assertEquals("same etag", etag, response.getFirstHeader("ETag").getValue());
+    assertNull("no body", response.getEntity());
+    response.close();
+
+    httpGet.setHeader("If-None-Match", "\"stale\"");
+    response = AppTest.httpClient.execute(httpGet);
+    assertEquals("Should be OK", HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+    EntityUtils.consume(response.getEntity());
+    response.close();
+
+    httpGet.removeHeaders("If-None-Match");
+    httpGet.addHeader("If-Modified-Since", lastModified);
+    response = AppTest.httpClient.execute(httpGet);
+    assertEquals("Should be not modified", HttpStatus.SC_NOT_MODIFIED, response.getStatusLine().getStatusCode());
+    response.close();
+  }
+
+  @Test
+  public void conditionalGetOfLargeFileIsNotModified() throws Exception {
+    System.out.println("----------------------");
+    HttpHead httpHead = new HttpHead(getBaseUrl() + "/foo/introducing_cairngorm.pdf");
+    CloseableHttpResponse response = AppTest.httpClient.execute(httpHead);
+    String etag = response.getFirstHeader("ETag").getValue();
+    response.close();
+
+    HttpGet httpGet = new HttpGet(getBaseUrl() + "/foo/introducing_cairngorm.pdf");
+    httpGet.addHeader("If-None-Match", "W/" + etag);
+    response = AppTest.httpClient.execute(httpGet);
+    assertEquals("Should be not modified", HttpStatus.SC_NOT_MODIFIED, response.getStatusLine().getStatusCode());
+    response.close();
+  }
+
+  @Test
+  public void rangeOfLargeFileIsPartialContent() throws Exception {
+    System.out.println("----------------------");
+    byte[] original = FileUtils.readFileToByteArray(new File("src/main/resources/files/foo/introducing_cairngorm.pdf"));
+    HttpGet httpGet = new HttpGet(getBaseUrl() + "/foo/introducing_cairngorm.pdf");
+    httpGet.addHeader("Range", "bytes=1000-99999");
+    CloseableHttpResponse response = AppTest.httpClient.execute(httpGet);
+    try {
+      assertEquals("Should be partial", HttpStatus.SC_PARTIAL_CONTENT, response.getStatusLine().getStatusCode());
+      assertEquals("bytes 1000-99999/" + original.length, response.getFirstHeader("Content-Range").getValue());
+      byte[] body = EntityUtils.toByteArray(response.getEntity());
+      assertTrue("same content", Arrays.equals(Arrays.copyOfRange(original, 1000, 100000), body));
+    } finally {
+      response.close();
+    }
+
+    // A stale If-Range gets the whole file.
+    httpGet.addHeader("If-Range", "\"stale\"");
+    response = AppTest.httpClient.execute(httpGet);
+    assertEquals("Should be OK", HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+    assertEquals("bytes", response.getFirstHeader("Accept-Ranges").getValue());
+    EntityUtils.consume(response.getEntity());
+    response.close();
+  }
+
+  @Test
+  public void multipleRangesAreMultipart() throws Exception {
+    System.out.println("----------------------");
+    String original = FileUtils.readFileToString(new File("src/main/resources/files/helloworld.html"), "ISO-8859-1");
+    HttpGet httpGet = new HttpGet(getBaseUrl() + "/helloworld.html");
+    httpGet.addHeader("Range", "bytes=0-9,-10");
+    CloseableHttpResponse response = AppTest.httpClient.execute(httpGet);
+    try {
+      assertEquals("Should be partial", HttpStatus.SC_PARTIAL_CONTENT, response.getStatusLine().getStatusCode());
+      String type = response.getFirstHeader("Content-Type").getValue();
+      assertTrue(type, type.startsWith("multipart/byteranges; boundary="));
+      String boundary = type.substring(type.indexOf('=') + 1);
+      String body = EntityUtils.toString(response.getEntity(), "ISO-8859-1");
+      assertEquals(3, countMatches(body, "--" + boundary));
+      assertEquals(body.length(), Integer.parseInt(response.getFirstHeader("Content-Length").getValue()));
+      assertTrue(body.contains("Content-Range: bytes 0-9/" + original.length() + "\r\n\r\n" + original.substring(0, 10)));
+      assertTrue(body.endsWith(original.substring(original.length() - 10) + "\r\n--" + boundary + "--\r\n"));
+    } finally {
+      response.close();
+    }
+
+    httpGet.setHeader("Range", "bytes=100000-");
+    response = AppTest.httpClient.execute(httpGet);
+    assertEquals("Should be unsatisfiable", HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE,
+                 response.getStatusLine().getStatusCode());
+    assertEquals("bytes */" + original.length(), response.getFirstHeader("Content-Range").getValue());
+    EntityUtils.consume(response.getEntity());
+    response.close();
+  }
+
+  @Test
+  public void compressibleContentIsGzippedOnceAndVaries() throws Exception {
+    System.out.println("----------------------");
+    byte[] original = FileUtils.readFileToByteArray(new File("src/main/resources/files/foo/lorem.txt"));
+    CloseableHttpClient rawClient = HttpClients.custom().disableContentCompression().build();
+    try {
+      HttpGet httpGet = new HttpGet(getBaseUrl() + "/foo/lorem.txt");
+      httpGet.addHeader("Accept-Encoding", "gzip");
+      CloseableHttpResponse response = rawClient.execute(httpGet);
+      assertEquals("Should be OK", HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+      assertEquals("gzip", response.getFirstHeader("Content-Encoding").getValue());
+      assertEquals("Accept-Encoding", response.getFirstHeader("Vary").getValue());
+      String etag = response.getFirstHeader("ETag").getValue();
+      byte[] body = EntityUtils.toByteArray(response.getEntity());
+      response.close();
+      assertTrue("smaller", body.length < original.length);
+      assertTrue("same content", Arrays.equals(original, IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(body)))));
+
+      // Identity is still varied, and has its own entity tag.
+      httpGet.setHeader("Accept-Encoding", "identity");
+      response = rawClient.execute(httpGet);
+      assertNull("identity", response.getFirstHeader("Content-Encoding"));
+      assertEquals("Accept-Encoding", response.getFirstHeader("Vary").getValue());
+      assertTrue("distinct etag", !etag.equals(response.getFirstHeader("ETag").getValue()));
+      assertTrue("same content", Arrays.equals(original, EntityUtils.toByteArray(response.getEntity())));
+      response.close();
+
+      httpGet.setHeader("Accept-Encoding", "gzip;q=0, deflate");
+      response = rawClient.execute(httpGet);
+      assertEquals("deflate", response.getFirstHeader("Content-Encoding").getValue());
+      body = EntityUtils.toByteArray(response.getEntity());
+      response.close();
+      assertTrue("same content", Arrays.equals(original, IOUtils.toByteArray(new InflaterInputStream(new ByteArrayInputStream(body)))));
+    } finally {
+      rawClient.close();
+    }
+  }
+
+  @Test
+  public void precompressedSiblingIsServed() throws Exception {
+    System.out.println("----------------------");
+    CloseableHttpClient rawClient = HttpClients.custom().disableContentCompression().build();
+    try {
+      HttpGet httpGet = new HttpGet(getBaseUrl() + "/foo/notes.txt");
+      httpGet.addHeader("Accept-Encoding", "gzip");
+      CloseableHttpResponse response = rawClient.execute(httpGet);
+      assertEquals("gzip", response.getFirstHeader("Content-Encoding").getValue());
+      assertTrue(response.getFirstHeader("Content-Type").getValue().startsWith("text/plain"));
+      byte[] body = EntityUtils.toByteArray(response.getEntity());
+      response.close();
+      assertTrue("sibling bytes", Arrays.equals(FileUtils.readFileToByteArray(new File("src/main/resources/files/foo/notes.txt.gz")), body));
+    } finally {
+      rawClient.close();
+    }
+  }
+
+  @Test
+  public void metricsAreExposed() throws Exception {
+    System.out.println("----------------------");
+    assertEquals(HttpStatus.SC_OK, executeGet(HttpVersion.HTTP_1_1, "GET", "/helloworld.html", false, ""));
+    CloseableHttpResponse response = AppTest.httpClient.execute(new HttpGet(getBaseUrl() + "/__metrics"));
+    try {
+      assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+      assertTrue(response.getFirstHeader("Content-Type").getValue().startsWith("text/plain; version=0.0.4"));
+      assertEquals("no-store", response.getFirstHeader("Cache-Control").getValue());
+      String body = EntityUtils.toString(response.getEntity());
+      assertTrue(body, body.contains("http_server_requests_total{code=\"200\"} "));
+      assertTrue(body, body.contains("http_server_request_duration_seconds_bucket{le=\"+Inf\"} "));
+      assertTrue(body, body.contains("http_server_connections_active "));
+    } finally {
+      response.close();
+    }
+  }
+
+  private static int countMatches(String s, String sub) {
+    int count = 0;
+    for (int i = s.indexOf(sub); i >= 0; i = s.indexOf(sub, i + 1)) {
+      count++;
+    }
+    return count;
+  }
+
   private String getBaseUrl() {
     return ("http://localhost:" + port);
   }
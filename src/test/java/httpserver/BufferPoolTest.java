@@ -0,0 +1,169 @@
+package httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Checks the buffer pool, and that a server gives back every buffer it takes.
+ */
+public class BufferPoolTest {
+  private static final int PORT = 8089;
+
+  @Test
+  public void shouldRoundUpToSizeClasses() {
+    assertEquals(0, BufferPool.sizeClass(1));
+    assertEquals(0, BufferPool.sizeClass(1024));
+    assertEquals(1, BufferPool.sizeClass(1025));
+    assertEquals(3, BufferPool.sizeClass(8192));
+    assertEquals(6, BufferPool.sizeClass(65536));
+    assertEquals(-1, BufferPool.sizeClass(65537));
+
+    BufferPool pool = new BufferPool(true, 1 << 20, true, false);
+    ByteBuffer b = pool.acquire(5000);
+    assertTrue(b.isDirect());
+    assertEquals(0, b.position());
+    assertEquals(5000, b.limit());
+    assertEquals(8192, b.capacity());
+  }
+
+  @Test
+  public void shouldReuseBuffersGivenBack() throws Exception {
+    BufferPool pool = new BufferPool(false, 1 << 20, true, false);
+    ByteBuffer first = pool.acquire(4096);
+    first.put((byte) 1);
+    pool.release(first);
+    ByteBuffer second = pool.acquire(3000);
+    assertSame(first, second);
+    assertEquals(0, second.position());
+    assertEquals(3000, second.limit());
+
+    // Given back by another thread, past its own cache, it is shared.
+    final ByteBuffer[] taken = new ByteBuffer[6];
+    for (int i = 0; i < taken.length; i++) {
+      taken[i] = pool.acquire(4096);
+    }
+    Thread other = new Thread() {
+      @Override
+      public void run() {
+        for (ByteBuffer b : taken) {
+          pool.release(b);
+        }
+      }
+    };
+    other.start();
+    other.join();
+    assertEquals(2 * 4096, pool.getQueuedBytes());
+    long allocated = pool.getAllocated();
+    pool.acquire(4096);
+    pool.acquire(4096);
+    assertEquals(allocated, pool.getAllocated());
+    assertEquals(0, pool.getQueuedBytes());
+    assertEquals(3, pool.getOutstanding());
+  }
+
+  @Test
+  public void shouldNotKeepBuffersWhenOffOrTooLarge() {
+    BufferPool off = new BufferPool(true, 0, true, false);
+    ByteBuffer b = off.acquire(1024);
+    off.release(b);
+    assertNotSame(b, off.acquire(1024));
+    assertEquals(2, off.getAllocated());
+
+    BufferPool pool = new BufferPool(true, 1 << 20, false, false);
+    ByteBuffer big = pool.acquire(100000);
+    assertEquals(100000, big.capacity());
+    pool.release(big);
+    assertEquals(0, pool.getQueuedBytes());
+
+    // Bounded by bytes: a second 64 KiB buffer does not fit in 100 KiB.
+    BufferPool small = new BufferPool(true, 100 * 1024, false, false);
+    ByteBuffer x = small.acquire(65536);
+    ByteBuffer y = small.acquire(65536);
+    small.release(x);
+    small.release(y);
+    assertEquals(65536, small.getQueuedBytes());
+  }
+
+  @Test
+  public void shouldReportLeaksAndDoubleReleases() throws Exception {
+    BufferPool pool = new BufferPool(true, 1 << 20, false, true);
+    ByteBuffer kept = pool.acquire(2048);
+    pool.release(kept);
+    pool.release(kept);
+    assertEquals(0, pool.getOutstanding());
+    assertEquals(2048, pool.getQueuedBytes());
+
+    pool.acquire(1024);
+    for (int i = 0; i < 50 && pool.getLeaks() == 0; i++) {
+      System.gc();
+      Thread.sleep(20);
+    }
+    assertEquals(1, pool.getLeaks());
+  }
+
+  @Test
+  public void shouldGiveBackEveryBufferAndReuseThem() throws Exception {
+    ServerConfig config = new ServerConfig();
+    config.setPort(PORT);
+    config.setIoMode(IoMode.BLOCKING);
+    // One worker, so that every buffer is given back to and taken from the same thread's cache.
+    config.setMaxThreads(1);
+    config.setKeepAliveAdaptive(false);
+    config.setBufferLeakDetection(true);
+    Server server = App.start(config);
+    try {
+      BufferPool direct = server.getContext().getDirectBuffers();
+      BufferPool heap = server.getContext().getHeapBuffers();
+      serve(3);
+      long allocated = direct.getAllocated() + heap.getAllocated();
+      assertEquals(0, direct.getOutstanding() + heap.getOutstanding());
+      serve(3);
+      assertEquals("allocations once warm", allocated, direct.getAllocated() + heap.getAllocated());
+      assertEquals(0, direct.getOutstanding() + heap.getOutstanding());
+      assertEquals(0, direct.getLeaks() + heap.getLeaks());
+      assertTrue(server.getContext().getMetrics().render().contains("http_server_buffer_acquired_total{pool=\"direct\"}"));
+    } finally {
+      server.close();
+    }
+  }
+
+  /**
+   * Fetches a page and a small file a few times on one connection, which the server closes after a 404.
+   */
+  private static void serve(int times) throws IOException {
+    try (Socket socket = new Socket("localhost", PORT)) {
+      socket.setSoTimeout(5000);
+      OutputStream out = socket.getOutputStream();
+      InputStream in = socket.getInputStream();
+      StringBuilder requests = new StringBuilder();
+      for (int i = 0; i < times; i++) {
+        requests.append("GET /helloworld.html HTTP/1.1\r\nHost: x\r\nConnection: keep-alive\r\n\r\n");
+        requests.append("GET /foo/lorem.txt HTTP/1.1\r\nHost: x\r\nConnection: keep-alive\r\n\r\n");
+      }
+      requests.append("GET /nothing.here HTTP/1.1\r\nHost: x\r\n\r\n");
+      out.write(requests.toString().getBytes(StandardCharsets.US_ASCII));
+      out.flush();
+      int responses = 0;
+      byte[] buf = new byte[8192];
+      StringBuilder text = new StringBuilder();
+      for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+        text.append(new String(buf, 0, n, StandardCharsets.ISO_8859_1));
+      }
+      for (int at = text.indexOf("HTTP/1.1 "); at >= 0; at = text.indexOf("HTTP/1.1 ", at + 1)) {
+        responses++;
+      }
+      assertEquals(text.toString(), 2 * times + 1, responses);
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for Range header parsing.
+ */
+public class ByteRangesTest {
+
+  @Test
+  public void shouldResolveSingleAndOpenRanges() {
+    ByteRanges r = ByteRanges.parse("bytes=0-99", 1000);
+    assertEquals(1, r.size());
+    assertEquals(0, r.getStart(0));
+    assertEquals(100, r.getLength(0));
+    assertEquals("bytes 0-99/1000", r.contentRange(0));
+
+    r = ByteRanges.parse("bytes=900-", 1000);
+    assertEquals("bytes 900-999/1000", r.contentRange(0));
+
+    r = ByteRanges.parse("bytes=990-2000", 1000);
+    assertEquals("bytes 990-999/1000", r.contentRange(0));
+  }
+
+  @Test
+  public void shouldResolveSuffixRanges() {
+    assertEquals("bytes 900-999/1000", ByteRanges.parse("bytes=-100", 1000).contentRange(0));
+    assertEquals("bytes 0-999/1000", ByteRanges.parse("bytes=-5000", 1000).contentRange(0));
+  }
+
+  @Test
+  public void shouldKeepSatisfiableRangesInOrder() {
+    ByteRanges r = ByteRanges.parse("bytes=500-599, 2000-3000, 0-9", 1000);
+    assertEquals(2, r.size());
+    assertEquals(500, r.getStart(0));
+    assertEquals(0, r.getStart(1));
+  }
+
+  @Test
+  public void shouldReportUnsatisfiable() {
+    ByteRanges r = ByteRanges.parse("bytes=1000-", 1000);
+    assertEquals(0, r.size());
+    assertEquals("bytes */1000", r.unsatisfiedRange());
+    assertEquals(0, ByteRanges.parse("bytes=-0", 1000).size());
+  }
+
+  @Test
+  public void shouldIgnoreMalformedOrForeignRanges() {
+    assertNull(ByteRanges.parse("items=0-1", 1000));
+    assertNull(ByteRanges.parse("bytes=5-1", 1000));
+    assertNull(ByteRanges.parse("bytes=a-b", 1000));
+    assertNull(ByteRanges.parse("bytes=7", 1000));
+    assertNull(ByteRanges.parse("bytes=", 1000));
+    StringBuilder many = new StringBuilder("bytes=0-0");
+    for (int i = 1; i <= ByteRanges.MAX_RANGES; i++) {
+      many.append(",").append(i).append("-").append(i);
+    }
+    assertNull(ByteRanges.parse(many.toString(), 1000));
+  }
+}
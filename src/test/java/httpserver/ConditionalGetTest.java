@@ -0,0 +1,35 @@
+package httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the conditional request validators.
+ */
+public class ConditionalGetTest {
+
+  @Test
+  public void etagChangesWithSizeAndTime() {
+    assertEquals("\"10-3e8\"", ConditionalGet.etag(16, 1000));
+    assertFalse(ConditionalGet.etag(16, 1000).equals(ConditionalGet.etag(16, 2000)));
+    assertFalse(ConditionalGet.etag(16, 1000).equals(ConditionalGet.etag(17, 1000)));
+  }
+
+  @Test
+  public void ifNoneMatchListsAreComparedWeakly() {
+    String etag = ConditionalGet.etag(16, 1000);
+    assertTrue(ConditionalGet.matches(etag, etag));
+    assertTrue(ConditionalGet.matches("\"a\", W/" + etag, etag));
+    assertTrue(ConditionalGet.matches("*", etag));
+    assertFalse(ConditionalGet.matches("\"a\", \"b\"", etag));
+  }
+
+  @Test
+  public void httpDateIsImfFixdate() {
+    assertEquals("Thu, 01 Jan 1970 00:00:01 GMT", ConditionalGet.httpDate(1000));
+    assertEquals("Sun, 09 Sep 2001 01:46:40 GMT", ConditionalGet.httpDate(1000000000000L));
+  }
+}
@@ -0,0 +1,79 @@
+package httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks the content cache's size-bounded LRU eviction and last modified invalidation.
+ */
+public class ContentCacheTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File file(String name, int size) throws Exception {
+    File f = folder.newFile(name);
+    FileUtils.writeByteArrayToFile(f, new byte[size]);
+    return f;
+  }
+
+  @Test
+  public void shouldHoldEncodedHeadersAndBody() throws Exception {
+    ContentCache cache = new ContentCache(10000, 1000);
+    File f = file("a.html", 10);
+    CachedContent entry = cache.load(f.getPath(), f, 1000, "text/html");
+    String head = new String(entry.asBuffer(false).array(), 0, entry.asBuffer(false).remaining(), "ISO-8859-1");
+    assertEquals("Content-Type: text/html\r\nContent-Length: 10\r\nETag: \"a-3e8\"\r\n"
+                 + "Last-Modified: Thu, 01 Jan 1970 00:00:01 GMT\r\n\r\n", head);
+    ByteBuffer full = entry.asBuffer(true);
+    assertEquals(head.length() + 10, full.remaining());
+    assertNotNull(cache.get(f.getPath(), 1000, 10));
+  }
+
+  @Test
+  public void shouldDropEntryWhenFileChanges() throws Exception {
+    ContentCache cache = new ContentCache(10000, 1000);
+    File f = file("a.gif", 10);
+    cache.load(f.getPath(), f, f.lastModified(), "image/gif");
+    assertNull("modified", cache.get(f.getPath(), f.lastModified() + 1000, 10));
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getTotalBytes());
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedWithinByteLimit() throws Exception {
+    // Each entry weighs its 150 byte body plus its encoded headers.
+    ContentCache cache = new ContentCache(700, 200);
+    File a = file("a.txt", 150);
+    File b = file("b.txt", 150);
+    File c = file("c.txt", 150);
+    cache.load(a.getPath(), a, 1, "text/plain");
+    cache.load(b.getPath(), b, 1, "text/plain");
+    // Touch a, so b is the eldest.
+    assertNotNull(cache.get(a.getPath(), 1, 150));
+    cache.load(c.getPath(), c, 1, "text/plain");
+    assertNull("evicted", cache.get(b.getPath(), 1, 150));
+    assertNotNull(cache.get(a.getPath(), 1, 150));
+    assertNotNull(cache.get(c.getPath(), 1, 150));
+    assertTrue(cache.getTotalBytes() <= 700);
+  }
+
+  @Test
+  public void shouldNotCacheLargeFiles() throws Exception {
+    ContentCache cache = new ContentCache(10000, 100);
+    assertFalse(cache.isCacheable(101));
+    File f = file("big.bin", 101);
+    assertNotNull("still answered", cache.load(f.getPath(), f, 1, "application/octet-stream"));
+    assertEquals(0, cache.size());
+  }
+}
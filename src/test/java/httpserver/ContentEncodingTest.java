@@ -0,0 +1,86 @@
+package httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for content coding negotiation.
+ */
+public class ContentEncodingTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void shouldPreferGzip() {
+    assertEquals("gzip", ContentEncoding.negotiate("gzip,deflate"));
+    assertEquals("gzip", ContentEncoding.negotiate("deflate, gzip;q=0.5"));
+    assertEquals("gzip", ContentEncoding.negotiate("*"));
+  }
+
+  @Test
+  public void shouldHonourRefusals() {
+    assertEquals("deflate", ContentEncoding.negotiate("gzip;q=0, deflate"));
+    assertEquals("deflate", ContentEncoding.negotiate("gzip;q=0, *"));
+    assertNull(ContentEncoding.negotiate("gzip;q=0"));
+    assertNull(ContentEncoding.negotiate("identity"));
+    assertNull(ContentEncoding.negotiate(null));
+  }
+
+  @Test
+  public void shouldCompressTextualTypesOnly() {
+    assertTrue(ContentEncoding.isCompressible("text/html"));
+    assertTrue(ContentEncoding.isCompressible("text/plain; charset=UTF-8"));
+    assertTrue(ContentEncoding.isCompressible("image/svg+xml"));
+    assertTrue(ContentEncoding.isCompressible("application/json"));
+    assertFalse(ContentEncoding.isCompressible("image/gif"));
+    assertFalse(ContentEncoding.isCompressible("application/pdf"));
+  }
+
+  private static String repeat(String s, int times) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < times; i++) {
+      sb.append(s);
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void shouldCompressOnlyWhatTheCacheHolds() throws Exception {
+    File root = folder.getRoot();
+    FileUtils.writeStringToFile(new File(root, "small.txt"), repeat("hello ", 1000), StandardCharsets.US_ASCII);
+    FileUtils.writeStringToFile(new File(root, "large.txt"), repeat("hello ", 20000), StandardCharsets.US_ASCII);
+    ServerConfig config = new ServerConfig();
+    config.setCompressMaxBytes(1 << 20);
+    String text = "GET /small.txt HTTP/1.1\r\nHost: x\r\nAccept-Encoding: gzip\r\n\r\n";
+    RequestParser request = new RequestParser();
+    ByteBuffer buf = ByteBuffer.allocate(1024);
+    buf.limit(0);
+    request.parse(new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1)), buf);
+    DocRootIndex index = new DocRootIndex(root, new MimeTypes(root, null, null));
+    try {
+      ContentCache cache = new ContentCache(1 << 20, 64 * 1024);
+      assertTrue(ContentVariant.select(request, index.lookup("/small.txt"), index, config, cache).isCompressed());
+      // Too large to be cached, it would be compressed again on every request.
+      ContentVariant large = ContentVariant.select(request, index.lookup("/large.txt"), index, config, cache);
+      assertFalse(large.isCompressed());
+      assertNull(large.getCoding());
+      ContentCache off = new ContentCache(0, 64 * 1024);
+      assertFalse(ContentVariant.select(request, index.lookup("/small.txt"), index, config, off).isCompressed());
+    } finally {
+      index.close();
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.ProtocolException;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for the docroot index and its watching of the folder.
+ */
+public class DocRootIndexTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File root;
+  private DocRootIndex index;
+
+  @Before
+  public void setup() throws IOException {
+    root = folder.newFolder("root");
+    FileUtils.writeStringToFile(new File(root, "index.html"), "<html/>", "ISO-8859-1");
+    FileUtils.writeStringToFile(new File(root, "sub/notes.txt"), "notes", "ISO-8859-1");
+    FileUtils.writeStringToFile(folder.newFile("secret.txt"), "secret", "ISO-8859-1");
+    index = new DocRootIndex(root, new MimeTypes(root, null, null));
+  }
+
+  @After
+  public void teardown() throws IOException {
+    index.close();
+  }
+
+  /** Waits for the watcher to bring a path to the expected state. */
+  private DocRootIndex.Entry await(String path, boolean present) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (System.currentTimeMillis() < deadline) {
+      DocRootIndex.Entry e = index.get(path);
+      if ((e != null) == present) {
+        return e;
+      }
+      Thread.sleep(20);
+    }
+    fail(path + " never " + (present ? "indexed" : "dropped"));
+    return null;
+  }
+
+  @Test
+  public void filesAreIndexedByRequestPath() throws Exception {
+    assertEquals(2, index.size());
+    DocRootIndex.Entry e = index.lookup("/sub/notes.txt");
+    assertEquals(new File(root, "sub/notes.txt").getCanonicalFile(), e.getFile());
+    assertEquals(5, e.getSize());
+    assertEquals("text/plain", e.getContentType());
+    assertEquals("/sub/notes.txt", e.getPath());
+    // Escaped, with a query, or with dot segments, the same file.
+    assertEquals(e, index.lookup("/sub/not%65s.txt"));
+    assertEquals(e, index.lookup("/sub/notes.txt?x=1"));
+    assertEquals(e, index.lookup("/sub/../sub/./notes.txt"));
+  }
+
+  @Test(expected = FileNotFoundException.class)
+  public void foldersAreNotFiles() throws Exception {
+    index.lookup("/sub");
+  }
+
+  @Test
+  public void pathsOutOfTheDocrootAreRejected() throws Exception {
+    try {
+      index.lookup("/sub/../../secret.txt");
+      fail("served a file out of the docroot");
+    } catch (FileNotFoundException e) {
+      fail("not rejected");
+    } catch (IOException e) {
+      assertEquals("bad request", e.getMessage());
+    }
+  }
+
+  @Test
+  public void changesAreSeen() throws Exception {
+    FileUtils.writeStringToFile(new File(root, "new.html"), "new", "ISO-8859-1");
+    assertEquals("text/html", await("/new.html", true).getContentType());
+
+    FileUtils.writeStringToFile(new File(root, "made/later/deep.txt"), "deep", "ISO-8859-1");
+    await("/made/later/deep.txt", true);
+
+    FileUtils.writeStringToFile(new File(root, "index.html"), "<html>longer</html>", "ISO-8859-1");
+    long deadline = System.currentTimeMillis() + 10000;
+    while (index.get("/index.html").getSize() != 19 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    assertEquals(19, index.get("/index.html").getSize());
+
+    FileUtils.deleteDirectory(new File(root, "sub"));
+    await("/sub/notes.txt", false);
+    assertNull(index.get("/sub/notes.txt"));
+    assertNotNull(index.get("/new.html"));
+  }
+
+  @Test
+  public void overrideFilesRetypeTheDocroot() throws Exception {
+    FileUtils.writeStringToFile(new File(root, "sub/" + MimeTypes.OVERRIDE_FILE), "text/x-notes txt\n", "ISO-8859-1");
+    long deadline = System.currentTimeMillis() + 10000;
+    while (!"text/x-notes".equals(index.get("/sub/notes.txt").getContentType()) && System.currentTimeMillis() < deadline) {
+      Thread.sleep(20);
+    }
+    assertEquals("text/x-notes", index.get("/sub/notes.txt").getContentType());
+    // The overrides are the server's own: neither served nor stored by requests.
+    assertNull(index.get("/sub/" + MimeTypes.OVERRIDE_FILE));
+    try {
+      index.resolve("/sub/" + MimeTypes.OVERRIDE_FILE);
+      fail("override file writable");
+    } catch (ProtocolException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("bad path"));
+    }
+  }
+}
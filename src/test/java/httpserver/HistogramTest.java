@@ -0,0 +1,80 @@
+package httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the latency histogram and the metrics rendered from it.
+ */
+public class HistogramTest {
+
+  @Test
+  public void bucketsAreContiguousAndBoundValues() {
+    long previous = -1;
+    for (int i = 0; i <= Histogram.index(Long.MAX_VALUE); i++) {
+      long upper = Histogram.upperBound(i);
+      assertTrue("bucket " + i, upper > previous);
+      assertEquals(i, Histogram.index(upper));
+      assertEquals(i, Histogram.index(previous + 1));
+      previous = upper;
+    }
+    assertEquals(Long.MAX_VALUE, previous);
+  }
+
+  @Test
+  public void quantilesAreWithinBucketPrecision() {
+    Histogram h = new Histogram();
+    for (int v = 1; v <= 1000; v++) {
+      h.record(v);
+    }
+    assertEquals(1000, h.getCount());
+    assertEquals(500500, h.getSum());
+    long median = h.valueAt(0.5);
+    assertTrue("median " + median, median >= 500 && median <= 500 * 1.07);
+    long p99 = h.valueAt(0.99);
+    assertTrue("p99 " + p99, p99 >= 990 && p99 <= 990 * 1.07);
+    assertEquals(10, h.countAtOrBelow(10));
+    // 1000 shares its bucket with values up to 1023: a bound inside a bucket counts none of it.
+    assertEquals(1023, Histogram.exactBound(1000));
+    assertEquals(991, h.countAtOrBelow(1000));
+    assertEquals(1000, h.countAtOrBelow(Histogram.exactBound(1000)));
+    assertEquals(0, new Histogram().valueAt(0.5));
+  }
+
+  @Test
+  public void correctionBackfillsRequestsHeldBackByAStall() {
+    Histogram h = new Histogram();
+    for (int i = 0; i < 99; i++) {
+      h.recordCorrected(10, 10);
+    }
+    // One 1000 response held back 99 requests, which would have seen 990, 980 ... 10.
+    h.recordCorrected(1000, 10);
+    assertEquals(199, h.getCount());
+    assertTrue("median " + h.valueAt(0.5), h.valueAt(0.5) >= 10);
+    assertTrue("p75 " + h.valueAt(0.75), h.valueAt(0.75) >= 490);
+
+    Histogram raw = new Histogram();
+    raw.recordCorrected(1000, 0);
+    assertEquals(1, raw.getCount());
+  }
+
+  @Test
+  public void metricsRenderRequestsAndConnections() {
+    Metrics m = new Metrics();
+    m.connectionOpened();
+    m.recordRequest(200, 100, 2000000, 1);
+    m.recordRequest(404, 0, 1000000, 2);
+    m.connectionClosed(2);
+    String s = m.render();
+    assertTrue(s, s.contains("http_server_requests_total{code=\"200\"} 1\n"));
+    assertTrue(s, s.contains("http_server_requests_total{code=\"404\"} 1\n"));
+    assertTrue(s, s.contains("http_server_response_bytes_total 100\n"));
+    assertTrue(s, s.contains("http_server_keepalive_reused_requests_total 1\n"));
+    assertTrue(s, s.contains("http_server_request_duration_seconds_count 2\n"));
+    assertTrue(s, s.contains("http_server_connection_requests_count 1\n"));
+    assertTrue(s, s.contains("http_server_connections_opened_total 1\n"));
+    assertTrue(s, s.contains("http_server_connections_active 0\n"));
+  }
+}
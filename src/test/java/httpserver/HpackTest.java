@@ -0,0 +1,100 @@
+package httpserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks the HPACK codec against the examples of RFC 7541 Appendix C.
+ */
+public class HpackTest {
+
+  private static byte[] hex(String s) {
+    s = s.replace(" ", "");
+    byte[] b = new byte[s.length() / 2];
+    for (int i = 0; i < b.length; i++) {
+      b[i] = (byte) Integer.parseInt(s.substring(2 * i, 2 * i + 2), 16);
+    }
+    return b;
+  }
+
+  private static List<String> decode(Hpack.Decoder d, String block) throws ProtocolException {
+    List<String> fields = new ArrayList<String>();
+    d.decode(ByteBuffer.wrap(hex(block)), fields);
+    return fields;
+  }
+
+  @Test
+  public void integersUseTheirPrefix() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    Hpack.writeInteger(out, 0, 5, 10);
+    Hpack.writeInteger(out, 0, 5, 1337);
+    assertArrayEquals(hex("0a 1f9a0a"), out.toByteArray());
+    ByteBuffer in = ByteBuffer.wrap(out.toByteArray());
+    assertEquals(10, Hpack.readInteger(in, 5));
+    assertEquals(1337, Hpack.readInteger(in, 5));
+  }
+
+  @Test
+  public void decodesRequestsWithoutHuffman() throws Exception {
+    Hpack.Decoder d = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+    assertEquals(Arrays.asList(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"),
+                 decode(d, "8286 8441 0f77 7777 2e65 7861 6d70 6c65 2e63 6f6d"));
+    assertEquals(Arrays.asList(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+                               "cache-control", "no-cache"),
+                 decode(d, "8286 84be 5808 6e6f 2d63 6163 6865"));
+    assertEquals(Arrays.asList(":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority",
+                               "www.example.com", "custom-key", "custom-value"),
+                 decode(d, "8287 85bf 400a 6375 7374 6f6d 2d6b 6579 0c63 7573 746f 6d2d 7661 6c75 65"));
+  }
+
+  @Test
+  public void decodesRequestsWithHuffman() throws Exception {
+    Hpack.Decoder d = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+    assertEquals(Arrays.asList(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"),
+                 decode(d, "8286 8441 8cf1 e3c2 e5f2 3a6b a0ab 90f4 ff"));
+    assertEquals(Arrays.asList(":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+                               "cache-control", "no-cache"),
+                 decode(d, "8286 84be 5886 a8eb 1064 9cbf"));
+    assertEquals(Arrays.asList(":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority",
+                               "www.example.com", "custom-key", "custom-value"),
+                 decode(d, "8287 85bf 4088 25a8 49e9 5ba9 7d7f 8925 a849 e95b b8e8 b4bf"));
+  }
+
+  @Test
+  public void encodedResponsesRoundTripAndShrink() throws Exception {
+    Hpack.Encoder e = new Hpack.Encoder();
+    Hpack.Decoder d = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+    List<String> fields = Arrays.asList(":status", "200", "date", "Mon, 21 Oct 2013 20:13:21 GMT", "accept-ranges",
+                                        "bytes", "content-type", "text/html", "vary", "Accept-Encoding");
+    byte[] first = e.encode(fields);
+    byte[] second = e.encode(fields);
+    List<String> decoded = new ArrayList<String>();
+    d.decode(ByteBuffer.wrap(first), decoded);
+    assertEquals(fields, decoded);
+    decoded.clear();
+    d.decode(ByteBuffer.wrap(second), decoded);
+    assertEquals(fields, decoded);
+    // Repeated fields are sent as indexes into the dynamic table; only the date is sent again.
+    assertTrue(second.length + " < " + first.length, second.length < first.length * 2 / 3);
+  }
+
+  @Test(expected = ProtocolException.class)
+  public void rejectsIndexesOutOfTheTable() throws Exception {
+    decode(new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE), "be");
+  }
+
+  @Test(expected = ProtocolException.class)
+  public void rejectsTableSizesOverTheLimit() throws Exception {
+    decode(new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE), "3fe21f");
+  }
+}
@@ -0,0 +1,270 @@
+package httpserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Checks cleartext HTTP/2, by prior knowledge and by upgrade, with a minimal client speaking frames over a socket.
+ */
+public class Http2Test {
+  private static final int PORT = 8096;
+  private static Server server;
+
+  @BeforeClass
+  public static void start() throws IOException {
+    ServerConfig config = new ServerConfig();
+    config.setPort(PORT);
+    config.setKeepAliveAdaptive(false);
+    server = App.start(config);
+  }
+
+  @AfterClass
+  public static void stop() throws IOException {
+    server.close();
+  }
+
+  private static byte[] file(String name) throws IOException {
+    return FileUtils.readFileToByteArray(new File(ServerContext.defaultDocRoot(), name));
+  }
+
+  /** A response as received on a stream. */
+  private static final class Response {
+    private List<String> fields = new ArrayList<String>();
+    private ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private boolean ended;
+
+    String header(String name) {
+      for (int i = 0; i < fields.size(); i += 2) {
+        if (fields.get(i).equals(name)) {
+          return fields.get(i + 1);
+        }
+      }
+      return null;
+    }
+  }
+
+  /** Just enough of an HTTP/2 client. */
+  private static final class Client implements AutoCloseable {
+    private final Socket socket;
+    private final OutputStream out;
+    private final DataInputStream in;
+    private final Hpack.Encoder encoder = new Hpack.Encoder();
+    private final Hpack.Decoder decoder = new Hpack.Decoder(Hpack.DEFAULT_TABLE_SIZE);
+    private final Map<Integer, Response> responses = new HashMap<Integer, Response>();
+    private int lastType;
+    private boolean serverSettingsSeen;
+
+    Client() throws IOException {
+      socket = new Socket("localhost", PORT);
+      socket.setSoTimeout(5000);
+      out = socket.getOutputStream();
+      in = new DataInputStream(socket.getInputStream());
+    }
+
+    void preface(byte[] settings) throws IOException {
+      out.write("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+      frame(Http2Connection.SETTINGS, 0, 0, settings);
+    }
+
+    void get(int stream, String path) throws IOException {
+      byte[] block = encoder.encode(Arrays.asList(":method", "GET", ":scheme", "http", ":path", path, ":authority",
+                                                  "localhost"));
+      frame(Http2Connection.HEADERS, Http2Connection.END_HEADERS | Http2Connection.END_STREAM, stream, block);
+    }
+
+    void frame(int type, int flags, int stream, byte[] payload) throws IOException {
+      ByteBuffer b = ByteBuffer.allocate(Http2Connection.FRAME_HEADER + payload.length);
+      b.put((byte) (payload.length >>> 16)).put((byte) (payload.length >>> 8)).put((byte) payload.length)
+          .put((byte) type).put((byte) flags).putInt(stream).put(payload);
+      out.write(b.array());
+      out.flush();
+    }
+
+    /** Reads a frame, recording what it carries; returns the stream it is on. */
+    int read() throws IOException {
+      int length = in.readUnsignedByte() << 16 | in.readUnsignedShort();
+      int type = in.readUnsignedByte();
+      int flags = in.readUnsignedByte();
+      int stream = in.readInt() & 0x7fffffff;
+      byte[] payload = new byte[length];
+      in.readFully(payload);
+      lastType = type;
+      if (type == Http2Connection.SETTINGS && (flags & Http2Connection.ACK) == 0) {
+        serverSettingsSeen = true;
+        frame(Http2Connection.SETTINGS, Http2Connection.ACK, 0, new byte[0]);
+      }
+      if (type == Http2Connection.HEADERS || type == Http2Connection.DATA) {
+        Response r = responses.get(stream);
+        if (r == null) {
+          r = new Response();
+          responses.put(stream, r);
+        }
+        if (type == Http2Connection.HEADERS) {
+          assertTrue("whole header block", (flags & Http2Connection.END_HEADERS) != 0);
+          decoder.decode(ByteBuffer.wrap(payload), r.fields);
+        } else {
+          r.body.write(payload);
+        }
+        r.ended = (flags & Http2Connection.END_STREAM) != 0;
+      }
+      return stream;
+    }
+
+    Response await(int stream) throws IOException {
+      while (responses.get(stream) == null || !responses.get(stream).ended) {
+        read();
+      }
+      return responses.get(stream);
+    }
+
+    @Override
+    public void close() throws IOException {
+      socket.close();
+    }
+  }
+
+  private static byte[] setting(int id, int value) {
+    return ByteBuffer.allocate(6).putShort((short) id).putInt(value).array();
+  }
+
+  @Test
+  public void priorKnowledgeServesFiles() throws Exception {
+    try (Client c = new Client()) {
+      c.preface(new byte[0]);
+      c.get(1, "/helloworld.html");
+      Response r = c.await(1);
+      assertTrue(c.serverSettingsSeen);
+      assertEquals("200", r.header(":status"));
+      assertEquals("text/html", r.header("content-type"));
+      assertEquals("228", r.header("content-length"));
+      // Headers of HTTP/1.1 connections have no place in HTTP/2.
+      assertNull(r.header("connection"));
+      assertNull(r.header("keep-alive"));
+      assertArrayEquals(file("helloworld.html"), r.body.toByteArray());
+    }
+  }
+
+  @Test
+  public void streamsAreMultiplexedOnOneConnection() throws Exception {
+    try (Client c = new Client()) {
+      c.preface(new byte[0]);
+      c.get(1, "/smiley.gif");
+      c.get(3, "/missing.html");
+      c.get(5, "/helloworld.html");
+      Response gif = c.await(1);
+      Response missing = c.await(3);
+      Response html = c.await(5);
+      assertEquals("200", gif.header(":status"));
+      assertArrayEquals(file("smiley.gif"), gif.body.toByteArray());
+      assertEquals("404", missing.header(":status"));
+      assertEquals(0, missing.body.size());
+      assertEquals("200", html.header(":status"));
+      assertArrayEquals(file("helloworld.html"), html.body.toByteArray());
+      // Later requests on the connection reuse the fields indexed by earlier responses.
+      c.get(7, "/helloworld.html");
+      Response again = c.await(7);
+      assertEquals("200", again.header(":status"));
+      assertEquals("text/html", again.header("content-type"));
+    }
+  }
+
+  @Test
+  public void upgradeServesTheRequestOnStream1() throws Exception {
+    try (Client c = new Client()) {
+      c.out.write(("GET /helloworld.html HTTP/1.1\r\nHost: localhost\r\nConnection: Upgrade, HTTP2-Settings\r\n"
+                   + "Upgrade: h2c\r\nHTTP2-Settings: AAMAAABkAAQAAP__\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+      StringBuilder head = new StringBuilder();
+      while (!head.toString().endsWith("\r\n\r\n")) {
+        head.append((char) c.in.readUnsignedByte());
+      }
+      assertTrue(head.toString(), head.toString().startsWith("HTTP/1.1 101 "));
+      c.out.write("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+      c.frame(Http2Connection.SETTINGS, 0, 0, new byte[0]);
+      Response r = c.await(1);
+      assertEquals("200", r.header(":status"));
+      assertArrayEquals(file("helloworld.html"), r.body.toByteArray());
+      c.get(3, "/smiley.gif");
+      assertArrayEquals(file("smiley.gif"), c.await(3).body.toByteArray());
+    }
+  }
+
+  @Test
+  public void dataWaitsForTheFlowControlWindow() throws Exception {
+    byte[] png = file("ERROR_chrome_2018-08-01T20-43-00.756Z.png");
+    try (Client c = new Client()) {
+      c.preface(setting(Http2Connection.SETTINGS_INITIAL_WINDOW_SIZE, 100));
+      c.get(1, "/ERROR_chrome_2018-08-01T20-43-00.756Z.png");
+      while (c.responses.get(1) == null || c.responses.get(1).body.size() < 100) {
+        c.read();
+      }
+      assertEquals(100, c.responses.get(1).body.size());
+      // Nothing more until the window is opened.
+      c.socket.setSoTimeout(300);
+      try {
+        c.read();
+        assertTrue("no DATA past the window", c.lastType != Http2Connection.DATA);
+      } catch (SocketTimeoutException e) {
+        // expected
+      }
+      c.socket.setSoTimeout(5000);
+      c.frame(Http2Connection.WINDOW_UPDATE, 0, 1, ByteBuffer.allocate(4).putInt(png.length).array());
+      Response r = c.await(1);
+      assertArrayEquals(png, r.body.toByteArray());
+    }
+  }
+
+  @Test
+  public void trailersMayFollowTheResponse() throws Exception {
+    try (Client c = new Client()) {
+      c.preface(new byte[0]);
+      byte[] block = c.encoder.encode(Arrays.asList(":method", "GET", ":scheme", "http", ":path", "/helloworld.html",
+                                                    ":authority", "localhost"));
+      c.frame(Http2Connection.HEADERS, Http2Connection.END_HEADERS, 1, block);
+      c.frame(Http2Connection.DATA, 0, 1, "body".getBytes(StandardCharsets.ISO_8859_1));
+      assertEquals("200", c.await(1).header(":status"));
+      // The response is done, but the request is not: its trailers end it, and the connection carries on.
+      c.frame(Http2Connection.DATA, 0, 1, "more".getBytes(StandardCharsets.ISO_8859_1));
+      c.frame(Http2Connection.HEADERS, Http2Connection.END_HEADERS | Http2Connection.END_STREAM, 1,
+              c.encoder.encode(Arrays.asList("x-checksum", "abc")));
+      c.get(3, "/helloworld.html");
+      Response r = c.await(3);
+      assertEquals("200", r.header(":status"));
+      assertArrayEquals(file("helloworld.html"), r.body.toByteArray());
+    }
+  }
+
+  @Test
+  public void pingIsAnswered() throws Exception {
+    try (Client c = new Client()) {
+      c.preface(new byte[0]);
+      c.frame(Http2Connection.PING, 0, 0, "12345678".getBytes(StandardCharsets.ISO_8859_1));
+      do {
+        c.read();
+      } while (c.lastType != Http2Connection.PING);
+      assertFalse(c.responses.containsKey(0));
+    }
+  }
+}
@@ -0,0 +1,117 @@
+package httpserver;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks that connections parked idle in NIO mode are closed past their timeout, and least recently parked first past
+ * the cap on idle connections.
+ */
+public class IdleConnectionsTest {
+  // Each test binds a port of its own, since a closed listener may linger briefly.
+  private static final int[] PORTS = {8094, 8095, 8098};
+  private static int nextPort = 0;
+
+  private Server server;
+  private int port;
+
+  @After
+  public void teardown() throws IOException {
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  private void start(int idleTimeout, int maxIdle) throws IOException {
+    ServerConfig config = new ServerConfig();
+    port = PORTS[nextPort++];
+    config.setPort(port);
+    config.setIoMode(IoMode.NIO);
+    config.setIdleTimeout(idleTimeout);
+    config.setMaxIdleConnections(maxIdle);
+    server = App.start(config);
+  }
+
+  /** @return true if the server has closed the connection; a reset counts as closed. */
+  private static boolean isClosed(Socket s, int waitMillis) throws IOException {
+    s.setSoTimeout(waitMillis);
+    try {
+      return s.getInputStream().read() < 0;
+    } catch (SocketTimeoutException e) {
+      return false;
+    } catch (SocketException e) {
+      return true;
+    }
+  }
+
+  @Test
+  public void idleConnectionsAreClosedPastTheTimeout() throws Exception {
+    start(300, 0);
+    Socket s = new Socket("localhost", port);
+    try {
+      assertEquals(false, isClosed(s, 100));
+      assertEquals(true, isClosed(s, 2000));
+    } finally {
+      s.close();
+    }
+  }
+
+  @Test
+  public void keepAliveTimeoutGrantedIsHonouredWhileParked() throws Exception {
+    // No idle timeout of the server's own: only the one granted to the client closes the connection.
+    start(0, 0);
+    Socket s = new Socket("localhost", port);
+    try {
+      s.setSoTimeout(5000);
+      s.getOutputStream().write(("GET /helloworld.html HTTP/1.1\r\nHost: x\r\nConnection: keep-alive\r\n"
+                                 + "Keep-Alive: timeout=1\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+      InputStream in = s.getInputStream();
+      StringBuilder head = new StringBuilder();
+      while (!head.toString().endsWith("\r\n\r\n")) {
+        head.append((char) in.read());
+      }
+      assertEquals(head.toString(), true, head.toString().contains("Keep-Alive: timeout=1"));
+      int at = head.indexOf("Content-Length: ") + "Content-Length: ".length();
+      long length = Long.parseLong(head.substring(at, head.indexOf("\r\n", at)));
+      for (long i = 0; i < length; i++) {
+        in.read();
+      }
+      assertEquals(false, isClosed(s, 100));
+      assertEquals(true, isClosed(s, 3000));
+    } finally {
+      s.close();
+    }
+  }
+
+  @Test
+  public void leastRecentlyParkedAreClosedPastTheCap() throws Exception {
+    start(0, 2);
+    Socket[] sockets = new Socket[4];
+    try {
+      for (int i = 0; i < sockets.length; i++) {
+        sockets[i] = new Socket("localhost", port);
+        // Let the selector park each before the next arrives, so that the order is known.
+        Thread.sleep(100);
+      }
+      assertEquals(true, isClosed(sockets[0], 2000));
+      assertEquals(true, isClosed(sockets[1], 2000));
+      assertEquals(false, isClosed(sockets[2], 200));
+      assertEquals(false, isClosed(sockets[3], 200));
+    } finally {
+      for (Socket s : sockets) {
+        if (s != null) {
+          s.close();
+        }
+      }
+    }
+  }
+}
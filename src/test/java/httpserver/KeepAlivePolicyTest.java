@@ -0,0 +1,68 @@
+package httpserver;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the keep-alive bounds, at rest and near capacity.
+ */
+public class KeepAlivePolicyTest {
+
+  private static ServerConfig config(boolean adaptive) {
+    ServerConfig config = new ServerConfig();
+    config.setMaxConnections(10);
+    config.setKeepAliveTimeout(5);
+    config.setKeepAliveMaxTimeout(15);
+    config.setKeepAliveRequests(100);
+    config.setKeepAliveMaxRequests(1000);
+    config.setKeepAliveAdaptive(adaptive);
+    return config;
+  }
+
+  private static KeepAlivePolicy policy(ServerConfig config, int connections) {
+    Metrics metrics = new Metrics();
+    Admission admission = new Admission(config, metrics, new BufferPool(true, 0, false, false));
+    for (int i = 0; i < connections; i++) {
+      admission.tryAdmit();
+    }
+    return new KeepAlivePolicy(config, admission, metrics);
+  }
+
+  @Test
+  public void defaultsAreGivenWhenNotAdaptive() {
+    KeepAlivePolicy policy = policy(config(false), 9);
+    assertEquals(5, policy.timeout(0));
+    assertEquals(100, policy.maxRequests(-1));
+    // Client requests for less are honoured, for more are bounded.
+    assertEquals(2, policy.timeout(2));
+    assertEquals(5, policy.timeout(60));
+    assertEquals(3, policy.maxRequests(3));
+  }
+
+  @Test
+  public void boundsWidenAtRest() {
+    KeepAlivePolicy policy = policy(config(true), 0);
+    assertEquals(15, policy.timeout(0));
+    assertEquals(1000, policy.maxRequests(0));
+    assertEquals(15, policy.timeout(60));
+    assertEquals(1, policy.timeout(1));
+  }
+
+  @Test
+  public void boundsAreTheDefaultsAtTheLowWatermark() {
+    KeepAlivePolicy policy = policy(config(true), 5);
+    assertEquals(5, policy.timeout(0));
+    assertEquals(100, policy.maxRequests(0));
+  }
+
+  @Test
+  public void boundsShrinkNearCapacity() {
+    KeepAlivePolicy policy = policy(config(true), 7);
+    assertEquals(3, policy.timeout(0));
+    assertEquals(51, policy.maxRequests(0));
+    policy = policy(config(true), 9);
+    assertEquals(1, policy.timeout(0));
+    assertEquals(1, policy.maxRequests(0));
+  }
+}
@@ -0,0 +1,74 @@
+package httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Runs short closed- and open-loop loads against a server of its own.
+ */
+public class LoadGeneratorTest {
+
+  private static final int PORT = 8084;
+
+  private static Server server;
+
+  @BeforeClass
+  public static void startServer() throws Exception {
+    server = App.start(ServerConfig.fromSystemProperties(PORT));
+  }
+
+  @AfterClass
+  public static void stopServer() throws Exception {
+    server.close();
+  }
+
+  private static LoadConfig config() {
+    LoadConfig config = LoadConfig.fromSystemProperties(PORT);
+    config.setConnections(2);
+    config.setWarmupMillis(100);
+    config.setDurationMillis(400);
+    return config;
+  }
+
+  @Test
+  public void urisDefaultToTheFilesOfTheDocroot() {
+    LoadConfig config = config();
+    assertTrue(config.getUris().toString(), config.getUris().contains("/helloworld.html"));
+    assertTrue(config.getUris().toString(), config.getUris().contains("/foo/lorem.txt"));
+  }
+
+  @Test
+  public void closedLoopWithPipeliningReportsPercentiles() throws Exception {
+    LoadConfig config = config();
+    config.setUris(Arrays.asList("/helloworld.html", "/smiley.gif", "/foo/lorem.txt"));
+    config.setPipeline(4);
+    LoadReport report = LoadGenerator.run(config);
+    assertTrue(report.toString(), report.getResponses() > 0);
+    assertEquals(report.toString(), 0, report.getErrors());
+    assertEquals(0, report.getScheduled());
+    assertEquals(report.getResponses(), report.getResponses(200));
+    assertTrue(report.getThroughput() > 0);
+    assertTrue(report.getResponseTime(0.99) >= report.getResponseTime(0.5));
+    assertTrue(report.getResponseTime(0.999) >= report.getServiceTime(0.999));
+  }
+
+  @Test
+  public void openLoopHttp10KeepsToTheRate() throws Exception {
+    LoadConfig config = config();
+    config.setUris(Arrays.asList("/helloworld.html", "/missing.html"));
+    config.setRate(200);
+    config.setVersion("HTTP/1.0");
+    LoadReport report = LoadGenerator.run(config);
+    assertEquals(report.toString(), 0, report.getErrors());
+    // 200 req/s for 0.4s are due, however late a loaded host sends them, and each is answered.
+    assertEquals(report.toString(), 80, report.getScheduled());
+    assertEquals(report.toString(), report.getScheduled(), report.getResponses());
+    assertEquals(report.toString(), report.getResponses(), report.getResponses(200) + report.getResponses(404));
+  }
+}
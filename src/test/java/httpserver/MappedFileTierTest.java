@@ -0,0 +1,72 @@
+package httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that mappings are shared, and released only once the file changes and no request still holds them.
+ */
+public class MappedFileTierTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void shouldShareMappingAcrossRequests() throws Exception {
+    MappedFileTier tier = new MappedFileTier(100, 60000);
+    File f = folder.newFile("big.bin");
+    FileUtils.writeByteArrayToFile(f, new byte[1000]);
+    assertFalse(tier.isMappable(99));
+    assertTrue(tier.isMappable(1000));
+
+    MappedFile first = tier.acquire(f.getPath(), f, 1, 1000);
+    MappedFile second = tier.acquire(f.getPath(), f, 1, 1000);
+    assertSame(first, second);
+    assertEquals(1000, first.slice().remaining());
+    first.release();
+    second.release();
+    assertFalse("still held by the tier", first.isReleased());
+    assertEquals(1, tier.size());
+  }
+
+  @Test
+  public void shouldRemapChangedFileOnceUnused() throws Exception {
+    MappedFileTier tier = new MappedFileTier(100, 60000);
+    File f = folder.newFile("big.bin");
+    FileUtils.writeByteArrayToFile(f, new byte[1000]);
+
+    MappedFile old = tier.acquire(f.getPath(), f, 1, 1000);
+    FileUtils.writeByteArrayToFile(f, new byte[2000]);
+    MappedFile current = tier.acquire(f.getPath(), f, 2, 2000);
+    assertNotSame(old, current);
+    assertEquals(2000, current.getSize());
+    assertFalse("a request still writes from it", old.isReleased());
+    old.release();
+    assertTrue(old.isReleased());
+    current.release();
+  }
+
+  @Test
+  public void shouldRetireColdMappings() throws Exception {
+    MappedFileTier tier = new MappedFileTier(100, 1);
+    File a = folder.newFile("a.bin");
+    File b = folder.newFile("b.bin");
+    FileUtils.writeByteArrayToFile(a, new byte[1000]);
+    FileUtils.writeByteArrayToFile(b, new byte[1000]);
+    MappedFile cold = tier.acquire(a.getPath(), a, 1, 1000);
+    cold.release();
+    Thread.sleep(20);
+    tier.acquire(b.getPath(), b, 1, 1000).release();
+    assertTrue(cold.isReleased());
+    assertEquals(1, tier.size());
+  }
+}
@@ -0,0 +1,60 @@
+package httpserver;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit tests for the content type resolver.
+ */
+public class MimeTypesTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void shouldResolveExtensionsCaseInsensitively() {
+    MimeTypes types = new MimeTypes(null, null, null);
+    assertEquals("text/html", types.getContentType(new File("a/index.html")));
+    assertEquals("text/html", types.getContentType(new File("a/INDEX.HTM")));
+    assertEquals("application/pdf", types.getContentType(new File("a/b.Pdf")));
+    assertEquals("image/png", types.getContentType(new File("x.tar.png")));
+    assertEquals(MimeTypes.DEFAULT_TYPE, types.getContentType(new File("a/b.unknown")));
+    assertEquals(MimeTypes.DEFAULT_TYPE, types.getContentType(new File("a/README")));
+    assertEquals(MimeTypes.DEFAULT_TYPE, types.getContentType(new File("a/trailing.")));
+  }
+
+  @Test
+  public void shouldAttachCharsetToTextTypes() {
+    MimeTypes types = new MimeTypes(null, null, "UTF-8");
+    assertEquals("text/plain; charset=UTF-8", types.getContentType(new File("a.txt")));
+    assertEquals("image/gif", types.getContentType(new File("a.gif")));
+  }
+
+  @Test
+  public void shouldApplyTypesFileAndDirectoryOverrides() throws Exception {
+    File extra = folder.newFile("extra.types");
+    FileUtils.writeStringToFile(extra, "# extra\napplication/x-foo foo\ntype=application/x-bar exts=bar,baz\n", "ISO-8859-1");
+    File root = folder.newFolder("root");
+    File special = new File(root, "special");
+    FileUtils.forceMkdir(special);
+    FileUtils.writeStringToFile(new File(special, MimeTypes.OVERRIDE_FILE), "text/x-special txt\n", "ISO-8859-1");
+
+    MimeTypes types = new MimeTypes(root, extra.getPath(), null);
+    assertEquals("application/x-foo", types.getContentType(new File(root, "a.foo")));
+    assertEquals("application/x-bar", types.getContentType(new File(root, "a.BAZ")));
+    assertEquals("text/plain", types.getContentType(new File(root, "a.txt").getCanonicalFile()));
+    assertEquals("text/x-special", types.getContentType(new File(special, "a.txt").getCanonicalFile()));
+    // Overrides extend the tables rather than replace them.
+    assertEquals("application/x-foo", types.getContentType(new File(special, "a.foo").getCanonicalFile()));
+
+    FileUtils.writeStringToFile(new File(root, MimeTypes.OVERRIDE_FILE), "text/x-root txt\n", "ISO-8859-1");
+    assertEquals("text/plain", types.getContentType(new File(root, "a.txt").getCanonicalFile()));
+    types.reload();
+    assertEquals("text/x-root", types.getContentType(new File(root, "a.txt").getCanonicalFile()));
+  }
+}
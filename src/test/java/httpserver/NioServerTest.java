@@ -0,0 +1,94 @@
+package httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Runs http-server in NIO mode, with fewer worker threads than open connections.
+ */
+public class NioServerTest {
+  private static CloseableHttpClient httpClient;
+  private static Server server;
+  private static int port = 8082;
+
+  @BeforeClass
+  static public void setup() throws IOException {
+    ServerConfig config = new ServerConfig();
+    config.setPort(port);
+    config.setIoMode(IoMode.NIO);
+    config.setMaxThreads(2);
+    server = App.start(config);
+    httpClient = HttpClients.createDefault();
+  }
+
+  @AfterClass
+  static public void teardown() throws IOException {
+    httpClient.close();
+    server.close();
+  }
+
+  @Test
+  public void shouldAnswerWithKeepAlive() throws Exception {
+    for (int i = 0; i < 3; i++) {
+      CloseableHttpResponse response = httpClient.execute(new HttpGet(getBaseUrl() + "/helloworld.html"));
+      try {
+        assertEquals("Should be OK", HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+        assertTrue("header connection", response.getFirstHeader("Connection").getValue().contains("keep-alive"));
+        EntityUtils.consume(response.getEntity());
+      } finally {
+        response.close();
+      }
+    }
+  }
+
+  @Test
+  public void idleConnectionsShouldNotHoldWorkers() throws Exception {
+    // Many more idle connections than worker threads.
+    List<Socket> idle = new ArrayList<Socket>();
+    try {
+      for (int i = 0; i < 20; i++) {
+        idle.add(new Socket("localhost", port));
+      }
+      CloseableHttpResponse response = httpClient.execute(new HttpGet(getBaseUrl() + "/smiley.gif"));
+      try {
+        assertEquals("Should be OK", HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+        EntityUtils.consume(response.getEntity());
+      } finally {
+        response.close();
+      }
+    } finally {
+      for (Socket s : idle) {
+        s.close();
+      }
+    }
+  }
+
+  @Test
+  public void shouldFailWithNotFound() throws Exception {
+    CloseableHttpResponse response = httpClient.execute(new HttpGet(getBaseUrl() + "/foo.bar"));
+    try {
+      assertEquals("Should be BAD", HttpStatus.SC_NOT_FOUND, response.getStatusLine().getStatusCode());
+    } finally {
+      response.close();
+    }
+  }
+
+  private String getBaseUrl() {
+    return ("http://localhost:" + port);
+  }
+}
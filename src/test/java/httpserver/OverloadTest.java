@@ -0,0 +1,139 @@
+package httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Drives servers with tiny limits past them, and checks that the excess connections are turned away at once.
+ */
+public class OverloadTest {
+  // Each test binds a port of its own, since a closed listener may linger briefly.
+  private static int nextPort = 8085;
+  private static final String REQUEST = "GET /helloworld.html HTTP/1.1\r\nHost: localhost\r\nConnection: keep-alive\r\n\r\n";
+
+  private Server server;
+  private int port;
+
+  @After
+  public void teardown() throws IOException {
+    if (server != null) {
+      server.close();
+    }
+  }
+
+  private void start(IoMode io, int maxConnections, int threads, int queueSize, OverloadPolicy policy) throws IOException {
+    ServerConfig config = new ServerConfig();
+    port = nextPort++;
+    config.setPort(port);
+    config.setIoMode(io);
+    config.setMaxConnections(maxConnections);
+    config.setMaxThreads(threads);
+    config.setQueueSize(queueSize);
+    config.setOverloadPolicy(policy);
+    config.setRetryAfterSeconds(3);
+    // Connections held open must stay open at capacity, rather than be closed by the adaptive keep-alive bounds.
+    config.setKeepAliveAdaptive(false);
+    server = App.start(config);
+  }
+
+  /** Opens a connection, sends a request and reads the head of its response, leaving the connection open. */
+  private Socket served() throws IOException {
+    Socket s = new Socket("localhost", port);
+    s.setSoTimeout(5000);
+    s.getOutputStream().write(REQUEST.getBytes(StandardCharsets.ISO_8859_1));
+    String head = readHead(s.getInputStream());
+    assertTrue(head, head.startsWith("HTTP/1.1 200"));
+    return s;
+  }
+
+  /** Sends a request and reads until the server closes; a reset counts as closed. */
+  private String rejected() throws IOException {
+    Socket s = new Socket("localhost", port);
+    try {
+      s.setSoTimeout(5000);
+      s.getOutputStream().write(REQUEST.getBytes(StandardCharsets.ISO_8859_1));
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      InputStream in = s.getInputStream();
+      byte[] b = new byte[1024];
+      try {
+        int n;
+        while ((n = in.read(b)) >= 0) {
+          out.write(b, 0, n);
+        }
+      } catch (SocketException e) {
+        // Reset after the answer.
+      }
+      return new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+    } finally {
+      s.close();
+    }
+  }
+
+  private static String readHead(InputStream in) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    while (!sb.toString().endsWith("\r\n\r\n")) {
+      int c = in.read();
+      if (c < 0) {
+        break;
+      }
+      sb.append((char) c);
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void connectionsOverTheLimitAreAnswered503() throws Exception {
+    start(IoMode.BLOCKING, 1, 2, 10, OverloadPolicy.REJECT);
+    Socket held = served();
+    String answer = rejected();
+    assertTrue(answer, answer.startsWith("HTTP/1.1 503 Service Unavailable\r\n"));
+    assertTrue(answer, answer.contains("\r\nRetry-After: 3\r\n"));
+    assertTrue(answer, answer.contains("\r\nDate: "));
+    assertTrue(answer, answer.endsWith("\r\nContent-Length: 0\r\n\r\n"));
+    held.close();
+    // The permit comes back once the server sees the close.
+    long deadline = System.currentTimeMillis() + 5000;
+    while (server.getContext().getAdmission().available() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    served().close();
+    String metrics = server.getContext().getMetrics().render();
+    assertTrue(metrics, metrics.contains("http_server_connections_shed_total 1\n"));
+  }
+
+  @Test
+  public void connectionsOverAFullQueueAreAnswered503() throws Exception {
+    start(IoMode.BLOCKING, 100, 1, 1, OverloadPolicy.REJECT);
+    Socket held = served();
+    // Waits in the queue for the only thread.
+    Socket queued = new Socket("localhost", port);
+    try {
+      String answer = rejected();
+      assertTrue(answer, answer.startsWith("HTTP/1.1 503 "));
+    } finally {
+      queued.close();
+      held.close();
+    }
+  }
+
+  @Test
+  public void nioConnectionsOverTheLimitAreClosed() throws Exception {
+    start(IoMode.NIO, 1, 2, 10, OverloadPolicy.CLOSE);
+    Socket held = served();
+    try {
+      assertEquals("", rejected());
+    } finally {
+      held.close();
+    }
+  }
+}
@@ -0,0 +1,100 @@
+package httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * Checks the byte-level request parser.
+ */
+public class RequestParserTest {
+
+  private static ByteBuffer emptyBuffer(int size) {
+    ByteBuffer buf = ByteBuffer.allocate(size);
+    buf.limit(0);
+    return buf;
+  }
+
+  private static InputStream stream(String s) throws IOException {
+    return new ByteArrayInputStream(s.getBytes("ISO-8859-1"));
+  }
+
+  /** Hands out one byte per read, like a slow client. */
+  private static InputStream trickle(final String s) throws IOException {
+    return new ByteArrayInputStream(s.getBytes("ISO-8859-1")) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(len, 1));
+      }
+    };
+  }
+
+  @Test
+  public void shouldParseRequestLineAndHeaders() throws Exception {
+    RequestParser p = new RequestParser();
+    p.parse(stream("GET /helloworld.html HTTP/1.1\r\nHost: localhost:8081\r\nConnection:  keep-alive \r\n\r\n"),
+            emptyBuffer(1024));
+    assertEquals("GET", p.getMethod());
+    assertTrue(p.isMethod("GET"));
+    assertFalse(p.isMethod("HEAD"));
+    assertEquals("/helloworld.html", p.getUri());
+    assertEquals("HTTP/1.1", p.getVersion());
+    assertTrue(p.isHttpVersionOneOne());
+    assertFalse(p.isHttpVersionOneO());
+    assertEquals("keep-alive", p.getHeader("connection"));
+    assertEquals("localhost:8081", p.getHeaders().get("Host"));
+    assertNull(p.getHeader("Keep-Alive"));
+  }
+
+  @Test
+  public void shouldParseHeadArrivingByteByByte() throws Exception {
+    RequestParser p = new RequestParser();
+    p.parse(trickle("HEAD /smiley.gif HTTP/1.0\nHost: x\n\n"), emptyBuffer(1024));
+    assertEquals("HEAD", p.getMethod());
+    assertTrue(p.isHttpVersionOneO());
+    assertEquals("x", p.getHeader("HOST"));
+  }
+
+  @Test
+  public void shouldLeavePipelinedRequestsInBuffer() throws Exception {
+    RequestParser p = new RequestParser();
+    ByteBuffer buf = emptyBuffer(1024);
+    InputStream in = stream("GET /a HTTP/1.1\r\nHost: x\r\n\r\nGET /b HTTP/1.1\r\nHost: y\r\n\r\n");
+    p.parse(in, buf);
+    assertEquals("/a", p.getUri());
+    assertTrue("second request is buffered", buf.hasRemaining());
+    p.parse(in, buf);
+    assertEquals("/b", p.getUri());
+    assertEquals("y", p.getHeader("Host"));
+    assertFalse(buf.hasRemaining());
+  }
+
+  @Test(expected = EOFException.class)
+  public void shouldSignalEndOfStreamBetweenRequests() throws Exception {
+    new RequestParser().parse(stream(""), emptyBuffer(1024));
+  }
+
+  @Test(expected = ProtocolException.class)
+  public void shouldRejectMalformedRequestLine() throws Exception {
+    new RequestParser().parse(stream("GARBAGE\r\n\r\n"), emptyBuffer(1024));
+  }
+
+  @Test(expected = ProtocolException.class)
+  public void shouldRejectHeadLargerThanBuffer() throws Exception {
+    StringBuilder sb = new StringBuilder("GET / HTTP/1.1\r\n");
+    for (int i = 0; i < 100; i++) {
+      sb.append("X-Filler-").append(i).append(": some value\r\n");
+    }
+    new RequestParser().parse(stream(sb.append("\r\n").toString()), emptyBuffer(256));
+  }
+}
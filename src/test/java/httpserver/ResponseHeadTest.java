@@ -0,0 +1,106 @@
+package httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for response head assembly.
+ */
+public class ResponseHeadTest {
+
+  private static String text(ByteBuffer b) {
+    byte[] bytes = new byte[b.remaining()];
+    b.duplicate().get(bytes);
+    return new String(bytes, StandardCharsets.ISO_8859_1);
+  }
+
+  private static RequestParser request(String version) {
+    RequestParser r = new RequestParser();
+    r.setVersion(version);
+    return r;
+  }
+
+  @Test
+  public void shouldEncodeStatusDateAndHeaders() {
+    ResponseHead head = new ResponseHead();
+    String s = text(head.begin(request("HTTP/1.1"), 200)
+                    .put(ResponseHead.CONNECTION_KEEP_ALIVE)
+                    .header(ResponseHead.CONTENT_TYPE, "text/html")
+                    .header(ResponseHead.CONTENT_LENGTH, 1234567890123L)
+                    .end());
+    assertTrue(s, s.startsWith("HTTP/1.1 200 OK\r\nDate: "));
+    assertTrue(s, s.endsWith(" GMT\r\nConnection: keep-alive\r\nContent-Type: text/html\r\n"
+                             + "Content-Length: 1234567890123\r\n\r\n"));
+  }
+
+  @Test
+  public void shouldRefuseValuesThatWouldSplitTheResponse() {
+    ResponseHead head = new ResponseHead();
+    for (String value : new String[] {"text/html\r\nSet-Cookie: a=b", "text/html\n", "text\0", "text/\u0100"}) {
+      head.begin(request("HTTP/1.1"), 200);
+      try {
+        head.header(ResponseHead.CONTENT_TYPE, value);
+        fail(value);
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+    String s = text(head.begin(request("HTTP/1.1"), 200).header(ResponseHead.CONTENT_TYPE, "text/plain; x=\u00e9").end());
+    assertTrue(s, s.contains("Content-Type: text/plain; x=\u00e9\r\n"));
+  }
+
+  @Test
+  public void shouldAnswerHttp10InKind() {
+    ResponseHead head = new ResponseHead();
+    assertTrue(text(head.begin(request("HTTP/1.0"), 404).end()).startsWith("HTTP/1.0 404 Not Found\r\n"));
+    assertTrue(text(head.begin(request("HTTP/1.1"), 299).end()).startsWith("HTTP/1.1 299 \r\n"));
+    assertTrue(text(head.begin(request("HTTP/1.1"), 0).header(ResponseHead.CONTENT_LENGTH, 0).end())
+               .endsWith("Content-Length: 0\r\n\r\n"));
+  }
+
+  @Test
+  public void shouldKeepEarlierHeadsWhenGrowing() {
+    ResponseHead head = new ResponseHead();
+    ByteBuffer first = head.begin(request("HTTP/1.1"), 304).end();
+    String before = text(first);
+    StringBuilder big = new StringBuilder();
+    for (int i = 0; i < 10000; i++) {
+      big.append('x');
+    }
+    String s = text(head.begin(request("HTTP/1.1"), 200).header(ResponseHead.ETAG, big.toString()).end());
+    assertEquals(before, text(first));
+    assertTrue(s.contains("ETag: " + big + "\r\n"));
+    head.reset();
+    assertTrue(text(head.begin(request("HTTP/1.1"), 500).end()).startsWith("HTTP/1.1 500 Internal Server Error\r\n"));
+  }
+
+  @Test
+  public void shouldReplaceAPartlyAddedResponseWithAnIssue() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ResponseBatch batch = new ResponseBatch(Channels.newChannel(out), new ServerConfig(),
+                                            new BufferPool(true, 1 << 20, false, false));
+    RequestParser request = request("HTTP/1.1");
+    batch.add(batch.head().begin(request, 200).header(ResponseHead.CONTENT_LENGTH, 5).end());
+    batch.add(ByteBuffer.wrap("first".getBytes(StandardCharsets.US_ASCII)));
+    batch.endResponse();
+    // The second response fails once its head is in, as when its file is deleted before being read.
+    batch.add(batch.head().begin(request, 200).header(ResponseHead.CONTENT_LENGTH, 6).end());
+    Exchange exchange = new Exchange(null, batch, null);
+    exchange.reset(request, null, null, null, "/second");
+    exchange.fail(404);
+    batch.endResponse();
+    batch.flush();
+    String s = new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+    assertEquals(s, 2, s.split("HTTP/1.1 ").length - 1);
+    assertTrue(s, s.contains("Content-Length: 5\r\n\r\nfirstHTTP/1.1 404 Not Found\r\n"));
+    assertTrue(s, s.endsWith("Content-Length: 0\r\n\r\n"));
+  }
+}
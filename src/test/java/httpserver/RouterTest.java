@@ -0,0 +1,221 @@
+package httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks route matching, and handlers registered on a running server.
+ */
+public class RouterTest {
+  private static final int PORT = 8088;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /** Answers nothing; told apart by identity. */
+  private static Handler handler() {
+    return new Handler() {
+      @Override
+      public boolean handle(Exchange exchange) {
+        return true;
+      }
+    };
+  }
+
+  private static Exchange exchange(String method, String uri) throws IOException {
+    RequestParser request = new RequestParser();
+    ByteBuffer buf = ByteBuffer.allocate(1024);
+    buf.limit(0);
+    String text = method + " " + uri + " HTTP/1.1\r\nHost: x\r\n\r\n";
+    request.parse(new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1)), buf);
+    Exchange exchange = new Exchange(null, null, null);
+    exchange.reset(request, null, null, null, Router.path(uri));
+    return exchange;
+  }
+
+  @Test
+  public void shouldPreferExactThenLongestPrefix() throws Exception {
+    Handler files = handler();
+    Handler api = handler();
+    Handler health = handler();
+    List<Router.Route> routes = new ArrayList<Router.Route>();
+    routes.add(new Router.Route("GET", "/*", files));
+    routes.add(new Router.Route("GET", "/api/*", api));
+    routes.add(new Router.Route("GET", "/api/health", health));
+    Router router = new Router(routes);
+    assertSame(health, router.route(exchange("GET", "/api/health?verbose")));
+    assertSame(api, router.route(exchange("GET", "/api/healthz")));
+    assertSame(api, router.route(exchange("GET", "/api/")));
+    assertSame(files, router.route(exchange("GET", "/apple.txt")));
+    assertSame(files, router.route(exchange("GET", "/")));
+  }
+
+  @Test
+  public void shouldBindParametersAndPreferLiterals() throws Exception {
+    Handler item = handler();
+    Handler mine = handler();
+    Handler part = handler();
+    List<Router.Route> routes = new ArrayList<Router.Route>();
+    routes.add(new Router.Route("GET", "/items/{id}", item));
+    routes.add(new Router.Route("GET", "/items/mine", mine));
+    routes.add(new Router.Route("GET", "/items/{id}/parts/{part}", part));
+    Router router = new Router(routes);
+
+    Exchange e = exchange("GET", "/items/42");
+    assertSame(item, router.route(e));
+    assertEquals("42", e.getParameter("id"));
+
+    e = exchange("GET", "/items/mine");
+    assertSame(mine, router.route(e));
+    assertNull(e.getParameter("id"));
+
+    e = exchange("GET", "/items/minestrone/parts/7");
+    assertSame(part, router.route(e));
+    assertEquals("minestrone", e.getParameter("id"));
+    assertEquals("7", e.getParameter("part"));
+
+    assertNull(router.route(exchange("GET", "/items/")));
+    assertNull(router.route(exchange("GET", "/items/42/parts")));
+  }
+
+  @Test
+  public void shouldRouteByMethodAndLetLaterRoutesWin() throws Exception {
+    Handler first = handler();
+    Handler second = handler();
+    List<Router.Route> routes = new ArrayList<Router.Route>();
+    routes.add(new Router.Route("GET", "/x", first));
+    routes.add(new Router.Route("GET", "/x", second));
+    Router router = new Router(routes);
+    assertSame(second, router.route(exchange("GET", "/x")));
+    assertNull(router.route(exchange("GET", "/y")));
+    assertTrue(router.isRouted(exchange("GET", "/y").getRequest()));
+    assertNull(router.route(exchange("DELETE", "/x")));
+    assertFalse(router.isRouted(exchange("DELETE", "/x").getRequest()));
+  }
+
+  @Test
+  public void shouldLogHandlerFailures() throws Exception {
+    ServerConfig config = new ServerConfig();
+    config.setPort(PORT);
+    config.setDocRoot(folder.getRoot().getPath());
+    Handler broken = new Handler() {
+      @Override
+      public boolean handle(Exchange exchange) {
+        throw new IllegalStateException("bug");
+      }
+    };
+    config.addRoute("GET", "/broken", broken);
+    final List<LogRecord> records = new CopyOnWriteArrayList<LogRecord>();
+    java.util.logging.Handler capture = new java.util.logging.Handler() {
+      @Override
+      public void publish(LogRecord record) {
+        records.add(record);
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    Logger root = Logger.getLogger("");
+    root.addHandler(capture);
+    Server server = App.start(config);
+    try (Socket socket = new Socket("localhost", PORT)) {
+      socket.setSoTimeout(5000);
+      socket.getOutputStream().write("GET /broken HTTP/1.1\r\nHost: x\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+      ByteArrayOutputStream all = new ByteArrayOutputStream();
+      InputStream in = socket.getInputStream();
+      for (int c = in.read(); c >= 0; c = in.read()) {
+        all.write(c);
+      }
+      String text = new String(all.toByteArray(), StandardCharsets.ISO_8859_1);
+      assertTrue(text, text.startsWith("HTTP/1.1 500 "));
+      boolean logged = false;
+      for (LogRecord r : records) {
+        logged |= r.getLevel() == Level.WARNING && r.getThrown() instanceof IllegalStateException
+                   && r.getMessage().contains(broken.getClass().getName());
+      }
+      assertTrue("handler failure logged", logged);
+    } finally {
+      root.removeHandler(capture);
+      server.close();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldRefuseWildcardsInsidePatterns() {
+    new Router.Route("GET", "/a/*/b", handler());
+  }
+
+  @Test
+  public void shouldStripQueryFragmentAndAuthority() {
+    assertEquals("/a/b", Router.path("/a/b"));
+    assertEquals("/a", Router.path("/a?x=1#top"));
+    assertEquals("/a", Router.path("http://localhost:8088/a?x=1"));
+    assertEquals("/", Router.path("http://localhost:8088"));
+  }
+
+  @Test
+  public void shouldServeRegisteredHandlers() throws Exception {
+    ServerConfig config = new ServerConfig();
+    config.setPort(PORT);
+    config.setDocRoot(folder.getRoot().getPath());
+    Handler greet = new Handler() {
+      @Override
+      public boolean handle(Exchange exchange) {
+        byte[] body = ("hello " + exchange.getParameter("name")).getBytes(StandardCharsets.US_ASCII);
+        return exchange.respond(200, "text/plain", body);
+      }
+    };
+    config.addRoute("GET", "/greet/{name}", greet);
+    config.addRoute("HEAD", "/greet/{name}", greet);
+    Server server = App.start(config);
+    try (Socket socket = new Socket("localhost", PORT)) {
+      socket.setSoTimeout(5000);
+      OutputStream out = socket.getOutputStream();
+      InputStream in = socket.getInputStream();
+      out.write(("GET /greet/bob HTTP/1.1\r\nHost: x\r\nConnection: keep-alive\r\n\r\n"
+                 + "HEAD /greet/ann HTTP/1.1\r\nHost: x\r\nConnection: keep-alive\r\n\r\n"
+                 + "DELETE /greet/bob HTTP/1.1\r\nHost: x\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+      out.flush();
+      ByteArrayOutputStream all = new ByteArrayOutputStream();
+      for (int c = in.read(); c >= 0; c = in.read()) {
+        all.write(c);
+      }
+      String text = new String(all.toByteArray(), StandardCharsets.ISO_8859_1);
+      String[] heads = text.split("HTTP/1.1 ");
+      assertEquals(text, 4, heads.length);
+      assertTrue(text, heads[1].startsWith("200 ") && heads[1].endsWith("\r\n\r\nhello bob"));
+      assertTrue(text, heads[1].contains("Content-Length: 9\r\n"));
+      assertTrue(text, heads[2].startsWith("200 ") && heads[2].endsWith("\r\n\r\n"));
+      assertTrue(text, heads[3].startsWith("501 "));
+    } finally {
+      server.close();
+    }
+  }
+}
@@ -0,0 +1,81 @@
+package httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the timer wheel the selector loops keep idle deadlines on.
+ */
+public class TimerWheelTest {
+
+  @Test
+  public void itemsComeDueNoEarlierThanTheirDeadline() {
+    TimerWheel<String> wheel = new TimerWheel<String>(100, 8, 0);
+    wheel.schedule("a", 250);
+    wheel.schedule("b", 300);
+    wheel.schedule("c", 1000);
+    List<String> due = new ArrayList<String>();
+    wheel.advance(249, due);
+    assertTrue(due.toString(), due.isEmpty());
+    wheel.advance(300, due);
+    assertEquals(Arrays.asList("a", "b"), sorted(due));
+    assertEquals(1, wheel.size());
+  }
+
+  @Test
+  public void deadlinesBeyondARotationWaitForTheirOwn() {
+    TimerWheel<String> wheel = new TimerWheel<String>(100, 8, 0);
+    // Same slot as tick 2, but two rotations later.
+    wheel.schedule("later", 1800);
+    wheel.schedule("soon", 200);
+    List<String> due = new ArrayList<String>();
+    wheel.advance(200, due);
+    assertEquals(Arrays.asList("soon"), due);
+    due.clear();
+    wheel.advance(1799, due);
+    assertTrue(due.toString(), due.isEmpty());
+    wheel.advance(1800, due);
+    assertEquals(Arrays.asList("later"), due);
+  }
+
+  @Test
+  public void cancelledAndRescheduledItemsAreNotDue() {
+    TimerWheel<String> wheel = new TimerWheel<String>(100, 8, 0);
+    wheel.schedule("a", 100);
+    wheel.schedule("b", 100);
+    assertTrue(wheel.cancel("a"));
+    assertFalse(wheel.cancel("a"));
+    wheel.schedule("b", 500);
+    List<String> due = new ArrayList<String>();
+    wheel.advance(400, due);
+    assertTrue(due.toString(), due.isEmpty());
+    wheel.advance(10000, due);
+    assertEquals(Arrays.asList("b"), due);
+    assertEquals(0, wheel.size());
+  }
+
+  @Test
+  public void pastDeadlinesFallDueOnTheNextTick() {
+    TimerWheel<String> wheel = new TimerWheel<String>(100, 8, 1000);
+    wheel.schedule("late", 500);
+    List<String> due = new ArrayList<String>();
+    wheel.advance(1000, due);
+    assertTrue(due.toString(), due.isEmpty());
+    wheel.advance(1100, due);
+    assertEquals(Arrays.asList("late"), due);
+  }
+
+  private static List<String> sorted(List<String> items) {
+    List<String> copy = new ArrayList<String>(items);
+    Collections.sort(copy);
+    return copy;
+  }
+}
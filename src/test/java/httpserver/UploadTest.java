@@ -0,0 +1,202 @@
+package httpserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that PUT and POST bodies are stored in the docroot, whole or not at all.
+ */
+public class UploadTest {
+  private static final int PORT = 8097;
+  private static final String HOST = "Host: localhost\r\nConnection: keep-alive\r\n";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Server server;
+  private Socket socket;
+  private InputStream in;
+  private OutputStream out;
+
+  @Before
+  public void start() throws IOException {
+    ServerConfig config = new ServerConfig();
+    config.setPort(PORT);
+    config.setDocRoot(folder.getRoot().getPath());
+    config.setUpload(true);
+    config.setUploadMaxBytes(100000);
+    server = App.start(config);
+    socket = new Socket("localhost", PORT);
+    socket.setSoTimeout(5000);
+    in = socket.getInputStream();
+    out = socket.getOutputStream();
+  }
+
+  @After
+  public void stop() throws IOException {
+    socket.close();
+    server.close();
+  }
+
+  private void send(String head, byte[] body) throws IOException {
+    out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+    out.write(body);
+    out.flush();
+  }
+
+  private String readHead() throws IOException {
+    StringBuilder sb = new StringBuilder();
+    while (!sb.toString().endsWith("\r\n\r\n")) {
+      int c = in.read();
+      assertTrue("response head " + sb, c >= 0);
+      sb.append((char) c);
+    }
+    return sb.toString();
+  }
+
+  private byte[] readBody(String head) throws IOException {
+    int at = head.indexOf("Content-Length: ");
+    if (at < 0) {
+      return new byte[0];
+    }
+    int length = Integer.parseInt(head.substring(at + 16, head.indexOf("\r\n", at)));
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    while (body.size() < length) {
+      body.write(in.read());
+    }
+    return body.toByteArray();
+  }
+
+  private byte[] get(String path) throws IOException {
+    send("GET " + path + " HTTP/1.1\r\n" + HOST + "\r\n", new byte[0]);
+    String head = readHead();
+    assertTrue(head, head.startsWith("HTTP/1.1 200 "));
+    return readBody(head);
+  }
+
+  private static byte[] random(int n) {
+    byte[] b = new byte[n];
+    new Random(n).nextBytes(b);
+    return b;
+  }
+
+  private void assertNoTemporaryFiles() {
+    for (File f : FileUtils.listFiles(folder.getRoot(), null, true)) {
+      assertFalse(f.getPath(), Upload.isTemporary(f.getName()));
+    }
+  }
+
+  @Test
+  public void putCreatesThenReplaces() throws Exception {
+    byte[] first = random(50000);
+    send("PUT /assets/data.bin HTTP/1.1\r\n" + HOST + "Content-Length: " + first.length + "\r\n\r\n", first);
+    String head = readHead();
+    assertTrue(head, head.startsWith("HTTP/1.1 201 "));
+    readBody(head);
+    assertArrayEquals(first, get("/assets/data.bin"));
+
+    byte[] second = "replaced".getBytes(StandardCharsets.US_ASCII);
+    send("PUT /assets/data.bin HTTP/1.1\r\n" + HOST + "Content-Length: " + second.length + "\r\n\r\n", second);
+    head = readHead();
+    assertTrue(head, head.startsWith("HTTP/1.1 204 "));
+    assertFalse(head, head.contains("Content-Length"));
+    assertArrayEquals(second, get("/assets/data.bin"));
+    assertArrayEquals(second, FileUtils.readFileToByteArray(new File(folder.getRoot(), "assets/data.bin")));
+    assertNoTemporaryFiles();
+  }
+
+  @Test
+  public void chunkedPostWaitsForContinue() throws Exception {
+    send("POST /notes.txt HTTP/1.1\r\n" + HOST + "Transfer-Encoding: chunked\r\nExpect: 100-continue\r\n\r\n",
+         new byte[0]);
+    String interim = readHead();
+    assertEquals("HTTP/1.1 100 Continue\r\n\r\n", interim);
+    // The next request follows the body at once, in the same write.
+    send("", ("5;ext=1\r\nhello\r\n7\r\n, world\r\n0\r\nTrailer: x\r\n\r\n"
+              + "GET /notes.txt HTTP/1.1\r\n" + HOST + "\r\n").getBytes(StandardCharsets.US_ASCII));
+    String head = readHead();
+    assertTrue(head, head.startsWith("HTTP/1.1 201 "));
+    readBody(head);
+    head = readHead();
+    assertTrue(head, head.startsWith("HTTP/1.1 200 "));
+    assertEquals("hello, world", new String(readBody(head), StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void bodiesOverTheLimitAreRefused() throws Exception {
+    send("PUT /big.bin HTTP/1.1\r\n" + HOST + "Content-Length: 100001\r\nExpect: 100-continue\r\n\r\n",
+         new byte[0]);
+    String head = readHead();
+    assertTrue(head, head.startsWith("HTTP/1.1 413 "));
+    assertTrue(head, head.contains("Connection: close"));
+    assertFalse(new File(folder.getRoot(), "big.bin").exists());
+  }
+
+  @Test
+  public void chunkedBodiesOverTheLimitLeaveNothing() throws Exception {
+    send("PUT /big.bin HTTP/1.1\r\n" + HOST + "Transfer-Encoding: chunked\r\n\r\n"
+         + "c350\r\n", random(50000));
+    send("\r\nc351\r\n", new byte[0]);
+    String head = readHead();
+    assertTrue(head, head.startsWith("HTTP/1.1 413 "));
+    assertFalse(new File(folder.getRoot(), "big.bin").exists());
+    assertNoTemporaryFiles();
+  }
+
+  @Test
+  public void endlessTrailersAreRefused() throws Exception {
+    StringBuilder trailer = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      trailer.append("X-Filler-").append(i).append(": 0123456789012345678901234567890123456789012345678901234567890\r\n");
+    }
+    send("PUT /trailed.bin HTTP/1.1\r\n" + HOST + "Transfer-Encoding: chunked\r\n\r\n",
+         ("5\r\nhello\r\n0\r\n" + trailer + "\r\n").getBytes(StandardCharsets.US_ASCII));
+    String head = readHead();
+    assertTrue(head, head.startsWith("HTTP/1.1 400 "));
+    assertFalse(new File(folder.getRoot(), "trailed.bin").exists());
+    assertNoTemporaryFiles();
+  }
+
+  @Test
+  public void truncatedBodiesLeaveNothing() throws Exception {
+    send("PUT /cut.bin HTTP/1.1\r\n" + HOST + "Content-Length: 1000\r\n\r\n", random(500));
+    socket.shutdownOutput();
+    String head = readHead();
+    assertTrue(head, head.startsWith("HTTP/1.1 400 "));
+    assertFalse(new File(folder.getRoot(), "cut.bin").exists());
+    assertNoTemporaryFiles();
+  }
+
+  @Test
+  public void pathsOutOfTheDocRootAreRefused() throws Exception {
+    send("PUT /../escaped.txt HTTP/1.1\r\n" + HOST + "Content-Length: 1\r\n\r\n", new byte[] {'x'});
+    String head = readHead();
+    assertTrue(head, head.startsWith("HTTP/1.1 400 "));
+    assertFalse(new File(folder.getRoot().getParentFile(), "escaped.txt").exists());
+  }
+
+  @Test
+  public void bodiesNeedALength() throws Exception {
+    send("PUT /nolength.txt HTTP/1.1\r\n" + HOST + "\r\n", new byte[0]);
+    String head = readHead();
+    assertTrue(head, head.startsWith("HTTP/1.1 411 "));
+  }
+}
@@ -0,0 +1,47 @@
+package httpserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Checks executor selection, including the fallback when virtual threads are not supported.
+ */
+public class WorkerExecutorsTest {
+
+  @Test
+  public void virtualModeShouldRunTasksOnAnyJvm() throws Exception {
+    ServerConfig config = new ServerConfig();
+    config.setExecutorMode(ExecutorMode.VIRTUAL);
+    ExecutorService executor = WorkerExecutors.create(config);
+    final Thread[] ran = new Thread[1];
+    executor.execute(new Runnable() {
+      public void run() {
+        ran[0] = Thread.currentThread();
+      }
+    });
+    executor.shutdown();
+    assertTrue("should finish", executor.awaitTermination(5, TimeUnit.SECONDS));
+    // Thread.isVirtual() only exists where virtual threads do.
+    boolean virtual = false;
+    if (WorkerExecutors.isVirtualThreadSupported()) {
+      virtual = (Boolean) Thread.class.getMethod("isVirtual").invoke(ran[0]);
+    }
+    assertEquals("virtual when supported", WorkerExecutors.isVirtualThreadSupported(), virtual);
+  }
+
+  @Test
+  public void virtualThreadSupportShouldMatchJvm() throws Exception {
+    boolean hasOfVirtual = true;
+    try {
+      Thread.class.getMethod("ofVirtual");
+    } catch (NoSuchMethodException e) {
+      hasOfVirtual = false;
+    }
+    assertEquals("detection", hasOfVirtual, WorkerExecutors.isVirtualThreadSupported());
+  }
+}